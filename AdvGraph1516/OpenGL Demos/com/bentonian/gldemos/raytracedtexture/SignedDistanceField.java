@@ -1,94 +1,246 @@
 package com.bentonian.gldemos.raytracedtexture;
 
-import static com.bentonian.framework.io.FileUtil.writeImageToPng;
 import static java.lang.Math.floor;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 import static java.lang.Math.sqrt;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.text.DecimalFormat;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import com.bentonian.framework.io.FileUtil;
 import com.bentonian.framework.texture.TexCoord;
+import com.google.common.hash.Hashing;
 
+/**
+ * Signed distance from each pixel of a black and white image to the nearest pixel of the
+ * opposite color, positive in white regions and normalized so the furthest pixel is at +/-1.
+ *
+ * Distances are exact, computed with the separable linear-time Euclidean distance transform
+ * of Felzenszwalb and Huttenlocher: a pass down every column, then along every row, each
+ * spread across all cores.  Results are cached on disk at float precision, keyed by a hash of
+ * the black and white mask.
+ */
 public class SignedDistanceField {
 
+  private static final double FAR = 1e20;
+  private static final int LINES_PER_TASK = 16;
+
   private final double[][] sdf;
   private final String cacheFileName;
 
   public SignedDistanceField(BufferedImage image) {
-    this.cacheFileName = "sdf-cache-" + image.hashCode() + ".png";
-    
-    // Try to use cached heightmap
-    BufferedImage heightMap = (new File(cacheFileName)).exists() 
-        ? FileUtil.loadImageFromFile(cacheFileName) : null;
+    boolean[][] bw = new boolean[image.getWidth()][image.getHeight()];
+    for (int i = 0; i < image.getWidth(); i++) {
+      for (int j = 0; j < image.getHeight(); j++) {
+        bw[i][j] = isWhite(image, i, j);
+      }
+    }
 
+    this.cacheFileName = "sdf-cache-" + hash(bw) + ".bin";
     this.sdf = new double[image.getWidth()][image.getHeight()];
-    if (heightMap != null 
-        && heightMap.getWidth() == image.getWidth() 
-        && heightMap.getHeight() == image.getHeight()) {
-
-      // Retrieve precomputed distance map from heightmap
+    if (readCache()) {
       System.out.println("Using cached SDF");
-      for (int i = 0; i < image.getWidth(); i++) {
-        for (int j = 0; j < image.getHeight(); j++) {
-          sdf[i][j] = ((heightMap.getRGB(i, j) & 0xFF) - 128) / 255.0;
-        }
-      }
     } else {
+      long then = System.currentTimeMillis();
+      System.out.println("Building SDF...");
+      build(bw);
+      System.out.println("...SDF built (" + (System.currentTimeMillis() - then) + "ms)");
+      writeCache();
+    }
+  }
 
-      // Compute distance map
-      double furthest = 0;
-      boolean[][] bw = new boolean[image.getWidth()][image.getHeight()];
+  private void build(boolean[][] bw) {
+    double[][] toWhite = squaredDistanceTo(bw, true);
+    double[][] toBlack = squaredDistanceTo(bw, false);
+    double furthest = 0;
 
-      System.out.println("Building SDF...");
-      for (int i = 0; i < image.getWidth(); i++) {
-        for (int j = 0; j < image.getHeight(); j++) {
-          bw[i][j] = isWhite(image, i, j);
-        }
+    for (int i = 0; i < sdf.length; i++) {
+      for (int j = 0; j < sdf[0].length; j++) {
+        double d = sqrt(bw[i][j] ? toBlack[i][j] : toWhite[i][j]);
+        furthest = max(d, furthest);
+        sdf[i][j] = (bw[i][j] ? 1 : -1) * d;
+      }
+    }
+    for (int i = 0; i < sdf.length; i++) {
+      for (int j = 0; j < sdf[0].length; j++) {
+        sdf[i][j] /= furthest;
+      }
+    }
+  }
+
+  /**
+   * Returns the squared distance from every pixel to the nearest white pixel, or to the
+   * nearest black pixel if white is false.
+   */
+  private static double[][] squaredDistanceTo(boolean[][] bw, boolean white) {
+    int width = bw.length;
+    int height = bw[0].length;
+    double[][] f = new double[width][height];
+
+    for (int i = 0; i < width; i++) {
+      for (int j = 0; j < height; j++) {
+        f[i][j] = (bw[i][j] == white) ? 0 : FAR;
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool();
+    try {
+      pool.invoke(new TransformLines(f, true, 0, width));
+      pool.invoke(new TransformLines(f, false, 0, height));
+    } finally {
+      pool.shutdown();
+    }
+    return f;
+  }
+
+  /**
+   * One-dimensional squared distance transform of f[0..n-1] into d: the lower envelope of the
+   * parabolas rooted at each sample.  v and z are scratch space for the envelope's parabolas
+   * and the boundaries between them.
+   */
+  private static void transform(double[] f, int n, double[] d, int[] v, double[] z) {
+    int k = 0;
+    v[0] = 0;
+    z[0] = Double.NEGATIVE_INFINITY;
+    z[1] = Double.POSITIVE_INFINITY;
+    for (int q = 1; q < n; q++) {
+      double s = intersect(f, q, v[k]);
+      while (s <= z[k]) {
+        k--;
+        s = intersect(f, q, v[k]);
+      }
+      k++;
+      v[k] = q;
+      z[k] = s;
+      z[k + 1] = Double.POSITIVE_INFINITY;
+    }
+
+    k = 0;
+    for (int q = 0; q < n; q++) {
+      while (z[k + 1] < q) {
+        k++;
       }
-      for (int i = 0; i < image.getWidth(); i++) {
-        System.out.println("  " + new DecimalFormat("#.00").format(100.0 * i / (image.getWidth() - 1)) + "%");
-        for (int j = 0; j < image.getHeight(); j++) {
-          boolean isWhite = isWhite(image, i, j);
-          double d = findNearest(bw, i, j, isWhite);
-          furthest = max(d, furthest);
-          sdf[i][j] = (isWhite ? 1 : -1) * d;
+      d[q] = (q - v[k]) * (double) (q - v[k]) + f[v[k]];
+    }
+  }
+
+  private static double intersect(double[] f, int q, int p) {
+    return ((f[q] + q * (double) q) - (f[p] + p * (double) p)) / (2.0 * q - 2.0 * p);
+  }
+
+  /**
+   * Transforms a range of columns (each f[i]) or rows (each f[*][j]) in place, splitting the
+   * range across the pool.
+   */
+  private static class TransformLines extends RecursiveAction {
+
+    private final double[][] f;
+    private final boolean columns;
+    private final int from, to;
+
+    TransformLines(double[][] f, boolean columns, int from, int to) {
+      this.f = f;
+      this.columns = columns;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > LINES_PER_TASK) {
+        int mid = (from + to) / 2;
+        invokeAll(new TransformLines(f, columns, from, mid), new TransformLines(f, columns, mid, to));
+        return;
+      }
+
+      int n = columns ? f[0].length : f.length;
+      double[] line = new double[n];
+      double[] d = new double[n];
+      int[] v = new int[n];
+      double[] z = new double[n + 1];
+      for (int l = from; l < to; l++) {
+        if (columns) {
+          System.arraycopy(f[l], 0, line, 0, n);
+        } else {
+          for (int i = 0; i < n; i++) {
+            line[i] = f[i][l];
+          }
+        }
+        transform(line, n, d, v, z);
+        if (columns) {
+          System.arraycopy(d, 0, f[l], 0, n);
+        } else {
+          for (int i = 0; i < n; i++) {
+            f[i][l] = d[i];
+          }
         }
       }
-      for (int i = 0; i < image.getWidth(); i++) {
-        for (int j = 0; j < image.getHeight(); j++) {
-          sdf[i][j] /= furthest;
+    }
+  }
+
+  private static String hash(boolean[][] bw) {
+    int width = bw.length;
+    int height = bw[0].length;
+    byte[] bits = new byte[8 + (width * height + 7) / 8];
+
+    for (int b = 0; b < 4; b++) {
+      bits[b] = (byte) (width >> (8 * b));
+      bits[4 + b] = (byte) (height >> (8 * b));
+    }
+    for (int i = 0; i < width; i++) {
+      for (int j = 0; j < height; j++) {
+        if (bw[i][j]) {
+          int n = i * height + j;
+          bits[8 + n / 8] |= 1 << (n % 8);
         }
       }
+    }
+    return Hashing.sha1().hashBytes(bits).toString();
+  }
 
-      // Save distance map as heightmap image
-      heightMap = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-      for (int i = 0; i < image.getWidth(); i++) {
-        for (int j = 0; j < image.getHeight(); j++) {
-          int n = ((int) ((sdf[i][j] + 1) * 255 / 2)) & 0xFF;
-          heightMap.setRGB(i, j, n | (n<<8) | (n<<16) | (0xFF<<24));
+  private boolean readCache() {
+    File file = new File(cacheFileName);
+    if (!file.exists()) {
+      return false;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != sdf.length || in.readInt() != sdf[0].length) {
+        return false;
+      }
+      for (int i = 0; i < sdf.length; i++) {
+        for (int j = 0; j < sdf[0].length; j++) {
+          sdf[i][j] = in.readFloat();
         }
       }
-      writeImageToPng(heightMap, cacheFileName);
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return false;
     }
   }
 
-  private double findNearest(boolean[][] bw, int i, int j, boolean isWhite) {
-    double dist = Double.MAX_VALUE;
-    for (int x = 0; x < sdf.length; x++) {
-      for (int y = 0; y < sdf[0].length; y++) {
-        if (isWhite != bw[x][y]) {
-          double d = (x-i)*(x-i)+(y-j)*(y-j);
-          if (d < dist) {
-            dist = d;
-          }
+  private void writeCache() {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(cacheFileName)))) {
+      out.writeInt(sdf.length);
+      out.writeInt(sdf[0].length);
+      for (int i = 0; i < sdf.length; i++) {
+        for (int j = 0; j < sdf[0].length; j++) {
+          out.writeFloat((float) sdf[i][j]);
         }
       }
+    } catch (IOException e) {
+      e.printStackTrace();
     }
-    return sqrt(dist);
   }
 
   public static boolean isWhite(BufferedImage image, int i, int j) {
@@ -20,6 +20,8 @@ import com.bentonian.framework.ui.GLWindowedAppSecondaryFrame;
 
 public class BlobbyDemo extends DemoApp {
 
+  private static final double SIMPLIFICATION_ERROR = 0.02;
+
   private final FunctionFrame functionFrame;
   private final ImplicitSurfaceMesh surface;
   private final Mover red, blue;
@@ -54,6 +56,7 @@ public class BlobbyDemo extends DemoApp {
         .addForce(red.getMetaBall())
         .addForce(blue.getMetaBall());
     this.surface = new ImplicitSurfaceMesh(new Vec3(-8,-8,-8), new Vec3(8,8,8), surfaceFunction)
+        .setParallelism(Runtime.getRuntime().availableProcessors())
         .setTargetLevel(5)
         .refineCompletely();
     setCameraDistance(15);
@@ -90,6 +93,10 @@ public class BlobbyDemo extends DemoApp {
         functionFrame.setVisible(true);
       }
       break;
+    case GLFW.GLFW_KEY_M:
+      surface.setSimplificationError(
+          (surface.getSimplificationError() == 0) ? SIMPLIFICATION_ERROR : 0);
+      break;
     case GLFW.GLFW_KEY_S:
       OctreeEdgeInterpolationData.setSmoothEdgeInterpolation(
           !OctreeEdgeInterpolationData.getSmoothEdgeInterpolation());
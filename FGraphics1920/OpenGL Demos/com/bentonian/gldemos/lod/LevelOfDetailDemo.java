@@ -0,0 +1,99 @@
+package com.bentonian.gldemos.lod;
+
+import org.lwjgl.glfw.GLFW;
+
+import com.bentonian.framework.io.OFFUtil;
+import com.bentonian.framework.material.Colors;
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.M4x4;
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.primitive.MeshPrimitive;
+import com.bentonian.framework.ui.DemoApp;
+
+public class LevelOfDetailDemo extends DemoApp {
+
+  private static final int GRID_SIZE = 12;
+  private static final double SPACING = 1.5;
+  private static final int NUM_LEVELS = 5;
+  private static final double FULL_DETAIL_SIZE = 1;
+
+  private final MeshPrimitive[] models = {
+      createModel("bunny.off", Colors.WHITE),
+      createModel("teapot.off", Colors.ORANGE),
+  };
+
+  private boolean useLevelsOfDetail = true;
+
+  public LevelOfDetailDemo() {
+    super("Level of Detail Demo");
+    setCameraDistance(10);
+  }
+
+  @Override
+  public void onKeyDown(int key) {
+    switch (key) {
+    case GLFW.GLFW_KEY_L:
+      useLevelsOfDetail = !useLevelsOfDetail;
+      for (MeshPrimitive model : models) {
+        // A full detail size of zero never leaves the full mesh
+        model.setFullDetailSize(useLevelsOfDetail ? FULL_DETAIL_SIZE : 0);
+      }
+      break;
+    default:
+      super.onKeyDown(key);
+      break;
+    }
+  }
+
+  @Override
+  protected void draw() {
+    int[] copiesPerLevel = new int[NUM_LEVELS];
+
+    for (int i = 0; i < GRID_SIZE; i++) {
+      for (int j = 0; j < GRID_SIZE; j++) {
+        MeshPrimitive model = models[(i + j) % models.length];
+        push(M4x4.translationMatrix(new Vec3(
+            (i - (GRID_SIZE - 1) / 2.0) * SPACING, 0, (j - (GRID_SIZE - 1) / 2.0) * SPACING)));
+        model.render(this);
+        pop();
+        copiesPerLevel[model.getLevelOfDetail()]++;
+      }
+    }
+    updateTitle(copiesPerLevel);
+  }
+
+  @Override
+  protected String getScreenshotTitle() {
+    return "Level of Detail Demo";
+  }
+
+  ////////////////////////////////////////
+
+  /**
+   * Loads a model, scales it to fit inside a unit sphere and builds its levels of detail.
+   */
+  private static MeshPrimitive createModel(String file, Vec3 color) {
+    MeshPrimitive model = new MeshPrimitive(OFFUtil.parseFile(file).centerAtOrigin());
+    BoundingBox bounds = model.getLocalBounds();
+    model.scale(1 / bounds.getMax().minus(bounds.getCenter()).length());
+    model.setColor(color);
+    model.setFullDetailSize(FULL_DETAIL_SIZE);
+    model.buildLevelsOfDetail(NUM_LEVELS);
+    return model;
+  }
+
+  private void updateTitle(int[] copiesPerLevel) {
+    StringBuilder title = new StringBuilder("Level of Detail Demo - ")
+        .append(useLevelsOfDetail ? "copies per level:" : "levels of detail off");
+    if (useLevelsOfDetail) {
+      for (int copies : copiesPerLevel) {
+        title.append(' ').append(copies);
+      }
+    }
+    setTitle(title.toString());
+  }
+
+  public static void main(String[] args) {
+    new LevelOfDetailDemo().run();
+  }
+}
@@ -2,10 +2,8 @@ package com.bentonian.gldemos.marchingcubes;
 
 import static com.bentonian.framework.ui.ShaderUtil.loadShader;
 
-import java.awt.image.BufferedImage;
 import java.nio.FloatBuffer;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -18,13 +16,12 @@ import org.lwjgl.BufferUtils;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.opengl.GL20;
 
-import com.bentonian.framework.io.FileUtil;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.mesh.primitive.Square;
 import com.bentonian.framework.scene.Camera;
 import com.bentonian.framework.texture.BufferedImageTexture;
-import com.bentonian.framework.ui.BufferedImageRGBCanvas;
 import com.bentonian.framework.ui.DemoApp;
+import com.bentonian.framework.ui.FrameRecorder;
 import com.bentonian.framework.ui.ShaderAutoloader;
 
 public class MarchingCubesDemo extends DemoApp {
@@ -47,8 +44,7 @@ public class MarchingCubesDemo extends DemoApp {
   private int numSeeds = 0;
   private int draggingSeed = -1;
 
-  private boolean record;
-  private List<BufferedImage> frames;
+  private final FrameRecorder recorder = new FrameRecorder(33 * 5 /* 33 fps for five seconds */);
   
   private ShaderAutoloader loader;
 
@@ -57,7 +53,6 @@ public class MarchingCubesDemo extends DemoApp {
     this.square = new Square();
     this.square.setHasTexture(true);
     this.paused = false;
-    this.record = false;
     this.elapsed = 0;
     this.lastTick = System.currentTimeMillis();
 
@@ -235,22 +230,14 @@ public class MarchingCubesDemo extends DemoApp {
   }
   
   private float getIGlobalTime() {
-    return record 
-        ? (frames.size() / 33.0f)
+    return recorder.isRecording()
+        ? (recorder.getNumFramesRecorded() / 33.0f)
         : (elapsed / 1000.0f);
   }
   
   @Override
   public void postDraw() {
-    if (record) {
-      frames.add(BufferedImageRGBCanvas.copyOpenGlContextToImage(width, height, width, height));      
-      if (frames.size() >= 33 * 5 /* 33 fps for five seconds */) {
-        String filename = FileSystemView.getFileSystemView().getHomeDirectory() + "\\ImplicitSurfaceFinder";
-        FileUtil.writeGif(frames, filename);
-        record = false;
-        System.out.println("Recording stopped");
-      }
-    }
+    recorder.captureFrame(width, height);
     super.postDraw();
   }
 
@@ -333,12 +320,11 @@ public class MarchingCubesDemo extends DemoApp {
     switch (key) {
     case GLFW.GLFW_KEY_R:
       if (isControlDown()) {
-        record = !record;
-        if (record) {
-          System.out.println("Recording started");
-          frames = new ArrayList<>();
+        if (recorder.isRecording()) {
+          recorder.stop();
         } else {
-          System.out.println("Recording stopped");
+          recorder.start(FileSystemView.getFileSystemView().getHomeDirectory()
+              + "\\ImplicitSurfaceFinder");
         }
       }
       break;
@@ -9,6 +9,7 @@ import org.lwjgl.opengl.GL11;
 import org.lwjgl.opengl.GL20;
 
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.math.Vec3Array;
 import com.bentonian.framework.mesh.primitive.Cube;
 import com.bentonian.framework.mesh.primitive.PointPrimitive;
 import com.bentonian.framework.scene.ControlWidget;
@@ -24,7 +25,7 @@ public class ParticlesDemo extends DemoApp {
   
   private final ShaderAutoloader loader;
   private final Vertex particles[] = new Vertex[NUM_PARTICLES];
-  private final Vec3 velocities[] = new Vec3[NUM_PARTICLES];
+  private final Vec3Array velocities = new Vec3Array(NUM_PARTICLES);
   private final Random rand = new Random();
   private final PointPrimitive pointset;
   private final Cube floor;
@@ -56,7 +57,7 @@ public class ParticlesDemo extends DemoApp {
     registerMouseHandler(ball);
     
     for (int i = 0; i < NUM_PARTICLES; i++) {
-      velocities[i] = newdir();
+      velocities.set(i, newdir());
       particles[i] = pointset.vertex(new Vec3(0));
       particles[i].setNormal(new Vec3(1));
     }
@@ -82,62 +83,63 @@ public class ParticlesDemo extends DemoApp {
     double dt = (now - lastFrameStartMillis) / 1000.0;
     Vec3 ballCenter = ball.getPosition();
     Vec3 op = new Vec3();
+    Vec3 toBall = new Vec3();
 
-    pointset.dispose();
+    pointset.invalidate();
     for (int i = 0; i < NUM_PARTICLES; i++) {
       Vertex p = particles[i];
-      Vec3 v = velocities[i];
       Vec3 n = p.getNormal();
       op.set(p);
 
-      fall(v, dt);
-      move(p, v, dt);
+      fall(i, dt);
+      move(p, i, dt);
       if (p.getY() < 0) {
         if (op.getY() > 0) {
           double t = op.getY() / (op.getY() - p.getY());
-          p.set(op.getX() + t * v.getX(), 0, op.getZ() + t * v.getZ());
-          v.set(new Vec3(v.getX(), Math.abs(v.getY()), v.getZ()).times(0.5));
+          p.set(op.getX() + t * velocities.x[i], 0, op.getZ() + t * velocities.z[i]);
+          velocities.y[i] = Math.abs(velocities.y[i]);
+          velocities.scale(i, 0.5);
         } else {
-          reset(p, v);
+          reset(p, i);
         }
       }
-      if (ballCenter.minus(p).length() < BALL_RADIUS) {
-        if (ballCenter.minus(op).length() > BALL_RADIUS) {
-          Vec3 dirNorm = op.minus(ballCenter).normalized();
-          Vec3 vNorm = v.normalized();
-          Vec3 nVDotN = dirNorm.times(dirNorm.dot(vNorm));
-          Vec3 reflection = vNorm.minus(nVDotN.times(2)).normalized();
-          v.set(reflection.times(v.length()));
+      if (ballCenter.subtractInto(p, toBall).length() < BALL_RADIUS) {
+        if (op.subtractInto(ballCenter, toBall).length() > BALL_RADIUS) {
+          // Reflect the velocity in the sphere's surface: v - 2 (v . n) n
+          toBall.normalizeInto(toBall);
+          double vDotN = velocities.x[i] * toBall.getX()
+              + velocities.y[i] * toBall.getY() + velocities.z[i] * toBall.getZ();
+          velocities.set(i,
+              velocities.x[i] - 2 * vDotN * toBall.getX(),
+              velocities.y[i] - 2 * vDotN * toBall.getY(),
+              velocities.z[i] - 2 * vDotN * toBall.getZ());
         }
       }
 
       n.setX(n.getX() - 0.02);
       if (n.getX() < 0) {
-        reset(p, v);
+        reset(p, i);
       }
     }
 
     super.preDraw();
   }
   
-  private void reset(Vertex p, Vec3 v) {
-    v.set(newdir());
+  private void reset(Vertex p, int i) {
+    velocities.set(i, newdir());
     p.set(0);
     p.getNormal().set(0.5 + rand.nextFloat());
   }
   
-  private void fall(Vec3 v, double dt) {
-    v.set(
-        v.getX(), 
-        v.getY() - dt * 9.8, 
-        v.getZ());
+  private void fall(int i, double dt) {
+    velocities.y[i] -= dt * 9.8;
   }
   
-  private void move(Vec3 p, Vec3 v, double dt) {
+  private void move(Vec3 p, int i, double dt) {
     p.set(
-        p.getX() + dt * v.getX(), 
-        p.getY() + dt * v.getY(), 
-        p.getZ() + dt * v.getZ());    
+        p.getX() + dt * velocities.x[i], 
+        p.getY() + dt * velocities.y[i], 
+        p.getZ() + dt * velocities.z[i]);    
   }
   
   private Vec3 newdir() {
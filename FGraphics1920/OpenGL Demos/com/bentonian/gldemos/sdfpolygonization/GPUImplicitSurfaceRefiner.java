@@ -52,7 +52,8 @@ public class GPUImplicitSurfaceRefiner extends ImplicitSurfaceRefiner {
   public GPUImplicitSurfaceRefiner(GLCanvas gl) {
     super(MIN, MAX, null /* force function */);
     
-    this.forceFunction = new ForceFunction() {
+    // Every sample is read back from the GPU into the cache, so it must never evict
+    this.forceFunction = new ForceFunction(Integer.MAX_VALUE) {
       @Override
       public double getCutoff() {
         return 0.0;
@@ -75,6 +76,7 @@ public class GPUImplicitSurfaceRefiner extends ImplicitSurfaceRefiner {
         return ImmutableSet.of(new Vec3(0));
       }
     };
+    setCacheLattice();
 
     this.gl = gl;
     this.evalCanvas = new Square().setTexture(new BufferedImageTexture(SDFPolygonizationDemo.class, "background.jpg"));
@@ -2,22 +2,17 @@ package com.bentonian.gldemos.sdfrender;
 
 import static com.bentonian.framework.ui.ShaderUtil.loadShader;
 
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import java.util.List;
-
 import javax.swing.filechooser.FileSystemView;
 
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.opengl.GL20;
 
-import com.bentonian.framework.io.FileUtil;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.mesh.primitive.Square;
 import com.bentonian.framework.scene.Camera;
 import com.bentonian.framework.texture.BufferedImageTexture;
-import com.bentonian.framework.ui.BufferedImageRGBCanvas;
 import com.bentonian.framework.ui.DemoApp;
+import com.bentonian.framework.ui.FrameRecorder;
 import com.bentonian.framework.ui.ShaderAutoloader;
 
 public class SDFRenderDemo extends DemoApp {
@@ -45,8 +40,7 @@ public class SDFRenderDemo extends DemoApp {
   private long elapsed, lastTick;
   private boolean paused;
   
-  private boolean record;
-  private List<BufferedImage> frames;
+  private final FrameRecorder recorder = new FrameRecorder(33 * 5 /* 33 fps for five seconds */);
   
   private ShaderAutoloader loader;
 
@@ -56,7 +50,6 @@ public class SDFRenderDemo extends DemoApp {
     this.square.setHasTexture(true);
     this.currentShader = 0;
     this.paused = false;
-    this.record = false;
     this.elapsed = 0;
     this.lastTick = System.currentTimeMillis();
 
@@ -108,22 +101,14 @@ public class SDFRenderDemo extends DemoApp {
   }
   
   private float getIGlobalTime() {
-    return record 
-        ? (frames.size() / 33.0f)
+    return recorder.isRecording()
+        ? (recorder.getNumFramesRecorded() / 33.0f)
         : (elapsed / 1000.0f);
   }
   
   @Override
   public void postDraw() {
-    if (record) {
-      frames.add(BufferedImageRGBCanvas.copyOpenGlContextToImage(width, height, width, height));      
-      if (frames.size() >= 33 * 5 /* 33 fps for five seconds */) {
-        String filename = FileSystemView.getFileSystemView().getHomeDirectory() + "\\" + SHADERS[currentShader].replace(".fsh",  "");
-        FileUtil.writeGif(frames, filename);
-        record = false;
-        System.out.println("Recording stopped");
-      }
-    }
+    recorder.captureFrame(width, height);
     super.postDraw();
   }
 
@@ -142,12 +127,11 @@ public class SDFRenderDemo extends DemoApp {
     switch (key) {
     case GLFW.GLFW_KEY_R:
       if (isControlDown()) {
-        record = !record;
-        if (record) {
-          System.out.println("Recording started");
-          frames = new ArrayList<>();
+        if (recorder.isRecording()) {
+          recorder.stop();
         } else {
-          System.out.println("Recording stopped");
+          recorder.start(FileSystemView.getFileSystemView().getHomeDirectory() + "\\"
+              + SHADERS[currentShader].replace(".fsh",  ""));
         }
       } else {
         showRenderDepth = !showRenderDepth;
@@ -13,18 +13,25 @@ import com.bentonian.framework.animation.AnimatedMeshPrimitive;
 import com.bentonian.framework.animation.AnimatingSubdivisionFunctionFactory;
 import com.bentonian.framework.io.OFFUtil;
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
 import com.bentonian.framework.mesh.Mesh;
 import com.bentonian.framework.mesh.MeshUtil;
 import com.bentonian.framework.mesh.primitive.MeshPrimitive;
+import com.bentonian.framework.mesh.primitive.MeshPrimitive.RenderStyle;
 import com.bentonian.framework.mesh.primitive.MeshPrimitiveFeatureAccelerator;
+import com.bentonian.framework.mesh.subdivision.CatmullClark;
+import com.bentonian.framework.mesh.subdivision.DooSabin;
+import com.bentonian.framework.mesh.subdivision.Loop;
 import com.bentonian.framework.mesh.subdivision.SubdivisionFunction;
 import com.bentonian.framework.ui.DemoApp;
 
 public class SubdivisionDemo extends DemoApp {
   
   private static final int NUM_FUNCTIONS = 3;
+  private static final double LIMIT_SURFACE_PIXEL_TOLERANCE = 0.5;
 
   private static final String[] FN_NAMES = { "Loop", "Doo-Sabin", "Catmull-Clark" };
+  private static final SubdivisionFunction[] FUNCTIONS = { new Loop(), new DooSabin(), new CatmullClark() };
   private static final String[] GEOMETRY_NAMES = { "Cube", "Tetrahedron", "Dodecahedron", "Box Cube", "Plus", "Cow" };
   private static final Mesh[] GEOMETRY = { 
     OFFUtil.parseFile("off/cube.off").centerAtOrigin(),
@@ -44,6 +51,9 @@ public class SubdivisionDemo extends DemoApp {
   private boolean showEdges = true;
   private boolean showNormals = false;
   private AnimatedMeshPrimitive currentAnimation = null;
+  private boolean showLimitSurface = false;
+  private MeshPrimitive limitSurface = null;
+  private MeshPrimitive limitSurfaceSource = null;
 
   protected SubdivisionDemo() {
     super("Subdivision Demo");
@@ -110,10 +120,14 @@ public class SubdivisionDemo extends DemoApp {
       showNormals = !showNormals;
       updateFeatures();
       break;
+    case GLFW.GLFW_KEY_L:
+      showLimitSurface = !showLimitSurface;
+      break;
     default:
       super.onKeyDown(key);
       break;
     }
+    updateLimitSurface();
     updateTitle();
   }
 
@@ -121,6 +135,8 @@ public class SubdivisionDemo extends DemoApp {
   public void draw() {
     if (currentAnimation != null && currentAnimation.isAnimating()) {
       currentAnimation.render(this);
+    } else if (limitSurface != null) {
+      limitSurface.render(this);
     } else {
       levels.get(coord).get(index).render(this);
     }
@@ -137,7 +153,14 @@ public class SubdivisionDemo extends DemoApp {
     case "Catmull-Clark" : fn = AnimatingSubdivisionFunctionFactory.buildCatmullClark(animation); break;
     }
     
-    Mesh nextLevel = fn.apply(levels.get(coord).get(index).getMesh());
+    Mesh currentLevel = levels.get(coord).get(index).getMesh();
+    Mesh nextLevel;
+    if (GEOMETRY_NAMES[coord.geom].equals("Cow")) {
+      // Not animated, so subdivide on the compact arrays
+      nextLevel = FUNCTIONS[coord.fn].apply(HalfEdgeMesh.fromMesh(currentLevel)).toMesh();
+    } else {
+      nextLevel = fn.apply(currentLevel);
+    }
     MeshPrimitive nextLevelPrimitive = new MeshPrimitive(nextLevel);
     nextLevelPrimitive.getFeaturesAccelerator().setShowEdges(showEdges);
     nextLevelPrimitive.getFeaturesAccelerator().setShowNormals(showNormals);
@@ -156,7 +179,34 @@ public class SubdivisionDemo extends DemoApp {
   private void updateTitle() {
     setTitle("Subdivision Demo - " + GEOMETRY_NAMES[coord.geom] 
         + " - " + FN_NAMES[coord.fn] + ", level " + index
-        + " (" + levels.get(coord).get(index).getMesh().size() + " faces)");
+        + " (" + levels.get(coord).get(index).getMesh().size() + " faces)"
+        + ((limitSurface == null) ? ""
+            : ", limit surface (" + limitSurface.getMesh().size() + " triangles)"));
+  }
+
+  /**
+   * Tessellates the limit surface of the current level for the current view, when it's shown
+   * and the level has changed, for schemes which can evaluate their limit surface.  If the
+   * surface can't be built, it's switched off rather than taking the demo down.
+   */
+  private void updateLimitSurface() {
+    MeshPrimitive level = levels.get(coord).get(index);
+    if (!showLimitSurface || !FUNCTIONS[coord.fn].hasLimitSurface()) {
+      limitSurface = null;
+    } else if (limitSurface == null || limitSurfaceSource != level) {
+      try {
+        HalfEdgeMesh controlMesh = HalfEdgeMesh.fromMesh(level.getMesh());
+        limitSurface = new MeshPrimitive(FUNCTIONS[coord.fn].getLimitSurface(controlMesh)
+            .tessellate(getCamera(), getHeight(), LIMIT_SURFACE_PIXEL_TOLERANCE));
+        limitSurface.setRenderStyle(RenderStyle.NORMALS_BY_VERTEX);
+        limitSurface.getFeaturesAccelerator().setShowEdges(showEdges, BLUE);
+        limitSurfaceSource = level;
+      } catch (RuntimeException e) {
+        e.printStackTrace();
+        showLimitSurface = false;
+        limitSurface = null;
+      }
+    }
   }
   
   private void updateFeatures() {
@@ -173,6 +223,9 @@ public class SubdivisionDemo extends DemoApp {
         }
       }
     }
+    if (limitSurface != null) {
+      limitSurface.getFeaturesAccelerator().setShowEdges(showEdges, BLUE);
+    }
   }
 
   /////////////////////////////////////////////////////////////////////////////
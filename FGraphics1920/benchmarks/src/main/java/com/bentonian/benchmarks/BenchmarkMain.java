@@ -0,0 +1,26 @@
+package com.bentonian.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks headless with allocation profiling enabled.  Accepts the usual JMH
+ * command line, so e.g. "java -jar benchmarks.jar RayTracer -p packetTracing=true" runs a
+ * subset.
+ */
+public class BenchmarkMain {
+
+  public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+    Options options = new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .jvmArgsAppend("-Djava.awt.headless=true")
+        .build();
+    new Runner(options).run();
+  }
+}
@@ -0,0 +1,34 @@
+package com.bentonian.benchmarks;
+
+import java.io.File;
+
+import com.bentonian.framework.io.FileUtil;
+import com.bentonian.framework.io.OFFUtil;
+import com.bentonian.framework.mesh.Mesh;
+import com.google.common.base.Joiner;
+
+/**
+ * Locates the OFF models shipped with the OpenGL Demos project.  Benchmarks are usually run
+ * from this directory, so the default is the sibling project; override with -Dmodels.dir.
+ */
+public class BenchmarkModels {
+
+  private static final String MODELS_DIR = System.getProperty("models.dir", "../OpenGL Demos");
+
+  public static String getPath(String filename) {
+    File file = new File(MODELS_DIR, filename);
+    if (!file.exists()) {
+      throw new IllegalArgumentException("Can't find " + file.getAbsolutePath()
+          + "; set -Dmodels.dir to the directory holding the .off models");
+    }
+    return file.getPath();
+  }
+
+  public static String readText(String filename) {
+    return Joiner.on("").join(FileUtil.readFile(getPath(filename)));
+  }
+
+  public static Mesh load(String filename) {
+    return OFFUtil.parse(readText(filename));
+  }
+}
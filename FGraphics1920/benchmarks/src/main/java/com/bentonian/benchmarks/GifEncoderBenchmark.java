@@ -0,0 +1,104 @@
+package com.bentonian.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.bentonian.framework.io.AnimatedGifEncoder;
+import com.bentonian.framework.io.PipelinedGifEncoder;
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.primitive.Sphere;
+import com.bentonian.framework.mesh.primitive.Plane;
+import com.bentonian.framework.raytrace.engine.RayTracerEngine;
+import com.bentonian.framework.raytrace.engine.Scene;
+import com.bentonian.framework.scene.Camera;
+import com.bentonian.framework.ui.BufferedImageRGBCanvas;
+
+/**
+ * Encoding frames into an animated GIF.  The frames are ray traced once up front, and the
+ * encoded bytes are discarded so only quantization and LZW compression are timed.  Each
+ * operation encodes the whole animation, so the pipelined encoder's workers are included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GifEncoderBenchmark {
+
+  private static final int NUM_FRAMES = 8;
+
+  public enum Encoder { ANIMATED, PIPELINED, PIPELINED_GLOBAL_PALETTE }
+
+  private static final OutputStream DISCARD = new OutputStream() {
+    @Override
+    public void write(int b) { }
+
+    @Override
+    public void write(byte[] b, int off, int len) { }
+  };
+
+  @Param({ "320" })
+  public int width;
+
+  @Param({ "10" })
+  public int quality;
+
+  @Param
+  public Encoder encoder;
+
+  @Param({ "4" })
+  public int numThreads;
+
+  private BufferedImage[] frames;
+
+  @Setup
+  public void renderFrames() {
+    Scene scene = new Scene();
+    scene.add(new Plane().translate(new Vec3(0, -1.2, 0)));
+    scene.addLight(new Vec3(5, 5, 5));
+
+    frames = new BufferedImage[NUM_FRAMES];
+    for (int i = 0; i < NUM_FRAMES; i++) {
+      Sphere sphere = new Sphere();
+      double theta = i * 2 * Math.PI / NUM_FRAMES;
+      sphere.translate(new Vec3(Math.cos(theta), 0, -3 + Math.sin(theta)));
+      scene.add(sphere);
+      BufferedImageRGBCanvas canvas = new BufferedImageRGBCanvas(width, width * 3 / 4);
+      new RayTracerEngine(scene, canvas, new Camera()).renderToCanvas();
+      scene.remove(sphere);
+      frames[i] = canvas;
+    }
+  }
+
+  @Benchmark
+  public void encode() throws IOException {
+    if (encoder == Encoder.ANIMATED) {
+      AnimatedGifEncoder gifEncoder = new AnimatedGifEncoder();
+      gifEncoder.setQuality(quality);
+      gifEncoder.setRepeat(0);
+      gifEncoder.start(DISCARD);
+      for (BufferedImage frame : frames) {
+        gifEncoder.addFrame(frame);
+      }
+      gifEncoder.finish();
+    } else {
+      try (PipelinedGifEncoder gifEncoder = new PipelinedGifEncoder(DISCARD, numThreads)) {
+        gifEncoder.setQuality(quality)
+            .setRepeat(0)
+            .setGlobalPalette(encoder == Encoder.PIPELINED_GLOBAL_PALETTE);
+        for (BufferedImage frame : frames) {
+          gifEncoder.addFrame(frame);
+        }
+      }
+    }
+  }
+}
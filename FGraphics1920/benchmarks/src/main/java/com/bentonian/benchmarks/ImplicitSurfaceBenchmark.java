@@ -0,0 +1,53 @@
+package com.bentonian.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.bentonian.framework.material.Colors;
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.implicits.ForceFunction;
+import com.bentonian.framework.mesh.implicits.ImplicitSurfaceRefiner;
+import com.bentonian.framework.mesh.implicits.MetaBall;
+
+/**
+ * Full octree refinement of a metaball scene, from an empty cache each time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ImplicitSurfaceBenchmark {
+
+  @Param({ "3", "4", "5", "6" })
+  public int targetLevel;
+
+  @Param({ "1", "0" })
+  public int parallelism;
+
+  private ImplicitSurfaceRefiner refiner;
+
+  @Setup
+  public void setup() {
+    ForceFunction metaballs = new ForceFunction()
+        .addForce(new MetaBall(-0.75, 0, 0, 1.0, Colors.RED))
+        .addForce(new MetaBall(0.75, 0, 0, 1.0, Colors.BLUE))
+        .addForce(new MetaBall(0, 0.75, 0.5, 0.75, Colors.GREEN))
+        .addForce(new MetaBall(0, -0.6, -0.5, 0.5, Colors.ORANGE));
+    refiner = new ImplicitSurfaceRefiner(new Vec3(-3, -3, -3), new Vec3(3, 3, 3), metaballs);
+    refiner.setTargetLevel(targetLevel);
+    refiner.setParallelism((parallelism > 0)
+        ? parallelism : Runtime.getRuntime().availableProcessors());
+  }
+
+  @Benchmark
+  public ImplicitSurfaceRefiner refineCompletely() {
+    return refiner.reset().refineCompletely();
+  }
+}
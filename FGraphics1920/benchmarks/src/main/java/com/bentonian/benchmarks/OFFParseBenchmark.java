@@ -0,0 +1,51 @@
+package com.bentonian.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.bentonian.framework.io.OFFUtil;
+import com.bentonian.framework.mesh.IndexedMesh;
+import com.bentonian.framework.mesh.Mesh;
+
+/**
+ * Parsing OFF text into a Mesh, or into an IndexedMesh without the linked structure.  The
+ * file is read once up front so only the parse and the normal computation are timed, not
+ * the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OFFParseBenchmark {
+
+  @Param({ "bunny.off", "cow.off", "teapot.off" })
+  public String model;
+
+  private String data;
+  private ByteBuffer bytes;
+
+  @Setup
+  public void setup() {
+    data = BenchmarkModels.readText(model);
+    bytes = ByteBuffer.wrap(data.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  @Benchmark
+  public Mesh parse() {
+    return OFFUtil.parse(data);
+  }
+
+  @Benchmark
+  public IndexedMesh parseIndexed() {
+    return OFFUtil.parseIndexed(bytes.duplicate());
+  }
+}
@@ -0,0 +1,103 @@
+package com.bentonian.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.bentonian.framework.material.Colors;
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.primitive.Cube;
+import com.bentonian.framework.mesh.primitive.MeshPrimitive;
+import com.bentonian.framework.mesh.primitive.Plane;
+import com.bentonian.framework.mesh.primitive.Sphere;
+import com.bentonian.framework.mesh.primitive.Torus;
+import com.bentonian.framework.raytrace.csg.prefab.CarvedSphere;
+import com.bentonian.framework.raytrace.csg.prefab.HollowSphereCube;
+import com.bentonian.framework.raytrace.engine.RayTracerEngine;
+import com.bentonian.framework.raytrace.engine.Scene;
+import com.bentonian.framework.scene.Camera;
+import com.bentonian.framework.ui.BufferedImageRGBCanvas;
+
+/**
+ * Ray traces each scene into an offscreen canvas at a fixed resolution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RayTracerBenchmark {
+
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+
+  public enum DemoScene {
+    PRIMITIVES {
+      @Override
+      void populate(Scene scene) {
+        scene.add(new Sphere().setReflectivity(0.5).translate(new Vec3(0, 0, -3)));
+        scene.add(new Cube().setColor(Colors.RED).scale(0.5).translate(new Vec3(1.5, 0, -4)));
+        scene.add(new Torus().setColor(Colors.BLUE).translate(new Vec3(-1.5, 0, -5)));
+        scene.add(new Plane().translate(new Vec3(0, -1.2, 0)));
+      }
+    },
+    CSG {
+      @Override
+      void populate(Scene scene) {
+        scene.add(new CarvedSphere().translate(new Vec3(-1, 0, -4)));
+        scene.add(new HollowSphereCube().translate(new Vec3(1, 0, -4)));
+        scene.add(new Plane().translate(new Vec3(0, -1.2, 0)));
+      }
+    },
+    BUNNY {
+      @Override
+      void populate(Scene scene) {
+        MeshPrimitive bunny = new MeshPrimitive(BenchmarkModels.load("bunny.off"));
+        bunny.enableRayTracingAccelerator();
+        scene.add(bunny.setColor(Colors.GREEN).scale(2).translate(new Vec3(0, -0.5, -3)));
+        scene.add(new Plane().translate(new Vec3(0, -1.2, 0)));
+      }
+    };
+
+    abstract void populate(Scene scene);
+  }
+
+  @Param
+  public DemoScene demoScene;
+
+  @Param({ "1", "2" })
+  public int supersampling;
+
+  @Param({ "1", "0" })
+  public int parallelism;
+
+  @Param({ "false", "true" })
+  public boolean packetTracing;
+
+  private RayTracerEngine engine;
+
+  @Setup
+  public void setup() {
+    Scene scene = new Scene();
+    demoScene.populate(scene);
+    scene.addLight(new Vec3(5, 5, 5));
+    scene.addLight(new Vec3(-5, 10, 0));
+
+    engine = new RayTracerEngine(scene, new BufferedImageRGBCanvas(WIDTH, HEIGHT), new Camera());
+    engine.setSupersamplingMultiple(supersampling);
+    engine.setParallelism((parallelism > 0)
+        ? parallelism : Runtime.getRuntime().availableProcessors());
+    engine.setPacketTracing(packetTracing);
+  }
+
+  @Benchmark
+  public RayTracerEngine render() {
+    engine.renderToCanvas();
+    return engine;
+  }
+}
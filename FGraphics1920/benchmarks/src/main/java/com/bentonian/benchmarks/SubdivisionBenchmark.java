@@ -0,0 +1,71 @@
+package com.bentonian.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+import com.bentonian.framework.mesh.Mesh;
+import com.bentonian.framework.mesh.subdivision.CatmullClark;
+import com.bentonian.framework.mesh.subdivision.DooSabin;
+import com.bentonian.framework.mesh.subdivision.Loop;
+import com.bentonian.framework.mesh.subdivision.SubdivisionFunction;
+
+/**
+ * Each subdivision scheme applied to the demo models, one level on the linked Mesh and on the
+ * array-backed HalfEdgeMesh, and three levels on the HalfEdgeMesh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SubdivisionBenchmark {
+
+  public enum Scheme {
+    LOOP(new Loop()),
+    CATMULL_CLARK(new CatmullClark()),
+    DOO_SABIN(new DooSabin());
+
+    private final SubdivisionFunction function;
+
+    private Scheme(SubdivisionFunction function) {
+      this.function = function;
+    }
+  }
+
+  @Param({ "bunny.off", "cow.off" })
+  public String model;
+
+  @Param
+  public Scheme scheme;
+
+  private Mesh mesh;
+  private HalfEdgeMesh halfEdgeMesh;
+
+  @Setup
+  public void setup() {
+    mesh = BenchmarkModels.load(model);
+    halfEdgeMesh = HalfEdgeMesh.fromMesh(mesh);
+  }
+
+  @Benchmark
+  public Mesh subdivide() {
+    return scheme.function.apply(mesh);
+  }
+
+  @Benchmark
+  public HalfEdgeMesh subdivideHalfEdgeMesh() {
+    return scheme.function.apply(halfEdgeMesh);
+  }
+
+  @Benchmark
+  public HalfEdgeMesh subdivideHalfEdgeMeshThreeLevels() {
+    return scheme.function.apply(halfEdgeMesh, 3);
+  }
+}
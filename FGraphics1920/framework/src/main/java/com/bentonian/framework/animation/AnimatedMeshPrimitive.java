@@ -75,7 +75,7 @@ public class AnimatedMeshPrimitive extends MeshPrimitive {
       interpolant.vertex.set(interpolant.interpolate(t));
     }
     getMesh().computeAllNormals();
-    dispose();
+    invalidate();
   }
 
   private static class Interpolation {
@@ -10,8 +10,15 @@ import java.util.List;
  * Saves stacks in AVI format. It is based on the FileAvi class written by
  * William Gandler. The FileAvi class is part of Matthew J. McAuliffe's MIPAV
  * program, available from http://mipav.cit.nih.gov/.
+ *
+ * Frames are written to disk as they're added; the headers are written with the first frame
+ * and their sizes and frame counts patched, and the index appended, on close.  All frames
+ * must be the same size.
  */
-public class AVIEncoder {
+public class AVIEncoder implements FrameSink {
+
+  private static final int IDX1_ENTRIES_PER_WRITE = 1024;
+
   private RandomAccessFile raFile;
   private int bytesPerPixel;
 
@@ -22,8 +29,69 @@ public class AVIEncoder {
   private byte[]      bufferWrite;
   private int         fps = 33;
 
-  public void write(String filepath, List<BufferedImage> frames) throws IOException{
-    long saveFileSize; // location of file size in bytes not counting first 8 bytes
+  private long saveFileSize; // location of file size in bytes not counting first 8 bytes
+  private long saveTotalFrames; // location of dwTotalFrames in the avih sub-CHUNK
+  private long saveLength; // location of dwLength in the strh sub-CHUNK
+  private long saveLIST2Size; // location of length of the second LIST CHUNK
+  private long savemovi; // location of the 'movi' CHUNK type
+  private byte[] dataSignature;
+
+  public void write(String filepath, List<BufferedImage> frames) throws IOException {
+    start(filepath);
+    for (BufferedImage frame : frames) {
+      addFrame(frame);
+    }
+    close();
+  }
+
+  public void setFrameRate(int fps) {
+    this.fps = fps;
+  }
+
+  /**
+   * Opens the file for writing.  Nothing is written until the first frame is added.
+   */
+  public AVIEncoder start(String filepath) throws IOException {
+    file = new File(filepath);
+    raFile = new RandomAccessFile(file, "rw");
+    raFile.setLength(0);
+    zDim = 0;
+    return this;
+  }
+
+  @Override
+  public void addFrame(BufferedImage frame) throws IOException {
+    if (raFile == null) {
+      throw new IllegalStateException("AVIEncoder.start() must be called before adding frames");
+    }
+    if (zDim == 0) {
+      writeHeader(frame.getWidth(), frame.getHeight());
+    } else if (frame.getWidth() != xDim - xPad || frame.getHeight() != yDim) {
+      throw new IllegalArgumentException("Frame is " + frame.getWidth() + "x" + frame.getHeight()
+          + " but the movie is " + (xDim - xPad) + "x" + yDim);
+    }
+    raFile.write(dataSignature);
+    writeInt(bytesPerPixel*xDim*yDim); // Write the data length
+    writeRGBFrame(frame);
+    zDim++;
+  }
+
+  /**
+   * Writes the index and patches the headers with the final frame count and sizes.
+   */
+  @Override
+  public void close() throws IOException {
+    if (raFile == null) {
+      return;
+    }
+    if (zDim > 0) {
+      writeTrailer();
+    }
+    raFile.close();
+    raFile = null;
+  }
+
+  private void writeHeader(int width, int height) throws IOException {
     long saveLIST1Size; // location of length of CHUNK with first LIST - not including
                         // first 8 bytes with LIST and size.  JUNK follows the end of
                         // this CHUNK
@@ -40,20 +108,10 @@ public class AVIEncoder {
     long saveJUNKsignature;
     int paddingBytes;
     int i;
-    long saveLIST2Size;
-    byte[] dataSignature;
-    long savedbLength[];
-    long idx1Pos;
-    long endPos;
-    long saveidx1Length;
-    long savemovi;
     int xMod;
 
     bytesPerPixel = 3;
 
-    file = new File(filepath);
-    raFile = new RandomAccessFile(file, "rw");
-
     writeString("RIFF"); // signature
     saveFileSize = raFile.getFilePointer();
     // Bytes 4 thru 7 contain the length of the file.  This length does
@@ -97,9 +155,8 @@ public class AVIEncoder {
                     //   permit the data to be duplicated.
 
    tDim = 1;
-   zDim = frames.size();
-   yDim = frames.get(0).getHeight();
-   xDim = frames.get(0).getWidth();
+   yDim = height;
+   xDim = width;
    xPad = 0;
    xMod = xDim%4;
    if (xMod != 0) {
@@ -107,7 +164,8 @@ public class AVIEncoder {
        xDim = xDim + xPad;
    }
 
-   writeInt(zDim*tDim); // dwTotalFrames - total frame number
+   saveTotalFrames = raFile.getFilePointer();
+   writeInt(0); // dwTotalFrames - total frame number, patched on close
    writeInt(0); // dwInitialFrames -Initial frame for interleaved files.
                           // Noninterleaved files should specify 0.
    writeInt(1); // dwStreams - number of streams in the file - here 1 video and zero audio.
@@ -156,8 +214,9 @@ public class AVIEncoder {
    writeInt(1); // dwScale
    writeInt(fps); //  dwRate - frame rate for video streams
    writeInt(0); // dwStart - this field is usually set to zero
-   writeInt(tDim*zDim); // dwLength - playing time of AVI file as defined by scale and rate
-                                  // Set equal to the number of frames
+   saveLength = raFile.getFilePointer();
+   writeInt(0); // dwLength - playing time of AVI file as defined by scale and rate
+                                  // Set equal to the number of frames, patched on close
    writeInt(0); // dwSuggestedBufferSize - Suggested buffer size for reading the stream.
                                  // Typically, this contains a value corresponding to the largest chunk
                                  // in a stream.
@@ -263,7 +322,6 @@ public class AVIEncoder {
     writeInt(0);  // For now write 0
     savemovi = raFile.getFilePointer();
     writeString("movi"); // Write CHUNK type 'movi'
-    savedbLength = new long[tDim*zDim];
 
     dataSignature = new byte[4];
     dataSignature[0] = 48; // 0
@@ -275,13 +333,13 @@ public class AVIEncoder {
     // of blue, green, and red, respectively, for a pixel.  The color bytes are in reverse order
     // from the Windows convention.
     bufferWrite = new byte[bytesPerPixel*xDim*yDim];
+  }
 
-    for (int z = 0; z < zDim; z++) {
-      raFile.write(dataSignature);
-      savedbLength[z] = raFile.getFilePointer();
-      writeInt(bytesPerPixel*xDim*yDim); // Write the data length
-      writeRGBFrame(frames.get(z));
-    }
+  private void writeTrailer() throws IOException {
+    long idx1Pos;
+    long endPos;
+    long saveidx1Length;
+    int frameBytes = bytesPerPixel*xDim*yDim;
 
     // Write the idx1 CHUNK
     // Write the 'idx1' signature
@@ -294,15 +352,14 @@ public class AVIEncoder {
     // bytes. Write 0 for now.
     saveidx1Length = raFile.getFilePointer();
     writeInt(0);
+    // Every frame CHUNK is the same size, so each one's offset follows from its index
+    byte[] entries = new byte[16 * IDX1_ENTRIES_PER_WRITE];
+    int n = 0;
     for (int z = 0; z < zDim; z++) {
       // In the ckid field write the 4 character code to identify the chunk 00db or 00dc
-      raFile.write(dataSignature);
-      if (z == 0) {
-        writeInt(0x10); // Write the flags - select AVIIF_KEYFRAME
-      }
-      else {
-        writeInt(0x00);
-      }
+      System.arraycopy(dataSignature, 0, entries, 16 * n, 4);
+      // Write the flags - select AVIIF_KEYFRAME for the first frame
+      putInt(entries, 16 * n + 4, (z == 0) ? 0x10 : 0x00);
       // AVIIF_KEYFRAME 0x00000010L
       // The flag indicates key frames in the video sequence.
       // Key frames do not need previous video information to be decompressed.
@@ -311,18 +368,26 @@ public class AVIEncoder {
       // AVIIF_LIST 0x00000001L Marks a LIST CHUNK.
       // AVIIF_TWOCC 2L
       // AVIIF_COMPUSE 0x0FFF0000L These bits are for compressor use.
-      writeInt((int)(savedbLength[z]- 4 - savemovi));
       // Write the offset (relative to the 'movi' field) to the relevant CHUNK
-      writeInt(bytesPerPixel*xDim*yDim); // Write the length of the relevant
-                                         // CHUNK.  Note that this length is
-                                         // also written at savedbLength
+      putInt(entries, 16 * n + 8, (int)(4 + (long) z * (8 + frameBytes)));
+      // Write the length of the relevant CHUNK.  Note that this length is
+      // also written in the CHUNK itself
+      putInt(entries, 16 * n + 12, frameBytes);
+      if (++n == IDX1_ENTRIES_PER_WRITE || z == zDim - 1) {
+        raFile.write(entries, 0, 16 * n);
+        n = 0;
+      }
     }  // for (z = 0; z < zDim; z++)
     endPos = raFile.getFilePointer();
     raFile.seek(saveFileSize);
     writeInt((int)(endPos - (saveFileSize+4)));
     raFile.seek(saveidx1Length);
     writeInt((int)(endPos - (saveidx1Length+4)));
-    raFile.close();
+    raFile.seek(saveTotalFrames);
+    writeInt(zDim*tDim);
+    raFile.seek(saveLength);
+    writeInt(tDim*zDim);
+    raFile.seek(endPos);
   }
 
   private void writeRGBFrame(BufferedImage frame) throws IOException {
@@ -357,6 +422,13 @@ public class AVIEncoder {
     raFile.write((v >>> 24) & 0xFF);
   }
 
+  private static void putInt(byte[] bytes, int pos, int v) {
+    bytes[pos] = (byte) (v & 0xFF);
+    bytes[pos + 1] = (byte) ((v >>>  8) & 0xFF);
+    bytes[pos + 2] = (byte) ((v >>> 16) & 0xFF);
+    bytes[pos + 3] = (byte) ((v >>> 24) & 0xFF);
+  }
+
   private void writeShort(int v) throws IOException {
     raFile.write(v& 0xFF);
     raFile.write((v >>> 8) & 0xFF);
@@ -0,0 +1,108 @@
+package com.bentonian.framework.io;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands frames to another sink on a background thread, so that encoding doesn't stall the
+ * caller's render loop.  At most a fixed number of frames wait in the queue; once it's full,
+ * {@link #addFrame(BufferedImage)} blocks until the encoder catches up, which bounds memory
+ * use however long the recording runs.
+ *
+ * An exception thrown by the underlying sink is rethrown from the next call to addFrame()
+ * or close().
+ */
+public class BackgroundFrameSink implements FrameSink {
+
+  public static final int DEFAULT_QUEUE_LENGTH = 8;
+
+  private static final BufferedImage END_OF_STREAM =
+      new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+  private final FrameSink sink;
+  private final BlockingQueue<BufferedImage> queue;
+  private final Thread encoder;
+  private volatile Throwable failure;
+  private boolean closed;
+
+  public BackgroundFrameSink(FrameSink sink) {
+    this(sink, DEFAULT_QUEUE_LENGTH);
+  }
+
+  public BackgroundFrameSink(FrameSink sink, int queueLength) {
+    this.sink = sink;
+    this.queue = new ArrayBlockingQueue<>(queueLength);
+    this.encoder = new Thread(this::encode, "Frame encoder");
+    this.closed = false;
+    encoder.setDaemon(true);
+    encoder.start();
+  }
+
+  @Override
+  public void addFrame(BufferedImage frame) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("Frame sink is closed");
+    }
+    checkFailure();
+    put(frame);
+  }
+
+  /**
+   * Waits for every queued frame to be encoded, then closes the underlying sink.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      put(END_OF_STREAM);
+      try {
+        encoder.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for frames to be encoded", e);
+      }
+      checkFailure();
+    }
+  }
+
+  ////////////////////////////////////////
+
+  private void put(BufferedImage frame) throws IOException {
+    try {
+      while (!queue.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+        checkFailure();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting to queue frame", e);
+    }
+  }
+
+  private void checkFailure() throws IOException {
+    Throwable t = failure;
+    if (t instanceof IOException) {
+      throw new IOException(t.getMessage(), t);
+    } else if (t != null) {
+      throw new RuntimeException(t);
+    }
+  }
+
+  private void encode() {
+    try {
+      try {
+        BufferedImage frame;
+        while ((frame = queue.take()) != END_OF_STREAM) {
+          sink.addFrame(frame);
+        }
+      } finally {
+        sink.close();
+      }
+    } catch (Throwable t) {
+      failure = t;
+      queue.clear();
+    }
+  }
+}
@@ -0,0 +1,202 @@
+package com.bentonian.framework.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads whitespace-separated ASCII tokens and numbers straight out of a byte buffer, such as
+ * a memory-mapped file, without building Strings.  Anything from a '#' to the end of its
+ * line is skipped as a comment.
+ *
+ * Numbers are parsed in place when the result is exact, which covers the usual fixed-point
+ * model coordinates; anything else falls back to Double.parseDouble(), so the results always
+ * match it.
+ */
+class ByteBufferScanner {
+
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  private final ByteBuffer buffer;
+  private final int limit;
+  private int pos;
+
+  ByteBufferScanner(ByteBuffer buffer) {
+    this.buffer = buffer;
+    this.limit = buffer.limit();
+    this.pos = buffer.position();
+  }
+
+  int getPosition() {
+    return pos;
+  }
+
+  boolean hasNext() {
+    skipWhitespace();
+    return pos < limit;
+  }
+
+  String next() {
+    skipWhitespace();
+    int start = pos;
+    skipToken();
+    if (pos == start) {
+      throw new UnsupportedOperationException("Unexpected end of data");
+    }
+    return substring(start, pos);
+  }
+
+  /**
+   * Returns the rest of the current line, trimmed, and moves to the start of the next.
+   */
+  String nextLine() {
+    int start = pos;
+    while (pos < limit && buffer.get(pos) != '\n') {
+      pos++;
+    }
+    String line = substring(start, pos).trim();
+    if (pos < limit) {
+      pos++;
+    }
+    return line;
+  }
+
+  /**
+   * Moves to the start of the next line, ignoring anything left on this one.
+   */
+  void skipLine() {
+    while (pos < limit && buffer.get(pos) != '\n') {
+      pos++;
+    }
+    if (pos < limit) {
+      pos++;
+    }
+  }
+
+  int nextInt() {
+    skipWhitespace();
+    int start = pos;
+    boolean negative = false;
+    long value = 0;
+
+    if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+      negative = (buffer.get(pos++) == '-');
+    }
+    int digitsStart = pos;
+    while (pos < limit && isDigit(buffer.get(pos)) && value <= Integer.MAX_VALUE) {
+      value = 10 * value + (buffer.get(pos++) - '0');
+    }
+    if (pos == digitsStart || !isDelimiter(pos) || value > Integer.MAX_VALUE) {
+      return Integer.parseInt(fallback(start));
+    }
+    return (int) (negative ? -value : value);
+  }
+
+  double nextDouble() {
+    skipWhitespace();
+    int start = pos;
+    boolean negative = false;
+    boolean exact = true;
+    long mantissa = 0;
+    int exponent = 0;
+    int numDigits = 0;
+
+    if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+      negative = (buffer.get(pos++) == '-');
+    }
+    while (pos < limit && isDigit(buffer.get(pos))) {
+      int digit = buffer.get(pos++) - '0';
+      numDigits++;
+      if (mantissa < MAX_EXACT_MANTISSA / 10) {
+        mantissa = 10 * mantissa + digit;
+      } else {
+        exponent++;
+        exact &= (digit == 0);
+      }
+    }
+    if (pos < limit && buffer.get(pos) == '.') {
+      pos++;
+      while (pos < limit && isDigit(buffer.get(pos))) {
+        int digit = buffer.get(pos++) - '0';
+        numDigits++;
+        if (mantissa < MAX_EXACT_MANTISSA / 10) {
+          mantissa = 10 * mantissa + digit;
+          exponent--;
+        } else {
+          exact &= (digit == 0);
+        }
+      }
+    }
+    if (numDigits > 0 && pos < limit && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+      pos++;
+      boolean negativeExponent = false;
+      int e = 0;
+      if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+        negativeExponent = (buffer.get(pos++) == '-');
+      }
+      int digitsStart = pos;
+      while (pos < limit && isDigit(buffer.get(pos)) && e < 10000) {
+        e = 10 * e + (buffer.get(pos++) - '0');
+      }
+      exact &= (pos > digitsStart);
+      exponent += negativeExponent ? -e : e;
+    }
+    if (numDigits == 0 || !exact || !isDelimiter(pos)
+        || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+      return Double.parseDouble(fallback(start));
+    }
+    double value = (exponent >= 0)
+        ? mantissa * POWERS_OF_TEN[exponent]
+        : mantissa / POWERS_OF_TEN[-exponent];
+    return negative ? -value : value;
+  }
+
+  ////////////////////////////////////////
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+  }
+
+  private boolean isDelimiter(int i) {
+    return i >= limit || isWhitespace(buffer.get(i)) || buffer.get(i) == '#';
+  }
+
+  private void skipWhitespace() {
+    while (pos < limit) {
+      byte b = buffer.get(pos);
+      if (isWhitespace(b)) {
+        pos++;
+      } else if (b == '#') {
+        skipLine();
+      } else {
+        break;
+      }
+    }
+  }
+
+  private void skipToken() {
+    while (!isDelimiter(pos)) {
+      pos++;
+    }
+  }
+
+  private String fallback(int start) {
+    pos = start;
+    skipToken();
+    return substring(start, pos);
+  }
+
+  private String substring(int start, int end) {
+    byte[] bytes = new byte[end - start];
+    for (int i = start; i < end; i++) {
+      bytes[i - start] = buffer.get(i);
+    }
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+}
@@ -8,9 +8,12 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 
 import javax.imageio.ImageIO;
@@ -35,6 +38,20 @@ public class FileUtil {
     return Files.readAllBytes(path);
   }
   
+  /**
+   * Maps a file into memory, read-only.  The mapping outlives the channel, so nothing needs
+   * to be closed afterwards.
+   */
+  public static ByteBuffer mapFile(String filename) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(filename + " is too large to map (" + size + " bytes)");
+      }
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+
   public static List<String> readFile(String filename) {
     try {
       BufferedReader reader = new BufferedReader(new FileReader(filename));
@@ -98,16 +115,15 @@ public class FileUtil {
   
   public static boolean writeGif(List<BufferedImage> frames, String filename) {
     System.out.println("Building GIF...");
-
-    AnimatedGifEncoder gifEncoder = new AnimatedGifEncoder();
-    gifEncoder.setFrameRate(33);
-    gifEncoder.setQuality(1);
-    gifEncoder.setRepeat(0);
-    gifEncoder.start(filename + ".gif");
-    for (BufferedImage source : frames) {
-      gifEncoder.addFrame(source);
+    try (FrameSink sink = openGif(filename)) {
+      for (BufferedImage source : frames) {
+        sink.addFrame(source);
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.out.println("...failed to write GIF.");
+      return false;
     }
-    gifEncoder.finish();
     System.out.println("...GIF complete.");
     return true;
   }
@@ -125,6 +141,23 @@ public class FileUtil {
       return false;
     }
   }
+
+  /**
+   * Opens an animated GIF which encodes frames on worker threads as they're recorded.
+   */
+  public static FrameSink openGif(String filename) throws IOException {
+    return new PipelinedGifEncoder(filename + ".gif")
+        .setFrameRate(33)
+        .setQuality(1)
+        .setRepeat(0);
+  }
+
+  /**
+   * Opens an AVI which encodes frames on a background thread as they're recorded.
+   */
+  public static FrameSink openAvi(String filename) throws IOException {
+    return new BackgroundFrameSink(new AVIEncoder().start(filename + ".avi"));
+  }
   
   public static void deleteDirectory(String path) {
     File dir = new File(path);
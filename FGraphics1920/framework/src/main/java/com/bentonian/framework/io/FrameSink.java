@@ -0,0 +1,24 @@
+package com.bentonian.framework.io;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for a stream of animation frames, such as a movie file being written.  Frames
+ * are consumed as they arrive, so nothing need hold the whole recording in memory.
+ */
+public interface FrameSink extends Closeable {
+
+  /**
+   * Appends a frame.  The sink may keep a reference to the image, so callers must not
+   * modify it afterwards.
+   */
+  void addFrame(BufferedImage frame) throws IOException;
+
+  /**
+   * Finishes the recording, flushing any pending frames.
+   */
+  @Override
+  void close() throws IOException;
+}
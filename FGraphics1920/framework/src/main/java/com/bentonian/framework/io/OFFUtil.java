@@ -2,9 +2,12 @@ package com.bentonian.framework.io;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
-import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.IndexedMesh;
 import com.bentonian.framework.mesh.Mesh;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.MeshVertex;
@@ -13,59 +16,74 @@ import com.google.common.base.Joiner;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.HashBiMap;
+import com.google.common.io.ByteStreams;
 
 public class OFFUtil {
 
   public static Mesh parseFile(String filename) {
-    return parse(Joiner.on("").join(FileUtil.readFile(filename)));
+    return parseIndexedFile(filename).toMesh();
   }
 
   public static Mesh parseResource(InputStream resource) {
-    return parse(Joiner.on("").join(FileUtil.readResource(resource)));
+    return parseIndexedResource(resource).toMesh();
   }
 
   public static Mesh parse(String data) {
-    String chunk;
-    StringTokenizer tokenizer, tokie;
-    int nVerts, nFaces;
-    Mesh mesh = new Mesh();
+    return parseIndexed(ByteBuffer.wrap(data.getBytes(StandardCharsets.ISO_8859_1))).toMesh();
+  }
 
-    tokenizer = new StringTokenizer(data);
-    chunk = tokenizer.next('\n');
-    if (chunk.compareTo("OFF") != 0) {
-      throw new UnsupportedOperationException("Ill-formatted OFF data read: " + chunk);
+  /**
+   * Memory-maps and parses an OFF file without building a linked Mesh.
+   */
+  public static IndexedMesh parseIndexedFile(String filename) {
+    try {
+      return parseIndexed(FileUtil.mapFile(filename));
+    } catch (IOException e) {
+      throw new RuntimeException("Can't read OFF file " + filename, e);
     }
+  }
 
-    tokie = new StringTokenizer(tokenizer.next('\n'));
-    nVerts = Integer.valueOf(tokie.next(' '));
-    nFaces = Integer.valueOf(tokie.next(' '));
+  public static IndexedMesh parseIndexedResource(InputStream resource) {
+    try (InputStream in = resource) {
+      return parseIndexed(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+    } catch (IOException e) {
+      throw new RuntimeException("Can't read OFF resource", e);
+    }
+  }
 
-    MeshVertex verts[] = new MeshVertex[nVerts];
+  public static IndexedMesh parseIndexed(ByteBuffer data) {
+    ByteBufferScanner scanner = new ByteBufferScanner(data);
 
-    for (int i = 0; i < nVerts; i++)
-    {
-      tokie = new StringTokenizer(tokenizer.next('\n'));
-      double x = Double.valueOf(tokie.next(' '));
-      double y = Double.valueOf(tokie.next(' '));
-      double z = Double.valueOf(tokie.next(' '));
+    String header = scanner.next();
+    if (!header.equals("OFF")) {
+      throw new UnsupportedOperationException("Ill-formatted OFF data read: " + header);
+    }
+
+    int nVerts = scanner.nextInt();
+    int nFaces = scanner.nextInt();
+    scanner.skipLine();
 
-      verts[i] = new MeshVertex(new Vec3(x, y, z));
+    IndexedMesh mesh = new IndexedMesh(nVerts, nFaces);
+    for (int i = 0; i < nVerts; i++) {
+      double x = scanner.nextDouble();
+      double y = scanner.nextDouble();
+      double z = scanner.nextDouble();
+      mesh.addVertex(x, y, z);
+      scanner.skipLine();
     }
-    for (int i = 0; i<nFaces; i++)
-    {
-      tokie = new StringTokenizer(tokenizer.next('\n'));
-      int n = Integer.valueOf(tokie.next(' '));
-      MeshVertex faceVerts[] = new MeshVertex[n];
 
+    int[] face = new int[8];
+    for (int i = 0; i < nFaces; i++) {
+      int n = scanner.nextInt();
+      if (face.length < n) {
+        face = new int[n];
+      }
       for (int j = 0; j < n; j++) {
-        String tok = tokie.next(' ');
-        int index = Integer.valueOf(tok);
-        faceVerts[j] = verts[index];
+        face[j] = scanner.nextInt();
       }
-      mesh.add(new MeshFace(faceVerts));
+      mesh.addFace(face, 0, n);
+      scanner.skipLine();
     }
-
-    mesh.computeAllNormals();
     return mesh;
   }
 
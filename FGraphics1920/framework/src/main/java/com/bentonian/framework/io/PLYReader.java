@@ -1,84 +1,339 @@
 package com.bentonian.framework.io;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
-import com.bentonian.framework.math.Vec3;
-import com.bentonian.framework.mesh.MeshFace;
+import com.bentonian.framework.mesh.IndexedMesh;
 import com.bentonian.framework.mesh.Mesh;
-import com.bentonian.framework.ui.Vertex;
-import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 
+/**
+ * Reads PLY models in ascii, binary_little_endian or binary_big_endian format.  Vertex
+ * positions are taken from the x, y and z properties of the vertex element and faces from
+ * the vertex_indices (or vertex_index) list of the face element; every other element and
+ * property is skipped.
+ */
 public class PLYReader {
-  
-  // This code has not yet been proven to work.
+
+  private enum Type {
+    CHAR(1), UCHAR(1), SHORT(2), USHORT(2), INT(4), UINT(4), FLOAT(4), DOUBLE(8);
+
+    final int size;
+
+    Type(int size) {
+      this.size = size;
+    }
+
+    static Type parse(String name) {
+      switch (name.toLowerCase()) {
+      case "char": case "int8": return CHAR;
+      case "uchar": case "uint8": return UCHAR;
+      case "short": case "int16": return SHORT;
+      case "ushort": case "uint16": return USHORT;
+      case "int": case "int32": return INT;
+      case "uint": case "uint32": return UINT;
+      case "float": case "float32": return FLOAT;
+      case "double": case "float64": return DOUBLE;
+      default:
+        throw new UnsupportedOperationException("Unknown PLY property type: " + name);
+      }
+    }
+  }
+
+  private static class Property {
+
+    final String name;
+    final Type type;
+    final Type countType;  // null unless this is a list
+
+    Property(String name, Type type, Type countType) {
+      this.name = name;
+      this.type = type;
+      this.countType = countType;
+    }
+  }
+
+  private static class Element {
+
+    final String name;
+    final int count;
+    final List<Property> properties = Lists.newArrayList();
+
+    Element(String name, int count) {
+      this.name = name;
+      this.count = count;
+    }
+
+    int indexOf(String... names) {
+      for (int i = 0; i < properties.size(); i++) {
+        for (String name : names) {
+          if (properties.get(i).name.equalsIgnoreCase(name)) {
+            return i;
+          }
+        }
+      }
+      return -1;
+    }
+  }
+
+  private final ByteBuffer data;
+  private final ByteBufferScanner scanner;
+  private final List<Element> elements = Lists.newArrayList();
+  private boolean ascii;
+  private int pos;
+
+  private PLYReader(ByteBuffer data) {
+    this.data = data.duplicate();
+    this.scanner = new ByteBufferScanner(data);
+  }
 
   public static Mesh parseFile(String filename) {
-    return parse(Joiner.on("").join(FileUtil.readFile(filename)));
+    return parseIndexedFile(filename).toMesh();
   }
 
   public static Mesh parseResource(InputStream resource) {
-    return parse(Joiner.on("").join(FileUtil.readResource(resource)));
+    return parseIndexedResource(resource).toMesh();
   }
 
   public static Mesh parse(String data) {
-    String chunk;
-    StringTokenizer tokenizer, tokie;
-    Mesh mesh = new Mesh();
-    String vertexCount = null;
-    String faceCount = null;
-
-    tokenizer = new StringTokenizer(data);
-    chunk = tokenizer.next('\n');
-    if (!chunk.equalsIgnoreCase("ply")) {
-      throw new UnsupportedOperationException("Ill-formatted PLY data read: " + chunk);
-    }
-
-    chunk = tokenizer.next('\n');
-    if (!chunk.equalsIgnoreCase("format ascii 1.0")) {
-      throw new UnsupportedOperationException("Unsupported PLY encoding found: " + chunk);
-    }
-
-    while (!chunk.equalsIgnoreCase("end_header")) {
-      chunk = tokenizer.next('\n');
-      System.out.println(chunk);
-      tokie = new StringTokenizer(chunk);
-      if (tokie.next(' ').equalsIgnoreCase("element")) {
-        String next = tokie.next(' ');
-        if (next.equalsIgnoreCase("vertex")) {
-          vertexCount = tokie.next(' ');
-        } else if (next.equalsIgnoreCase("face")) {
-          faceCount = tokie.next(' ');
+    return parseIndexed(ByteBuffer.wrap(data.getBytes(StandardCharsets.ISO_8859_1))).toMesh();
+  }
+
+  /**
+   * Memory-maps and parses a PLY file without building a linked Mesh.
+   */
+  public static IndexedMesh parseIndexedFile(String filename) {
+    try {
+      return parseIndexed(FileUtil.mapFile(filename));
+    } catch (IOException e) {
+      throw new RuntimeException("Can't read PLY file " + filename, e);
+    }
+  }
+
+  public static IndexedMesh parseIndexedResource(InputStream resource) {
+    try (InputStream in = resource) {
+      return parseIndexed(ByteBuffer.wrap(ByteStreams.toByteArray(in)));
+    } catch (IOException e) {
+      throw new RuntimeException("Can't read PLY resource", e);
+    }
+  }
+
+  public static IndexedMesh parseIndexed(ByteBuffer data) {
+    PLYReader reader = new PLYReader(data);
+    reader.readHeader();
+    return reader.readBody();
+  }
+
+  ////////////////////////////////////////
+
+  private void readHeader() {
+    String line = scanner.nextLine();
+    if (!line.equalsIgnoreCase("ply")) {
+      throw new UnsupportedOperationException("Ill-formatted PLY data read: " + line);
+    }
+
+    while (!line.equalsIgnoreCase("end_header")) {
+      line = scanner.nextLine();
+      String[] tokens = line.split("\\s+");
+      switch (tokens[0].toLowerCase()) {
+      case "format":
+        readFormat(line, tokens);
+        break;
+      case "element":
+        elements.add(new Element(tokens[1], Integer.parseInt(tokens[2])));
+        break;
+      case "property":
+        if (elements.isEmpty()) {
+          throw new UnsupportedOperationException("PLY property outside any element: " + line);
+        }
+        Element element = elements.get(elements.size() - 1);
+        if (tokens[1].equalsIgnoreCase("list")) {
+          element.properties.add(
+              new Property(tokens[4], Type.parse(tokens[3]), Type.parse(tokens[2])));
+        } else {
+          element.properties.add(new Property(tokens[2], Type.parse(tokens[1]), null));
         }
+        break;
+      case "":
+        if (!scanner.hasNext()) {
+          throw new UnsupportedOperationException("PLY header has no end_header");
+        }
+        break;
+      default:
+        // comment, obj_info, end_header
+        break;
       }
     }
+    pos = scanner.getPosition();
+  }
 
-    if ((vertexCount == null) || (faceCount == null)) {
+  private void readFormat(String line, String[] tokens) {
+    if (tokens.length < 3 || !tokens[2].equals("1.0")) {
+      throw new UnsupportedOperationException("Unsupported PLY encoding found: " + line);
+    }
+    switch (tokens[1].toLowerCase()) {
+    case "ascii":
+      ascii = true;
+      break;
+    case "binary_little_endian":
+      data.order(ByteOrder.LITTLE_ENDIAN);
+      break;
+    case "binary_big_endian":
+      data.order(ByteOrder.BIG_ENDIAN);
+      break;
+    default:
+      throw new UnsupportedOperationException("Unsupported PLY encoding found: " + line);
+    }
+  }
+
+  private IndexedMesh readBody() {
+    Element vertices = find("vertex");
+    Element faces = find("face");
+    if (vertices == null || faces == null) {
       throw new UnsupportedOperationException("Missing vertex or face count");
     }
 
-    int nVerts = Integer.valueOf(vertexCount);
-    int nFaces = Integer.valueOf(faceCount);
+    IndexedMesh mesh = new IndexedMesh(vertices.count, faces.count);
+    double[] xyz = new double[3];
+    int[] face = new int[8];
 
-    Vertex verts[] = new Vertex[nVerts];
-    for (int i = 0; i < nVerts; i++) {
-      tokie = new StringTokenizer(tokenizer.next('\n'));
-      verts[i] = new Vertex(new Vec3(
-          Double.valueOf(tokie.next(' ')),
-          Double.valueOf(tokie.next(' ')),
-          Double.valueOf(tokie.next(' '))));
+    for (Element element : elements) {
+      if (element == vertices) {
+        int[] axes = {
+            element.indexOf("x"), element.indexOf("y"), element.indexOf("z") };
+        if (axes[0] < 0 || axes[1] < 0 || axes[2] < 0) {
+          throw new UnsupportedOperationException("PLY vertices have no x, y and z");
+        }
+        for (int i = 0; i < element.count; i++) {
+          for (int p = 0; p < element.properties.size(); p++) {
+            Property property = element.properties.get(p);
+            if (property.countType != null) {
+              skipList(property);
+            } else if (p == axes[0] || p == axes[1] || p == axes[2]) {
+              xyz[(p == axes[0]) ? 0 : (p == axes[1]) ? 1 : 2] = readDouble(property.type);
+            } else {
+              skip(property.type);
+            }
+          }
+          mesh.addVertex(xyz[0], xyz[1], xyz[2]);
+        }
+      } else if (element == faces) {
+        int indices = element.indexOf("vertex_indices", "vertex_index");
+        if (indices < 0 || element.properties.get(indices).countType == null) {
+          throw new UnsupportedOperationException("PLY faces have no vertex_indices list");
+        }
+        for (int i = 0; i < element.count; i++) {
+          for (int p = 0; p < element.properties.size(); p++) {
+            Property property = element.properties.get(p);
+            if (p == indices) {
+              int n = readInt(property.countType);
+              if (face.length < n) {
+                face = new int[n];
+              }
+              for (int j = 0; j < n; j++) {
+                face[j] = readInt(property.type);
+              }
+              mesh.addFace(face, 0, n);
+            } else if (property.countType != null) {
+              skipList(property);
+            } else {
+              skip(property.type);
+            }
+          }
+        }
+      } else {
+        for (int i = 0; i < element.count; i++) {
+          for (Property property : element.properties) {
+            if (property.countType != null) {
+              skipList(property);
+            } else {
+              skip(property.type);
+            }
+          }
+        }
+      }
     }
+    return mesh;
+  }
 
-    for (int i = 0; i < nFaces; i++) {
-      tokie = new StringTokenizer(tokenizer.next('\n'));
-      int n = Integer.valueOf(tokie.next(' '));
-      Vertex[] f = new Vertex[n];
-      for (int j = 0; j < n; j++) {
-        f[j] = verts[Integer.valueOf(tokie.next(' '))];
+  private Element find(String name) {
+    for (Element element : elements) {
+      if (element.name.equalsIgnoreCase(name)) {
+        return element;
       }
-      mesh.add(new MeshFace(f));
     }
+    return null;
+  }
 
-    mesh.computeAllNormals();
-    return mesh;
+  private double readDouble(Type type) {
+    if (ascii) {
+      return scanner.nextDouble();
+    }
+    double d;
+    switch (type) {
+    case FLOAT:
+      d = data.getFloat(pos);
+      break;
+    case DOUBLE:
+      d = data.getDouble(pos);
+      break;
+    default:
+      return readInt(type);
+    }
+    pos += type.size;
+    return d;
+  }
+
+  private int readInt(Type type) {
+    if (ascii) {
+      return scanner.nextInt();
+    }
+    int i;
+    switch (type) {
+    case CHAR:
+      i = data.get(pos);
+      break;
+    case UCHAR:
+      i = data.get(pos) & 0xFF;
+      break;
+    case SHORT:
+      i = data.getShort(pos);
+      break;
+    case USHORT:
+      i = data.getShort(pos) & 0xFFFF;
+      break;
+    case INT:
+    case UINT:
+      i = data.getInt(pos);
+      break;
+    case FLOAT:
+      i = (int) data.getFloat(pos);
+      break;
+    default:
+      i = (int) data.getDouble(pos);
+      break;
+    }
+    pos += type.size;
+    return i;
+  }
+
+  private void skip(Type type) {
+    if (ascii) {
+      scanner.next();
+    } else {
+      pos += type.size;
+    }
+  }
+
+  private void skipList(Property property) {
+    int n = readInt(property.countType);
+    for (int i = 0; i < n; i++) {
+      skip(property.type);
+    }
   }
 }
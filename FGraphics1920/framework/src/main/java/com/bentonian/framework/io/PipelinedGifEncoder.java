@@ -0,0 +1,394 @@
+package com.bentonian.framework.io;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Animated GIF encoder which quantizes and compresses frames on a pool of worker threads,
+ * writing them to the output stream in order as they complete.  Once too many frames are
+ * waiting to be encoded, {@link #addFrame(BufferedImage)} blocks until the oldest is written.
+ *
+ * Each frame after the first only encodes the rectangle which differs from the frame before
+ * it, drawn over the previous frame.  By default every frame learns its own palette, as
+ * {@link AnimatedGifEncoder} does; with a global palette the colors are learned once from
+ * the first frame and every later frame is mapped onto them, skipping NeuQuant entirely.
+ *
+ * Frames are read as RGB; alpha is ignored.
+ */
+public class PipelinedGifEncoder implements FrameSink {
+
+  private static final int COLOR_CACHE_SIZE = 4096;
+
+  private final OutputStream out;
+  private final boolean closeStream;
+  private final ExecutorService workers;
+  private final int maxPending;
+  private final Deque<Future<EncodedFrame>> pending;
+
+  private int delay = 0; // frame delay (hundredths)
+  private int repeat = -1; // no repeat
+  private int sample = 10; // sample interval for quantizer
+  private boolean globalPalette = false;
+  private int width;
+  private int height;
+  private int[] previous;
+  private Future<Palette> firstPalette;
+  private int numFramesAdded;
+  private int numFramesWritten;
+  private boolean closed;
+
+  public PipelinedGifEncoder(String filename) throws IOException {
+    this(new BufferedOutputStream(new FileOutputStream(filename)), true,
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Encodes to the given stream, which is not closed when the encoder is.
+   */
+  public PipelinedGifEncoder(OutputStream os, int numThreads) {
+    this(os, false, numThreads);
+  }
+
+  private PipelinedGifEncoder(OutputStream os, boolean closeStream, int numThreads) {
+    this.out = os;
+    this.closeStream = closeStream;
+    this.workers = Executors.newFixedThreadPool(numThreads, r -> {
+      Thread thread = new Thread(r, "GIF encoder");
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.maxPending = 2 * numThreads;
+    this.pending = new ArrayDeque<>();
+  }
+
+  /**
+   * Sets frame rate in frames per second.
+   */
+  public PipelinedGifEncoder setFrameRate(float fps) {
+    checkNotStarted();
+    if (fps != 0f) {
+      delay = Math.round(100f / fps);
+    }
+    return this;
+  }
+
+  /**
+   * Sets the number of times the animation should be played; 0 means play indefinitely.
+   */
+  public PipelinedGifEncoder setRepeat(int iter) {
+    checkNotStarted();
+    repeat = iter;
+    return this;
+  }
+
+  /**
+   * Sets the quantizer's sample interval, as {@link AnimatedGifEncoder#setQuality(int)}.
+   */
+  public PipelinedGifEncoder setQuality(int quality) {
+    checkNotStarted();
+    sample = Math.max(1, quality);
+    return this;
+  }
+
+  /**
+   * If true, the palette learned from the first frame is used for every frame.
+   */
+  public PipelinedGifEncoder setGlobalPalette(boolean globalPalette) {
+    checkNotStarted();
+    this.globalPalette = globalPalette;
+    return this;
+  }
+
+  @Override
+  public void addFrame(BufferedImage frame) throws IOException {
+    if (closed) {
+      throw new IllegalStateException("GIF encoder is closed");
+    }
+    if (numFramesAdded == 0) {
+      width = frame.getWidth();
+      height = frame.getHeight();
+    }
+
+    int[] rgb = getPixels(frame);
+    int[] prev = previous;
+    if (numFramesAdded == 0 && globalPalette) {
+      firstPalette = workers.submit(() -> new Palette(rgb, width, 0, 0, width, height, sample));
+    }
+    Future<Palette> shared = globalPalette ? firstPalette : null;
+    pending.add(workers.submit(() -> encode(rgb, prev, shared)));
+    previous = rgb;
+    numFramesAdded++;
+
+    while (!pending.isEmpty() && (pending.size() > maxPending || pending.peek().isDone())) {
+      write(await(pending.poll()));
+    }
+  }
+
+  /**
+   * Waits for every frame to be encoded and written, then finishes the file.
+   */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      while (!pending.isEmpty()) {
+        write(await(pending.poll()));
+      }
+      if (numFramesWritten > 0) {
+        out.write(0x3b); // gif trailer
+      }
+      out.flush();
+    } finally {
+      workers.shutdownNow();
+      if (closeStream) {
+        out.close();
+      }
+    }
+  }
+
+  ////////////////////////////////////////
+
+  private void checkNotStarted() {
+    if (numFramesAdded > 0) {
+      throw new IllegalStateException("GIF settings must be changed before the first frame");
+    }
+  }
+
+  /**
+   * Returns the frame's pixels, sharing the image's own array when it's already packed RGB
+   * of the right size.
+   */
+  private int[] getPixels(BufferedImage image) {
+    int w = image.getWidth();
+    int h = image.getHeight();
+    int type = image.getType();
+    if (w != width || h != height) {
+      BufferedImage temp = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D g = temp.createGraphics();
+      g.drawImage(image, 0, 0, null);
+      g.dispose();
+      return ((DataBufferInt) temp.getRaster().getDataBuffer()).getData();
+    }
+    if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+      WritableRaster raster = image.getRaster();
+      int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+      if (data.length == w * h
+          && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+        return data;
+      }
+    }
+    return image.getRGB(0, 0, w, h, null, 0, w);
+  }
+
+  private static EncodedFrame await(Future<EncodedFrame> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for GIF frame", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Failed to encode GIF frame", e.getCause());
+    }
+  }
+
+  private EncodedFrame encode(int[] rgb, int[] prev, Future<Palette> shared) throws Exception {
+    int x0 = 0, y0 = 0, x1 = width, y1 = height;
+
+    if (prev != null) {
+      while (y0 < height && rowMatches(rgb, prev, y0)) {
+        y0++;
+      }
+      if (y0 == height) {
+        // Nothing changed; GIF frames can't be empty, so redraw one pixel
+        x1 = y1 = 1;
+        y0 = 0;
+      } else {
+        while (rowMatches(rgb, prev, y1 - 1)) {
+          y1--;
+        }
+        x0 = width;
+        x1 = 0;
+        for (int y = y0; y < y1; y++) {
+          int row = y * width;
+          int x = 0;
+          while (x < x0 && ((rgb[row + x] ^ prev[row + x]) & 0xFFFFFF) == 0) {
+            x++;
+          }
+          x0 = Math.min(x0, x);
+          x = width;
+          while (x > x1 && ((rgb[row + x - 1] ^ prev[row + x - 1]) & 0xFFFFFF) == 0) {
+            x--;
+          }
+          x1 = Math.max(x1, x);
+        }
+      }
+    }
+
+    Palette palette = (shared != null) ? shared.get() : new Palette(rgb, width, x0, y0, x1, y1, sample);
+    int w = x1 - x0;
+    int h = y1 - y0;
+    byte[] indexedPixels = new byte[w * h];
+    int[] cacheKeys = new int[COLOR_CACHE_SIZE];
+    byte[] cacheValues = new byte[COLOR_CACHE_SIZE];
+    Arrays.fill(cacheKeys, -1);
+
+    int k = 0;
+    for (int y = y0; y < y1; y++) {
+      for (int x = x0; x < x1; x++) {
+        int color = rgb[y * width + x] & 0xFFFFFF;
+        int slot = (color * 0x9E3779B1) >>> 20;
+        if (cacheKeys[slot] != color) {
+          cacheKeys[slot] = color;
+          cacheValues[slot] =
+              (byte) palette.quantizer.map(color & 0xFF, (color >> 8) & 0xFF, color >>> 16);
+        }
+        indexedPixels[k++] = cacheValues[slot];
+      }
+    }
+
+    ByteArrayOutputStream data = new ByteArrayOutputStream();
+    new LZWEncoder(w, h, indexedPixels, 8).encode(data);
+    return new EncodedFrame(x0, y0, w, h, palette.colorTab, data.toByteArray());
+  }
+
+  private boolean rowMatches(int[] rgb, int[] prev, int y) {
+    int row = y * width;
+    for (int x = 0; x < width; x++) {
+      if (((rgb[row + x] ^ prev[row + x]) & 0xFFFFFF) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void write(EncodedFrame frame) throws IOException {
+    boolean first = (numFramesWritten == 0);
+
+    if (first) {
+      writeString("GIF89a");
+      // Logical screen descriptor, with a global color table
+      writeShort(width);
+      writeShort(height);
+      out.write(0x80 | 0x70 | 0x07); // gct used, color resolution 7, gct size 256
+      out.write(0); // background color index
+      out.write(0); // pixel aspect ratio - assume 1:1
+      writePalette(frame.colorTab);
+      if (repeat >= 0) {
+        // Netscape application extension for the repeat count
+        out.write(0x21);
+        out.write(0xff);
+        out.write(11);
+        writeString("NETSCAPE2.0");
+        out.write(3);
+        out.write(1);
+        writeShort(repeat);
+        out.write(0);
+      }
+    }
+
+    // Graphic control extension; later frames are drawn over the ones before
+    out.write(0x21);
+    out.write(0xf9);
+    out.write(4);
+    out.write(1 << 2); // disposal: do not dispose
+    writeShort(delay);
+    out.write(0); // transparent color index, unused
+    out.write(0);
+
+    // Image descriptor, with a local color table unless the global one applies
+    out.write(0x2c);
+    writeShort(frame.x);
+    writeShort(frame.y);
+    writeShort(frame.width);
+    writeShort(frame.height);
+    if (first || globalPalette) {
+      out.write(0);
+    } else {
+      out.write(0x80 | 0x07);
+      writePalette(frame.colorTab);
+    }
+    out.write(frame.data);
+    numFramesWritten++;
+  }
+
+  private void writePalette(byte[] colorTab) throws IOException {
+    out.write(colorTab, 0, colorTab.length);
+    for (int i = colorTab.length; i < 3 * 256; i++) {
+      out.write(0);
+    }
+  }
+
+  private void writeShort(int value) throws IOException {
+    out.write(value & 0xff);
+    out.write((value >> 8) & 0xff);
+  }
+
+  private void writeString(String s) throws IOException {
+    for (int i = 0; i < s.length(); i++) {
+      out.write((byte) s.charAt(i));
+    }
+  }
+
+  /**
+   * A quantizer trained on one rectangle of a frame, and its RGB color table.
+   */
+  private static class Palette {
+
+    final NeuQuant quantizer;
+    final byte[] colorTab;
+
+    Palette(int[] rgb, int stride, int x0, int y0, int x1, int y1, int sample) {
+      byte[] pixels = new byte[3 * (x1 - x0) * (y1 - y0)];
+      int k = 0;
+      for (int y = y0; y < y1; y++) {
+        for (int x = x0; x < x1; x++) {
+          int color = rgb[y * stride + x];
+          pixels[k++] = (byte) color;
+          pixels[k++] = (byte) (color >> 8);
+          pixels[k++] = (byte) (color >> 16);
+        }
+      }
+      quantizer = new NeuQuant(pixels, pixels.length, sample);
+      colorTab = quantizer.process();
+      // convert map from BGR to RGB
+      for (int i = 0; i < colorTab.length; i += 3) {
+        byte temp = colorTab[i];
+        colorTab[i] = colorTab[i + 2];
+        colorTab[i + 2] = temp;
+      }
+    }
+  }
+
+  private static class EncodedFrame {
+
+    final int x, y, width, height;
+    final byte[] colorTab;
+    final byte[] data;
+
+    EncodedFrame(int x, int y, int width, int height, byte[] colorTab, byte[] data) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      this.colorTab = colorTab;
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.bentonian.framework.math;
+
+/**
+ * An affine transform: a 3x3 linear part followed by a translation, which is every matrix a
+ * scene graph builds from translations, rotations and scales.  Affine transforms are
+ * immutable; the inverse and the normal matrix are computed the first time they're asked
+ * for and kept, and each transform has a form which writes into a given Vec3 rather than
+ * allocating one.
+ */
+public final class Affine {
+
+  public static final Affine IDENTITY = new Affine(new double[] {
+      1, 0, 0, 0,
+      0, 1, 0, 0,
+      0, 0, 1, 0 });
+
+  // The top three rows of the 4x4 matrix, row-major
+  private final double[] m;
+
+  // Benign races: every thread computes the same values, and m is final
+  private Affine inverse;
+  private Affine normalMatrix;
+
+  public Affine(M4x4 M) {
+    if (!M.isAffine()) {
+      throw new IllegalArgumentException("Not an affine transform:\n" + M);
+    }
+    this.m = new double[12];
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 4; col++) {
+        m[4 * row + col] = M.data[row][col];
+      }
+    }
+  }
+
+  private Affine(double[] m) {
+    this.m = m;
+  }
+
+  /**
+   * Returns the upper-left 3x3 of M, without translation, whether or not M is affine.
+   */
+  public static Affine linearPart(M4x4 M) {
+    double[][] d = M.data;
+    return new Affine(new double[] {
+        d[0][0], d[0][1], d[0][2], 0,
+        d[1][0], d[1][1], d[1][2], 0,
+        d[2][0], d[2][1], d[2][2], 0 });
+  }
+
+  public M4x4 toM4x4() {
+    return toM4x4(new M4x4());
+  }
+
+  public M4x4 toM4x4(M4x4 dest) {
+    double[][] d = dest.data;
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 4; col++) {
+        d[row][col] = m[4 * row + col];
+      }
+    }
+    d[3][0] = d[3][1] = d[3][2] = 0;
+    d[3][3] = 1;
+    return dest;
+  }
+
+  public double getDeterminant() {
+    return m[0] * (m[5] * m[10] - m[6] * m[9])
+        - m[1] * (m[4] * m[10] - m[6] * m[8])
+        + m[2] * (m[4] * m[9] - m[5] * m[8]);
+  }
+
+  /**
+   * Returns the matrix product this * A: A applied first, then this.
+   */
+  public Affine times(Affine A) {
+    double[] a = A.m;
+    double[] p = new double[12];
+    for (int row = 0; row < 3; row++) {
+      int r = 4 * row;
+      for (int col = 0; col < 4; col++) {
+        p[r + col] = m[r] * a[col] + m[r + 1] * a[4 + col] + m[r + 2] * a[8 + col];
+      }
+      p[r + 3] += m[r + 3];
+    }
+    return new Affine(p);
+  }
+
+  /**
+   * Returns the inverse transform: the inverse of the 3x3, computed from its cofactors,
+   * followed by the translation carried back through it.
+   */
+  public Affine getInverse() {
+    Affine result = inverse;
+    if (result == null) {
+      double[] c = getCofactors();
+      double k = 1 / (m[0] * c[0] + m[1] * c[1] + m[2] * c[2]);
+      double[] p = new double[12];
+      for (int row = 0; row < 3; row++) {
+        for (int col = 0; col < 3; col++) {
+          p[4 * row + col] = c[3 * col + row] * k;
+        }
+      }
+      for (int row = 0; row < 3; row++) {
+        int r = 4 * row;
+        p[r + 3] = -(p[r] * m[3] + p[r + 1] * m[7] + p[r + 2] * m[11]);
+      }
+      result = inverse = new Affine(p);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the transform which carries normals: the inverse transpose of the 3x3, with no
+   * translation.  Normals come out scaled, and need normalizing.
+   */
+  public Affine getNormalMatrix() {
+    Affine result = normalMatrix;
+    if (result == null) {
+      double[] c = getCofactors();
+      double k = 1 / (m[0] * c[0] + m[1] * c[1] + m[2] * c[2]);
+      double[] p = new double[12];
+      for (int row = 0; row < 3; row++) {
+        for (int col = 0; col < 3; col++) {
+          p[4 * row + col] = c[3 * row + col] * k;
+        }
+      }
+      result = normalMatrix = new Affine(p);
+    }
+    return result;
+  }
+
+  public Vec3 transformPoint(Vec3 p) {
+    return transformPoint(p, new Vec3());
+  }
+
+  /**
+   * Writes the transformed point into dest, which may be p, and returns dest.
+   */
+  public Vec3 transformPoint(Vec3 p, Vec3 dest) {
+    double x = p.getX(), y = p.getY(), z = p.getZ();
+    dest.set(
+        m[0] * x + m[1] * y + m[2] * z + m[3],
+        m[4] * x + m[5] * y + m[6] * z + m[7],
+        m[8] * x + m[9] * y + m[10] * z + m[11]);
+    return dest;
+  }
+
+  public Vec3 transformDirection(Vec3 v) {
+    return transformDirection(v, new Vec3());
+  }
+
+  /**
+   * Writes the transformed direction, ignoring translation, into dest, which may be v, and
+   * returns dest.
+   */
+  public Vec3 transformDirection(Vec3 v, Vec3 dest) {
+    double x = v.getX(), y = v.getY(), z = v.getZ();
+    dest.set(
+        m[0] * x + m[1] * y + m[2] * z,
+        m[4] * x + m[5] * y + m[6] * z,
+        m[8] * x + m[9] * y + m[10] * z);
+    return dest;
+  }
+
+  public Vec3 transformNormal(Vec3 n) {
+    return transformNormal(n, new Vec3());
+  }
+
+  /**
+   * Writes the transformed normal, unnormalized, into dest, which may be n, and returns dest.
+   */
+  public Vec3 transformNormal(Vec3 n, Vec3 dest) {
+    return getNormalMatrix().transformDirection(n, dest);
+  }
+
+  @Override
+  public String toString() {
+    return toM4x4().toString();
+  }
+
+  ////////////////////////////////////////
+
+  /**
+   * Returns the cofactors of the 3x3, row-major.
+   */
+  private double[] getCofactors() {
+    return new double[] {
+        m[5] * m[10] - m[6] * m[9], m[6] * m[8] - m[4] * m[10], m[4] * m[9] - m[5] * m[8],
+        m[2] * m[9] - m[1] * m[10], m[0] * m[10] - m[2] * m[8], m[1] * m[8] - m[0] * m[9],
+        m[1] * m[6] - m[2] * m[5], m[2] * m[4] - m[0] * m[6], m[0] * m[5] - m[1] * m[4] };
+  }
+}
@@ -0,0 +1,73 @@
+package com.bentonian.framework.math;
+
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Axis-aligned bounding box.
+ */
+public class BoundingBox {
+
+  private final Vec3 min;
+  private final Vec3 max;
+
+  public BoundingBox(Vec3 min, Vec3 max) {
+    this.min = new Vec3(min);
+    this.max = new Vec3(max);
+  }
+
+  public BoundingBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+    this.min = new Vec3(minX, minY, minZ);
+    this.max = new Vec3(maxX, maxY, maxZ);
+  }
+
+  public Vec3 getMin() {
+    return min;
+  }
+
+  public Vec3 getMax() {
+    return max;
+  }
+
+  public Vec3 getCenter() {
+    return MathUtil.midPt(min, max);
+  }
+
+  public BoundingBox union(BoundingBox other) {
+    return new BoundingBox(
+        min(min.getX(), other.min.getX()),
+        min(min.getY(), other.min.getY()),
+        min(min.getZ(), other.min.getZ()),
+        max(max.getX(), other.max.getX()),
+        max(max.getY(), other.max.getY()),
+        max(max.getZ(), other.max.getZ()));
+  }
+
+  public BoundingBox grow(double d) {
+    return new BoundingBox(
+        min.getX() - d, min.getY() - d, min.getZ() - d,
+        max.getX() + d, max.getY() + d, max.getZ() + d);
+  }
+
+  /**
+   * Returns the box enclosing this box's eight corners after transformation by T.
+   */
+  public BoundingBox transformedBy(M4x4 T) {
+    BoundingBox transformed = null;
+    for (int corner = 0; corner < 8; corner++) {
+      Vec3 pt = T.times(new Vec3(
+          ((corner & 1) == 0) ? min.getX() : max.getX(),
+          ((corner & 2) == 0) ? min.getY() : max.getY(),
+          ((corner & 4) == 0) ? min.getZ() : max.getZ()));
+      transformed = (transformed == null)
+          ? new BoundingBox(pt, pt)
+          : transformed.union(new BoundingBox(pt, pt));
+    }
+    return transformed;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + min + "] --> [" + max + "]";
+  }
+}
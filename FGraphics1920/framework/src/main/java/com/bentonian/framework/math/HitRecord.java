@@ -0,0 +1,120 @@
+package com.bentonian.framework.math;
+
+import javax.annotation.Nullable;
+
+import com.bentonian.framework.material.Material;
+import com.bentonian.framework.scene.Primitive;
+
+/**
+ * Mutable record of the single nearest hit found so far along a ray, for tracing without
+ * collecting every intersection.  The current t doubles as a cutoff: offers at or beyond
+ * it are refused, so implementations can skip work on hits which can't win.
+ *
+ * In any-hit mode, the first accepted hit completes the query; use it for occlusion tests
+ * where the caller only needs to know whether something lies closer than t.
+ *
+ * Records are meant to be reset and reused, one per thread, rather than reallocated per ray.
+ */
+public class HitRecord {
+
+  public double t;
+  public double px, py, pz;
+  public double nx, ny, nz;
+  public Primitive primitive;
+  public Material material;
+
+  private boolean anyHit;
+  private boolean hit;
+
+  public HitRecord() {
+    reset(Double.POSITIVE_INFINITY, false);
+  }
+
+  /**
+   * Clears the record for a new query, accepting hits up to (but not including) tMax.
+   */
+  public HitRecord reset(double tMax, boolean anyHit) {
+    this.t = tMax;
+    this.anyHit = anyHit;
+    this.hit = false;
+    this.primitive = null;
+    this.material = null;
+    return this;
+  }
+
+  /**
+   * True if a hit at t would be accepted.  Check before computing normals or materials.
+   */
+  public boolean accepts(double t) {
+    return (t >= MathConstants.EPSILON) && (t < this.t) && !isDone();
+  }
+
+  /**
+   * Records the hit if it's nearer than the current one; returns true if it was kept.
+   */
+  public boolean offer(@Nullable Primitive primitive, double t, Vec3 point, Vec3 normal,
+      Material material) {
+    if (!accepts(t)) {
+      return false;
+    }
+    this.t = t;
+    this.px = point.x;
+    this.py = point.y;
+    this.pz = point.z;
+    this.nx = normal.x;
+    this.ny = normal.y;
+    this.nz = normal.z;
+    this.primitive = primitive;
+    this.material = material;
+    this.hit = true;
+    return true;
+  }
+
+  public boolean offer(RayIntersection hit) {
+    return offer(hit.primitive, hit.t, hit.point, hit.normal, hit.material);
+  }
+
+  /**
+   * Overwrites the recorded hit's distance and geometry, such as when mapping it from an
+   * object's local coordinates back out to world coordinates.
+   */
+  public void setHit(double t, Vec3 point, Vec3 normal) {
+    this.t = t;
+    this.px = point.x;
+    this.py = point.y;
+    this.pz = point.z;
+    this.nx = normal.x;
+    this.ny = normal.y;
+    this.nz = normal.z;
+  }
+
+  public boolean hasHit() {
+    return hit;
+  }
+
+  public boolean isAnyHit() {
+    return anyHit;
+  }
+
+  /**
+   * True once an any-hit query has found its hit and no more searching is needed.
+   */
+  public boolean isDone() {
+    return anyHit && hit;
+  }
+
+  public Vec3 getPoint() {
+    return new Vec3(px, py, pz);
+  }
+
+  public Vec3 getNormal() {
+    return new Vec3(nx, ny, nz);
+  }
+
+  /**
+   * Copies the recorded hit out into a RayIntersection, or returns null if there wasn't one.
+   */
+  public RayIntersection toRayIntersection() {
+    return hit ? new RayIntersection(primitive, t, getPoint(), getNormal(), material) : null;
+  }
+}
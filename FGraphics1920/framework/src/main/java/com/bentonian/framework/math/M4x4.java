@@ -7,15 +7,14 @@ import org.lwjgl.BufferUtils;
 
 public class M4x4 {
 
+  // Run with -Dm4x4.verifyInverses=true to check every inverse by multiplying it back
+  private static final boolean VERIFY_INVERSES = Boolean.getBoolean("m4x4.verifyInverses");
+
   // Data stored [row][col]
   double data[][] = new double[4][4];
 
   public M4x4() {
-    for (int row = 0; row < 4; row++) {
-      for (int col = 0; col < 4; col++) {
-        data[row][col] = (row == col) ? 1 : 0;
-      }
-    }
+    data[0][0] = data[1][1] = data[2][2] = data[3][3] = 1;
   }
 
   public M4x4(double[][] A) {
@@ -143,7 +142,11 @@ public class M4x4 {
   }
 
   public M4x4 setIdentity() {
-    setData(new M4x4().getData());
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 4; col++) {
+        data[row][col] = (row == col) ? 1 : 0;
+      }
+    }
     return this;
   }
 
@@ -158,6 +161,14 @@ public class M4x4 {
     return true;
   }
 
+  /**
+   * Returns true if the bottom row is 0 0 0 1, as it is for anything built from translations,
+   * rotations and scales.
+   */
+  public boolean isAffine() {
+    return data[3][0] == 0 && data[3][1] == 0 && data[3][2] == 0 && data[3][3] == 1;
+  }
+
   public M4x4 plus(M4x4 A) {
     M4x4 M = new M4x4();
     for (int row = 0; row < 4; row++) {
@@ -199,36 +210,89 @@ public class M4x4 {
   }
 
   public Vec3 times(Vec3 C) {
-    double a, b, c, d;
+    return times(C, new Vec3());
+  }
+
+  /**
+   * Writes this * C, divided through by w, into dest, which may be C, and returns dest.
+   */
+  public Vec3 times(Vec3 C, Vec3 dest) {
+    double x = C.getX(), y = C.getY(), z = C.getZ();
+    double d = data[3][0] * x + data[3][1] * y + data[3][2] * z + data[3][3];
+    dest.set(
+        (data[0][0] * x + data[0][1] * y + data[0][2] * z + data[0][3]) / d,
+        (data[1][0] * x + data[1][1] * y + data[1][2] * z + data[1][3]) / d,
+        (data[2][0] * x + data[2][1] * y + data[2][2] * z + data[2][3]) / d);
+    return dest;
+  }
+
+  /**
+   * Returns the upper-left 3x3 times v, as extract3x3().times(v) but without the copy.
+   */
+  public Vec3 transformDirection(Vec3 v) {
+    return transformDirection(v, new Vec3());
+  }
 
-    a = getRow(0).dot(C) + data[0][3];
-    b = getRow(1).dot(C) + data[1][3];
-    c = getRow(2).dot(C) + data[2][3];
-    d = getRow(3).dot(C) + data[3][3];
-    return new Vec3(a / d, b / d, c / d);
+  /**
+   * Writes the upper-left 3x3 times v into dest, which may be v, and returns dest.
+   */
+  public Vec3 transformDirection(Vec3 v, Vec3 dest) {
+    double x = v.getX(), y = v.getY(), z = v.getZ();
+    dest.set(
+        data[0][0] * x + data[0][1] * y + data[0][2] * z,
+        data[1][0] * x + data[1][1] * y + data[1][2] * z,
+        data[2][0] * x + data[2][1] * y + data[2][2] * z);
+    return dest;
   }
 
   public M4x4 times(M4x4 A) {
-    M4x4 M = new M4x4();
+    return times(A, new M4x4());
+  }
+
+  /**
+   * Writes this * A into dest and returns dest.  dest may be this or A; each row of the
+   * product is finished before it's stored.
+   */
+  public M4x4 times(M4x4 A, M4x4 dest) {
+    double[][] a = A.data;
+    double b0 = a[0][0], b1 = a[0][1], b2 = a[0][2], b3 = a[0][3];
+    double b4 = a[1][0], b5 = a[1][1], b6 = a[1][2], b7 = a[1][3];
+    double b8 = a[2][0], b9 = a[2][1], b10 = a[2][2], b11 = a[2][3];
+    double b12 = a[3][0], b13 = a[3][1], b14 = a[3][2], b15 = a[3][3];
     for (int row = 0; row < 4; row++) {
-      for (int col = 0; col < 4; col++) {
-        M.data[row][col] = 0;
-        for (int k = 0; k < 4; k++) {
-          M.data[row][col] += data[row][k] * A.data[k][col];
-        }
-      }
+      double r0 = data[row][0], r1 = data[row][1], r2 = data[row][2], r3 = data[row][3];
+      double[] out = dest.data[row];
+      out[0] = r0 * b0 + r1 * b4 + r2 * b8 + r3 * b12;
+      out[1] = r0 * b1 + r1 * b5 + r2 * b9 + r3 * b13;
+      out[2] = r0 * b2 + r1 * b6 + r2 * b10 + r3 * b14;
+      out[3] = r0 * b3 + r1 * b7 + r2 * b11 + r3 * b15;
     }
-    return M;
+    return dest;
+  }
+
+  /**
+   * Replaces this with A * this, as applying A after this transform, and returns this.
+   */
+  public M4x4 preMultiply(M4x4 A) {
+    return A.times(this, this);
   }
 
   public M4x4 transposed() {
-    M4x4 M = new M4x4();
+    return transposed(new M4x4());
+  }
+
+  /**
+   * Writes the transpose into dest, which may be this, and returns dest.
+   */
+  public M4x4 transposed(M4x4 dest) {
     for (int row = 0; row < 4; row++) {
-      for (int col = 0; col < 4; col++) {
-        M.data[row][col] = data[col][row];
+      for (int col = row; col < 4; col++) {
+        double t = data[row][col];
+        dest.data[row][col] = data[col][row];
+        dest.data[col][row] = t;
       }
     }
-    return M;
+    return dest;
   }
 
   public static M4x4 translationMatrix(Vec3 t) {
@@ -311,31 +375,45 @@ public class M4x4 {
   }
 
   public M4x4 extract3x3() {
-    M4x4 M = new M4x4();
-    for (int col = 0; col < 3; col++) {
-      for (int row = 0; row < 3; row++) {
-        M.data[row][col] = data[row][col];
+    return extract3x3(new M4x4());
+  }
+
+  /**
+   * Writes the upper-left 3x3, in an otherwise identity matrix, into dest, which may be this,
+   * and returns dest.
+   */
+  public M4x4 extract3x3(M4x4 dest) {
+    for (int row = 0; row < 3; row++) {
+      for (int col = 0; col < 3; col++) {
+        dest.data[row][col] = data[row][col];
       }
+      dest.data[row][3] = dest.data[3][row] = 0;
     }
-    return M;
+    dest.data[3][3] = 1;
+    return dest;
   }
 
-  public M4x4 inverted() {
-    double determinant = determinant(data);
-    M4x4 inverted = cofactor().transposed().times(1.0 / determinant);
+  /**
+   * Returns the matrix which carries normals, extract3x3().inverted().transposed().
+   */
+  public M4x4 normalMatrix() {
+    return Affine.linearPart(this).getNormalMatrix().toM4x4();
+  }
 
-    M4x4 check = this.times(inverted);
-    check = check.minus(M4x4.identity());
-    for (int row = 0; row < 4; row++) {
-      for (int col = 0; col < 4; col++) {
-        if (Math.abs(check.data[row][col]) > 0.00001) {
-          throw new IllegalArgumentException(
-              "Invert() implementation bug while attempting to invert matrix.\nSource =\n"
-              + this + "\nInverted = " + inverted + "\nProduct = " + this.times(inverted));
-        }
-      }
+  /**
+   * Returns the inverse; affine matrices are inverted as a 3x3 and a translation, anything
+   * else through the full cofactor expansion.
+   */
+  public M4x4 inverted() {
+    M4x4 inverted;
+    if (isAffine()) {
+      inverted = new Affine(this).getInverse().toM4x4();
+    } else {
+      inverted = cofactor().transposed().times(1.0 / determinant(data));
+    }
+    if (VERIFY_INVERSES) {
+      verifyInverse(inverted);
     }
-
     return inverted;
   }
 
@@ -363,12 +441,15 @@ public class M4x4 {
 
   @Override
   public int hashCode() {
-    double[] array = {
-        data[0][0], data[0][1], data[0][2], data[0][3],
-        data[1][0], data[1][1], data[1][2], data[1][3],
-        data[2][0], data[2][1], data[2][2], data[2][3],
-        data[3][0], data[3][1], data[3][2], data[3][3]};
-    return Arrays.hashCode(array);
+    // As Arrays.hashCode() of the sixteen values in row order, without building the array
+    int hash = 1;
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 4; col++) {
+        long bits = Double.doubleToLongBits(data[row][col]);
+        hash = 31 * hash + (int) (bits ^ (bits >>> 32));
+      }
+    }
+    return hash;
   }
 
   @Override
@@ -378,6 +459,20 @@ public class M4x4 {
 
   /////////////////////////////////////////////////////////////////////////////
 
+  private void verifyInverse(M4x4 inverted) {
+    M4x4 check = this.times(inverted);
+    check = check.minus(M4x4.identity());
+    for (int row = 0; row < 4; row++) {
+      for (int col = 0; col < 4; col++) {
+        if (Math.abs(check.data[row][col]) > 0.00001) {
+          throw new IllegalArgumentException(
+              "Invert() implementation bug while attempting to invert matrix.\nSource =\n"
+              + this + "\nInverted = " + inverted + "\nProduct = " + this.times(inverted));
+        }
+      }
+    }
+  }
+
   private M4x4 cofactor() {
     double[][] source = data;
     M4x4 cofactor = new M4x4();
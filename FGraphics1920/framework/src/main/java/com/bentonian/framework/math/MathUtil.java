@@ -242,7 +242,7 @@ public class MathUtil {
   }
   
   public static Vec3 midPt(Vec3 a, Vec3 b) {
-    return new Vec3((a.vec[0] + b.vec[0]) / 2, (a.vec[1] + b.vec[1]) / 2, (a.vec[2] + b.vec[2]) / 2);
+    return new Vec3((a.x + b.x) / 2, (a.y + b.y) / 2, (a.z + b.z) / 2);
   }
   
   public static boolean colinear(Vec3 a, Vec3 b, Vec3 c) {
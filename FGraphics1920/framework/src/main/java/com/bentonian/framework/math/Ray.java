@@ -1,39 +1,65 @@
 package com.bentonian.framework.math;
 
-import static java.lang.Math.min;
-
 import com.google.common.base.Objects;
 
 
 public class Ray {
 
-  private static final Vec3 X = new Vec3(1, 0, 0);
-  private static final Vec3 Y = new Vec3(0, 1, 0);
-  private static final Vec3 Z = new Vec3(0, 0, 1);
-
   public Vec3 origin;
   public Vec3 direction;
 
+  // The angle, in radians, by which the ray's cross-section widens; zero for an ideal ray
+  public double spread;
+
   public Ray(Vec3 origin, Vec3 direction) {
+    this(origin, direction, 0);
+  }
+
+  public Ray(Vec3 origin, Vec3 direction, double spread) {
+    this.origin = origin;
+    this.direction = direction;
+    this.spread = spread;
+  }
+
+  public Ray set(Vec3 origin, Vec3 direction) {
     this.origin = origin;
     this.direction = direction;
+    return this;
   }
 
   public Ray transformedBy(M4x4 pointTransform, M4x4 directionTransform) {
-    return new Ray(pointTransform.times(origin), directionTransform.times(direction).normalized());
+    return new Ray(pointTransform.times(origin), directionTransform.times(direction).normalized(),
+        spread);
   }
 
   public Vec3 at(double t) {
     return origin.plus(direction.times(t));
   }
 
+  /**
+   * Returns the width of the ray's cross-section at t, for a ray with a unit direction.
+   */
+  public double getFootprint(double t) {
+    return spread * t;
+  }
+
   public Double intersectPlane(Vec3 Q, Vec3 N) {
-    double nDotD = N.dot(direction);
+    double t = intersectPlaneUnboxed(Q, N);
+    return Double.isNaN(t) ? null : t;
+  }
+
+  /**
+   * As {@link #intersectPlane}, but returns NaN instead of null on a miss and allocates nothing.
+   */
+  public double intersectPlaneUnboxed(Vec3 Q, Vec3 N) {
+    Vec3 d = direction;
+    double nDotD = N.x * d.x + N.y * d.y + N.z * d.z;
     if (Math.abs(nDotD) >= MathConstants.EPSILON) {
-      double t = N.dot(Q.minus(origin)) / nDotD;
-      return (t >= 0) ? t : null;
+      Vec3 o = origin;
+      double t = (N.x * (Q.x - o.x) + N.y * (Q.y - o.y) + N.z * (Q.z - o.z)) / nDotD;
+      return (t >= 0) ? t : Double.NaN;
     } else {
-      return null;
+      return Double.NaN;
     }
   }
 
@@ -46,81 +72,78 @@ public class Ray {
   }
   
   public Double intersectsCube(Vec3 min, Vec3 max, boolean precise) {
-    Double t, bestT = null;
-
-    if (((t = intersectPlane(min, X)) != null) && inBoxYZ(at(t), min, max)) {
-      if (precise) {
-        return t;
-      } else {
-        bestT = min(t, Objects.firstNonNull(bestT, t));
-      }
-    }
-    if (((t = intersectPlane(max, X)) != null) && inBoxYZ(at(t), min, max)) {
-      if (precise) {
-        return t;
-      } else {
-        bestT = min(t, Objects.firstNonNull(bestT, t));
+    double bestT = Double.NaN;
+
+    for (int axis = 0; axis < 3; axis++) {
+      for (int side = 0; side < 2; side++) {
+        double t = intersectAxisPlane(axis, ((side == 0) ? min : max).get(axis));
+        if (!Double.isNaN(t) && inBox(axis, t, min, max)) {
+          if (precise) {
+            return t;
+          } else if (Double.isNaN(bestT) || t < bestT) {
+            bestT = t;
+          }
+        }
       }
     }
-    if (((t = intersectPlane(min, Y)) != null) && inBoxXZ(at(t), min, max)) {
-      if (precise) {
-        return t;
-      } else {
-        bestT = min(t, Objects.firstNonNull(bestT, t));
-      }
-    }
-    if (((t = intersectPlane(max, Y)) != null) && inBoxXZ(at(t), min, max)) {
-      if (precise) {
-        return t;
-      } else {
-        bestT = min(t, Objects.firstNonNull(bestT, t));
-      }
-    }
-    if (((t = intersectPlane(min, Z)) != null) && inBoxXY(at(t), min, max)) {
-      if (precise) {
-        return t;
-      } else {
-        bestT = min(t, Objects.firstNonNull(bestT, t));
-      }
-    }
-    if (((t = intersectPlane(max, Z)) != null) && inBoxXY(at(t), min, max)) {
-      if (precise) {
-        return t;
-      } else {
-        bestT = min(t, Objects.firstNonNull(bestT, t));
-      }
-    }
-    return bestT;
+    return Double.isNaN(bestT) ? null : bestT;
   }
 
-  private boolean inBoxXY(Vec3 pt, Vec3 min, Vec3 max) {
-    return ((pt.getY() >= min.getY()) && (pt.getY() <= max.getY())
-        && (pt.getX() >= min.getX()) && (pt.getX() <= max.getX()));
+  // Same as intersectPlane() against the plane through value perpendicular to the given axis
+  private double intersectAxisPlane(int axis, double value) {
+    double nDotD = direction.get(axis);
+    if (Math.abs(nDotD) >= MathConstants.EPSILON) {
+      double t = (value - origin.get(axis)) / nDotD;
+      return (t >= 0) ? t : Double.NaN;
+    } else {
+      return Double.NaN;
+    }
   }
 
-  private boolean inBoxXZ(Vec3 pt, Vec3 min, Vec3 max) {
-    return ((pt.getX() >= min.getX()) && (pt.getX() <= max.getX())
-        && (pt.getZ() >= min.getZ()) && (pt.getZ() <= max.getZ()));
+  // True if the point at t lies within the box on the two axes other than skipAxis
+  private boolean inBox(int skipAxis, double t, Vec3 min, Vec3 max) {
+    for (int axis = 0; axis < 3; axis++) {
+      if (axis != skipAxis) {
+        double p = origin.get(axis) + direction.get(axis) * t;
+        if (p < min.get(axis) || p > max.get(axis)) {
+          return false;
+        }
+      }
+    }
+    return true;
   }
 
-  private boolean inBoxYZ(Vec3 pt, Vec3 min, Vec3 max) {
-    return ((pt.getY() >= min.getY()) && (pt.getY() <= max.getY())
-        && (pt.getZ() >= min.getZ()) && (pt.getZ() <= max.getZ()));
+  public Double intersectsTriangle(Vec3 a, Vec3 b, Vec3 c, Vec3 n) {
+    double t = intersectsTriangleUnboxed(a, b, c, n);
+    return Double.isNaN(t) ? null : t;
   }
 
-  public Double intersectsTriangle(Vec3 a, Vec3 b, Vec3 c, Vec3 n) {
-    Double hit = intersectPlane(a, n);
-    if (hit != null) {
-      Vec3 P = at(hit);
-      double ab = n.cross(b.minus(a)).dot(P.minus(a));
-      double bc = n.cross(c.minus(b)).dot(P.minus(b));
-      double ca = n.cross(a.minus(c)).dot(P.minus(c));
-      return ((ab >= 0) && (bc >= 0) && (ca >= 0)) ? hit : null;
+  /**
+   * As {@link #intersectsTriangle}, but returns NaN instead of null on a miss and allocates
+   * nothing.
+   */
+  public double intersectsTriangleUnboxed(Vec3 a, Vec3 b, Vec3 c, Vec3 n) {
+    double t = intersectPlaneUnboxed(a, n);
+    if (!Double.isNaN(t)) {
+      double px = origin.x + direction.x * t;
+      double py = origin.y + direction.y * t;
+      double pz = origin.z + direction.z * t;
+      return ((edgeTest(n, a, b, px, py, pz) >= 0)
+          && (edgeTest(n, b, c, px, py, pz) >= 0)
+          && (edgeTest(n, c, a, px, py, pz) >= 0)) ? t : Double.NaN;
     } else {
-      return null;
+      return Double.NaN;
     }
   }
 
+  // (n x (q - p)) . (pt - p)
+  private static double edgeTest(Vec3 n, Vec3 p, Vec3 q, double x, double y, double z) {
+    double ex = q.x - p.x, ey = q.y - p.y, ez = q.z - p.z;
+    return (n.y * ez - n.z * ey) * (x - p.x)
+        + (n.z * ex - n.x * ez) * (y - p.y)
+        + (n.x * ey - n.y * ex) * (z - p.z);
+  }
+
   @Override
   public String toString() {
     return "[O=[" + origin.toString() + "], D=[" + direction.toString() + "]]";
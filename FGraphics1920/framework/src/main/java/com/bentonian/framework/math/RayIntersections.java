@@ -12,7 +12,8 @@ import com.google.common.collect.Lists;
 
 public class RayIntersections implements Iterable<RayIntersection> {
 
-  private List<RayIntersection> hits = Lists.newLinkedList();
+  private final List<RayIntersection> hits = Lists.newArrayList();
+  private RayIntersection nearest;
 
   public RayIntersections add(@Nullable Primitive primitive, double t, Vec3 point, Vec3 normal, Material material) {
     if (t >= MathConstants.EPSILON) {
@@ -23,24 +24,35 @@ public class RayIntersections implements Iterable<RayIntersection> {
 
   public void addAll(RayIntersections source) {
     if (source != null) {
-      hits.addAll(source.hits);
+      for (RayIntersection hit : source.hits) {
+        add(hit);
+      }
     }
   }
 
   public void add(RayIntersection toAdd) {
     hits.add(toAdd);
+    if ((nearest == null) || (toAdd.t < nearest.t)) {
+      nearest = toAdd;
+    }
   }
 
   public RayIntersection getNearest() {
-    RayIntersection nearest = null;
-    for (RayIntersection hit : hits) {
-      if ((nearest == null) || (hit.t < nearest.t)) {
-        nearest = hit;
-      }
-    }
     return nearest;
   }
 
+  /**
+   * Empties the list so that it can be reused for another ray.
+   */
+  public void clear() {
+    hits.clear();
+    nearest = null;
+  }
+
+  public int size() {
+    return hits.size();
+  }
+
   public RayIntersectionList sorted() {
     return new RayIntersectionList(hits);
   }
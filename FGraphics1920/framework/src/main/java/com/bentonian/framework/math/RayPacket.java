@@ -0,0 +1,108 @@
+package com.bentonian.framework.math;
+
+import java.util.Arrays;
+
+/**
+ * A bundle of coherent rays stored as structure-of-arrays, for tracing many rays through
+ * the same object in one tight loop.  Like {@link HitRecord}, each ray's t is both its
+ * nearest hit so far and the cutoff for further hits; hit[] flags the rays whose t was
+ * improved by the most recent trace, and hitId[] is free for the caller to tag winners.
+ *
+ * Packets are only a visibility pre-pass: once the nearest object along each ray is known,
+ * shading information is recovered by re-tracing that one ray against that one object.
+ */
+public class RayPacket {
+
+  public final double[] ox, oy, oz;
+  public final double[] dx, dy, dz;
+  public final double[] t;
+  public final boolean[] hit;
+  public final int[] hitId;
+  public int size;
+
+  public RayPacket(int capacity) {
+    this.ox = new double[capacity];
+    this.oy = new double[capacity];
+    this.oz = new double[capacity];
+    this.dx = new double[capacity];
+    this.dy = new double[capacity];
+    this.dz = new double[capacity];
+    this.t = new double[capacity];
+    this.hit = new boolean[capacity];
+    this.hitId = new int[capacity];
+    this.size = 0;
+  }
+
+  public int capacity() {
+    return t.length;
+  }
+
+  /**
+   * Empties the packet, ready for rays to be added.
+   */
+  public RayPacket clear() {
+    size = 0;
+    return this;
+  }
+
+  /**
+   * Appends a ray with no hit yet and an unlimited cutoff.
+   */
+  public void add(double ox, double oy, double oz, double dx, double dy, double dz) {
+    int i = size++;
+    this.ox[i] = ox;
+    this.oy[i] = oy;
+    this.oz[i] = oz;
+    this.dx[i] = dx;
+    this.dy[i] = dy;
+    this.dz[i] = dz;
+    this.t[i] = Double.POSITIVE_INFINITY;
+    this.hit[i] = false;
+    this.hitId[i] = -1;
+  }
+
+  public Ray getRay(int i) {
+    return new Ray(new Vec3(ox[i], oy[i], oz[i]), new Vec3(dx[i], dy[i], dz[i]));
+  }
+
+  /**
+   * True if a hit at t would be accepted for ray i.
+   */
+  public boolean accepts(int i, double t) {
+    return (t >= MathConstants.EPSILON) && (t < this.t[i]);
+  }
+
+  /**
+   * Fills dest with this packet's rays mapped through the given point and direction
+   * transforms, directions renormalized, and each cutoff rescaled to the new distance units.
+   * distanceScale[i] receives the ratio of new distances to old along ray i.
+   */
+  public void transformInto(M4x4 pointTransform, M4x4 directionTransform, RayPacket dest,
+      double[] distanceScale) {
+    double[][] P = pointTransform.data;
+    double[][] D = directionTransform.data;
+
+    dest.size = size;
+    for (int i = 0; i < size; i++) {
+      double x = ox[i], y = oy[i], z = oz[i];
+      double w = P[3][0] * x + P[3][1] * y + P[3][2] * z + P[3][3];
+      dest.ox[i] = (P[0][0] * x + P[0][1] * y + P[0][2] * z + P[0][3]) / w;
+      dest.oy[i] = (P[1][0] * x + P[1][1] * y + P[1][2] * z + P[1][3]) / w;
+      dest.oz[i] = (P[2][0] * x + P[2][1] * y + P[2][2] * z + P[2][3]) / w;
+    }
+    for (int i = 0; i < size; i++) {
+      double x = dx[i], y = dy[i], z = dz[i];
+      double w = D[3][0] * x + D[3][1] * y + D[3][2] * z + D[3][3];
+      double tx = (D[0][0] * x + D[0][1] * y + D[0][2] * z + D[0][3]) / w;
+      double ty = (D[1][0] * x + D[1][1] * y + D[1][2] * z + D[1][3]) / w;
+      double tz = (D[2][0] * x + D[2][1] * y + D[2][2] * z + D[2][3]) / w;
+      double length = Math.sqrt(tx * tx + ty * ty + tz * tz);
+      dest.dx[i] = tx / length;
+      dest.dy[i] = ty / length;
+      dest.dz[i] = tz / length;
+      distanceScale[i] = length / Math.sqrt(x * x + y * y + z * z);
+      dest.t[i] = t[i] * distanceScale[i];
+    }
+    Arrays.fill(dest.hit, 0, size, false);
+  }
+}
@@ -4,29 +4,34 @@ import static com.bentonian.framework.math.MathConstants.EPSILON;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
+/**
+ * A point, direction or color.  The three components are plain fields, so a Vec3 is one
+ * object rather than an object and an array.  The arithmetic methods return new vectors;
+ * each has a form which writes into a given vector instead, and add(), addScaled() and
+ * scale() update a vector in place, for accumulating in loops without allocating.
+ */
 public class Vec3 {
-  
-  double vec[] = new double[3];  
-  
+
+  double x, y, z;
+
   public Vec3() {
-    vec[0] = vec[1] = vec[2] = 0;
   }
-  
+
   public Vec3(double d) {
-    vec[0] = vec[1] = vec[2] = d;
+    x = y = z = d;
   }
-  
+
   public Vec3(double x, double y, double z) {
     set(x, y, z);
   }
-  
+
   public static Vec3 fromRGBA(int rgba) {
     int r = (rgba >> 16) & 0xFF;
     int g = (rgba >> 8) & 0xFF;
     int b = (rgba >> 0) & 0xFF;
     return new Vec3(r, g, b).times(1.0 / 255.0);
   }
-  
+
   public Vec3(Vec3 A) {
     set(A);
   }
@@ -34,136 +39,213 @@ public class Vec3 {
   public Vec3(double[] data) {
     set(data);
   }
-  
+
   public Vec3(int[] data) {
     set(data[0], data[1], data[2]);
   }
-  
+
   public void set(double x, double y, double z) {
-    vec[0] = x;
-    vec[1] = y;
-    vec[2] = z;
+    this.x = x;
+    this.y = y;
+    this.z = z;
   }
-  
+
   public void set(double v) {
-    vec[0] = vec[1] = vec[2] = v;
+    x = y = z = v;
   }
-  
+
   public void set(Vec3 A) {
-    vec[0] = A.vec[0];
-    vec[1] = A.vec[1];
-    vec[2] = A.vec[2];
+    x = A.x;
+    y = A.y;
+    z = A.z;
   }
 
   public void set(double[] data) {
-    vec[0] = data[0];
-    vec[1] = data[1];
-    vec[2] = data[2];
+    x = data[0];
+    y = data[1];
+    z = data[2];
   }
 
   public Vec3 neg() {
-    return new Vec3(-vec[0], -vec[1], -vec[2]);
+    return new Vec3(-x, -y, -z);
   }
 
   public Vec3 plus(Vec3 B) {
-    return new Vec3(vec[0] + B.vec[0], vec[1] + B.vec[1], vec[2] + B.vec[2]); 
+    return new Vec3(x + B.x, y + B.y, z + B.z);
   }
 
   public Vec3 minus(Vec3 B) {
-    return new Vec3(vec[0] - B.vec[0], vec[1] - B.vec[1], vec[2] - B.vec[2]); 
+    return new Vec3(x - B.x, y - B.y, z - B.z);
   }
 
   public Vec3 times(double k) {
-    return new Vec3(k*vec[0], k*vec[1], k*vec[2]);
+    return new Vec3(k * x, k * y, k * z);
   }
 
   public Vec3 cross(Vec3 B) {
-    return new Vec3(vec[1]*B.vec[2] - vec[2]*B.vec[1], 
-        vec[2]*B.vec[0] - vec[0]*B.vec[2],
-        vec[0]*B.vec[1] - vec[1]*B.vec[0]);
+    return crossInto(B, new Vec3());
   }
 
   public Vec3 lerp(Vec3 B, double t) {
-    return new Vec3(vec[0]+t*(B.vec[0]-vec[0]),
-        vec[1]+t*(B.vec[1]-vec[1]),
-        vec[2]+t*(B.vec[2]-vec[2]));
+    return new Vec3(x + t * (B.x - x), y + t * (B.y - y), z + t * (B.z - z));
   }
 
   public Vec3 normalized() {
+    return normalizeInto(new Vec3());
+  }
+
+  /**
+   * Writes this + B into dest, which may be this or B, and returns dest.
+   */
+  public Vec3 addInto(Vec3 B, Vec3 dest) {
+    dest.set(x + B.x, y + B.y, z + B.z);
+    return dest;
+  }
+
+  /**
+   * Writes this - B into dest, which may be this or B, and returns dest.
+   */
+  public Vec3 subtractInto(Vec3 B, Vec3 dest) {
+    dest.set(x - B.x, y - B.y, z - B.z);
+    return dest;
+  }
+
+  /**
+   * Writes this * k into dest, which may be this, and returns dest.
+   */
+  public Vec3 scaleInto(double k, Vec3 dest) {
+    dest.set(k * x, k * y, k * z);
+    return dest;
+  }
+
+  /**
+   * Writes this x B into dest, which may be this or B, and returns dest.
+   */
+  public Vec3 crossInto(Vec3 B, Vec3 dest) {
+    dest.set(y * B.z - z * B.y, z * B.x - x * B.z, x * B.y - y * B.x);
+    return dest;
+  }
+
+  /**
+   * Writes this, normalized, into dest, which may be this, and returns dest.  Vectors too
+   * short to normalize become zero.
+   */
+  public Vec3 normalizeInto(Vec3 dest) {
     double len = length();
-    
-    if (len > EPSILON) {
-      return this.times(1.0 / len);
-    } else {
-      return new Vec3(0,0,0);
-    }
+    return scaleInto((len > EPSILON) ? 1.0 / len : 0, dest);
+  }
+
+  /**
+   * Adds B to this vector and returns this.
+   */
+  public Vec3 add(Vec3 B) {
+    return addInto(B, this);
+  }
+
+  /**
+   * Adds B * k to this vector and returns this.
+   */
+  public Vec3 addScaled(Vec3 B, double k) {
+    set(x + k * B.x, y + k * B.y, z + k * B.z);
+    return this;
+  }
+
+  /**
+   * Multiplies this vector by k and returns this.
+   */
+  public Vec3 scale(double k) {
+    return scaleInto(k, this);
   }
 
   public double get(int i) {
-    return vec[i];
+    switch (i) {
+    case 0:
+      return x;
+    case 1:
+      return y;
+    case 2:
+      return z;
+    default:
+      throw new IndexOutOfBoundsException("Vec3 index " + i);
+    }
   }
 
-  public double[] get() { 
-    return vec;
+  /**
+   * Returns a copy of the components as an array.
+   */
+  public double[] get() {
+    return new double[] { x, y, z };
   }
-  
+
   public float[] asFloats() {
-    float[] array = { (float) vec[0], (float) vec[1], (float) vec[2] };
+    float[] array = { (float) x, (float) y, (float) z };
     return array;
   }
-  
+
   public int asRGBA() {
-    int r = max(min((int) (vec[0] * 255), 255), 0);
-    int g = max(min((int) (vec[1] * 255), 255), 0);
-    int b = max(min((int) (vec[2] * 255), 255), 0);
+    int r = max(min((int) (x * 255), 255), 0);
+    int g = max(min((int) (y * 255), 255), 0);
+    int b = max(min((int) (z * 255), 255), 0);
     return (0xFF << 24) | (r << 16) | (g << 8) | (b << 0);
   }
   
   public void set(int i, double val) {
-    vec[i] = val;
+    switch (i) {
+    case 0:
+      x = val;
+      break;
+    case 1:
+      y = val;
+      break;
+    case 2:
+      z = val;
+      break;
+    default:
+      throw new IndexOutOfBoundsException("Vec3 index " + i);
+    }
   }
 
   public double getX() {
-    return vec[0];
+    return x;
   }
 
   public void setX(double val) {
-    vec[0] = val;
+    x = val;
   }
 
   public double getY() {
-    return vec[1];
+    return y;
   }
 
   public void setY(double val) {
-    vec[1] = val;
+    y = val;
   }
 
   public double getZ() {
-    return vec[2];
+    return z;
   }
 
   public void setZ(double val) {
-    vec[2] = val;
+    z = val;
   }
 
   public double dot(Vec3 A) {
-    return vec[0]*A.vec[0] + vec[1]*A.vec[1] + vec[2]*A.vec[2];
+    return x*A.x + y*A.y + z*A.z;
   }
 
   public boolean cmp(Vec3 A, double epsilon) {
     return
-      (Math.abs(vec[0]-A.vec[0])<epsilon) &&
-      (Math.abs(vec[1]-A.vec[1])<epsilon) &&
-      (Math.abs(vec[2]-A.vec[2])<epsilon);
+      (Math.abs(x-A.x)<epsilon) &&
+      (Math.abs(y-A.y)<epsilon) &&
+      (Math.abs(z-A.z)<epsilon);
   }
 
   public double length() {
-    return (double) Math.sqrt(vec[0]*vec[0] + vec[1]*vec[1] + vec[2]*vec[2]);
+    return (double) Math.sqrt(x*x + y*y + z*z);
   }
 
   public double lengthSquared() {
-    return vec[0]*vec[0] + vec[1]*vec[1] + vec[2]*vec[2];
+    return x*x + y*y + z*z;
   }
   
   public boolean lessThan(Vec3 A) {
@@ -197,9 +279,9 @@ public class Vec3 {
   public boolean equals(Object v) {
     if (v instanceof Vec3) {
       Vec3 other = (Vec3) v;
-      return ((long) (vec[0] * 1e7)) == ((long) (other.vec[0] * 1e7))
-          && ((long) (vec[1] * 1e7)) == ((long) (other.vec[1] * 1e7))
-          && ((long) (vec[2] * 1e7)) == ((long) (other.vec[2] * 1e7));
+      return ((long) (x * 1e7)) == ((long) (other.x * 1e7))
+          && ((long) (y * 1e7)) == ((long) (other.y * 1e7))
+          && ((long) (z * 1e7)) == ((long) (other.z * 1e7));
     } else {
       return false;
     }
@@ -207,9 +289,9 @@ public class Vec3 {
 
   @Override
   public int hashCode() {
-    long hash = (991 * ((long) (vec[0] * 1e7))) 
-        ^ (997 * ((long) (vec[1] * 1e7)))
-        ^ (1009 * ((long) (vec[2] * 1e7)));
+    long hash = (991 * ((long) (x * 1e7))) 
+        ^ (997 * ((long) (y * 1e7)))
+        ^ (1009 * ((long) (z * 1e7)));
     return (int) ((hash >> 32) ^ (hash & 0xFFFFFFFF));
   }
 }
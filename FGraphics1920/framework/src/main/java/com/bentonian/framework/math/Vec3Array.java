@@ -0,0 +1,54 @@
+package com.bentonian.framework.math;
+
+/**
+ * A fixed number of vectors stored as structure-of-arrays, like {@link RayPacket}, for
+ * particle systems and other large sets of points which are updated every frame.  Three
+ * arrays of doubles in place of one object per vector, and the loops over them run without
+ * touching the heap.
+ */
+public class Vec3Array {
+
+  public final double[] x, y, z;
+
+  public Vec3Array(int size) {
+    this.x = new double[size];
+    this.y = new double[size];
+    this.z = new double[size];
+  }
+
+  public int size() {
+    return x.length;
+  }
+
+  public Vec3 get(int i) {
+    return new Vec3(x[i], y[i], z[i]);
+  }
+
+  /**
+   * Writes the vector at i into dest and returns dest.
+   */
+  public Vec3 get(int i, Vec3 dest) {
+    dest.set(x[i], y[i], z[i]);
+    return dest;
+  }
+
+  public void set(int i, double vx, double vy, double vz) {
+    x[i] = vx;
+    y[i] = vy;
+    z[i] = vz;
+  }
+
+  public void set(int i, Vec3 v) {
+    set(i, v.x, v.y, v.z);
+  }
+
+  public void scale(int i, double k) {
+    x[i] *= k;
+    y[i] *= k;
+    z[i] *= k;
+  }
+
+  public double length(int i) {
+    return Math.sqrt(x[i] * x[i] + y[i] * y[i] + z[i] * z[i]);
+  }
+}
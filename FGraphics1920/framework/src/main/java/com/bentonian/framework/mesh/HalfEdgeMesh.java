@@ -0,0 +1,453 @@
+package com.bentonian.framework.mesh;
+
+import java.util.Arrays;
+
+import com.bentonian.framework.math.MathConstants;
+import com.bentonian.framework.math.Vec3;
+
+/**
+ * Array-backed half-edge mesh.  Every face is a loop of half-edges stored contiguously, each
+ * knowing its origin vertex, its face, the next and previous half-edges around that face and
+ * its twin running the other way along the same edge, or -1 on a boundary.  Each vertex
+ * records one outgoing half-edge, chosen on the boundary if the vertex is on one, so boundary
+ * tests are O(1) and one-rings are walked in order without searching.
+ *
+ * Topology is fixed once built; positions may be changed in place.  Vertex normals are
+ * computed when first asked for, and again by {@link #computeNormals()}.  The mesh is
+ * assumed to be an oriented manifold; edges shared by more than two faces, or by two faces
+ * which disagree on orientation, are treated as boundary edges.  A vertex whose faces form
+ * more than one fan, such as two vertices at the same position merged by
+ * {@link #fromMesh(Mesh)}, is split into one vertex per fan, so there may be more vertices
+ * than in the mesh it was built from.
+ */
+public class HalfEdgeMesh {
+
+  private final int numVertices;
+  private final int numFaces;
+  private final int numHalfEdges;
+  private final int numEdges;
+
+  private final double[] positions;
+  private double[] normals;
+  private final int[] vertexHalfEdge;
+  private final int[] faceHalfEdge;
+  private final int[] origin;
+  private final int[] face;
+  private final int[] next;
+  private final int[] prev;
+  private final int[] twin;
+  private final int[] edge;
+
+  /**
+   * Builds the half-edges of a mesh.  Vertices keep their indices; any extra vertices made by
+   * splitting a vertex with more than one fan are numbered after them.
+   */
+  public HalfEdgeMesh(IndexedMesh mesh) {
+    this.numFaces = mesh.getNumFaces();
+
+    int count = 0;
+    for (int f = 0; f < numFaces; f++) {
+      count += mesh.getFaceSize(f);
+    }
+    this.numHalfEdges = count;
+
+    this.faceHalfEdge = new int[numFaces];
+    this.origin = new int[numHalfEdges];
+    this.face = new int[numHalfEdges];
+    this.next = new int[numHalfEdges];
+    this.prev = new int[numHalfEdges];
+    this.twin = new int[numHalfEdges];
+    this.edge = new int[numHalfEdges];
+
+    int h = 0;
+    for (int f = 0; f < numFaces; f++) {
+      int n = mesh.getFaceSize(f);
+      faceHalfEdge[f] = h;
+      for (int i = 0; i < n; i++) {
+        origin[h + i] = mesh.getFaceVertex(f, i);
+        face[h + i] = f;
+        next[h + i] = h + (i + 1) % n;
+        prev[h + i] = h + (i + n - 1) % n;
+      }
+      h += n;
+    }
+
+    linkTwins(mesh.getNumVertices());
+    this.numEdges = numberEdges();
+
+    int[] source = splitFans(mesh.getNumVertices());
+    this.numVertices = source.length;
+    this.positions = new double[3 * numVertices];
+    this.vertexHalfEdge = new int[numVertices];
+    for (int v = 0; v < numVertices; v++) {
+      positions[3 * v] = mesh.getX(source[v]);
+      positions[3 * v + 1] = mesh.getY(source[v]);
+      positions[3 * v + 2] = mesh.getZ(source[v]);
+    }
+
+    Arrays.fill(vertexHalfEdge, -1);
+    for (h = 0; h < numHalfEdges; h++) {
+      int v = origin[h];
+      if (vertexHalfEdge[v] == -1 || twin[h] == -1) {
+        vertexHalfEdge[v] = h;
+      }
+    }
+  }
+
+  public static HalfEdgeMesh fromMesh(Mesh mesh) {
+    return new HalfEdgeMesh(IndexedMesh.fromMesh(mesh));
+  }
+
+  public IndexedMesh toIndexedMesh() {
+    IndexedMesh mesh = new IndexedMesh(numVertices, numFaces);
+    for (int v = 0; v < numVertices; v++) {
+      mesh.addVertex(getX(v), getY(v), getZ(v));
+    }
+    int[] vertices = new int[8];
+    for (int f = 0; f < numFaces; f++) {
+      int n = getFaceSize(f);
+      if (vertices.length < n) {
+        vertices = new int[n];
+      }
+      int h = faceHalfEdge[f];
+      for (int i = 0; i < n; i++, h = next[h]) {
+        vertices[i] = origin[h];
+      }
+      mesh.addFace(vertices, 0, n);
+    }
+    return mesh;
+  }
+
+  public Mesh toMesh() {
+    return toIndexedMesh().toMesh();
+  }
+
+  public int getNumVertices() {
+    return numVertices;
+  }
+
+  public int getNumFaces() {
+    return numFaces;
+  }
+
+  public int getNumHalfEdges() {
+    return numHalfEdges;
+  }
+
+  public int getNumEdges() {
+    return numEdges;
+  }
+
+  public double getX(int vertex) {
+    return positions[3 * vertex];
+  }
+
+  public double getY(int vertex) {
+    return positions[3 * vertex + 1];
+  }
+
+  public double getZ(int vertex) {
+    return positions[3 * vertex + 2];
+  }
+
+  public Vec3 getPosition(int vertex) {
+    return new Vec3(getX(vertex), getY(vertex), getZ(vertex));
+  }
+
+  public void setPosition(int vertex, double x, double y, double z) {
+    positions[3 * vertex] = x;
+    positions[3 * vertex + 1] = y;
+    positions[3 * vertex + 2] = z;
+  }
+
+  public Vec3 getNormal(int vertex) {
+    if (normals == null) {
+      computeNormals();
+    }
+    return new Vec3(normals[3 * vertex], normals[3 * vertex + 1], normals[3 * vertex + 2]);
+  }
+
+  /**
+   * Returns one half-edge leaving the vertex, on the boundary if the vertex is, or -1 if no
+   * face uses the vertex.
+   */
+  public int getVertexHalfEdge(int vertex) {
+    return vertexHalfEdge[vertex];
+  }
+
+  public int getFaceHalfEdge(int f) {
+    return faceHalfEdge[f];
+  }
+
+  public int getFaceSize(int f) {
+    return ((f + 1 < numFaces) ? faceHalfEdge[f + 1] : numHalfEdges) - faceHalfEdge[f];
+  }
+
+  public int getOrigin(int halfEdge) {
+    return origin[halfEdge];
+  }
+
+  public int getTarget(int halfEdge) {
+    return origin[next[halfEdge]];
+  }
+
+  public int getFace(int halfEdge) {
+    return face[halfEdge];
+  }
+
+  public int getNext(int halfEdge) {
+    return next[halfEdge];
+  }
+
+  public int getPrev(int halfEdge) {
+    return prev[halfEdge];
+  }
+
+  /**
+   * Returns the half-edge running the other way along the same edge, or -1 on a boundary.
+   */
+  public int getTwin(int halfEdge) {
+    return twin[halfEdge];
+  }
+
+  /**
+   * Returns the index, in [0, getNumEdges()), of the edge the half-edge lies along.  A
+   * half-edge and its twin share an edge index.
+   */
+  public int getEdge(int halfEdge) {
+    return edge[halfEdge];
+  }
+
+  /**
+   * Returns true for the one half-edge of each edge which represents it: the lower-numbered
+   * of a twin pair, or the only half-edge of a boundary edge.
+   */
+  public boolean isEdgeRepresentative(int halfEdge) {
+    return twin[halfEdge] == -1 || halfEdge < twin[halfEdge];
+  }
+
+  /**
+   * Returns the next half-edge leaving the same vertex, turning across the edge before this
+   * one in its face, or -1 once the turn reaches the boundary.
+   */
+  public int getNextAroundVertex(int halfEdge) {
+    return twin[prev[halfEdge]];
+  }
+
+  public boolean isBoundaryEdge(int halfEdge) {
+    return twin[halfEdge] == -1;
+  }
+
+  public boolean isBoundaryVertex(int vertex) {
+    int h = vertexHalfEdge[vertex];
+    return h != -1 && twin[h] == -1;
+  }
+
+  /**
+   * Returns the number of edges meeting at the vertex.
+   */
+  public int getValence(int vertex) {
+    int start = vertexHalfEdge[vertex];
+    if (start == -1) {
+      return 0;
+    }
+    int valence = 0;
+    int h = start;
+    do {
+      valence++;
+      int around = twin[prev[h]];
+      if (around == -1) {
+        return valence + 1;  // the incoming boundary edge
+      }
+      h = around;
+    } while (h != start);
+    return valence;
+  }
+
+  /**
+   * Returns the vertex's neighbors, in order around it; on a boundary, starting and ending
+   * with the two boundary neighbors.
+   */
+  public int[] getOneRing(int vertex) {
+    int[] ring = new int[getValence(vertex)];
+    int start = vertexHalfEdge[vertex];
+    int i = 0;
+    int h = start;
+    while (i < ring.length) {
+      ring[i++] = getTarget(h);
+      int around = twin[prev[h]];
+      if (around == -1) {
+        if (i < ring.length) {
+          ring[i++] = origin[prev[h]];
+        }
+        break;
+      }
+      h = around;
+    }
+    return ring;
+  }
+
+  public Vec3 getFaceNormal(int f) {
+    int h = faceHalfEdge[f];
+    int a = origin[h];
+    int b = origin[next[h]];
+    int c = origin[prev[h]];
+    Vec3 n = getPosition(b).minus(getPosition(a)).cross(getPosition(c).minus(getPosition(a)));
+    double length = n.length();
+    // Not Vec3.normalized(), which zeroes the normals of finely subdivided faces
+    return (length > 0) ? n.times(1 / length) : n;
+  }
+
+  /**
+   * Recomputes vertex normals as the average of the surrounding face normals, weighted by
+   * the angle each face makes at the vertex, as {@link Mesh#computeAllNormals()} does.
+   */
+  public void computeNormals() {
+    if (normals == null) {
+      normals = new double[3 * numVertices];
+    }
+    Arrays.fill(normals, 0);
+    for (int f = 0; f < numFaces; f++) {
+      Vec3 n = getFaceNormal(f);
+      int start = faceHalfEdge[f];
+      int h = start;
+      do {
+        double angle = getCornerAngle(h);
+        int v = 3 * origin[h];
+        normals[v] += n.getX() * angle;
+        normals[v + 1] += n.getY() * angle;
+        normals[v + 2] += n.getZ() * angle;
+        h = next[h];
+      } while (h != start);
+    }
+    for (int v = 0; v < 3 * numVertices; v += 3) {
+      double length = Math.sqrt(normals[v] * normals[v]
+          + normals[v + 1] * normals[v + 1] + normals[v + 2] * normals[v + 2]);
+      double scale = (length > MathConstants.EPSILON) ? 1.0 / length : 0;
+      normals[v] *= scale;
+      normals[v + 1] *= scale;
+      normals[v + 2] *= scale;
+    }
+  }
+
+  ////////////////////////////////////////
+
+  private double getCornerAngle(int h) {
+    int v = 3 * origin[h];
+    int a = 3 * origin[prev[h]];
+    int b = 3 * origin[next[h]];
+    double ax = positions[a] - positions[v];
+    double ay = positions[a + 1] - positions[v + 1];
+    double az = positions[a + 2] - positions[v + 2];
+    double bx = positions[b] - positions[v];
+    double by = positions[b + 1] - positions[v + 1];
+    double bz = positions[b + 2] - positions[v + 2];
+    double la = Math.sqrt(ax * ax + ay * ay + az * az);
+    double lb = Math.sqrt(bx * bx + by * by + bz * bz);
+    if (la <= MathConstants.EPSILON || lb <= MathConstants.EPSILON) {
+      return Math.PI / 2;  // as acos(0) for a degenerate corner
+    }
+    return Math.acos(Math.max(-1, Math.min(1, (ax * bx + ay * by + az * bz) / (la * lb))));
+  }
+
+  /**
+   * Pairs each half-edge a->b with an unpaired half-edge b->a, searching the half-edges
+   * leaving b, which are first bucketed by origin vertex.
+   */
+  private void linkTwins(int numVertices) {
+    int[] outgoingStart = new int[numVertices + 1];
+    int[] outgoing = new int[numHalfEdges];
+    for (int h = 0; h < numHalfEdges; h++) {
+      outgoingStart[origin[h] + 1]++;
+    }
+    for (int v = 0; v < numVertices; v++) {
+      outgoingStart[v + 1] += outgoingStart[v];
+    }
+    int[] fill = Arrays.copyOf(outgoingStart, numVertices);
+    for (int h = 0; h < numHalfEdges; h++) {
+      outgoing[fill[origin[h]]++] = h;
+    }
+
+    Arrays.fill(twin, -1);
+    for (int h = 0; h < numHalfEdges; h++) {
+      int a = origin[h];
+      int b = origin[next[h]];
+      if (twin[h] != -1 || a == b) {
+        continue;
+      }
+      for (int i = outgoingStart[b]; i < outgoingStart[b + 1]; i++) {
+        int g = outgoing[i];
+        if (twin[g] == -1 && origin[next[g]] == a) {
+          twin[h] = g;
+          twin[g] = h;
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Gives each fan of faces around a vertex a vertex of its own, by walking every half-edge's
+   * fan back to its start and then forward round it.  A vertex keeps its index for the first
+   * fan found; each further fan gets a new vertex after the original numVertices.  Returns
+   * the original vertex of each vertex.
+   */
+  private int[] splitFans(int numVertices) {
+    int[] source = new int[numVertices];
+    for (int v = 0; v < numVertices; v++) {
+      source[v] = v;
+    }
+    int count = numVertices;
+    boolean[] claimed = new boolean[numVertices];
+    boolean[] visited = new boolean[numHalfEdges];
+
+    for (int h = 0; h < numHalfEdges; h++) {
+      if (visited[h]) {
+        continue;
+      }
+      int v = origin[h];
+      int split = v;
+      if (claimed[v]) {
+        if (count == source.length) {
+          source = Arrays.copyOf(source, 2 * count);
+        }
+        source[count] = v;
+        split = count++;
+      }
+      claimed[v] = true;
+
+      int start = h;
+      for (int g = getPrevAroundVertex(h); g != -1 && g != h; g = getPrevAroundVertex(g)) {
+        start = g;
+      }
+      for (int g = start; g != -1 && !visited[g]; g = getNextAroundVertex(g)) {
+        visited[g] = true;
+        origin[g] = split;
+      }
+    }
+    return Arrays.copyOf(source, count);
+  }
+
+  /**
+   * Returns the previous half-edge leaving the same vertex, the inverse of
+   * {@link #getNextAroundVertex(int)}, or -1 at the boundary.
+   */
+  private int getPrevAroundVertex(int halfEdge) {
+    return (twin[halfEdge] == -1) ? -1 : next[twin[halfEdge]];
+  }
+
+  private int numberEdges() {
+    int count = 0;
+    for (int h = 0; h < numHalfEdges; h++) {
+      if (isEdgeRepresentative(h)) {
+        edge[h] = count++;
+      }
+    }
+    for (int h = 0; h < numHalfEdges; h++) {
+      if (!isEdgeRepresentative(h)) {
+        edge[h] = edge[twin[h]];
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,206 @@
+package com.bentonian.framework.mesh;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.bentonian.framework.math.Vec3;
+import com.google.common.collect.Maps;
+
+/**
+ * Compact polygon mesh held in flat arrays: three coordinates per vertex, and each face as
+ * a run of vertex indices.  Loaders fill it directly, without allocating a MeshVertex or
+ * MeshFace per element; {@link #toMesh()} builds the linked representation when it's needed.
+ */
+public class IndexedMesh {
+
+  private double[] positions;
+  private int[] faceStarts;
+  private int[] faceIndices;
+  private int numVertices;
+  private int numFaces;
+
+  public IndexedMesh() {
+    this(16, 16);
+  }
+
+  /**
+   * Creates an empty mesh with room for the given numbers of vertices and triangles.
+   */
+  public IndexedMesh(int vertexCapacity, int faceCapacity) {
+    this.positions = new double[3 * Math.max(1, vertexCapacity)];
+    this.faceStarts = new int[Math.max(1, faceCapacity) + 1];
+    this.faceIndices = new int[3 * Math.max(1, faceCapacity)];
+    this.numVertices = 0;
+    this.numFaces = 0;
+  }
+
+  /**
+   * Wraps arrays which have already been filled in, without copying them.  faceStarts holds
+   * one offset into faceIndices per face, followed by the end of the last face.
+   */
+  public IndexedMesh(double[] positions, int[] faceStarts, int[] faceIndices) {
+    if (positions.length % 3 != 0 || faceStarts.length == 0
+        || faceStarts[faceStarts.length - 1] > faceIndices.length) {
+      throw new IllegalArgumentException("Inconsistent mesh arrays");
+    }
+    this.positions = positions;
+    this.faceStarts = faceStarts;
+    this.faceIndices = faceIndices;
+    this.numVertices = positions.length / 3;
+    this.numFaces = faceStarts.length - 1;
+  }
+
+  public static IndexedMesh fromMesh(Mesh mesh) {
+    Map<MeshVertex, Integer> indices = Maps.newHashMap();
+    IndexedMesh indexed = new IndexedMesh(mesh.size(), mesh.size());
+    int[] face = new int[8];
+
+    for (MeshFace f : mesh) {
+      if (face.length < f.size()) {
+        face = new int[f.size()];
+      }
+      for (int i = 0; i < f.size(); i++) {
+        MeshVertex v = f.get(i);
+        Integer index = indices.get(v);
+        if (index == null) {
+          index = indexed.addVertex(v.getX(), v.getY(), v.getZ());
+          indices.put(v, index);
+        }
+        face[i] = index;
+      }
+      indexed.addFace(face, 0, f.size());
+    }
+    return indexed;
+  }
+
+  /**
+   * Appends a vertex, returning its index.
+   */
+  public int addVertex(double x, double y, double z) {
+    if (3 * numVertices + 3 > positions.length) {
+      positions = Arrays.copyOf(positions, 2 * positions.length);
+    }
+    positions[3 * numVertices] = x;
+    positions[3 * numVertices + 1] = y;
+    positions[3 * numVertices + 2] = z;
+    return numVertices++;
+  }
+
+  /**
+   * Appends a face, returning its index.
+   */
+  public int addFace(int... vertices) {
+    return addFace(vertices, 0, vertices.length);
+  }
+
+  /**
+   * Appends a face made of n vertex indices read from vertices[offset...], returning its
+   * index.
+   */
+  public int addFace(int[] vertices, int offset, int n) {
+    if (n < 3) {
+      throw new IllegalArgumentException("Face has only " + n + " vertices");
+    }
+    if (numFaces + 2 > faceStarts.length) {
+      faceStarts = Arrays.copyOf(faceStarts, 2 * faceStarts.length);
+    }
+    int start = faceStarts[numFaces];
+    if (start + n > faceIndices.length) {
+      faceIndices = Arrays.copyOf(faceIndices, Math.max(2 * faceIndices.length, start + n));
+    }
+    for (int i = 0; i < n; i++) {
+      int v = vertices[offset + i];
+      if (v < 0 || v >= numVertices) {
+        throw new IllegalArgumentException("Face refers to vertex " + v
+            + " but there are only " + numVertices);
+      }
+      faceIndices[start + i] = v;
+    }
+    faceStarts[numFaces + 1] = start + n;
+    return numFaces++;
+  }
+
+  public int getNumVertices() {
+    return numVertices;
+  }
+
+  public int getNumFaces() {
+    return numFaces;
+  }
+
+  public double getX(int vertex) {
+    return positions[3 * vertex];
+  }
+
+  public double getY(int vertex) {
+    return positions[3 * vertex + 1];
+  }
+
+  public double getZ(int vertex) {
+    return positions[3 * vertex + 2];
+  }
+
+  public Vec3 getVertex(int vertex) {
+    return new Vec3(getX(vertex), getY(vertex), getZ(vertex));
+  }
+
+  public void setVertex(int vertex, double x, double y, double z) {
+    positions[3 * vertex] = x;
+    positions[3 * vertex + 1] = y;
+    positions[3 * vertex + 2] = z;
+  }
+
+  public int getFaceSize(int face) {
+    return faceStarts[face + 1] - faceStarts[face];
+  }
+
+  /**
+   * Returns the index of the i'th vertex of a face.
+   */
+  public int getFaceVertex(int face, int i) {
+    return faceIndices[faceStarts[face] + i];
+  }
+
+  public boolean isTriangulated() {
+    return faceStarts[numFaces] == 3 * numFaces;
+  }
+
+  /**
+   * Returns a copy with every face of more than three vertices split into a fan of triangles
+   * around its first vertex.
+   */
+  public IndexedMesh triangulated() {
+    IndexedMesh mesh = new IndexedMesh(numVertices, faceStarts[numFaces] - 2 * numFaces);
+    for (int v = 0; v < numVertices; v++) {
+      mesh.addVertex(getX(v), getY(v), getZ(v));
+    }
+    for (int f = 0; f < numFaces; f++) {
+      int start = faceStarts[f];
+      for (int i = 1; i + 1 < getFaceSize(f); i++) {
+        mesh.addFace(faceIndices[start], faceIndices[start + i], faceIndices[start + i + 1]);
+      }
+    }
+    return mesh;
+  }
+
+  /**
+   * Builds the equivalent linked Mesh, with normals computed.
+   */
+  public Mesh toMesh() {
+    Mesh mesh = new Mesh();
+    MeshVertex[] verts = new MeshVertex[numVertices];
+
+    for (int i = 0; i < numVertices; i++) {
+      verts[i] = new MeshVertex(getX(i), getY(i), getZ(i));
+    }
+    for (int f = 0; f < numFaces; f++) {
+      MeshVertex[] faceVerts = new MeshVertex[getFaceSize(f)];
+      for (int i = 0; i < faceVerts.length; i++) {
+        faceVerts[i] = verts[getFaceVertex(f, i)];
+      }
+      mesh.add(new MeshFace(faceVerts));
+    }
+    mesh.computeAllNormals();
+    return mesh;
+  }
+}
@@ -100,9 +100,9 @@ public class MeshFace extends ArrayList<MeshVertex> {
   public Vec3 getCenter() {
     Vec3 pt = new Vec3();
     for (MeshVertex v : this) {
-      pt = pt.plus(v);
+      pt.add(v);
     }
-    return pt.times(1.0 / size());
+    return pt.scale(1.0 / size());
   }
 
   public Vec3 getAverageVerticesExcluding(MeshVertex... toSkip) {
@@ -119,13 +119,13 @@ public class MeshFace extends ArrayList<MeshVertex> {
         }
       }
       if (!shouldSkip) {
-        pt = pt.plus(v);
+        pt.add(v);
       }
     }
     if (n != toSkip.length) {
       throw new RuntimeException("Expected to skip " + toSkip.length + " but only skipped " + n + ".");
     }
-    return pt.times(1.0 / (size() - n));
+    return pt.scale(1.0 / (size() - n));
   }
   
   public boolean matches(MeshFace other) {
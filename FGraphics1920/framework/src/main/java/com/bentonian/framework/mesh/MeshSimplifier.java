@@ -11,6 +11,10 @@ import java.util.Optional;
 
 import com.bentonian.framework.math.Vec3;
 
+/**
+ * Merges coplanar neighboring faces into larger convex polygons, without moving any vertex.
+ * See {@link QuadricSimplifier} for reducing a mesh to a target size or error.
+ */
 public class MeshSimplifier {
   
   private final Mesh mesh;
@@ -35,10 +39,8 @@ public class MeshSimplifier {
   }
   
   public void simplify() {
-    System.out.println("Simplifier initial count: " + count());
     for (List<MeshFace> candidateList : candidates.values()) {
       while (simplifyCandidateSetOnce(candidateList)) { 
-        System.out.println("Simplifier count: " + count());
       }
     }
   }
@@ -46,8 +48,7 @@ public class MeshSimplifier {
   public boolean simplify(int n) {
     int start = count();
     for (List<MeshFace> candidateList : candidates.values()) {
-      while (simplifyCandidateSetOnce(candidateList) && start - count() < n) { 
-        System.out.println("Simplifier count: " + count());
+      while (start - count() < n && simplifyCandidateSetOnce(candidateList)) { 
       }
     }
     int end = count();
@@ -70,7 +71,6 @@ public class MeshSimplifier {
             d.detachFromVertices();
             candidates.add(face.get());
             mesh.add(face.get());
-            mesh.checkMesh();
             return true;
           }
         }
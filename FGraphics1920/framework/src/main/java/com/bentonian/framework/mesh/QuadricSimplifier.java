@@ -0,0 +1,588 @@
+package com.bentonian.framework.mesh;
+
+import java.util.Arrays;
+
+/**
+ * Garland-Heckbert simplification of a triangle mesh by edge collapse.  Every vertex carries
+ * a quadric summing the squared distances to the planes of its faces; the edge whose merged
+ * quadric is cheapest to satisfy is collapsed first, to the point minimizing it, and the costs
+ * of the edges around it are updated in an indexed heap.
+ *
+ * Errors are the area-weighted RMS distance from a collapsed vertex to the planes of the faces
+ * it replaced, in the mesh's own units.  Boundary edges add heavily weighted planes at right
+ * angles to their faces, so open borders keep their shape, and collapses which would flip a
+ * face, pinch the surface or join two boundaries are refused.
+ *
+ * Simplification is incremental: each call to {@link #simplify(int, double)} continues from
+ * where the last stopped, so calling {@link #getMesh()} between calls with falling targets
+ * builds a chain of levels of detail.
+ */
+public class QuadricSimplifier {
+
+  private static final double BOUNDARY_WEIGHT = 1000;
+  private static final int QUADRIC_SIZE = 11;  // ten coefficients, then the area they cover
+
+  private final boolean preserveBoundaries;
+  private final int numVertices;
+  private final double[] positions;
+  private final double[] quadrics;
+  private final boolean[] boundaryVertex;
+  private final int[] triangles;
+  private final int[] edgeA;
+  private final int[] edgeB;
+  private final boolean[] boundaryEdge;
+  private final double[] edgeTarget;
+  private final int[][] vertexTriangles;
+  private final int[] vertexTriangleCount;
+  private final int[][] vertexEdges;
+  private final int[] vertexEdgeCount;
+  private final int[] mark;
+  private final int[] markedEdge;
+  private final EdgeHeap heap;
+
+  private int numTriangles;
+  private int generation;
+  private double error;
+
+  public QuadricSimplifier(Mesh mesh) {
+    this(IndexedMesh.fromMesh(mesh), true);
+  }
+
+  public QuadricSimplifier(IndexedMesh mesh) {
+    this(mesh, true);
+  }
+
+  /**
+   * Prepares to simplify mesh, which is triangulated first if it isn't already and is left
+   * unchanged.  If preserveBoundaries is false, boundary edges collapse as freely as any other.
+   */
+  public QuadricSimplifier(IndexedMesh mesh, boolean preserveBoundaries) {
+    HalfEdgeMesh halfEdges = new HalfEdgeMesh(mesh.isTriangulated() ? mesh : mesh.triangulated());
+    int numEdges = halfEdges.getNumEdges();
+
+    this.preserveBoundaries = preserveBoundaries;
+    this.numVertices = halfEdges.getNumVertices();
+    this.positions = new double[3 * numVertices];
+    this.quadrics = new double[QUADRIC_SIZE * numVertices];
+    this.boundaryVertex = new boolean[numVertices];
+    this.triangles = new int[3 * halfEdges.getNumFaces()];
+    this.edgeA = new int[numEdges];
+    this.edgeB = new int[numEdges];
+    this.boundaryEdge = new boolean[numEdges];
+    this.edgeTarget = new double[3 * numEdges];
+    this.vertexTriangles = new int[numVertices][];
+    this.vertexTriangleCount = new int[numVertices];
+    this.vertexEdges = new int[numVertices][];
+    this.vertexEdgeCount = new int[numVertices];
+    this.mark = new int[numVertices];
+    this.markedEdge = new int[numVertices];
+    this.heap = new EdgeHeap(numEdges);
+
+    for (int v = 0; v < numVertices; v++) {
+      positions[3 * v] = halfEdges.getX(v);
+      positions[3 * v + 1] = halfEdges.getY(v);
+      positions[3 * v + 2] = halfEdges.getZ(v);
+      int valence = Math.max(1, halfEdges.getValence(v));
+      vertexTriangles[v] = new int[valence];
+      vertexEdges[v] = new int[valence];
+    }
+    for (int t = 0; t < halfEdges.getNumFaces(); t++) {
+      int h = halfEdges.getFaceHalfEdge(t);
+      int a = halfEdges.getOrigin(h);
+      int b = halfEdges.getTarget(h);
+      int c = halfEdges.getOrigin(halfEdges.getPrev(h));
+      if (a == b || b == c || c == a) {
+        triangles[3 * t] = -1;
+        continue;
+      }
+      triangles[3 * t] = a;
+      triangles[3 * t + 1] = b;
+      triangles[3 * t + 2] = c;
+      numTriangles++;
+      addTriangleQuadric(t);
+      for (int i = 0; i < 3; i++) {
+        append(vertexTriangles, vertexTriangleCount, triangles[3 * t + i], t);
+      }
+    }
+    for (int h = 0; h < halfEdges.getNumHalfEdges(); h++) {
+      if (!halfEdges.isEdgeRepresentative(h)) {
+        continue;
+      }
+      int e = halfEdges.getEdge(h);
+      int a = halfEdges.getOrigin(h);
+      int b = halfEdges.getTarget(h);
+      if (a == b) {
+        edgeA[e] = -1;
+        continue;
+      }
+      edgeA[e] = a;
+      edgeB[e] = b;
+      append(vertexEdges, vertexEdgeCount, a, e);
+      append(vertexEdges, vertexEdgeCount, b, e);
+      if (halfEdges.isBoundaryEdge(h)) {
+        boundaryEdge[e] = true;
+        boundaryVertex[a] = boundaryVertex[b] = true;
+        if (preserveBoundaries) {
+          addBoundaryQuadric(a, b, halfEdges.getFaceNormal(halfEdges.getFace(h)).get());
+        }
+      }
+    }
+    for (int e = 0; e < numEdges; e++) {
+      if (edgeA[e] != -1) {
+        heap.set(e, computeCost(e));
+      }
+    }
+  }
+
+  public int getNumTriangles() {
+    return numTriangles;
+  }
+
+  /**
+   * Returns the largest error of any collapse made so far.
+   */
+  public double getError() {
+    return error;
+  }
+
+  /**
+   * Collapses edges until at most targetTriangles remain.
+   */
+  public QuadricSimplifier simplify(int targetTriangles) {
+    return simplify(targetTriangles, Double.POSITIVE_INFINITY);
+  }
+
+  /**
+   * Collapses edges, cheapest first, until at most targetTriangles remain or the next collapse
+   * would introduce an error greater than maxError.
+   */
+  public QuadricSimplifier simplify(int targetTriangles, double maxError) {
+    while (numTriangles > targetTriangles && !heap.isEmpty()) {
+      int e = heap.peek();
+      double cost = Math.sqrt(heap.getKey(e));
+      if (cost > maxError) {
+        break;
+      }
+      heap.remove(e);
+      if (isCollapseValid(e)) {
+        collapse(e);
+        error = Math.max(error, cost);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Returns the simplified mesh as it stands, keeping only the vertices still in use.
+   */
+  public IndexedMesh getMesh() {
+    int[] index = new int[numVertices];
+    Arrays.fill(index, -1);
+    IndexedMesh mesh = new IndexedMesh(numVertices, numTriangles);
+    int[] face = new int[3];
+
+    for (int t = 0; t < triangles.length / 3; t++) {
+      if (triangles[3 * t] == -1) {
+        continue;
+      }
+      for (int i = 0; i < 3; i++) {
+        int v = triangles[3 * t + i];
+        if (index[v] == -1) {
+          index[v] = mesh.addVertex(positions[3 * v], positions[3 * v + 1], positions[3 * v + 2]);
+        }
+        face[i] = index[v];
+      }
+      mesh.addFace(face);
+    }
+    return mesh;
+  }
+
+  ////////////////////////////////////////
+
+  private static void append(int[][] lists, int[] counts, int i, int value) {
+    if (counts[i] == lists[i].length) {
+      lists[i] = Arrays.copyOf(lists[i], 2 * lists[i].length);
+    }
+    lists[i][counts[i]++] = value;
+  }
+
+  private void addTriangleQuadric(int t) {
+    int a = 3 * triangles[3 * t];
+    int b = 3 * triangles[3 * t + 1];
+    int c = 3 * triangles[3 * t + 2];
+    double[] n = cross(positions, a, b, c);
+    double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+    if (length == 0) {
+      return;
+    }
+    for (int i = 0; i < 3; i++) {
+      n[i] /= length;
+    }
+    double area = length / 2;
+    double d = -(n[0] * positions[a] + n[1] * positions[a + 1] + n[2] * positions[a + 2]);
+    for (int i = 0; i < 3; i++) {
+      addPlane(triangles[3 * t + i], n, d, area, area);
+    }
+  }
+
+  /**
+   * Adds the plane through the boundary edge a-b at right angles to its face to both ends,
+   * weighted by the square of the edge's length so the penalty scales like a face's.
+   */
+  private void addBoundaryQuadric(int a, int b, double[] faceNormal) {
+    double[] edge = new double[3];
+    for (int i = 0; i < 3; i++) {
+      edge[i] = positions[3 * b + i] - positions[3 * a + i];
+    }
+    double[] n = {
+        edge[1] * faceNormal[2] - edge[2] * faceNormal[1],
+        edge[2] * faceNormal[0] - edge[0] * faceNormal[2],
+        edge[0] * faceNormal[1] - edge[1] * faceNormal[0] };
+    double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+    if (length == 0) {
+      return;
+    }
+    for (int i = 0; i < 3; i++) {
+      n[i] /= length;
+    }
+    double d = -(n[0] * positions[3 * a] + n[1] * positions[3 * a + 1]
+        + n[2] * positions[3 * a + 2]);
+    double weight = BOUNDARY_WEIGHT * length * length;
+    addPlane(a, n, d, weight, 0);
+    addPlane(b, n, d, weight, 0);
+  }
+
+  private void addPlane(int v, double[] n, double d, double weight, double area) {
+    int q = QUADRIC_SIZE * v;
+    quadrics[q] += weight * n[0] * n[0];
+    quadrics[q + 1] += weight * n[0] * n[1];
+    quadrics[q + 2] += weight * n[0] * n[2];
+    quadrics[q + 3] += weight * n[0] * d;
+    quadrics[q + 4] += weight * n[1] * n[1];
+    quadrics[q + 5] += weight * n[1] * n[2];
+    quadrics[q + 6] += weight * n[1] * d;
+    quadrics[q + 7] += weight * n[2] * n[2];
+    quadrics[q + 8] += weight * n[2] * d;
+    quadrics[q + 9] += weight * d * d;
+    quadrics[q + 10] += area;
+  }
+
+  /**
+   * Finds where the edge's merged quadric is smallest, falling back to the better of its ends
+   * and midpoint when the quadric is too flat to solve, and returns the mean squared distance
+   * there.  An edge from the interior to a preserved boundary collapses onto the boundary.
+   */
+  private double computeCost(int e) {
+    double[] q = new double[QUADRIC_SIZE];
+    for (int i = 0; i < QUADRIC_SIZE; i++) {
+      q[i] = quadrics[QUADRIC_SIZE * edgeA[e] + i] + quadrics[QUADRIC_SIZE * edgeB[e] + i];
+    }
+    double area = Math.max(q[10], Double.MIN_NORMAL);
+
+    if (preserveBoundaries && !boundaryEdge[e]
+        && boundaryVertex[edgeA[e]] != boundaryVertex[edgeB[e]]) {
+      int v = 3 * (boundaryVertex[edgeA[e]] ? edgeA[e] : edgeB[e]);
+      setTarget(e, positions[v], positions[v + 1], positions[v + 2]);
+      return Math.max(0, evaluate(q, positions[v], positions[v + 1], positions[v + 2])) / area;
+    }
+    double det = q[0] * (q[4] * q[7] - q[5] * q[5])
+        - q[1] * (q[1] * q[7] - q[5] * q[2])
+        + q[2] * (q[1] * q[5] - q[4] * q[2]);
+    double trace = q[0] + q[4] + q[7];
+    if (Math.abs(det) > 1e-9 * trace * trace * trace) {
+      double x = -(q[3] * (q[4] * q[7] - q[5] * q[5])
+          - q[1] * (q[6] * q[7] - q[5] * q[8])
+          + q[2] * (q[6] * q[5] - q[4] * q[8])) / det;
+      double y = -(q[0] * (q[6] * q[7] - q[8] * q[5])
+          - q[3] * (q[1] * q[7] - q[5] * q[2])
+          + q[2] * (q[1] * q[8] - q[6] * q[2])) / det;
+      double z = -(q[0] * (q[4] * q[8] - q[5] * q[6])
+          - q[1] * (q[1] * q[8] - q[6] * q[2])
+          + q[3] * (q[1] * q[5] - q[4] * q[2])) / det;
+      setTarget(e, x, y, z);
+      return Math.max(0, evaluate(q, x, y, z)) / area;
+    }
+
+    int a = 3 * edgeA[e];
+    int b = 3 * edgeB[e];
+    double best = Double.POSITIVE_INFINITY;
+    for (int k = 0; k <= 2; k++) {
+      double x = positions[a] + k * (positions[b] - positions[a]) / 2;
+      double y = positions[a + 1] + k * (positions[b + 1] - positions[a + 1]) / 2;
+      double z = positions[a + 2] + k * (positions[b + 2] - positions[a + 2]) / 2;
+      double cost = evaluate(q, x, y, z);
+      if (cost < best) {
+        best = cost;
+        setTarget(e, x, y, z);
+      }
+    }
+    return Math.max(0, best) / area;
+  }
+
+  private static double evaluate(double[] q, double x, double y, double z) {
+    return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+        + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+        + q[7] * z * z + 2 * q[8] * z
+        + q[9];
+  }
+
+  private void setTarget(int e, double x, double y, double z) {
+    edgeTarget[3 * e] = x;
+    edgeTarget[3 * e + 1] = y;
+    edgeTarget[3 * e + 2] = z;
+  }
+
+  /**
+   * Refuses collapses which would join two boundaries through the interior, change the
+   * topology (the ends must share exactly the neighbors of the faces on the edge) or turn any
+   * surviving face over.
+   */
+  private boolean isCollapseValid(int e) {
+    int a = edgeA[e];
+    int b = edgeB[e];
+    if (boundaryVertex[a] && boundaryVertex[b] && !boundaryEdge[e]) {
+      return false;
+    }
+
+    int around = ++generation;
+    int shared = 0;
+    for (int i = 0; i < vertexTriangleCount[a]; i++) {
+      int t = vertexTriangles[a][i];
+      if (triangles[3 * t] != -1) {
+        for (int k = 0; k < 3; k++) {
+          mark[triangles[3 * t + k]] = around;
+        }
+      }
+    }
+    int common = 0;
+    int counted = ++generation;
+    for (int i = 0; i < vertexTriangleCount[b]; i++) {
+      int t = vertexTriangles[b][i];
+      if (triangles[3 * t] == -1) {
+        continue;
+      }
+      boolean hasA = false;
+      for (int k = 0; k < 3; k++) {
+        int w = triangles[3 * t + k];
+        hasA |= (w == a);
+        if (w != a && w != b && mark[w] == around) {
+          common++;
+          mark[w] = counted;
+        }
+      }
+      if (hasA) {
+        shared++;
+      }
+    }
+    if (common != shared) {
+      return false;
+    }
+
+    return !flipsAnyFace(a, b, e) && !flipsAnyFace(b, a, e);
+  }
+
+  private boolean flipsAnyFace(int moved, int other, int e) {
+    for (int i = 0; i < vertexTriangleCount[moved]; i++) {
+      int t = vertexTriangles[moved][i];
+      if (triangles[3 * t] == -1) {
+        continue;
+      }
+      int k = (triangles[3 * t] == moved) ? 0 : (triangles[3 * t + 1] == moved) ? 1 : 2;
+      int p = 3 * triangles[3 * t + (k + 1) % 3];
+      int q = 3 * triangles[3 * t + (k + 2) % 3];
+      if (p == 3 * other || q == 3 * other) {
+        continue;
+      }
+      double[] before = cross(positions, 3 * moved, p, q);
+      double[] after = cross(edgeTarget, 3 * e, positions, p, q);
+      if (before[0] * after[0] + before[1] * after[1] + before[2] * after[2] <= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static double[] cross(double[] positions, int a, int b, int c) {
+    return cross(positions, a, positions, b, c);
+  }
+
+  /**
+   * Returns (b - a) x (c - a), with a read from one array and b and c from another.
+   */
+  private static double[] cross(double[] aArray, int a, double[] positions, int b, int c) {
+    double ux = positions[b] - aArray[a];
+    double uy = positions[b + 1] - aArray[a + 1];
+    double uz = positions[b + 2] - aArray[a + 2];
+    double vx = positions[c] - aArray[a];
+    double vy = positions[c + 1] - aArray[a + 1];
+    double vz = positions[c + 2] - aArray[a + 2];
+    return new double[] { uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx };
+  }
+
+  /**
+   * Moves a to the edge's target and gives it b's faces and edges: faces on the edge vanish,
+   * and each edge of b which would duplicate one of a's is merged into it.
+   */
+  private void collapse(int e) {
+    int a = edgeA[e];
+    int b = edgeB[e];
+
+    for (int i = 0; i < 3; i++) {
+      positions[3 * a + i] = edgeTarget[3 * e + i];
+    }
+    for (int i = 0; i < QUADRIC_SIZE; i++) {
+      quadrics[QUADRIC_SIZE * a + i] += quadrics[QUADRIC_SIZE * b + i];
+    }
+    boundaryVertex[a] |= boundaryVertex[b];
+
+    for (int i = 0; i < vertexTriangleCount[b]; i++) {
+      int t = vertexTriangles[b][i];
+      if (triangles[3 * t] == -1) {
+        continue;
+      }
+      if (triangles[3 * t] == a || triangles[3 * t + 1] == a || triangles[3 * t + 2] == a) {
+        triangles[3 * t] = -1;
+        numTriangles--;
+      } else {
+        for (int k = 0; k < 3; k++) {
+          if (triangles[3 * t + k] == b) {
+            triangles[3 * t + k] = a;
+          }
+        }
+        append(vertexTriangles, vertexTriangleCount, a, t);
+      }
+    }
+    vertexTriangleCount[b] = 0;
+    int count = 0;
+    for (int i = 0; i < vertexTriangleCount[a]; i++) {
+      int t = vertexTriangles[a][i];
+      if (triangles[3 * t] != -1) {
+        vertexTriangles[a][count++] = t;
+      }
+    }
+    vertexTriangleCount[a] = count;
+
+    edgeA[e] = -1;
+    int neighbors = ++generation;
+    for (int i = 0; i < vertexEdgeCount[a]; i++) {
+      int f = vertexEdges[a][i];
+      if (edgeA[f] != -1) {
+        int w = (edgeA[f] == a) ? edgeB[f] : edgeA[f];
+        mark[w] = neighbors;
+        markedEdge[w] = f;
+      }
+    }
+    for (int i = 0; i < vertexEdgeCount[b]; i++) {
+      int f = vertexEdges[b][i];
+      if (edgeA[f] == -1) {
+        continue;
+      }
+      int w = (edgeA[f] == b) ? edgeB[f] : edgeA[f];
+      if (mark[w] == neighbors) {
+        boundaryEdge[markedEdge[w]] |= boundaryEdge[f];
+        edgeA[f] = -1;
+        heap.remove(f);
+      } else {
+        if (edgeA[f] == b) {
+          edgeA[f] = a;
+        } else {
+          edgeB[f] = a;
+        }
+        append(vertexEdges, vertexEdgeCount, a, f);
+      }
+    }
+    vertexEdgeCount[b] = 0;
+    count = 0;
+    for (int i = 0; i < vertexEdgeCount[a]; i++) {
+      int f = vertexEdges[a][i];
+      if (edgeA[f] != -1) {
+        vertexEdges[a][count++] = f;
+        heap.set(f, computeCost(f));
+      }
+    }
+    vertexEdgeCount[a] = count;
+  }
+
+  /**
+   * Binary min-heap of edges by cost, which also knows where each edge sits so that any edge's
+   * cost can be changed, or the edge removed, in O(log n).
+   */
+  private static class EdgeHeap {
+
+    private final int[] heap;
+    private final int[] position;
+    private final double[] key;
+    private int size;
+
+    EdgeHeap(int capacity) {
+      this.heap = new int[capacity];
+      this.position = new int[capacity];
+      this.key = new double[capacity];
+      Arrays.fill(position, -1);
+    }
+
+    boolean isEmpty() {
+      return size == 0;
+    }
+
+    int peek() {
+      return heap[0];
+    }
+
+    double getKey(int e) {
+      return key[e];
+    }
+
+    void set(int e, double value) {
+      key[e] = value;
+      if (position[e] == -1) {
+        position[e] = size;
+        heap[size++] = e;
+      }
+      siftDown(siftUp(position[e]));
+    }
+
+    void remove(int e) {
+      int i = position[e];
+      if (i == -1) {
+        return;
+      }
+      position[e] = -1;
+      if (i != --size) {
+        heap[i] = heap[size];
+        position[heap[i]] = i;
+        siftDown(siftUp(i));
+      }
+    }
+
+    private int siftUp(int i) {
+      int e = heap[i];
+      while (i > 0 && key[heap[(i - 1) / 2]] > key[e]) {
+        heap[i] = heap[(i - 1) / 2];
+        position[heap[i]] = i;
+        i = (i - 1) / 2;
+      }
+      heap[i] = e;
+      position[e] = i;
+      return i;
+    }
+
+    private void siftDown(int i) {
+      int e = heap[i];
+      while (2 * i + 1 < size) {
+        int child = 2 * i + 1;
+        if (child + 1 < size && key[heap[child + 1]] < key[heap[child]]) {
+          child++;
+        }
+        if (key[heap[child]] >= key[e]) {
+          break;
+        }
+        heap[i] = heap[child];
+        position[heap[i]] = i;
+        i = child;
+      }
+      heap[i] = e;
+      position[e] = i;
+    }
+  }
+}
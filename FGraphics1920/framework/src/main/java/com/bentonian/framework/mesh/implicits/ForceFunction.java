@@ -1,9 +1,7 @@
 package com.bentonian.framework.mesh.implicits;
 
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import com.bentonian.framework.material.Colors;
@@ -13,13 +11,22 @@ import com.google.common.collect.Sets;
 
 public class ForceFunction {
 
-  private final Map<Vec3, Sample> cache;
-  private boolean cachingEnabled = true;
+  private static final int DEFAULT_CACHE_CAPACITY = 1 << 19;
+
+  private final SampleCache cache;
+  private volatile boolean cachingEnabled = true;
 
   private List<Force> forces = new LinkedList<Force>();
 
   public ForceFunction() {
-    this.cache = new HashMap<Vec3, Sample>();
+    this(DEFAULT_CACHE_CAPACITY);
+  }
+
+  /**
+   * Creates a force function whose sample cache holds at most cacheCapacity samples.
+   */
+  public ForceFunction(int cacheCapacity) {
+    this.cache = new SampleCache(cacheCapacity);
   }
   
   public double getCutoff() {
@@ -50,6 +57,14 @@ public class ForceFunction {
     return targets;
   }
 
+  /**
+   * Sets the lattice of points whose samples are cached: origin plus integer multiples of
+   * spacing along each axis.  Samples taken anywhere else are always recomputed.
+   */
+  public void setLattice(Vec3 origin, double spacing) {
+    cache.setLattice(origin, spacing);
+  }
+
   public void setCaching(boolean cachingEnabled) {
     this.cachingEnabled = cachingEnabled;
   }
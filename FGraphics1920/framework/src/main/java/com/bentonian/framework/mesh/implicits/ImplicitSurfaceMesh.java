@@ -9,12 +9,16 @@ import java.util.Map.Entry;
 import com.bentonian.framework.material.Colors;
 import com.bentonian.framework.material.Material;
 import com.bentonian.framework.material.MaterialPrimitive;
+import com.bentonian.framework.math.BoundingBox;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersections;
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+import com.bentonian.framework.mesh.IndexedMesh;
 import com.bentonian.framework.mesh.Mesh;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.MeshVertex;
+import com.bentonian.framework.mesh.QuadricSimplifier;
 import com.bentonian.framework.scene.IsRayTraceable;
 import com.bentonian.framework.ui.GLCanvas;
 import com.bentonian.framework.ui.GLVertexData;
@@ -35,6 +39,8 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
   private boolean showNormals = true;
   private boolean showBoxes = false;
   private boolean blendColors = false;
+  private double simplificationError = 0;
+  private HalfEdgeMesh simplified = null;
 
   private final GLVertexData edgesVao = GLVertexData.beginLineSegments();
   private final GLVertexData boxesVao = GLVertexData.beginLineSegments();
@@ -53,7 +59,8 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
 
   public ImplicitSurfaceMesh reset() {
     refiner.reset();
-    dispose();
+    simplified = null;
+    invalidate();
     return this;
   }
 
@@ -63,12 +70,25 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
 
   public ImplicitSurfaceMesh setTargetLevel(int targetLevel) {
     if (refiner.setTargetLevel(targetLevel)) {
+      simplified = null;
       dispose();
     }
     return this;
   }
 
+  /**
+   * Sets the number of threads refining the surface; see
+   * {@link ImplicitSurfaceRefiner#setParallelism(int)}.
+   */
+  public ImplicitSurfaceMesh setParallelism(int parallelism) {
+    refiner.setParallelism(parallelism);
+    return this;
+  }
+
   public int getNumPolys() {
+    if (simplified != null) {
+      return simplified.getNumFaces();
+    }
     int n = 0;
     for (Octree octree : refiner.getKnownOctrees()) {
       n += octree.getPolygonList().size();
@@ -82,6 +102,16 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
     surfaceVao.dispose();
   }
 
+  /**
+   * Rebuilds the geometry on the next render into the GL buffers already allocated, which
+   * is cheaper than {@link #dispose()} while the surface is refined or moved every frame.
+   */
+  public void invalidate() {
+    edgesVao.invalidate();
+    boxesVao.invalidate();
+    surfaceVao.invalidate();
+  }
+
   public ImplicitSurfaceMesh refineCompletely() {
     refiner.refineCompletely();
     return this;
@@ -123,6 +153,24 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
     return this;
   }
 
+  public double getSimplificationError() {
+    return simplificationError;
+  }
+
+  /**
+   * Sets the error, as a distance, within which the surface is simplified by
+   * {@link QuadricSimplifier} once it's fully refined.  Zero, the default, draws every
+   * polygon the refiner found.
+   */
+  public ImplicitSurfaceMesh setSimplificationError(double simplificationError) {
+    if (this.simplificationError != simplificationError) {
+      this.simplificationError = simplificationError;
+      simplified = null;
+      dispose();
+    }
+    return this;
+  }
+
   public boolean getShowBoxes() {
     return showBoxes;
   }
@@ -135,10 +183,12 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
   @Override
   public void render(GLCanvas glCanvas) {
     if (refiner.refine()) {
-      dispose();
-      if (refiner.isRefined()) {
-        // Simplify mesh
-      }
+      simplified = null;
+      invalidate();
+    }
+    if (refiner.isRefined() && simplificationError > 0 && simplified == null) {
+      simplified = simplify();
+      invalidate();
     }
     super.render(glCanvas);
   }
@@ -148,8 +198,12 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
     if (showEdges) {
       if (!edgesVao.isCompiled()) {
         edgesVao.color(BLACK);
-        for (Octree octree : refiner.getKnownOctrees()) {
-          renderEdges(octree);
+        if (simplified != null) {
+          renderSimplifiedEdges();
+        } else {
+          for (Octree octree : refiner.getKnownOctrees()) {
+            renderEdges(octree);
+          }
         }
       }
       edgesVao.render(canvas);
@@ -158,8 +212,12 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
     if (showFaces) {
       if (!surfaceVao.isCompiled()) {
         surfaceVao.color(getMaterial().getColor());
-        for (Octree octree : refiner.getKnownOctrees()) {
-          renderFaces(octree);
+        if (simplified != null) {
+          renderSimplifiedFaces();
+        } else {
+          for (Octree octree : refiner.getKnownOctrees()) {
+            renderFaces(octree);
+          }
         }
       }
       surfaceVao.render(canvas);
@@ -211,6 +269,16 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
     return mesh;
   }
 
+  @Override
+  public synchronized BoundingBox getLocalBounds() {
+    BoundingBox bounds = null;
+    for (Octree octree : refiner.getRoots()) {
+      BoundingBox box = new BoundingBox(octree.getMin(), octree.getMax());
+      bounds = (bounds == null) ? box : bounds.union(box);
+    }
+    return bounds;
+  }
+
   @Override
   public synchronized RayIntersections traceLocal(Ray ray) {
     RayIntersections hits = new RayIntersections();
@@ -272,6 +340,58 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
     }
   }
 
+  /**
+   * Welds the refined polygons into one mesh and simplifies it to within simplificationError.
+   */
+  private HalfEdgeMesh simplify() {
+    IndexedMesh mesh = new IndexedMesh();
+    Map<Vec3, Integer> indices = Maps.newHashMap();
+    for (Octree octree : refiner.getKnownOctrees()) {
+      for (Triangle poly : octree.getPolygonList()) {
+        mesh.addFace(index(mesh, indices, poly.a), index(mesh, indices, poly.b),
+            index(mesh, indices, poly.c));
+      }
+    }
+    return new HalfEdgeMesh(
+        new QuadricSimplifier(mesh).simplify(0, simplificationError).getMesh());
+  }
+
+  private static int index(IndexedMesh mesh, Map<Vec3, Integer> indices, Vec3 v) {
+    Integer index = indices.get(v);
+    if (index == null) {
+      index = mesh.addVertex(v.getX(), v.getY(), v.getZ());
+      indices.put(v, index);
+    }
+    return index;
+  }
+
+  private void renderSimplifiedEdges() {
+    for (int h = 0; h < simplified.getNumHalfEdges(); h++) {
+      if (simplified.isEdgeRepresentative(h)) {
+        edgesVao.vertex(simplified.getPosition(simplified.getOrigin(h)));
+        edgesVao.vertex(simplified.getPosition(simplified.getTarget(h)));
+      }
+    }
+  }
+
+  private void renderSimplifiedFaces() {
+    for (int f = 0; f < simplified.getNumFaces(); f++) {
+      int h = simplified.getFaceHalfEdge(f);
+      for (int i = 0; i < 3; i++, h = simplified.getNext(h)) {
+        int v = simplified.getOrigin(h);
+        Vec3 position = simplified.getPosition(v);
+        if (showNormals) {
+          surfaceVao.normal(simplified.getNormal(v));
+        }
+        if (blendColors) {
+          surfaceVao.color(refiner.getForceFunction().sample(position).getColor()
+              .orElse(getMaterial().getColor()));
+        }
+        surfaceVao.vertex(position);
+      }
+    }
+  }
+
   private void traceOctree(Octree octree, Ray ray, RayIntersections hits) {
     if (ray.intersectsCube(octree.getMin(), octree.getMax())) {
       if (octree.getLevel() < refiner.getTargetLevel()) {
@@ -291,7 +411,7 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
         ForceFunction forceFunction = refiner.getForceFunction();
         
         if (forceFunction instanceof ForceFunction) {
-          ((ForceFunction) forceFunction).setCaching(false);
+          forceFunction.setCaching(false);
         }
         
         for (Triangle poly : octree.getPolygonList()) {
@@ -313,7 +433,7 @@ public class ImplicitSurfaceMesh extends MaterialPrimitive implements IsRayTrace
         }
         
         if (forceFunction instanceof ForceFunction) {
-          ((ForceFunction) forceFunction).setCaching(true);
+          forceFunction.setCaching(true);
         }
       }
     }
@@ -4,6 +4,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.mesh.implicits.Octree.State;
@@ -14,6 +16,8 @@ public class ImplicitSurfaceRefiner {
 
   private static final int DEFAULT_TARGET_LEVEL = 3;
   private static final long REFINE_TIME_PER_FRAME_MILLIS = 250;
+  private static final int PARALLEL_BATCH_SIZE = 4096;
+  private static final int OCTREES_PER_TASK = 16;
 
   protected /* final */ ForceFunction forceFunction;
   protected final LinkedList<Octree> inProgress;
@@ -22,11 +26,13 @@ public class ImplicitSurfaceRefiner {
   protected final Vec3 min;
   protected final double scale;
   protected final int fx, fy, fz;
+  protected final int latticeLevel;
 
   private int targetLevel;
   private final List<Octree> almostFinished;
   private final List<Octree> finished;
-
+  private int parallelism;
+  private ForkJoinPool pool;
 
   ////////////////////////////////////////
 
@@ -47,6 +53,12 @@ public class ImplicitSurfaceRefiner {
     this.fx = (int) Math.ceil(dx / scale);
     this.fy = (int) Math.ceil(dy / scale);
     this.fz = (int) Math.ceil(dz / scale);
+    this.latticeLevel = 63 - Long.numberOfLeadingZeros(
+        SampleCache.getMaxCoord() / Math.max(fx, Math.max(fy, fz)));
+    this.parallelism = 1;
+    if (forceFunction != null) {
+      setCacheLattice();
+    }
   }
   
   public ForceFunction getForceFunction() {
@@ -55,6 +67,7 @@ public class ImplicitSurfaceRefiner {
 
   public ImplicitSurfaceRefiner reset() {
     forceFunction.reset();
+    setCacheLattice();
     inProgress.clear();
     almostFinished.clear();
     finished.clear();
@@ -63,6 +76,14 @@ public class ImplicitSurfaceRefiner {
     return this;
   }
   
+  /**
+   * Points the force function's sample cache at the lattice of octree corners, down to
+   * {@link #latticeLevel} levels of refinement.  Call again if the force function is replaced.
+   */
+  protected void setCacheLattice() {
+    forceFunction.setLattice(min, scale / (1L << latticeLevel));
+  }
+
   protected void findRootOctrees() {
     Sample[][][] initialSamples = sampleGrid(min, scale, fx+1, fy+1, fz+1, Optional.empty());
     Set<Vec3> targets = forceFunction.getTargets();
@@ -99,6 +120,29 @@ public class ImplicitSurfaceRefiner {
     }
   }
 
+  /**
+   * Sets the number of worker threads used to refine octrees.  With a parallelism of 1 (the
+   * default) octrees are refined one at a time on the calling thread; above that, the
+   * frontier of octrees awaiting refinement is subdivided in batches on a ForkJoinPool.
+   * Forces must be safe to evaluate from several threads at once.
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    if (this.parallelism != parallelism) {
+      this.parallelism = parallelism;
+      if (pool != null) {
+        pool.shutdown();
+        pool = null;
+      }
+    }
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
   /**
    * Runs the refine algorithm until all interesting octrees are at the target level.
    */
@@ -136,18 +180,64 @@ public class ImplicitSurfaceRefiner {
   }
   
   protected void refineInProgress(long timeout) {
-    while (!inProgress.isEmpty() && System.currentTimeMillis() < timeout) {
-      refine(inProgress.remove());
+    if (parallelism > 1) {
+      refineInProgressInParallel(timeout);
+    } else {
+      while (!inProgress.isEmpty() && System.currentTimeMillis() < timeout) {
+        refine(inProgress.remove());
+      }
     }
   }
 
   protected void refine(Octree octree) {
+    subdivide(octree);
+    scheduleChildren(octree);
+  }
+
+  /**
+   * Refines the frontier a batch at a time: the batch's octrees are subdivided concurrently,
+   * then their children are scheduled in order on this thread, so octrees are refined in the
+   * same order as they would be serially.
+   */
+  private void refineInProgressInParallel(long timeout) {
+    List<Octree> batch = Lists.newArrayList();
+
+    while (!inProgress.isEmpty() && System.currentTimeMillis() < timeout) {
+      batch.clear();
+      while (!inProgress.isEmpty() && batch.size() < PARALLEL_BATCH_SIZE) {
+        batch.add(inProgress.remove());
+      }
+      getPool().invoke(new Subdivider(batch, 0, batch.size()));
+      for (Octree octree : batch) {
+        scheduleChildren(octree);
+      }
+    }
+  }
+
+  /**
+   * Samples the octree's children, unless it already has them, and polygonalizes those which
+   * won't be refined further.  Touches nothing but the octree and the force function, so
+   * distinct octrees can be subdivided concurrently.
+   */
+  private void subdivide(Octree octree) {
     if (octree.getChildOctrees() == null) {
       double scale = (octree.getMax().getX() - octree.getMin().getX()) / 2.0;
       Sample[][][] childSamples = sampleGrid(octree.getMin(), scale, 3, 3, 3, Optional.of(octree));
       octree.addChildren(childSamples);
     }
-    
+    for (int i = 0; i < 2; i++) {
+      for (int j = 0; j < 2; j++) {
+        for (int k = 0; k < 2; k++) {
+          Octree child = octree.getChildOctrees()[i][j][k];
+          if (child.getLevel() >= targetLevel || !child.isInteresting()) {
+            child.getPolygonList();
+          }
+        }
+      }
+    }
+  }
+
+  private void scheduleChildren(Octree octree) {
     octree.setState(State.REFINED);
     for (int i = 0; i < 2; i++) {
       for (int j = 0; j < 2; j++) {
@@ -266,6 +356,13 @@ public class ImplicitSurfaceRefiner {
     return null;
   }
 
+  private ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism);
+    }
+    return pool;
+  }
+
   private void resetInProgressAndFinished() {
     inProgress.clear();
     almostFinished.clear();
@@ -297,4 +394,30 @@ public class ImplicitSurfaceRefiner {
       octree.setState(State.SCHEDULED_FOR_MISSED_FACES_CHECK);
     }
   }
+
+  private class Subdivider extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Octree> octrees;
+    private final int from, to;
+
+    Subdivider(List<Octree> octrees, int from, int to) {
+      this.octrees = octrees;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > OCTREES_PER_TASK) {
+        int mid = (from + to) / 2;
+        invokeAll(new Subdivider(octrees, from, mid), new Subdivider(octrees, mid, to));
+      } else {
+        for (int i = from; i < to; i++) {
+          subdivide(octrees.get(i));
+        }
+      }
+    }
+  }
 }
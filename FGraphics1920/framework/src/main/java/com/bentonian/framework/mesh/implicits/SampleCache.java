@@ -0,0 +1,137 @@
+package com.bentonian.framework.mesh.implicits;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.bentonian.framework.math.Vec3;
+
+/**
+ * Bounded, thread-safe cache of force function samples.  Samples are keyed by their integer
+ * coordinates on the refiner's octree lattice, packed into a long, rather than by
+ * floating-point position, so the same corner reached by two different octrees always finds
+ * the same entry.  Points which aren't on the lattice aren't cached.
+ *
+ * The cache is split into independently locked stripes, each evicting its least recently
+ * used samples once full.
+ */
+class SampleCache {
+
+  private static final int NUM_STRIPES = 64;
+  private static final int BITS_PER_AXIS = 21;
+  private static final long MAX_COORD = (1L << BITS_PER_AXIS) - 1;
+  private static final double TOLERANCE = 1.0e-3;
+  private static final long NOT_ON_LATTICE = -1;
+
+  private final Stripe[] stripes;
+  private volatile double[] lattice;  // origin x, y, z, then spacing
+
+  SampleCache(int capacity) {
+    int stripeCapacity = Math.max(1, capacity / NUM_STRIPES);
+    this.stripes = new Stripe[NUM_STRIPES];
+    for (int i = 0; i < NUM_STRIPES; i++) {
+      stripes[i] = new Stripe(stripeCapacity);
+    }
+  }
+
+  /**
+   * Returns the largest number of lattice steps along one axis which can be keyed.
+   */
+  static long getMaxCoord() {
+    return MAX_COORD;
+  }
+
+  /**
+   * Sets the lattice points which can be cached, clearing the cache if it's changed.
+   */
+  void setLattice(Vec3 origin, double spacing) {
+    double[] lattice = { origin.getX(), origin.getY(), origin.getZ(), spacing };
+    double[] current = this.lattice;
+    if (current == null || !Arrays.equals(current, lattice)) {
+      this.lattice = lattice;
+      clear();
+    }
+  }
+
+  Sample get(Vec3 v) {
+    long key = keyOf(v);
+    if (key == NOT_ON_LATTICE) {
+      return null;
+    }
+    Stripe stripe = stripeOf(key);
+    synchronized (stripe) {
+      return stripe.get(key);
+    }
+  }
+
+  void put(Vec3 v, Sample sample) {
+    long key = keyOf(v);
+    if (key != NOT_ON_LATTICE) {
+      Stripe stripe = stripeOf(key);
+      synchronized (stripe) {
+        stripe.put(key, sample);
+      }
+    }
+  }
+
+  void clear() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  int size() {
+    int size = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+
+  ////////////////////////////////////////
+
+  private long keyOf(Vec3 v) {
+    double[] lattice = this.lattice;
+    if (lattice == null) {
+      return NOT_ON_LATTICE;
+    }
+    long x = toLattice(v.getX(), lattice[0], lattice[3]);
+    long y = toLattice(v.getY(), lattice[1], lattice[3]);
+    long z = toLattice(v.getZ(), lattice[2], lattice[3]);
+    return (x < 0 || y < 0 || z < 0)
+        ? NOT_ON_LATTICE
+        : (x << (2 * BITS_PER_AXIS)) | (y << BITS_PER_AXIS) | z;
+  }
+
+  private static long toLattice(double d, double origin, double spacing) {
+    double u = (d - origin) / spacing;
+    long i = Math.round(u);
+    return (Math.abs(u - i) < TOLERANCE && i >= 0 && i <= MAX_COORD) ? i : -1;
+  }
+
+  private Stripe stripeOf(long key) {
+    long h = key * 0x9E3779B97F4A7C15L;
+    return stripes[(int) (h >>> 58) & (NUM_STRIPES - 1)];
+  }
+
+  private static class Stripe extends LinkedHashMap<Long, Sample> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+
+    Stripe(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Sample> eldest) {
+      return size() > capacity;
+    }
+  }
+}
@@ -4,6 +4,7 @@ import static com.bentonian.framework.math.MathConstants.X_AXIS;
 
 import com.bentonian.framework.material.Colors;
 import com.bentonian.framework.material.Material;
+import com.bentonian.framework.math.BoundingBox;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.math.MathConstants;
 import com.bentonian.framework.math.Ray;
@@ -28,6 +29,11 @@ public class Circle extends MeshPrimitiveWithTexture implements IsRayTraceable {
     setTexture(BufferedImageTexture.CHECKERBOARD);
   }
 
+  @Override
+  public BoundingBox getLocalBounds() {
+    return new BoundingBox(-RADIUS - 0.05, 0, -RADIUS - 0.05, RADIUS + 0.05, 0, RADIUS + 0.05);
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
     double t = -ray.origin.getY() / ray.direction.getY();
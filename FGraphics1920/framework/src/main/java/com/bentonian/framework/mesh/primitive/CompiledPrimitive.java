@@ -42,6 +42,14 @@ public class CompiledPrimitive extends MaterialPrimitive {
     vao.dispose();
   }
 
+  /**
+   * Discards the compiled geometry so it's specified again on the next render, keeping the
+   * GL buffers to refill; cheaper than {@link #dispose()} for geometry which changes often.
+   */
+  public void invalidate() {
+    vao.invalidate();
+  }
+
   public void normal(Vec3 normal) {
     vao.normal(normal);
   }
@@ -57,6 +65,14 @@ public class CompiledPrimitive extends MaterialPrimitive {
   public Vertex vertex(Vec3 point) {
     return vao.vertex(point);
   }
+
+  public int addVertex(Vec3 point) {
+    return vao.addVertex(point);
+  }
+
+  public void element(int index) {
+    vao.element(index);
+  }
   
   @Override
   protected void renderLocal(GLCanvas glCanvas) {
@@ -2,10 +2,13 @@ package com.bentonian.framework.mesh.primitive;
 
 import static java.lang.Math.abs;
 
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.math.MathConstants;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.MeshVertex;
 import com.bentonian.framework.scene.IsRayTraceable;
@@ -28,6 +31,11 @@ public class Cube extends MeshPrimitiveWithTexture implements IsRayTraceable {
     }
   }
 
+  @Override
+  public BoundingBox getLocalBounds() {
+    return new BoundingBox(-1, -1, -1, 1, 1, 1);
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
     RayIntersections hitList = new RayIntersections();
@@ -40,13 +48,41 @@ public class Cube extends MeshPrimitiveWithTexture implements IsRayTraceable {
     return hitList;
   }
 
+  /**
+   * Slab test against the unit cube, equivalent to traceLocal(Ray)'s six face tests.
+   */
+  @Override
+  public void traceLocal(RayPacket packet) {
+    for (int i = 0; i < packet.size; i++) {
+      double ix = 1 / packet.dx[i], iy = 1 / packet.dy[i], iz = 1 / packet.dz[i];
+      double tx1 = (-1 - packet.ox[i]) * ix, tx2 = (1 - packet.ox[i]) * ix;
+      double ty1 = (-1 - packet.oy[i]) * iy, ty2 = (1 - packet.oy[i]) * iy;
+      double tz1 = (-1 - packet.oz[i]) * iz, tz2 = (1 - packet.oz[i]) * iz;
+      double tNear = Math.max(Math.max(Math.min(tx1, tx2), Math.min(ty1, ty2)), Math.min(tz1, tz2));
+      double tFar = Math.min(Math.min(Math.max(tx1, tx2), Math.max(ty1, ty2)), Math.max(tz1, tz2));
+      if (tNear <= tFar) {
+        double t = packet.accepts(i, tNear) ? tNear : tFar;
+        if (packet.accepts(i, t)) {
+          packet.t[i] = t;
+          packet.hit[i] = true;
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean traceLocalAt(Ray ray, double t, HitRecord record) {
+    Vec3 pt = ray.at(t);
+    return record.offer(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
+  }
+
   private boolean collide(RayIntersections hitList, double t, Ray ray) {
     if (t > MathConstants.EPSILON) {
       Vec3 pt = ray.at(t);
       if (Math.abs(pt.getX()) <= 1.00001 &&
           Math.abs(pt.getY()) <= 1.00001 &&
           Math.abs(pt.getZ()) <= 1.00001) {
-        hitList.add(this, t, pt, getNormal(pt), getMaterial(pt));
+        hitList.add(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
       }
     }
 
@@ -97,6 +133,11 @@ public class Cube extends MeshPrimitiveWithTexture implements IsRayTraceable {
     }
   }
 
+  @Override
+  protected boolean canShareVertices() {
+    return false;
+  }
+
   @Override
   protected void renderVertex(MeshFace face, int index) {
     textureCoordinates(getTextureCoord(face.get(index), face.getNormal()));
@@ -7,6 +7,8 @@ import static java.lang.Math.atan2;
 import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersections;
@@ -43,6 +45,11 @@ public class Cylinder extends MeshPrimitiveWithTexture implements IsRayTraceable
     setRenderStyle(RenderStyle.NORMALS_BY_VERTEX);
   }
 
+  @Override
+  public BoundingBox getLocalBounds() {
+    return new BoundingBox(-1, -1, -1, 1, 1, 1);
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
     double a = sqr(ray.direction.getX()) + sqr(ray.direction.getZ());
@@ -63,10 +70,16 @@ public class Cylinder extends MeshPrimitiveWithTexture implements IsRayTraceable
     }
   }
 
+  @Override
+  public boolean traceLocalAt(Ray ray, double t, HitRecord record) {
+    Vec3 pt = ray.at(t);
+    return record.offer(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
+  }
+
   private void hit(RayIntersections hitList, Ray ray, double t) {
     Vec3 pt = ray.at(t);
     if (t > 0 && Math.abs(pt.getY()) <= 1) {
-      hitList.add(this, t, pt, getNormal(pt), getMaterial(pt));
+      hitList.add(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
     }
   }
 
@@ -1,16 +1,28 @@
 package com.bentonian.framework.mesh.primitive;
 
+import static com.bentonian.framework.math.MathConstants.EPSILON;
+
+import java.util.List;
+import java.util.Map;
+
 import com.bentonian.framework.material.Material;
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersection;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
 import com.bentonian.framework.mesh.Mesh;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.MeshVertex;
+import com.bentonian.framework.mesh.QuadricSimplifier;
 import com.bentonian.framework.scene.IsRayTraceable;
 import com.bentonian.framework.ui.GLCanvas;
 import com.bentonian.framework.ui.GLVertexData;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
 
@@ -19,17 +31,31 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
     NORMALS_BY_VERTEX
   }
 
+  // Fraction of each level of detail's range, at its coarse end, spent fading into the next
+  private static final double LEVEL_OF_DETAIL_BLEND_RANGE = 0.25;
+  private static final int MIN_LEVEL_OF_DETAIL_TRIANGLES = 16;
+
   private final Mesh mesh;
+  private final List<MeshPrimitive> levelsOfDetail = Lists.newArrayList();
+  private final List<Double> levelOfDetailScales = Lists.newArrayList();
 
   private MeshPrimitiveFeatureAccelerator featuresAccelerator;
   private MeshPrimitiveRayTracingAccelerator rayTracingAccelerator;
   private RenderStyle renderStyle = RenderStyle.NORMALS_BY_FACE;
+  private double fullDetailSize = 1;
+  private int levelOfDetail = 0;
+  private Vec3 boundingSphereCenter;
+  private double boundingSphereRadius;
 
   public MeshPrimitive(Mesh mesh) {
     super(GLVertexData.Mode.TRIANGLES);
     this.mesh = mesh;
   }
 
+  public MeshPrimitive(HalfEdgeMesh mesh) {
+    this(mesh.toMesh());
+  }
+
   public Mesh getMesh() {
     return mesh;
   }
@@ -39,12 +65,84 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
       this.renderStyle = renderStyle;
       dispose();
     }
+    for (MeshPrimitive level : levelsOfDetail) {
+      level.setRenderStyle(renderStyle);
+    }
   }
 
   public RenderStyle getRenderStyle() {
     return renderStyle;
   }
 
+  /**
+   * Simplifies the mesh into up to numLevels - 1 coarser levels of detail, each with about a
+   * quarter of the triangles of the one before, so about twice the edge length.  Replaces any
+   * levels added before.
+   */
+  public MeshPrimitive buildLevelsOfDetail(int numLevels) {
+    QuadricSimplifier simplifier = new QuadricSimplifier(mesh);
+    int triangles = simplifier.getNumTriangles();
+
+    clearLevelsOfDetail();
+    for (int i = 1; i < numLevels && triangles / 4 >= MIN_LEVEL_OF_DETAIL_TRIANGLES; i++) {
+      triangles /= 4;
+      simplifier.simplify(triangles);
+      addLevelOfDetail(simplifier.getMesh().toMesh());
+    }
+    return this;
+  }
+
+  /**
+   * Adds a coarser version of the mesh, drawn in the same material and style once the
+   * primitive is too small on screen for the levels before it.
+   */
+  public MeshPrimitive addLevelOfDetail(Mesh coarser) {
+    MeshPrimitive level = new MeshPrimitive(coarser) {
+      @Override
+      protected Material getMaterial(Vec3 pt) {
+        return MeshPrimitive.this.getMaterial(pt);
+      }
+    };
+    level.setRenderStyle(renderStyle);
+    levelsOfDetail.add(level);
+    levelOfDetailScales.add(Math.sqrt((double) countTriangles(mesh) / countTriangles(coarser)));
+    return this;
+  }
+
+  public void clearLevelsOfDetail() {
+    for (MeshPrimitive level : levelsOfDetail) {
+      level.dispose();
+    }
+    levelsOfDetail.clear();
+    levelOfDetailScales.clear();
+    levelOfDetail = 0;
+  }
+
+  public int getNumLevelsOfDetail() {
+    return levelsOfDetail.size() + 1;
+  }
+
+  /**
+   * Returns the level of detail last drawn, 0 being the full mesh.
+   */
+  public int getLevelOfDetail() {
+    return levelOfDetail;
+  }
+
+  /**
+   * Sets the height on screen, as a fraction of the viewport's, above which the full mesh is
+   * drawn.  A level whose edges are s times as long as the full mesh's takes over once the
+   * primitive is 1/s of that size.  Defaults to 1.
+   */
+  public MeshPrimitive setFullDetailSize(double fullDetailSize) {
+    this.fullDetailSize = fullDetailSize;
+    return this;
+  }
+
+  public double getFullDetailSize() {
+    return fullDetailSize;
+  }
+
   public void enableRayTracingAccelerator() {
     rayTracingAccelerator = new MeshPrimitiveRayTracingAccelerator(mesh);
   }
@@ -60,6 +158,17 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
     return featuresAccelerator;
   }
 
+  @Override
+  public BoundingBox getLocalBounds() {
+    if (mesh.isEmpty()) {
+      return null;
+    }
+    Vec3 min = new Vec3();
+    Vec3 max = new Vec3();
+    mesh.getBounds(min, max);
+    return new BoundingBox(min, max);
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
     RayIntersections hits = new RayIntersections();
@@ -68,14 +177,90 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
       for (MeshFace face : mesh) {
         traceRayToFace(ray, hits, face);
       }
-    } else if (rayTracingAccelerator.isHitByRay(ray)) {
-      for (MeshFace face : rayTracingAccelerator.getFacesAlongRay(ray)) {
-        traceRayToFace(ray, hits, face);
-      }
+    } else {
+      rayTracingAccelerator.traceAll(ray,
+          (face, corner, t) -> hits.add(getIntersection(ray, face, corner, t)));
     }
     return hits;
   }
 
+  @Override
+  public boolean traceLocal(Ray ray, HitRecord record) {
+    if (rayTracingAccelerator != null) {
+      return rayTracingAccelerator.traceNearest(ray, record.t, record.isAnyHit(),
+          (face, corner, t) -> record.offer(getIntersection(ray, face, corner, t)));
+    }
+
+    boolean updated = false;
+    for (MeshFace face : mesh) {
+      for (int i = 0; i < face.size() - 2 && !record.isDone(); i++) {
+        double t = ray.intersectsTriangleUnboxed(
+            face.get(0), face.get(i + 1), face.get(i + 2), face.getNormal());
+        if (record.accepts(t)) {
+          updated |= record.offer(getIntersection(ray, face, i + 1, t));
+        }
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Without an accelerator, loops over triangles outermost and the packet's rays innermost,
+   * so that each triangle's setup is shared by every ray.
+   */
+  @Override
+  public void traceLocal(RayPacket packet) {
+    if (rayTracingAccelerator != null) {
+      for (int i = 0; i < packet.size; i++) {
+        final int ray = i;
+        rayTracingAccelerator.traceNearest(packet.getRay(i), packet.t[i], false,
+            (face, corner, t) -> {
+              packet.t[ray] = t;
+              packet.hit[ray] = true;
+            });
+      }
+      return;
+    }
+
+    for (MeshFace face : mesh) {
+      Vec3 N = face.getNormal();
+      double nx = N.getX(), ny = N.getY(), nz = N.getZ();
+      for (int corner = 1; corner < face.size() - 1; corner++) {
+        Vec3 A = face.get(0);
+        Vec3 B = face.get(corner);
+        Vec3 C = face.get(corner + 1);
+        double ax = A.getX(), ay = A.getY(), az = A.getZ();
+        // Edge normals n x (b - a), n x (c - b), n x (a - c)
+        double abx = ny * (B.getZ() - az) - nz * (B.getY() - ay);
+        double aby = nz * (B.getX() - ax) - nx * (B.getZ() - az);
+        double abz = nx * (B.getY() - ay) - ny * (B.getX() - ax);
+        double bcx = ny * (C.getZ() - B.getZ()) - nz * (C.getY() - B.getY());
+        double bcy = nz * (C.getX() - B.getX()) - nx * (C.getZ() - B.getZ());
+        double bcz = nx * (C.getY() - B.getY()) - ny * (C.getX() - B.getX());
+        double cax = ny * (az - C.getZ()) - nz * (ay - C.getY());
+        double cay = nz * (ax - C.getX()) - nx * (az - C.getZ());
+        double caz = nx * (ay - C.getY()) - ny * (ax - C.getX());
+
+        for (int i = 0; i < packet.size; i++) {
+          double nDotD = nx * packet.dx[i] + ny * packet.dy[i] + nz * packet.dz[i];
+          double t = (nx * (ax - packet.ox[i]) + ny * (ay - packet.oy[i]) + nz * (az - packet.oz[i]))
+              / nDotD;
+          double px = packet.ox[i] + packet.dx[i] * t;
+          double py = packet.oy[i] + packet.dy[i] * t;
+          double pz = packet.oz[i] + packet.dz[i] * t;
+          if ((Math.abs(nDotD) >= EPSILON)
+              && (abx * (px - ax) + aby * (py - ay) + abz * (pz - az) >= 0)
+              && (bcx * (px - B.getX()) + bcy * (py - B.getY()) + bcz * (pz - B.getZ()) >= 0)
+              && (cax * (px - C.getX()) + cay * (py - C.getY()) + caz * (pz - C.getZ()) >= 0)
+              && packet.accepts(i, t)) {
+            packet.t[i] = t;
+            packet.hit[i] = true;
+          }
+        }
+      }
+    }
+  }
+
   public void traceRayToFace(Ray ray, RayIntersections hits, MeshFace face) {
     for (int i = 0; i < face.size() - 2; i++) {
       MeshVertex A = face.get(0);
@@ -83,15 +268,22 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
       MeshVertex C = face.get(i + 2);
       Double t = ray.intersectsTriangle(A, B, C, face.getNormal());
       if (t != null) {
-        Vec3 pt = ray.at(t);
-        Material material = getMaterial(pt);
-        Vec3 normal = (renderStyle == RenderStyle.NORMALS_BY_FACE)
-            ? face.getNormal() : getNormalFromBarycentricWeights(A, B, C, pt);
-        hits.add(new RayIntersection(this, t, pt, normal, material));
+        hits.add(getIntersection(ray, face, i + 1, t));
       }
     }
   }
 
+  private RayIntersection getIntersection(Ray ray, MeshFace face, int corner, double t) {
+    MeshVertex A = face.get(0);
+    MeshVertex B = face.get(corner);
+    MeshVertex C = face.get(corner + 1);
+    Vec3 pt = ray.at(t);
+    Material material = getMaterial(pt, ray.getFootprint(t));
+    Vec3 normal = (renderStyle == RenderStyle.NORMALS_BY_FACE)
+        ? face.getNormal() : getNormalFromBarycentricWeights(A, B, C, pt);
+    return new RayIntersection(this, t, pt, normal, material);
+  }
+
   private Vec3 getNormalFromBarycentricWeights(MeshVertex A, MeshVertex B, MeshVertex C, Vec3 pt) {
     double barycentricWeightA = B.minus(pt).cross(C.minus(pt)).length();
     double barycentricWeightB = C.minus(pt).cross(A.minus(pt)).length();
@@ -106,8 +298,49 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
     return getMaterial();
   }
 
+  /**
+   * The material at pt as seen by a ray whose cross-section there is footprint units across.
+   */
+  protected Material getMaterial(Vec3 pt, double footprint) {
+    return getMaterial(pt);
+  }
+
+  /**
+   * Draws the level of detail matching the primitive's size on screen, cross-fading to the
+   * next coarser level over the last part of each level's range so that switching doesn't pop.
+   */
   @Override
   protected void renderLocal(GLCanvas glCanvas) {
+    if (levelsOfDetail.isEmpty()) {
+      renderFullDetail(glCanvas);
+      return;
+    }
+
+    if (boundingSphereCenter == null) {
+      BoundingBox bounds = getLocalBounds();
+      boundingSphereCenter = bounds.getCenter();
+      boundingSphereRadius = bounds.getMax().minus(boundingSphereCenter).length();
+    }
+    double detail = getLevelOfDetail(
+        glCanvas.getProjectedSize(boundingSphereCenter, boundingSphereRadius));
+    int level = (int) detail;
+    double blend =
+        (detail - level - (1 - LEVEL_OF_DETAIL_BLEND_RANGE)) / LEVEL_OF_DETAIL_BLEND_RANGE;
+
+    if (blend <= 0 || level == levelsOfDetail.size()) {
+      levelOfDetail = level;
+      renderLevelOfDetail(glCanvas, level);
+    } else {
+      // Draw whichever level dominates, then the other over it, faded
+      levelOfDetail = (blend < 0.5) ? level : level + 1;
+      renderLevelOfDetail(glCanvas, levelOfDetail);
+      glCanvas.updateUniformFloat("transparency", (float) Math.abs(1 - 2 * blend));
+      renderLevelOfDetail(glCanvas, (blend < 0.5) ? level + 1 : level);
+      glCanvas.updateUniformFloat("transparency", 0);
+    }
+  }
+
+  private void renderFullDetail(GLCanvas glCanvas) {
     if (featuresAccelerator != null) {
       featuresAccelerator.render(glCanvas);
     }
@@ -118,20 +351,95 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
   }
 
   protected void renderFaces() {
-    for (MeshFace face : mesh) {
-      renderFace(face);
+    if (canShareVertices()) {
+      Map<MeshVertex, Integer> indices = Maps.newIdentityHashMap();
+      for (MeshFace face : mesh) {
+        for (int i = 0; i < face.size() - 2; i++) {
+          renderSharedVertex(indices, face.get(0));
+          renderSharedVertex(indices, face.get(i + 1));
+          renderSharedVertex(indices, face.get(i + 2));
+        }
+      }
+    } else {
+      for (MeshFace face : mesh) {
+        renderFace(face);
+      }
     }
   }
 
+  /**
+   * Returns true if faces may share one compiled copy of each vertex, as they can when
+   * normals are by vertex.  Subclasses which set anything per corner in renderVertex()
+   * return false.
+   */
+  protected boolean canShareVertices() {
+    return renderStyle == RenderStyle.NORMALS_BY_VERTEX;
+  }
+
   @Override
   public void dispose() {
     if (featuresAccelerator != null) {
       featuresAccelerator.dispose();
     }
+    for (MeshPrimitive level : levelsOfDetail) {
+      level.dispose();
+    }
+    boundingSphereCenter = null;
     super.dispose();
     // TODO(me) Reset raytracing accelerator here?
   }
 
+  /**
+   * Recompiles the mesh on the next render into the buffers already allocated, for meshes
+   * whose vertices move every frame.
+   */
+  @Override
+  public void invalidate() {
+    if (featuresAccelerator != null) {
+      featuresAccelerator.invalidate();
+    }
+    for (MeshPrimitive level : levelsOfDetail) {
+      level.invalidate();
+    }
+    boundingSphereCenter = null;
+    super.invalidate();
+  }
+
+  /**
+   * Returns the level of detail for a primitive of the given size on screen, with the fraction
+   * of the way to the next level.
+   */
+  private double getLevelOfDetail(double size) {
+    double previousScale = 1;
+    for (int i = 0; i < levelOfDetailScales.size(); i++) {
+      double scale = levelOfDetailScales.get(i);
+      if (size * previousScale >= fullDetailSize) {
+        return i;
+      } else if (size * scale > fullDetailSize) {
+        return i + Math.log(fullDetailSize / (size * previousScale))
+            / Math.log(scale / previousScale);
+      }
+      previousScale = scale;
+    }
+    return levelOfDetailScales.size();
+  }
+
+  private void renderLevelOfDetail(GLCanvas glCanvas, int level) {
+    if (level == 0) {
+      renderFullDetail(glCanvas);
+    } else {
+      levelsOfDetail.get(level - 1).renderLocal(glCanvas);
+    }
+  }
+
+  private static int countTriangles(Mesh mesh) {
+    int triangles = 0;
+    for (MeshFace face : mesh) {
+      triangles += face.size() - 2;
+    }
+    return triangles;
+  }
+
   protected void renderFace(MeshFace face) {
     if (renderStyle == RenderStyle.NORMALS_BY_FACE) {
       normal(face.getNormal());
@@ -143,6 +451,17 @@ public class MeshPrimitive extends CompiledPrimitive implements IsRayTraceable {
     }
   }
 
+  private void renderSharedVertex(Map<MeshVertex, Integer> indices, MeshVertex v) {
+    Integer index = indices.get(v);
+    if (index == null) {
+      normal(v.getNormal());
+      color(getMaterial(v).getColor());
+      index = addVertex(v);
+      indices.put(v, index);
+    }
+    element(index);
+  }
+
   protected void renderVertex(MeshFace face, int index) {
     MeshVertex v = face.get(index);
     if (renderStyle == RenderStyle.NORMALS_BY_VERTEX) {
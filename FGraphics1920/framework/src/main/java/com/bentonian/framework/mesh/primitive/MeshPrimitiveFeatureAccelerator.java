@@ -89,4 +89,8 @@ public class MeshPrimitiveFeatureAccelerator {
   public void dispose() {
     vao.dispose();
   }
+
+  public void invalidate() {
+    vao.invalidate();
+  }
 }
@@ -3,9 +3,7 @@ package com.bentonian.framework.mesh.primitive;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
-import java.util.HashSet;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.Arrays;
 
 import com.bentonian.framework.math.LineSegment;
 import com.bentonian.framework.math.Vec3;
@@ -13,118 +11,149 @@ import com.bentonian.framework.math.MathConstants;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.Mesh;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 
+/**
+ * Uniform grid over a mesh's triangles, walked front-to-back along a ray with a 3D-DDA
+ * (Amanatides & Woo, "A Fast Voxel Traversal Algorithm for Ray Tracing", 1987).
+ *
+ * The grid's resolution is chosen from the triangle count, aiming for a few triangles per
+ * cell, and cell contents are packed into flat int arrays.  Safe to trace from several
+ * threads at once.
+ */
 public class MeshPrimitiveRayTracingAccelerator {
 
-  private static final int DIM = 50;
+  private static final double CELLS_PER_TRIANGLE = 4;
+  private static final int MAX_DIM = 128;
 
-  private static class GridCell extends HashSet<MeshFace> { }
-
-  private static class GridCellCoord { 
-    int u, v, w;
-    public GridCellCoord(int u, int v, int w) {
-      this.u = u;
-      this.v = v;
-      this.w = w;
-    }
-    @Override
-    public int hashCode() {
-      return 31 * (31 * (31 * u) + v) + w;
-    }
-    @Override
-    public boolean equals(Object obj) {
-      return (obj instanceof GridCellCoord) ? ((GridCellCoord) obj).hashCode() == hashCode() : false;
-    }
+  /**
+   * Receives each ray-triangle hit found by the accelerator.
+   */
+  public interface TriangleHitCollector {
+    void hit(MeshFace face, int corner, double t);
   }
 
   private final Vec3 least, most;
-  private final GridCell[][][] grid;
+  private final int[] dim;
+  private final double[] cellSize;
+
+  // Triangle i is (face.get(0), face.get(corner), face.get(corner + 1)) of faces[i],
+  // with vertex positions and face normal packed 12 doubles at a time into triangles[].
+  private final MeshFace[] faces;
+  private final int[] corners;
+  private final double[] triangles;
+
+  // Triangles overlapping cell c are cellTriangles[cellStart[c] .. cellStart[c + 1])
+  private final int[] cellStart;
+  private final int[] cellTriangles;
+
+  private final ThreadLocal<Mailbox> mailboxes;
 
   public MeshPrimitiveRayTracingAccelerator(Mesh mesh) {
-    this.grid = new GridCell[DIM][DIM][DIM];
+    int numTriangles = 0;
+    for (MeshFace face : mesh) {
+      numTriangles += max(0, face.size() - 2);
+    }
+
     this.least = new Vec3();
     this.most = new Vec3();
+    this.faces = new MeshFace[numTriangles];
+    this.corners = new int[numTriangles];
+    this.triangles = new double[numTriangles * 12];
+    this.mailboxes = ThreadLocal.withInitial(() -> new Mailbox(faces.length));
 
-    mesh.getBounds(least, most);
+    if (!mesh.isEmpty()) {
+      mesh.getBounds(least, most);
+    }
+    least.set(least.minus(new Vec3(MathConstants.EPSILON, MathConstants.EPSILON, MathConstants.EPSILON)));
     most.set(most.plus(new Vec3(MathConstants.EPSILON, MathConstants.EPSILON, MathConstants.EPSILON)));
+    this.dim = chooseResolution(numTriangles);
+    this.cellSize = new double[3];
+    for (int axis = 0; axis < 3; axis++) {
+      cellSize[axis] = (most.get(axis) - least.get(axis)) / dim[axis];
+    }
+
+    int numCells = dim[0] * dim[1] * dim[2];
+    int[] pairCell = new int[max(16, numTriangles * 2)];
+    int[] pairTriangle = new int[pairCell.length];
+    int numPairs = 0;
+    int tri = 0;
 
     for (MeshFace face : mesh) {
-      for (int i = 0; i < face.size() - 2; i++) {
+      for (int i = 0; i < face.size() - 2; i++, tri++) {
         Vec3 A = face.get(0);
         Vec3 B = face.get(i + 1);
         Vec3 C = face.get(i + 2);
+        faces[tri] = face;
+        corners[tri] = i + 1;
+        pack(tri, A, B, C, face.getNormal());
+
         Vec3 triMin = new Vec3();
         Vec3 triMax = new Vec3();
         getTriangleBoundingBox(A, B, C, triMin, triMax);
-        GridCellCoord min = getCellCoord(triMin);
-        GridCellCoord max = getCellCoord(triMax);
-        for (int u = min.u; u <= max.u; u++) {
-          for (int v = min.v; v <= max.v; v++) {
-            for (int w = min.w; w <= max.w; w++) {
+        int[] min = getCellCoord(triMin);
+        int[] max = getCellCoord(triMax);
+        for (int u = min[0]; u <= max[0]; u++) {
+          for (int v = min[1]; v <= max[1]; v++) {
+            for (int w = min[2]; w <= max[2]; w++) {
               if (triangleOverlapsBox(u, v, w, A, B, C)) {
-                if (grid[u][v][w] == null) {
-                  grid[u][v][w] = new GridCell();
+                if (numPairs == pairCell.length) {
+                  pairCell = Arrays.copyOf(pairCell, numPairs * 2);
+                  pairTriangle = Arrays.copyOf(pairTriangle, numPairs * 2);
                 }
-                grid[u][v][w].add(face);
+                pairCell[numPairs] = getCellIndex(u, v, w);
+                pairTriangle[numPairs] = tri;
+                numPairs++;
               }
             }
           }
         }
       }
     }
-  }
 
-  public Set<MeshFace> getFacesAlongRay(Ray ray) {
-    Set<MeshFace> candidates = Sets.newHashSet();
-    Set<GridCellCoord> visited = Sets.newHashSet();
-    LinkedList<GridCellCoord> coords = Lists.newLinkedList();
-    Vec3 pt = ray.at(ray.intersectsCubePrecisely(least, most) + MathConstants.EPSILON);
+    // Counting sort of (cell, triangle) pairs into per-cell runs
+    this.cellStart = new int[numCells + 1];
+    this.cellTriangles = new int[numPairs];
+    for (int i = 0; i < numPairs; i++) {
+      cellStart[pairCell[i] + 1]++;
+    }
+    for (int c = 0; c < numCells; c++) {
+      cellStart[c + 1] += cellStart[c];
+    }
+    int[] fill = Arrays.copyOf(cellStart, numCells);
+    for (int i = 0; i < numPairs; i++) {
+      cellTriangles[fill[pairCell[i]]++] = pairTriangle[i];
+    }
+  }
 
-    GridCellCoord coord = getCellCoord(pt);
-    coords.add(coord);
-    visited.add(coord);
-    while (!coords.isEmpty()) {
-      coord = coords.pop();
-      if ((coord.u >= 0) && (coord.v >= 0) && (coord.w >= 0) 
-          && (coord.u < DIM) && (coord.v < DIM) && (coord.w < DIM)
-          && (grid[coord.u][coord.v][coord.w] != null)) {
-        candidates.addAll(grid[coord.u][coord.v][coord.w]);
-      }
+  /**
+   * Reports every hit between the ray and the mesh, each triangle at most once, in
+   * roughly front-to-back order.
+   */
+  public void traceAll(Ray ray, TriangleHitCollector collector) {
+    walk(ray, false, Double.POSITIVE_INFINITY, false, collector);
+  }
 
-      // Find the set of next neighbors.
-      // Yes I *know* I could do this vastly more efficiently.
-      for (int i = coord.u - 1; i <= coord.u + 1; i++) {
-        for (int j = coord.v - 1; j <= coord.v + 1; j++) {
-          for (int k = coord.w - 1; k <= coord.w + 1; k++) {
-            if ((i >= 0) && (j >= 0) && (k >= 0) && (i < DIM) && (j < DIM) && (k < DIM)) {
-              GridCellCoord next = new GridCellCoord(i, j, k);
-              if (!visited.contains(next) && rayHitsGridCell(next, ray)) {
-                coords.add(next);
-                visited.add(next);
-              }
-            }
-          }
-        }
-      }
-    }
-    return candidates;
+  /**
+   * Reports the nearest hit (if any) with EPSILON <= t < tMax, stopping the grid walk as
+   * soon as a hit is found within the current cell, or at the first qualifying hit at all
+   * if anyHit is set.  Returns true if a hit was reported.
+   */
+  public boolean traceNearest(Ray ray, double tMax, boolean anyHit,
+      TriangleHitCollector collector) {
+    return walk(ray, true, tMax, anyHit, collector);
   }
 
   public boolean isHitByRay(Ray ray) {
-    return ray.intersectsCube(least, most);
+    return !Double.isNaN(enterGrid(ray));
+  }
+
+  public int[] getResolution() {
+    return dim.clone();
   }
 
   public boolean triangleOverlapsBox(int i, int j, int k, Vec3 A, Vec3 B, Vec3 C) {
-    Vec3 boxMin = least.plus(new Vec3(
-        i * (most.getX() - least.getX()) / DIM,
-        j * (most.getY() - least.getY()) / DIM,
-        k * (most.getZ() - least.getZ()) / DIM));
-    Vec3 boxMax = boxMin.plus(new Vec3(
-        (most.getX() - least.getX()) / DIM,
-        (most.getY() - least.getY()) / DIM,
-        (most.getZ() - least.getZ()) / DIM));
+    Vec3 boxMin = least.plus(new Vec3(i * cellSize[0], j * cellSize[1], k * cellSize[2]));
+    Vec3 boxMax = boxMin.plus(new Vec3(cellSize[0], cellSize[1], cellSize[2]));
     Vec3[] verts = new Vec3[]{ A, B, C };
 
     // Test vertices directly
@@ -171,30 +200,186 @@ public class MeshPrimitiveRayTracingAccelerator {
     // No dice!
     return false;
   }
-  
-  private boolean rayHitsGridCell(GridCellCoord coord, Ray ray) {
-    Vec3 diff = most.minus(least).times(1.0 / DIM);
-    Vec3 min = least.plus(new Vec3(
-        coord.u * diff.getX(),
-        coord.v * diff.getY(),
-        coord.w * diff.getZ()));
-    Vec3 max = least.plus(new Vec3(
-        (coord.u + 1) * diff.getX(),
-        (coord.v + 1) * diff.getY(),
-        (coord.w + 1) * diff.getZ()));
-    return ray.intersectsCube(min, max);
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private boolean walk(Ray ray, boolean nearestOnly, double tMax, boolean anyHit,
+      TriangleHitCollector collector) {
+    double tEnter = enterGrid(ray);
+    if (Double.isNaN(tEnter) || tEnter >= tMax) {
+      return false;
+    }
+
+    double[] o = { ray.origin.getX(), ray.origin.getY(), ray.origin.getZ() };
+    double[] d = { ray.direction.getX(), ray.direction.getY(), ray.direction.getZ() };
+    int[] cell = new int[3];
+    int[] step = new int[3];
+    double[] tNext = new double[3];
+    double[] tDelta = new double[3];
+
+    for (int axis = 0; axis < 3; axis++) {
+      double p = o[axis] + d[axis] * tEnter;
+      cell[axis] = clamp((int) Math.floor((p - least.get(axis)) / cellSize[axis]), dim[axis]);
+      if (d[axis] > 0) {
+        step[axis] = 1;
+        tNext[axis] = (least.get(axis) + (cell[axis] + 1) * cellSize[axis] - o[axis]) / d[axis];
+        tDelta[axis] = cellSize[axis] / d[axis];
+      } else if (d[axis] < 0) {
+        step[axis] = -1;
+        tNext[axis] = (least.get(axis) + cell[axis] * cellSize[axis] - o[axis]) / d[axis];
+        tDelta[axis] = -cellSize[axis] / d[axis];
+      } else {
+        step[axis] = 0;
+        tNext[axis] = Double.POSITIVE_INFINITY;
+        tDelta[axis] = Double.POSITIVE_INFINITY;
+      }
+    }
+
+    Mailbox mailbox = mailboxes.get();
+    int stamp = mailbox.nextStamp();
+    int nearestTriangle = -1;
+    double nearestT = tMax;
+
+    while (true) {
+      int c = getCellIndex(cell[0], cell[1], cell[2]);
+      for (int i = cellStart[c]; i < cellStart[c + 1]; i++) {
+        int tri = cellTriangles[i];
+        if (mailbox.stamps[tri] != stamp) {
+          mailbox.stamps[tri] = stamp;
+          double t = intersectTriangle(tri, o, d);
+          if (!Double.isNaN(t)) {
+            if (!nearestOnly) {
+              collector.hit(faces[tri], corners[tri], t);
+            } else if (t >= MathConstants.EPSILON && t < nearestT) {
+              nearestT = t;
+              nearestTriangle = tri;
+              if (anyHit) {
+                break;
+              }
+            }
+          }
+        }
+      }
+
+      int axis = (tNext[0] < tNext[1])
+          ? ((tNext[0] < tNext[2]) ? 0 : 2)
+          : ((tNext[1] < tNext[2]) ? 1 : 2);
+      if (nearestOnly && (nearestT <= tNext[axis] || (anyHit && nearestTriangle >= 0))) {
+        break;
+      }
+      cell[axis] += step[axis];
+      if (cell[axis] < 0 || cell[axis] >= dim[axis]) {
+        break;
+      }
+      tNext[axis] += tDelta[axis];
+    }
+
+    if (nearestTriangle >= 0) {
+      collector.hit(faces[nearestTriangle], corners[nearestTriangle], nearestT);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the ray parameter at which the ray enters the grid (zero if it starts inside),
+   * or NaN if it misses.
+   */
+  private double enterGrid(Ray ray) {
+    double tNear = 0;
+    double tFar = Double.POSITIVE_INFINITY;
+
+    for (int axis = 0; axis < 3; axis++) {
+      double o = ray.origin.get(axis);
+      double d = ray.direction.get(axis);
+      if (d == 0) {
+        if (o < least.get(axis) || o > most.get(axis)) {
+          return Double.NaN;
+        }
+      } else {
+        double t1 = (least.get(axis) - o) / d;
+        double t2 = (most.get(axis) - o) / d;
+        tNear = max(tNear, min(t1, t2));
+        tFar = min(tFar, max(t1, t2));
+        if (tNear > tFar) {
+          return Double.NaN;
+        }
+      }
+    }
+    return tNear;
+  }
+
+  /**
+   * Same test as {@link Ray#intersectsTriangle}, on packed coordinates.  Returns NaN on a miss.
+   */
+  private double intersectTriangle(int tri, double[] o, double[] d) {
+    int i = tri * 12;
+    double ax = triangles[i], ay = triangles[i + 1], az = triangles[i + 2];
+    double bx = triangles[i + 3], by = triangles[i + 4], bz = triangles[i + 5];
+    double cx = triangles[i + 6], cy = triangles[i + 7], cz = triangles[i + 8];
+    double nx = triangles[i + 9], ny = triangles[i + 10], nz = triangles[i + 11];
+
+    double nDotD = nx * d[0] + ny * d[1] + nz * d[2];
+    if (Math.abs(nDotD) < MathConstants.EPSILON) {
+      return Double.NaN;
+    }
+    double t = (nx * (ax - o[0]) + ny * (ay - o[1]) + nz * (az - o[2])) / nDotD;
+    if (t < 0) {
+      return Double.NaN;
+    }
+    double px = o[0] + d[0] * t, py = o[1] + d[1] * t, pz = o[2] + d[2] * t;
+    return (edgeTest(nx, ny, nz, ax, ay, az, bx, by, bz, px, py, pz) >= 0
+        && edgeTest(nx, ny, nz, bx, by, bz, cx, cy, cz, px, py, pz) >= 0
+        && edgeTest(nx, ny, nz, cx, cy, cz, ax, ay, az, px, py, pz) >= 0) ? t : Double.NaN;
+  }
+
+  // (n x (q - p)) . (pt - p)
+  private static double edgeTest(double nx, double ny, double nz,
+      double px, double py, double pz, double qx, double qy, double qz,
+      double x, double y, double z) {
+    double ex = qx - px, ey = qy - py, ez = qz - pz;
+    return (ny * ez - nz * ey) * (x - px)
+        + (nz * ex - nx * ez) * (y - py)
+        + (nx * ey - ny * ex) * (z - pz);
+  }
+
+  private void pack(int tri, Vec3 A, Vec3 B, Vec3 C, Vec3 N) {
+    int i = tri * 12;
+    for (Vec3 v : new Vec3[] { A, B, C, N }) {
+      triangles[i++] = v.getX();
+      triangles[i++] = v.getY();
+      triangles[i++] = v.getZ();
+    }
+  }
+
+  /**
+   * Picks per-axis cell counts proportional to the mesh's extents, with about
+   * CELLS_PER_TRIANGLE cells per triangle in total.
+   */
+  private int[] chooseResolution(int numTriangles) {
+    Vec3 extent = most.minus(least);
+    double volume = extent.getX() * extent.getY() * extent.getZ();
+    double k = Math.cbrt(CELLS_PER_TRIANGLE * max(1, numTriangles) / volume);
+    int[] resolution = new int[3];
+    for (int axis = 0; axis < 3; axis++) {
+      resolution[axis] = max(1, min(MAX_DIM, (int) Math.round(extent.get(axis) * k)));
+    }
+    return resolution;
   }
 
-  private GridCellCoord getCellCoord(Vec3 pt) {
-    return new GridCellCoord(
-        getCellIndex(pt, 0),
-        getCellIndex(pt, 1),
-        getCellIndex(pt, 2));
+  private int[] getCellCoord(Vec3 pt) {
+    return new int[] {
+        clamp((int) ((pt.getX() - least.getX()) / cellSize[0]), dim[0]),
+        clamp((int) ((pt.getY() - least.getY()) / cellSize[1]), dim[1]),
+        clamp((int) ((pt.getZ() - least.getZ()) / cellSize[2]), dim[2]) };
   }
 
-  private int getCellIndex(Vec3 pt, int axisIndex) {
-    return (int) ((pt.get(axisIndex) - least.get(axisIndex)) * DIM
-        / (most.get(axisIndex) - least.get(axisIndex)));
+  private int getCellIndex(int u, int v, int w) {
+    return (u * dim[1] + v) * dim[2] + w;
+  }
+
+  private static int clamp(int i, int n) {
+    return max(0, min(n - 1, i));
   }
 
   private void getTriangleBoundingBox(Vec3 A, Vec3 B, Vec3 C, Vec3 triMin, Vec3 triMax) {
@@ -207,4 +392,27 @@ public class MeshPrimitiveRayTracingAccelerator {
         max(A.getY(), max(B.getY(), C.getY())),
         max(A.getZ(), max(B.getZ(), C.getZ())));
   }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Per-thread record of which triangles the current ray has already tested, so that
+   * triangles spanning several cells are only intersected (and reported) once.
+   */
+  private static class Mailbox {
+    final int[] stamps;
+    int stamp;
+
+    Mailbox(int numTriangles) {
+      this.stamps = new int[numTriangles];
+    }
+
+    int nextStamp() {
+      if (++stamp == 0) {
+        Arrays.fill(stamps, 0);
+        stamp = 1;
+      }
+      return stamp;
+    }
+  }
 }
@@ -1,9 +1,13 @@
 package com.bentonian.framework.mesh.primitive;
 
 import com.bentonian.framework.material.Material;
+import com.bentonian.framework.math.HitRecord;
+import com.bentonian.framework.math.Ray;
+import com.bentonian.framework.math.RayPacket;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.mesh.Mesh;
 import com.bentonian.framework.mesh.MeshFace;
+import com.bentonian.framework.scene.IsRayTraceable;
 import com.bentonian.framework.texture.IsTextured;
 import com.bentonian.framework.texture.Texture;
 import com.bentonian.framework.ui.GLCanvas;
@@ -52,6 +56,20 @@ public abstract class MeshPrimitiveWithTexture extends MeshPrimitive implements
     return this;
   }
 
+  /**
+   * Subclasses trace analytically through traceLocal(Ray) rather than through the mesh,
+   * so don't inherit MeshPrimitive's mesh-walking hit record and packet paths.
+   */
+  @Override
+  public boolean traceLocal(Ray ray, HitRecord record) {
+    return IsRayTraceable.offerAll(traceLocal(ray), record);
+  }
+
+  @Override
+  public void traceLocal(RayPacket packet) {
+    IsRayTraceable.traceEach(this, packet);
+  }
+
   protected boolean isTextured() {
     return texture != null;
   }
@@ -61,6 +79,11 @@ public abstract class MeshPrimitiveWithTexture extends MeshPrimitive implements
     return applyTextureToMaterial(pt, getMaterial());
   }
 
+  @Override
+  protected Material getMaterial(Vec3 pt, double footprint) {
+    return applyTextureToMaterial(pt, getMaterial(), footprint);
+  }
+
   protected Vec3 applyTextureToNormal(Vec3 pt, Vec3 normal) {
     return isTextured() ? texture.getNormal(this, pt, normal) : normal;
   }
@@ -69,6 +92,10 @@ public abstract class MeshPrimitiveWithTexture extends MeshPrimitive implements
     return isTextured() ? texture.getMaterial(this, pt, material) : material;
   }
 
+  protected Material applyTextureToMaterial(Vec3 pt, Material material, double footprint) {
+    return isTextured() ? texture.getMaterial(this, pt, material, footprint) : material;
+  }
+
   @Override
   protected void renderLocal(GLCanvas glCanvas) {
     if (texture != null) {
@@ -88,6 +115,11 @@ public abstract class MeshPrimitiveWithTexture extends MeshPrimitive implements
     super.dispose();
   }
 
+  @Override
+  protected boolean canShareVertices() {
+    return false;
+  }
+
   @Override
   protected void renderVertex(MeshFace face, int index) {
     textureCoordinates(getTextureCoord(face.get(index)));
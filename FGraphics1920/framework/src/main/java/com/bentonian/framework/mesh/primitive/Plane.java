@@ -1,9 +1,11 @@
 package com.bentonian.framework.mesh.primitive;
 
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.MathConstants;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
 import com.bentonian.framework.scene.IsRayTraceable;
 import com.bentonian.framework.ui.GLCanvas;
 import com.bentonian.framework.ui.GLVertexData;
@@ -27,6 +29,22 @@ public class Plane extends CompiledPrimitive implements IsRayTraceable {
     return null;
   }
 
+  @Override
+  public void traceLocal(RayPacket packet) {
+    for (int i = 0; i < packet.size; i++) {
+      double t = -packet.oy[i] / packet.dy[i];
+      if (packet.accepts(i, t)) {
+        packet.t[i] = t;
+        packet.hit[i] = true;
+      }
+    }
+  }
+
+  @Override
+  public boolean traceLocalAt(Ray ray, double t, HitRecord record) {
+    return record.offer(this, t, ray.at(t), Y_AXIS, getMaterial());
+  }
+
   @Override
   protected void renderLocal(GLCanvas glCanvas) {
     if (!isCompiled()) {
@@ -6,8 +6,11 @@ import static java.lang.Math.atan2;
 import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.mesh.Mesh;
 import com.bentonian.framework.mesh.MeshFace;
@@ -63,6 +66,11 @@ public class Sphere extends MeshPrimitiveWithTexture implements IsRayTraceable {
     setRenderStyle(RenderStyle.NORMALS_BY_VERTEX);
   }
 
+  @Override
+  public BoundingBox getLocalBounds() {
+    return new BoundingBox(-1, -1, -1, 1, 1, 1);
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
     double OdotD = ray.origin.dot(ray.direction);
@@ -83,9 +91,58 @@ public class Sphere extends MeshPrimitiveWithTexture implements IsRayTraceable {
     }
   }
 
+  @Override
+  public boolean traceLocal(Ray ray, HitRecord record) {
+    double OdotD = ray.origin.dot(ray.direction);
+    double DdotD = ray.direction.dot(ray.direction);
+    double OdotO = ray.origin.dot(ray.origin);
+    double base = OdotD * OdotD - DdotD * (OdotO - 1);
+
+    if (base >= 0) {
+      double bm4ac = Math.sqrt(base);
+      double near = (-OdotD - bm4ac) / DdotD;
+      double far = (-OdotD + bm4ac) / DdotD;
+      double t = record.accepts(near) ? near : far;
+      if (record.accepts(t)) {
+        Vec3 pt = ray.at(t);
+        return record.offer(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void traceLocal(RayPacket packet) {
+    for (int i = 0; i < packet.size; i++) {
+      double ox = packet.ox[i], oy = packet.oy[i], oz = packet.oz[i];
+      double dx = packet.dx[i], dy = packet.dy[i], dz = packet.dz[i];
+      double OdotD = ox * dx + oy * dy + oz * dz;
+      double DdotD = dx * dx + dy * dy + dz * dz;
+      double OdotO = ox * ox + oy * oy + oz * oz;
+      double base = OdotD * OdotD - DdotD * (OdotO - 1);
+
+      if (base >= 0) {
+        double bm4ac = Math.sqrt(base);
+        double near = (-OdotD - bm4ac) / DdotD;
+        double far = (-OdotD + bm4ac) / DdotD;
+        double t = packet.accepts(i, near) ? near : far;
+        if (packet.accepts(i, t)) {
+          packet.t[i] = t;
+          packet.hit[i] = true;
+        }
+      }
+    }
+  }
+
+  @Override
+  public boolean traceLocalAt(Ray ray, double t, HitRecord record) {
+    Vec3 pt = ray.at(t);
+    return record.offer(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
+  }
+
   private void hit(RayIntersections hitList, Ray ray, double t) {
     Vec3 pt = ray.at(t);
-    hitList.add(this, t, pt, getNormal(pt), getMaterial(pt));
+    hitList.add(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
   }
 
   private Vec3 getNormal(Vec3 pt) {
@@ -4,6 +4,8 @@ import static com.bentonian.framework.math.MathConstants.CORNERS_OF_A_SQUARE;
 import static com.bentonian.framework.math.MathConstants.EPSILON;
 import static java.lang.Math.abs;
 
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersections;
@@ -27,6 +29,11 @@ public class Square extends MeshPrimitiveWithTexture implements IsRayTraceable {
     getMesh().computeAllNormals();
   }
 
+  @Override
+  public BoundingBox getLocalBounds() {
+    return new BoundingBox(-1, -1, 0, 1, 1, 0);
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
     if (Math.abs(ray.direction.getZ()) > EPSILON) {
@@ -35,13 +42,20 @@ public class Square extends MeshPrimitiveWithTexture implements IsRayTraceable {
         Vec3 pt = ray.at(t);
         Preconditions.checkState(abs(pt.getZ()) < EPSILON);
         if (abs(pt.getX()) <= 1 + EPSILON && abs(pt.getY()) <= 1 + EPSILON) {
-          return new RayIntersections().add(this, t, pt, getNormal(pt), getMaterial(pt));
+          return new RayIntersections()
+              .add(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
         }
       }
     }
     return null;
   }
 
+  @Override
+  public boolean traceLocalAt(Ray ray, double t, HitRecord record) {
+    Vec3 pt = ray.at(t);
+    return record.offer(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
+  }
+
   private Vec3 getNormal(Vec3 pt) {
     return applyTextureToNormal(pt, Z_AXIS);
   }
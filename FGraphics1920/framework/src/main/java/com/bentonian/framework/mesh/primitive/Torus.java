@@ -7,9 +7,12 @@ import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
 
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.MeshVertex;
 import com.bentonian.framework.scene.IsRayTraceable;
@@ -52,17 +55,65 @@ public class Torus extends MeshPrimitiveWithTexture implements IsRayTraceable {
     setRenderStyle(RenderStyle.NORMALS_BY_VERTEX);
   }
 
+  @Override
+  public BoundingBox getLocalBounds() {
+    return new BoundingBox(-(R + r), -r, -(R + r), R + r, r, R + r);
+  }
+
   /**
-   * Notation and maths from Graphics Gems II, p. 252
+   * Rejects rays which miss the torus' bounding sphere with a cheap test before solving
+   * the quartic for those which remain.
    */
+  @Override
+  public void traceLocal(RayPacket packet) {
+    double radius = R + r;
+    double[] solutions = new double[4];
+
+    for (int i = 0; i < packet.size; i++) {
+      double ox = packet.ox[i], oy = packet.oy[i], oz = packet.oz[i];
+      double OdotD = ox * packet.dx[i] + oy * packet.dy[i] + oz * packet.dz[i];
+      double OdotO = ox * ox + oy * oy + oz * oz;
+      if (OdotD * OdotD - (OdotO - radius * radius) >= 0) {
+        int numSolutions =
+            solve(ox, oy, oz, packet.dx[i], packet.dy[i], packet.dz[i], solutions);
+        for (int j = 0; j < numSolutions; j++) {
+          if (packet.accepts(i, solutions[j])) {
+            packet.t[i] = solutions[j];
+            packet.hit[i] = true;
+          }
+        }
+      }
+    }
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
-    double ax = ray.direction.getX();
-    double ay = ray.direction.getY();
-    double az = ray.direction.getZ();
-    double x0 = ray.origin.getX();
-    double y0 = ray.origin.getY();
-    double z0 = ray.origin.getZ();
+    double[] solutions = new double[4];
+    int numSolutions = solve(ray.origin.getX(), ray.origin.getY(), ray.origin.getZ(),
+        ray.direction.getX(), ray.direction.getY(), ray.direction.getZ(), solutions);
+
+    RayIntersections hitList = new RayIntersections();
+    for (int i = 0; i<numSolutions; i++) {
+      Vec3 pt = ray.at(solutions[i]);
+      hitList.add(this, solutions[i], pt, getNormal(pt),
+          getMaterial(pt, ray.getFootprint(solutions[i])));
+    }
+
+    return hitList;
+  }
+
+  @Override
+  public boolean traceLocalAt(Ray ray, double t, HitRecord record) {
+    Vec3 pt = ray.at(t);
+    return record.offer(this, t, pt, getNormal(pt), getMaterial(pt, ray.getFootprint(t)));
+  }
+
+  /**
+   * Solves for the ray's intersections with the torus, writing them into solutions and
+   * returning how many there are.  Notation and maths from Graphics Gems II, p. 252
+   */
+  private int solve(double x0, double y0, double z0, double ax, double ay, double az,
+      double[] solutions) {
     double p = (r*r)/(r*r); // Square of the elliptical ratio x/y
     double A0 = 4*R*R;
     double B0 = (R*R - r*r);
@@ -76,16 +127,7 @@ public class Torus extends MeshPrimitiveWithTexture implements IsRayTraceable {
         4*D0*C0,
         C0*C0
     };
-    double[] solutions = new double[4];
-    int numSolutions = solveQuartic(coefficients, solutions);
-
-    RayIntersections hitList = new RayIntersections();
-    for (int i = 0; i<numSolutions; i++) {
-      Vec3 pt = ray.at(solutions[i]);
-      hitList.add(this, solutions[i], pt, getNormal(pt), getMaterial(pt));
-    }
-
-    return hitList;
+    return solveQuartic(coefficients, solutions);
   }
 
   @Override
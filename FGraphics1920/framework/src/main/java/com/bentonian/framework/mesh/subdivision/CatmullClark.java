@@ -1,8 +1,13 @@
 package com.bentonian.framework.mesh.subdivision;
 
+import static com.bentonian.framework.mesh.subdivision.IndexedSubdivision.add;
+import static com.bentonian.framework.mesh.subdivision.IndexedSubdivision.addAverageExcluding;
+
 import java.util.Map;
 
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+import com.bentonian.framework.mesh.IndexedMesh;
 import com.bentonian.framework.mesh.MeshEdge;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.Mesh;
@@ -50,6 +55,98 @@ public class CatmullClark implements SubdivisionFunction {
     return newMesh;
   }
 
+  /**
+   * Subdivides directly on the mesh's arrays, without building a MeshVertex or MeshFace.
+   * New vertices are numbered vertex points first, then edge points, then face points; each
+   * rule runs in parallel, and each old half-edge becomes one new quad.
+   */
+  @Override
+  public HalfEdgeMesh apply(HalfEdgeMesh mesh) {
+    int numHalfEdges = mesh.getNumHalfEdges();
+    int edgeBase = mesh.getNumVertices();
+    int faceBase = edgeBase + mesh.getNumEdges();
+    double[] positions = new double[3 * (faceBase + mesh.getNumFaces())];
+    int[] faceStarts = new int[numHalfEdges + 1];
+    int[] faceIndices = new int[4 * numHalfEdges];
+
+    IndexedSubdivision.forEach(mesh.getNumFaces(), f -> {
+      int start = mesh.getFaceHalfEdge(f);
+      int n = mesh.getFaceSize(f);
+      for (int h = start; h < start + n; h++) {
+        add(positions, faceBase + f, mesh, mesh.getOrigin(h), 1.0 / n);
+      }
+    });
+
+    IndexedSubdivision.forEach(numHalfEdges, h -> {
+      if (mesh.isEdgeRepresentative(h)) {
+        int e = edgeBase + mesh.getEdge(h);
+        if (mesh.isBoundaryEdge(h)) {
+          add(positions, e, mesh, mesh.getOrigin(h), 0.5);
+          add(positions, e, mesh, mesh.getTarget(h), 0.5);
+        } else {
+          add(positions, e, mesh, mesh.getOrigin(h), 24.0 / 64.0);
+          add(positions, e, mesh, mesh.getTarget(h), 24.0 / 64.0);
+          addAverageExcluding(positions, e, mesh, h, 8.0 / 64.0);
+          addAverageExcluding(positions, e, mesh, mesh.getTwin(h), 8.0 / 64.0);
+        }
+      }
+    });
+
+    IndexedSubdivision.forEach(edgeBase, v -> {
+      int start = mesh.getVertexHalfEdge(v);
+      if (start == -1) {
+        add(positions, v, mesh, v, 1);
+      } else if (mesh.isBoundaryVertex(v)) {
+        IndexedSubdivision.boundaryVertexRule(positions, v, mesh, v);
+      } else {
+        // (v * (n - 3) + Q + 2R) / n, with Q the average of the surrounding face points and
+        // R the average of the midpoints of the surrounding edges
+        int n = mesh.getValence(v);
+        int h = start;
+        add(positions, v, mesh, v, (n - 2.0) / n);
+        do {
+          add(positions, v, mesh, mesh.getTarget(h), 1.0 / (n * n));
+          int f = 3 * (faceBase + mesh.getFace(h));
+          positions[3 * v] += positions[f] / n / n;
+          positions[3 * v + 1] += positions[f + 1] / n / n;
+          positions[3 * v + 2] += positions[f + 2] / n / n;
+          h = mesh.getNextAroundVertex(h);
+        } while (h != start && h != -1);
+      }
+    });
+
+    IndexedSubdivision.forEach(numHalfEdges, h -> {
+      int i = 4 * h;
+      faceIndices[i] = edgeBase + mesh.getEdge(mesh.getPrev(h));
+      faceIndices[i + 1] = mesh.getOrigin(h);
+      faceIndices[i + 2] = edgeBase + mesh.getEdge(h);
+      faceIndices[i + 3] = faceBase + mesh.getFace(h);
+      faceStarts[h + 1] = i + 4;
+    });
+
+    return new HalfEdgeMesh(new IndexedMesh(positions, faceStarts, faceIndices));
+  }
+
+  @Override
+  public boolean hasLimitSurface() {
+    return true;
+  }
+
+  /**
+   * Returns the limit surface as bicubic patches, exact wherever a face's corners all have
+   * valence 4.  Meshes which aren't all quads are first subdivided once.
+   */
+  @Override
+  public LimitSurface getLimitSurface(HalfEdgeMesh mesh) {
+    for (int f = 0; f < mesh.getNumFaces(); f++) {
+      if (mesh.getFaceSize(f) != 4) {
+        mesh = apply(mesh);
+        break;
+      }
+    }
+    return new CatmullClarkLimitSurface(mesh);
+  }
+
   protected MeshVertex vertexRule(MeshVertex v) {
     MeshEdge[] boundary = v.checkForBoundary();
 
@@ -59,23 +156,22 @@ public class CatmullClark implements SubdivisionFunction {
       // Average of surrounding faces
       Vec3 Q = new Vec3();
       for (MeshFace neighbor : v.getFaces()) {
-        Q = Q.plus(neighbor.getCenter());
+        Q.add(neighbor.getCenter());
       }
-      Q = Q.times(1.0 / v.getFaces().size());
+      Q.scale(1.0 / v.getFaces().size());
 
       // Average of midpoints of adjacent edges
       Vec3 R = new Vec3();
       for (MeshVertex neighbor : v.getOneRing()) {
-        R = R.plus(v.plus(neighbor).times(0.5));
+        R.add(v).add(neighbor);
       }
-      R = R.times(1.0 / v.getOneRing().size());
+      R.scale(0.5 / v.getOneRing().size());
 
-      return new MeshVertex(v.times(n - 3).plus(Q).plus(R.times(2)).times(1.0 / n));
+      return new MeshVertex(v.times(n - 3).add(Q).addScaled(R, 2).scale(1.0 / n));
     } else {
-      return new MeshVertex(
-          v.times(0.75)
-          .plus(boundary[0].getOtherVertex(v).times(0.125))
-          .plus(boundary[1].getOtherVertex(v).times(0.125)));
+      return new MeshVertex(v.times(0.75)
+          .addScaled(boundary[0].getOtherVertex(v), 0.125)
+          .addScaled(boundary[1].getOtherVertex(v), 0.125));
     }
   }
 
@@ -85,10 +181,10 @@ public class CatmullClark implements SubdivisionFunction {
 
     if (omega != null) {
       return new MeshVertex(e.getA().times(24)
-          .plus(e.getB().times(24))
-          .plus(alpha.getAverageVerticesExcluding(e.getA(), e.getB()).times(8))
-          .plus(omega.getAverageVerticesExcluding(e.getA(), e.getB()).times(8))
-          .times(1.0 / 64.0));
+          .addScaled(e.getB(), 24)
+          .addScaled(alpha.getAverageVerticesExcluding(e.getA(), e.getB()), 8)
+          .addScaled(omega.getAverageVerticesExcluding(e.getA(), e.getB()), 8)
+          .scale(1.0 / 64.0));
     } else {
       return new MeshVertex(e.getMidpoint());
     }
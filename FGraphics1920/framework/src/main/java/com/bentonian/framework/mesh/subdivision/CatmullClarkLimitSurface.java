@@ -0,0 +1,212 @@
+package com.bentonian.framework.mesh.subdivision;
+
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+
+/**
+ * Catmull-Clark limit surface over an all-quad mesh, as bicubic Bezier patches built the way
+ * Loop and Schaefer's approximate Catmull-Clark patches are: corners at the exact limit
+ * positions, and edge and interior control points from the weights which convert a regular
+ * bicubic B-spline patch to Bezier form, generalized by valence.  Patches whose corners all
+ * have valence 4 are the exact limit surface; the rest are close approximations which still
+ * meet their neighbors without cracks.
+ */
+class CatmullClarkLimitSurface extends LimitSurface {
+
+  // Patch index of each corner, and the steps from it along the face's next and previous sides
+  private static final int[] CORNERS = { 0, 3, 15, 12 };
+  private static final int[] NEXT_STEP = { 1, 4, -1, -4 };
+  private static final int[] PREV_STEP = { 4, -1, -4, 1 };
+
+  CatmullClarkLimitSurface(HalfEdgeMesh mesh) {
+    super(mesh, 4, 16);
+  }
+
+  /**
+   * Interior vertices go to (n^2 v + 4 sum(e) + sum(f)) / n(n + 5), for the n edge neighbors e
+   * and the n diagonal neighbors f, with the normal from the limit tangents; boundary
+   * vertices follow the cubic B-spline of the boundary.
+   */
+  @Override
+  protected void computeLimit(int vertex, double[] positions, double[] normals) {
+    Ring ring = new Ring(mesh, vertex);
+    int i = 3 * vertex;
+
+    if (ring.isBoundary) {
+      addPoint(positions, i, vertex, 4.0 / 6.0);
+      addPoint(positions, i, ring.edgeNeighbors[0], 1.0 / 6.0);
+      addPoint(positions, i, ring.edgeNeighbors[ring.n - 1], 1.0 / 6.0);
+      getFanNormal(vertex, normals, i);
+    } else {
+      int n = ring.n;
+      double an = 1 + Math.cos(2 * Math.PI / n)
+          + Math.cos(Math.PI / n) * Math.sqrt(2 * (9 + Math.cos(2 * Math.PI / n)));
+      double[] t1 = new double[3];
+      double[] t2 = new double[3];
+
+      addPoint(positions, i, vertex, n / (n + 5.0));
+      for (int j = 0; j < n; j++) {
+        double c0 = Math.cos(2 * Math.PI * j / n);
+        double c1 = Math.cos(2 * Math.PI * (j + 1) / n);
+        double s0 = Math.sin(2 * Math.PI * j / n);
+        double s1 = Math.sin(2 * Math.PI * (j + 1) / n);
+        addPoint(positions, i, ring.edgeNeighbors[j], 4.0 / (n * (n + 5.0)));
+        addPoint(positions, i, ring.faceNeighbors[j], 1.0 / (n * (n + 5.0)));
+        addPoint(t1, 0, ring.edgeNeighbors[j], an * c0);
+        addPoint(t1, 0, ring.faceNeighbors[j], c0 + c1);
+        addPoint(t2, 0, ring.edgeNeighbors[j], an * s0);
+        addPoint(t2, 0, ring.faceNeighbors[j], s0 + s1);
+      }
+      normals[i] = t1[1] * t2[2] - t1[2] * t2[1];
+      normals[i + 1] = t1[2] * t2[0] - t1[0] * t2[2];
+      normals[i + 2] = t1[0] * t2[1] - t1[1] * t2[0];
+    }
+  }
+
+  /**
+   * Lays out the 4x4 control points row by row, u running from the face's first corner to
+   * its second and v from its first to its last.
+   */
+  @Override
+  protected void buildPatch(int face, double[] out, int offset) {
+    int h = mesh.getFaceHalfEdge(face);
+    for (int corner = 0; corner < 4; corner++, h = mesh.getNext(h)) {
+      int v = mesh.getOrigin(h);
+      Ring ring = new Ring(mesh, v);
+      int j = ring.indexOf(h);
+      int cornerIndex = CORNERS[corner];
+
+      getLimitPosition(v, out, offset + 3 * cornerIndex);
+      getEdgePoint(ring, j, out, offset + 3 * (cornerIndex + NEXT_STEP[corner]));
+      getEdgePoint(ring, j + 1, out, offset + 3 * (cornerIndex + PREV_STEP[corner]));
+      getInteriorPoint(ring, j, out,
+          offset + 3 * (cornerIndex + NEXT_STEP[corner] + PREV_STEP[corner]));
+    }
+  }
+
+  @Override
+  protected void evaluate(double[] patch, int offset, double u, double v, double[] out, int i) {
+    double[] bu = bernstein(u);
+    double[] bv = bernstein(v);
+    double[] du = bernsteinDerivative(u);
+    double[] dv = bernsteinDerivative(v);
+    double[] p = new double[3];
+    double[] pu = new double[3];
+    double[] pv = new double[3];
+
+    for (int b = 0; b < 4; b++) {
+      for (int a = 0; a < 4; a++) {
+        int k = offset + 3 * (a + 4 * b);
+        for (int axis = 0; axis < 3; axis++) {
+          p[axis] += bu[a] * bv[b] * patch[k + axis];
+          pu[axis] += du[a] * bv[b] * patch[k + axis];
+          pv[axis] += bu[a] * dv[b] * patch[k + axis];
+        }
+      }
+    }
+    writePositionAndNormal(p, pu, pv, out, i);
+  }
+
+  ////////////////////////////////////////
+
+  /**
+   * A vertex's neighbors in order around it: edgeNeighbors[j] is the far end of the j'th
+   * outgoing half-edge and faceNeighbors[j] the corner opposite the vertex in its face.
+   */
+  private static class Ring {
+
+    final int vertex;
+    final int n;
+    final boolean isBoundary;
+    final int[] halfEdges;
+    final int[] edgeNeighbors;
+    final int[] faceNeighbors;
+
+    Ring(HalfEdgeMesh mesh, int vertex) {
+      int start = mesh.getVertexHalfEdge(vertex);
+      int count = 0;
+      int h = start;
+      do {
+        count++;
+        h = mesh.getNextAroundVertex(h);
+      } while (h != -1 && h != start);
+
+      this.vertex = vertex;
+      this.isBoundary = (h == -1);
+      this.n = isBoundary ? count + 1 : count;
+      this.halfEdges = new int[count];
+      this.edgeNeighbors = new int[n];
+      this.faceNeighbors = new int[count];
+      h = start;
+      for (int j = 0; j < count; j++) {
+        halfEdges[j] = h;
+        edgeNeighbors[j] = mesh.getTarget(h);
+        faceNeighbors[j] = mesh.getOrigin(mesh.getNext(mesh.getNext(h)));
+        if (j == count - 1 && isBoundary) {
+          edgeNeighbors[count] = mesh.getOrigin(mesh.getPrev(h));
+        }
+        h = mesh.getNextAroundVertex(h);
+      }
+    }
+
+    int indexOf(int halfEdge) {
+      for (int j = 0; j < halfEdges.length; j++) {
+        if (halfEdges[j] == halfEdge) {
+          return j;
+        }
+      }
+      throw new IllegalStateException("Half-edge " + halfEdge + " doesn't leave " + vertex);
+    }
+  }
+
+  private void addPoint(double[] out, int i, int vertex, double w) {
+    out[i] += w * mesh.getX(vertex);
+    out[i + 1] += w * mesh.getY(vertex);
+    out[i + 2] += w * mesh.getZ(vertex);
+  }
+
+  /**
+   * Writes the control point next to the ring's vertex on the edge to its j'th neighbor:
+   * (2n v + 4 e[j] + 2 e[j - 1] + 2 e[j + 1] + f[j - 1] + f[j]) / (2n + 10) inside the mesh,
+   * or a third of the way along the edge on a boundary.
+   */
+  private void getEdgePoint(Ring ring, int j, double[] out, int i) {
+    out[i] = out[i + 1] = out[i + 2] = 0;
+    if (ring.isBoundary) {
+      addPoint(out, i, ring.vertex, 2.0 / 3.0);
+      addPoint(out, i, ring.edgeNeighbors[j], 1.0 / 3.0);
+    } else {
+      int n = ring.n;
+      double w = 1.0 / (2 * n + 10);
+      addPoint(out, i, ring.vertex, 2 * n * w);
+      addPoint(out, i, ring.edgeNeighbors[j % n], 4 * w);
+      addPoint(out, i, ring.edgeNeighbors[(j + n - 1) % n], 2 * w);
+      addPoint(out, i, ring.edgeNeighbors[(j + 1) % n], 2 * w);
+      addPoint(out, i, ring.faceNeighbors[(j + n - 1) % n], w);
+      addPoint(out, i, ring.faceNeighbors[j % n], w);
+    }
+  }
+
+  /**
+   * Writes the interior control point at the ring's vertex's corner of its j'th face:
+   * (n v + 2 e[j] + 2 e[j + 1] + f[j]) / (n + 5), taking n as 4 on a boundary.
+   */
+  private void getInteriorPoint(Ring ring, int j, double[] out, int i) {
+    int n = ring.isBoundary ? 4 : ring.n;
+    double w = 1.0 / (n + 5);
+    out[i] = out[i + 1] = out[i + 2] = 0;
+    addPoint(out, i, ring.vertex, n * w);
+    addPoint(out, i, ring.edgeNeighbors[j], 2 * w);
+    addPoint(out, i, ring.edgeNeighbors[(j + 1) % ring.edgeNeighbors.length], 2 * w);
+    addPoint(out, i, ring.faceNeighbors[j], w);
+  }
+
+  private static double[] bernstein(double t) {
+    double s = 1 - t;
+    return new double[] { s * s * s, 3 * s * s * t, 3 * s * t * t, t * t * t };
+  }
+
+  private static double[] bernsteinDerivative(double t) {
+    double s = 1 - t;
+    return new double[] { -3 * s * s, 3 * s * s - 6 * s * t, 6 * s * t - 3 * t * t, 3 * t * t };
+  }
+}
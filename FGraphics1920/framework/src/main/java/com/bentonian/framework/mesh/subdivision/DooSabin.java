@@ -1,9 +1,13 @@
 package com.bentonian.framework.mesh.subdivision;
 
+import static com.bentonian.framework.mesh.subdivision.IndexedSubdivision.add;
+
 import java.util.Map;
 import java.util.Set;
 
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+import com.bentonian.framework.mesh.IndexedMesh;
 import com.bentonian.framework.mesh.MeshEdge;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.Mesh;
@@ -99,25 +103,185 @@ public class DooSabin implements SubdivisionFunction {
     return newMesh;
   }
 
+  /**
+   * Subdivides directly on the mesh's arrays, without building a MeshVertex or MeshFace.
+   * Each old half-edge gives the new vertex at its origin's corner of its face, and each
+   * boundary half-edge two more; the new faces are one per old face, then one per edge, then
+   * one per vertex, as in {@link #apply(Mesh)}.
+   */
+  @Override
+  public HalfEdgeMesh apply(HalfEdgeMesh mesh) {
+    int numVertices = mesh.getNumVertices();
+    int numFaces = mesh.getNumFaces();
+    int numEdges = mesh.getNumEdges();
+    int numHalfEdges = mesh.getNumHalfEdges();
+
+    // Corner weights for each face size, and new vertices for each boundary half-edge
+    int maxFaceSize = 0;
+    for (int f = 0; f < numFaces; f++) {
+      maxFaceSize = Math.max(maxFaceSize, mesh.getFaceSize(f));
+    }
+    double[][] stencils = new double[maxFaceSize + 1][];
+    for (int k = 3; k <= maxFaceSize; k++) {
+      stencils[k] = getStencil(k);
+    }
+    int[] boundaryIndex = new int[numHalfEdges];
+    int boundaryBase = numHalfEdges;
+    int numBoundary = 0;
+    for (int h = 0; h < numHalfEdges; h++) {
+      boundaryIndex[h] = mesh.isBoundaryEdge(h) ? boundaryBase + 2 * numBoundary++ : -1;
+    }
+
+    // Vertex faces vary in size, so are laid out up front
+    int[] vertexFace = new int[numVertices + 1];
+    IndexedSubdivision.forEach(numVertices, v -> {
+      int start = mesh.getVertexHalfEdge(v);
+      if (start != -1) {
+        vertexFace[v + 1] = countFaceRing(mesh, start)
+            + (mesh.isBoundaryVertex(v) ? 2 : 0);
+      }
+    });
+    int vertexFaceBase = numFaces + numEdges;
+    int numVertexFaces = 0;
+    for (int v = 0; v < numVertices; v++) {
+      numVertexFaces += (vertexFace[v + 1] > 0) ? 1 : 0;
+      vertexFace[v + 1] += vertexFace[v];
+    }
+
+    int indexBase = numHalfEdges + 4 * numEdges;
+    double[] positions = new double[3 * (boundaryBase + 2 * numBoundary)];
+    int[] faceStarts = new int[vertexFaceBase + numVertexFaces + 1];
+    int[] faceIndices = new int[indexBase + vertexFace[numVertices]];
+
+    IndexedSubdivision.forEach(numHalfEdges, h -> {
+      double[] stencil = stencils[mesh.getFaceSize(mesh.getFace(h))];
+      int corner = h;
+      for (double w : stencil) {
+        add(positions, h, mesh, mesh.getOrigin(corner), w);
+        corner = mesh.getNext(corner);
+      }
+      int b = boundaryIndex[h];
+      if (b != -1) {
+        add(positions, b, mesh, mesh.getOrigin(h), 0.75);
+        add(positions, b, mesh, mesh.getTarget(h), 0.25);
+        add(positions, b + 1, mesh, mesh.getTarget(h), 0.75);
+        add(positions, b + 1, mesh, mesh.getOrigin(h), 0.25);
+      }
+    });
+
+    // Face faces use the face's own corners, so share its numbering
+    IndexedSubdivision.forEach(numFaces, f -> faceStarts[f] = mesh.getFaceHalfEdge(f));
+    IndexedSubdivision.forEach(numHalfEdges, h -> {
+      faceIndices[h] = h;
+      if (mesh.isEdgeRepresentative(h)) {
+        int e = mesh.getEdge(h);
+        int i = numHalfEdges + 4 * e;
+        faceStarts[numFaces + e] = i;
+        faceIndices[i] = mesh.getNext(h);
+        faceIndices[i + 1] = h;
+        if (mesh.isBoundaryEdge(h)) {
+          faceIndices[i + 2] = boundaryIndex[h];
+          faceIndices[i + 3] = boundaryIndex[h] + 1;
+        } else {
+          faceIndices[i + 2] = mesh.getNext(mesh.getTwin(h));
+          faceIndices[i + 3] = mesh.getTwin(h);
+        }
+      }
+    });
+
+    // Vertex faces are numbered in vertex order, skipping vertices no face uses
+    int[] vertexFaceNumbers = new int[numVertices];
+    for (int v = 0, n = vertexFaceBase; v < numVertices; v++) {
+      vertexFaceNumbers[v] = (vertexFace[v + 1] > vertexFace[v]) ? n++ : -1;
+    }
+    IndexedSubdivision.forEach(numVertices, v -> {
+      int start = mesh.getVertexHalfEdge(v);
+      if (start != -1) {
+        int i = indexBase + vertexFace[v];
+        faceStarts[vertexFaceNumbers[v]] = i;
+        if (mesh.isBoundaryVertex(v)) {
+          faceIndices[i] = boundaryIndex[start];
+          int last = writeFaceRing(mesh, start, faceIndices, i + 1);
+          faceIndices[indexBase + vertexFace[v + 1] - 1] = boundaryIndex[mesh.getPrev(last)] + 1;
+        } else {
+          writeFaceRing(mesh, start, faceIndices, i);
+        }
+      }
+    });
+    faceStarts[faceStarts.length - 1] = faceIndices.length;
+
+    return new HalfEdgeMesh(new IndexedMesh(positions, faceStarts, faceIndices));
+  }
+
   protected MeshVertex vertexRule(MeshFace face, MeshVertex vertex) {
     int x = vertex.getFaceIndex(face);
     int k = face.size();
     if (k == 4) {
       return new MeshVertex(vertex.times(9)
-          .plus(face.get(x - 1).times(3))
-          .plus(face.get(x + 1).times(3))
-          .plus(face.get(x + 2).times(1))
-          .times(1.0 / 16.0));
+          .addScaled(face.get(x - 1), 3)
+          .addScaled(face.get(x + 1), 3)
+          .add(face.get(x + 2))
+          .scale(1.0 / 16.0));
     } else {
       Vec3 pt = vertex.times(0.25 + 5.0 / (4.0 * k));
       for (int i = 1; i < k; i++) {
-        pt = pt.plus(face.get(x + i).times((3 + 2 * Math.cos(2 * i * Math.PI / k)) / (4 * k)));
+        pt.addScaled(face.get(x + i), (3 + 2 * Math.cos(2 * i * Math.PI / k)) / (4 * k));
       }
       return new MeshVertex(pt);
     }
   }
 
   protected MeshVertex boundaryRule(MeshVertex near, MeshVertex far) {
-    return new MeshVertex(near.times(0.75).plus(far.times(0.25)));
+    return new MeshVertex(near.times(0.75).addScaled(far, 0.25));
+  }
+
+  ////////////////////////////////////////
+
+  /**
+   * Returns the weights of a face's corners, starting from the vertex's own, for the vertex
+   * rule on a face of k sides.
+   */
+  private static double[] getStencil(int k) {
+    double[] stencil = new double[k];
+    if (k == 4) {
+      stencil[0] = 9.0 / 16.0;
+      stencil[1] = 3.0 / 16.0;
+      stencil[2] = 1.0 / 16.0;
+      stencil[3] = 3.0 / 16.0;
+    } else {
+      stencil[0] = 0.25 + 5.0 / (4.0 * k);
+      for (int i = 1; i < k; i++) {
+        stencil[i] = (3 + 2 * Math.cos(2 * i * Math.PI / k)) / (4 * k);
+      }
+    }
+    return stencil;
+  }
+
+  /**
+   * Returns the number of faces around a vertex, walking from one of its outgoing half-edges.
+   */
+  private static int countFaceRing(HalfEdgeMesh mesh, int start) {
+    int count = 0;
+    int h = start;
+    do {
+      count++;
+      h = mesh.getNextAroundVertex(h);
+    } while (h != -1 && h != start);
+    return count;
+  }
+
+  /**
+   * Writes the half-edges leaving a vertex to out[offset...], in order from start until the
+   * walk wraps around or reaches the boundary, and returns the last.
+   */
+  private static int writeFaceRing(HalfEdgeMesh mesh, int start, int[] out, int offset) {
+    int h = start;
+    int last;
+    do {
+      out[offset++] = h;
+      last = h;
+      h = mesh.getNextAroundVertex(h);
+    } while (h != -1 && h != start);
+    return last;
   }
 }
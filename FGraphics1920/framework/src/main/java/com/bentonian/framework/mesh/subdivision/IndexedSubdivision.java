@@ -0,0 +1,98 @@
+package com.bentonian.framework.mesh.subdivision;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+
+/**
+ * Shared pieces of the array-based subdivision kernels.  Every rule writes only its own
+ * output slot, so each pass over vertices, edges or faces is split into ranges and run on
+ * the common ForkJoinPool.
+ */
+final class IndexedSubdivision {
+
+  private static final int ELEMENTS_PER_TASK = 4096;
+
+  private IndexedSubdivision() {
+  }
+
+  /**
+   * Calls body for every index in [0, n), in parallel.
+   */
+  static void forEach(int n, IntConsumer body) {
+    if (n <= ELEMENTS_PER_TASK) {
+      for (int i = 0; i < n; i++) {
+        body.accept(i);
+      }
+    } else {
+      ForkJoinPool.commonPool().invoke(new Range(body, 0, n));
+    }
+  }
+
+  /**
+   * Adds w times the position of a vertex of mesh to out[3 * i ...].
+   */
+  static void add(double[] out, int i, HalfEdgeMesh mesh, int vertex, double w) {
+    out[3 * i] += w * mesh.getX(vertex);
+    out[3 * i + 1] += w * mesh.getY(vertex);
+    out[3 * i + 2] += w * mesh.getZ(vertex);
+  }
+
+  /**
+   * Adds w times the average of the vertices of the half-edge's face, other than the two at
+   * either end of the half-edge, to out[3 * i ...].
+   */
+  static void addAverageExcluding(double[] out, int i, HalfEdgeMesh mesh, int halfEdge,
+      double w) {
+    int n = mesh.getFaceSize(mesh.getFace(halfEdge)) - 2;
+    for (int h = mesh.getNext(mesh.getNext(halfEdge)); h != halfEdge; h = mesh.getNext(h)) {
+      add(out, i, mesh, mesh.getOrigin(h), w / n);
+    }
+  }
+
+  /**
+   * Applies the boundary vertex rule shared by Loop and Catmull-Clark, three quarters of the
+   * vertex and an eighth of each of its two boundary neighbors, writing to out[3 * i ...].
+   */
+  static void boundaryVertexRule(double[] out, int i, HalfEdgeMesh mesh, int vertex) {
+    int start = mesh.getVertexHalfEdge(vertex);
+    int h = start;
+    int around;
+    while ((around = mesh.getNextAroundVertex(h)) != -1 && around != start) {
+      h = around;
+    }
+    add(out, i, mesh, vertex, 0.75);
+    add(out, i, mesh, mesh.getTarget(start), 0.125);
+    add(out, i, mesh, mesh.getOrigin(mesh.getPrev(h)), 0.125);
+  }
+
+  ////////////////////////////////////////
+
+  private static class Range extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final IntConsumer body;
+    private final int from, to;
+
+    Range(IntConsumer body, int from, int to) {
+      this.body = body;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > ELEMENTS_PER_TASK) {
+        int mid = (from + to) / 2;
+        invokeAll(new Range(body, from, mid), new Range(body, mid, to));
+      } else {
+        for (int i = from; i < to; i++) {
+          body.accept(i);
+        }
+      }
+    }
+  }
+}
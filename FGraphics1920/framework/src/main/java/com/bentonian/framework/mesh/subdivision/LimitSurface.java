@@ -0,0 +1,444 @@
+package com.bentonian.framework.mesh.subdivision;
+
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+import com.bentonian.framework.mesh.Mesh;
+import com.bentonian.framework.mesh.MeshFace;
+import com.bentonian.framework.mesh.MeshVertex;
+import com.bentonian.framework.scene.Camera;
+
+/**
+ * The limit surface of a subdivision scheme over a control mesh, as one polynomial patch per
+ * face.  Every control vertex is pushed to its exact limit position and normal; the patches
+ * meet those exactly and interpolate between them, and neighboring patches share their
+ * boundary curves so the surface has no cracks.
+ *
+ * {@link #tessellate(double)} turns the surface into triangles adaptively: each edge gets
+ * as many segments as its curvature needs to stay within a tolerance, shared by the patches
+ * on either side, and each patch is gridded to the finest of its edges.  Flat regions stay
+ * coarse however finely curved regions are cut.
+ */
+public abstract class LimitSurface {
+
+  private static final int MAX_SEGMENTS = 32;
+
+  protected final HalfEdgeMesh mesh;
+
+  private final int numSides;
+  private final int patchSize;
+  private final double[] limitPositions;
+  private final double[] limitNormals;
+  private final double[] patches;
+
+  /**
+   * Builds the limit positions, then the patches, of a mesh whose faces all have numSides
+   * sides, with patchSize control points per patch.
+   */
+  protected LimitSurface(HalfEdgeMesh mesh, int numSides, int patchSize) {
+    for (int f = 0; f < mesh.getNumFaces(); f++) {
+      if (mesh.getFaceSize(f) != numSides) {
+        throw new IllegalArgumentException("Face " + f + " has " + mesh.getFaceSize(f)
+            + " sides, not " + numSides);
+      }
+    }
+    this.mesh = mesh;
+    this.numSides = numSides;
+    this.patchSize = patchSize;
+    this.limitPositions = new double[3 * mesh.getNumVertices()];
+    this.limitNormals = new double[3 * mesh.getNumVertices()];
+    this.patches = new double[3 * patchSize * mesh.getNumFaces()];
+
+    IndexedSubdivision.forEach(mesh.getNumVertices(), v -> {
+      if (mesh.getVertexHalfEdge(v) != -1) {
+        computeLimit(v, limitPositions, limitNormals);
+        orientNormal(v);
+      }
+    });
+    IndexedSubdivision.forEach(mesh.getNumFaces(),
+        f -> buildPatch(f, patches, 3 * patchSize * f));
+  }
+
+  public HalfEdgeMesh getControlMesh() {
+    return mesh;
+  }
+
+  public Vec3 getLimitPosition(int vertex) {
+    return new Vec3(limitPositions[3 * vertex], limitPositions[3 * vertex + 1],
+        limitPositions[3 * vertex + 2]);
+  }
+
+  public Vec3 getLimitNormal(int vertex) {
+    return new Vec3(limitNormals[3 * vertex], limitNormals[3 * vertex + 1],
+        limitNormals[3 * vertex + 2]);
+  }
+
+  /**
+   * Returns the point at (u, v) on a face's patch.  Quads run u from the face's first vertex
+   * to its second and v from the first to its last; triangles are barycentric, with u and v
+   * the weights of the second and third vertices.
+   */
+  public Vec3 getPosition(int face, double u, double v) {
+    double[] out = new double[6];
+    evaluate(patches, 3 * patchSize * face, u, v, out, 0);
+    return new Vec3(out[0], out[1], out[2]);
+  }
+
+  public Vec3 getNormal(int face, double u, double v) {
+    double[] out = new double[6];
+    evaluate(patches, 3 * patchSize * face, u, v, out, 0);
+    return new Vec3(out[3], out[4], out[5]);
+  }
+
+  /**
+   * Tessellates the surface so that no edge of the result strays further than tolerance
+   * from the surface, to a first approximation.
+   */
+  public Mesh tessellate(double tolerance) {
+    return tessellate((x, y, z) -> 1 / tolerance);
+  }
+
+  /**
+   * Tessellates the surface to within a number of pixels when seen through the camera in a
+   * viewport of the given height, assuming the mesh is drawn untransformed.  Parts of the
+   * surface further from the camera are cut more coarsely.
+   */
+  public Mesh tessellate(Camera camera, int viewportHeight, double pixelTolerance) {
+    Vec3 eye = camera.getPosition();
+    Vec3 dir = camera.getDirection();
+    double pixelsPerUnitAtUnitDistance = viewportHeight / camera.getViewHeight();
+    double minDistance = camera.getDistanceToViewingPlane();
+    return tessellate((x, y, z) -> {
+      double distance = (x - eye.getX()) * dir.getX()
+          + (y - eye.getY()) * dir.getY()
+          + (z - eye.getZ()) * dir.getZ();
+      return pixelsPerUnitAtUnitDistance / Math.max(minDistance, distance) / pixelTolerance;
+    });
+  }
+
+  /**
+   * Computes the limit position and normal of a vertex used by at least one face, writing
+   * them to positions[3 * vertex ...] and normals[3 * vertex ...].  The normal's length and
+   * sign don't matter.
+   */
+  protected abstract void computeLimit(int vertex, double[] positions, double[] normals);
+
+  /**
+   * Writes the control points of a face's patch to out[offset ...].  Control points along
+   * an edge must be computed identically from the faces on both sides.
+   */
+  protected abstract void buildPatch(int face, double[] out, int offset);
+
+  /**
+   * Evaluates a patch whose control points start at patch[offset], writing the position and
+   * unit normal at (u, v) to out[i ... i + 5].
+   */
+  protected abstract void evaluate(double[] patch, int offset, double u, double v,
+      double[] out, int i);
+
+  protected void getLimitPosition(int vertex, double[] out, int offset) {
+    System.arraycopy(limitPositions, 3 * vertex, out, offset, 3);
+  }
+
+  protected void getLimitNormal(int vertex, double[] out, int offset) {
+    System.arraycopy(limitNormals, 3 * vertex, out, offset, 3);
+  }
+
+  /**
+   * Writes the normal of the fan of control faces around a vertex, as a stand-in for the
+   * limit normal on boundaries.
+   */
+  protected void getFanNormal(int vertex, double[] out, int offset) {
+    int start = mesh.getVertexHalfEdge(vertex);
+    int h = start;
+    out[offset] = out[offset + 1] = out[offset + 2] = 0;
+    do {
+      int a = mesh.getTarget(h);
+      int b = mesh.getOrigin(mesh.getPrev(h));
+      double ax = mesh.getX(a) - mesh.getX(vertex);
+      double ay = mesh.getY(a) - mesh.getY(vertex);
+      double az = mesh.getZ(a) - mesh.getZ(vertex);
+      double bx = mesh.getX(b) - mesh.getX(vertex);
+      double by = mesh.getY(b) - mesh.getY(vertex);
+      double bz = mesh.getZ(b) - mesh.getZ(vertex);
+      out[offset] += ay * bz - az * by;
+      out[offset + 1] += az * bx - ax * bz;
+      out[offset + 2] += ax * by - ay * bx;
+      h = mesh.getNextAroundVertex(h);
+    } while (h != -1 && h != start);
+  }
+
+  /**
+   * Writes a position and the unit normal given by the cross product of its two parameter
+   * derivatives to out[i ... i + 5].
+   */
+  protected static void writePositionAndNormal(double[] p, double[] pu, double[] pv,
+      double[] out, int i) {
+    double nx = pu[1] * pv[2] - pu[2] * pv[1];
+    double ny = pu[2] * pv[0] - pu[0] * pv[2];
+    double nz = pu[0] * pv[1] - pu[1] * pv[0];
+    double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+    double scale = (length == 0) ? 0 : 1 / length;
+    out[i] = p[0];
+    out[i + 1] = p[1];
+    out[i + 2] = p[2];
+    out[i + 3] = nx * scale;
+    out[i + 4] = ny * scale;
+    out[i + 5] = nz * scale;
+  }
+
+  ////////////////////////////////////////
+
+  private interface Scale {
+    /** Returns 1 / tolerance at a point on the surface */
+    double at(double x, double y, double z);
+  }
+
+  private void orientNormal(int v) {
+    double[] fan = new double[3];
+    getFanNormal(v, fan, 0);
+    double dot = fan[0] * limitNormals[3 * v] + fan[1] * limitNormals[3 * v + 1]
+        + fan[2] * limitNormals[3 * v + 2];
+    double length = Math.sqrt(limitNormals[3 * v] * limitNormals[3 * v]
+        + limitNormals[3 * v + 1] * limitNormals[3 * v + 1]
+        + limitNormals[3 * v + 2] * limitNormals[3 * v + 2]);
+    double scale = (length == 0) ? 0 : ((dot < 0) ? -1 : 1) / length;
+    limitNormals[3 * v] *= scale;
+    limitNormals[3 * v + 1] *= scale;
+    limitNormals[3 * v + 2] *= scale;
+  }
+
+  private Mesh tessellate(Scale scale) {
+    int numVertices = mesh.getNumVertices();
+    int numEdges = mesh.getNumEdges();
+    int numFaces = mesh.getNumFaces();
+
+    // Segments per edge, then grid size per face
+    int[] edgeSegments = new int[numEdges];
+    IndexedSubdivision.forEach(mesh.getNumHalfEdges(), h -> {
+      if (mesh.isEdgeRepresentative(h)) {
+        edgeSegments[mesh.getEdge(h)] = getEdgeSegments(h, scale);
+      }
+    });
+    int[] faceSegments = new int[numFaces];
+    IndexedSubdivision.forEach(numFaces, f -> {
+      int m = getInteriorSegments(f, scale);
+      for (int s = 0; s < numSides; s++) {
+        m = Math.max(m, edgeSegments[mesh.getEdge(mesh.getFaceHalfEdge(f) + s)]);
+      }
+      faceSegments[f] = m;
+    });
+
+    // Corners keep their vertex numbers, followed by samples along edges and inside faces
+    int[] edgeStart = new int[numEdges + 1];
+    edgeStart[0] = numVertices;
+    for (int e = 0; e < numEdges; e++) {
+      edgeStart[e + 1] = edgeStart[e] + edgeSegments[e] - 1;
+    }
+    int[] faceStart = new int[numFaces + 1];
+    faceStart[0] = edgeStart[numEdges];
+    for (int f = 0; f < numFaces; f++) {
+      faceStart[f + 1] = faceStart[f] + getNumInteriorPoints(faceSegments[f]);
+    }
+
+    double[] samples = new double[6 * faceStart[numFaces]];
+    for (int v = 0; v < numVertices; v++) {
+      getLimitPosition(v, samples, 6 * v);
+      getLimitNormal(v, samples, 6 * v + 3);
+    }
+    IndexedSubdivision.forEach(mesh.getNumHalfEdges(), h -> {
+      if (mesh.isEdgeRepresentative(h)) {
+        int e = mesh.getEdge(h);
+        int n = edgeSegments[e];
+        for (int k = 1; k < n; k++) {
+          evaluateSide(h, k / (double) n, samples, 6 * (edgeStart[e] + k - 1));
+        }
+      }
+    });
+    IndexedSubdivision.forEach(numFaces, f -> {
+      int m = faceSegments[f];
+      int offset = 3 * patchSize * f;
+      int i = 6 * faceStart[f];
+      for (int b = 1; b < m; b++) {
+        for (int a = 1; a < ((numSides == 4) ? m : m - b); a++, i += 6) {
+          evaluate(patches, offset, a / (double) m, b / (double) m, samples, i);
+        }
+      }
+    });
+
+    MeshVertex[] vertices = new MeshVertex[faceStart[numFaces]];
+    for (int v = 0; v < vertices.length; v++) {
+      vertices[v] = new MeshVertex(samples[6 * v], samples[6 * v + 1], samples[6 * v + 2]);
+      vertices[v].setNormal(new Vec3(samples[6 * v + 3], samples[6 * v + 4], samples[6 * v + 5]));
+    }
+
+    Mesh result = new Mesh();
+    for (int f = 0; f < numFaces; f++) {
+      int m = faceSegments[f];
+      int[] grid = new int[(m + 1) * (m + 1)];
+      int next = faceStart[f];
+      for (int b = 0; b <= m; b++) {
+        for (int a = 0; a <= ((numSides == 4) ? m : m - b); a++) {
+          int side = getSide(a, b, m);
+          grid[a + b * (m + 1)] = (side == -1)
+              ? next++
+              : getSideVertex(f, side, getSideIndex(side, a, b, m), m, edgeSegments, edgeStart);
+        }
+      }
+      for (int b = 0; b < m; b++) {
+        for (int a = 0; a < ((numSides == 4) ? m : m - b); a++) {
+          int p00 = grid[a + b * (m + 1)];
+          int p10 = grid[a + 1 + b * (m + 1)];
+          int p01 = grid[a + (b + 1) * (m + 1)];
+          if (numSides == 4) {
+            int p11 = grid[a + 1 + (b + 1) * (m + 1)];
+            addTriangle(result, vertices, p00, p10, p11);
+            addTriangle(result, vertices, p00, p11, p01);
+          } else {
+            addTriangle(result, vertices, p00, p10, p01);
+            if (a + b < m - 1) {
+              addTriangle(result, vertices, p10, grid[a + 1 + (b + 1) * (m + 1)], p01);
+            }
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private int getEdgeSegments(int h, Scale scale) {
+    int a = mesh.getOrigin(h);
+    int b = mesh.getTarget(h);
+    double[] points = new double[12];
+    evaluateSide(h, 1 / 3.0, points, 0);
+    evaluateSide(h, 2 / 3.0, points, 6);
+    double deviation = Math.max(
+        getDistanceToChord(points, 0, a, b),
+        getDistanceToChord(points, 6, a, b));
+    return getSegments(deviation, scale, points[0], points[1], points[2]);
+  }
+
+  private int getInteriorSegments(int f, Scale scale) {
+    double[] center = new double[6];
+    double c = (numSides == 4) ? 0.5 : 1 / 3.0;
+    evaluate(patches, 3 * patchSize * f, c, c, center, 0);
+    double[] average = new double[3];
+    int h = mesh.getFaceHalfEdge(f);
+    for (int s = 0; s < numSides; s++, h = mesh.getNext(h)) {
+      int v = 3 * mesh.getOrigin(h);
+      for (int i = 0; i < 3; i++) {
+        average[i] += limitPositions[v + i] / numSides;
+      }
+    }
+    double dx = center[0] - average[0];
+    double dy = center[1] - average[1];
+    double dz = center[2] - average[2];
+    return getSegments(Math.sqrt(dx * dx + dy * dy + dz * dz), scale,
+        center[0], center[1], center[2]);
+  }
+
+  /**
+   * A curve cut into n chords strays from each by about 1 / n^2 of its deviation from one.
+   */
+  private static int getSegments(double deviation, Scale scale, double x, double y, double z) {
+    double n = Math.ceil(Math.sqrt(deviation * scale.at(x, y, z)));
+    return (int) Math.max(1, Math.min(MAX_SEGMENTS, n));
+  }
+
+  private double getDistanceToChord(double[] points, int i, int a, int b) {
+    double ax = limitPositions[3 * a];
+    double ay = limitPositions[3 * a + 1];
+    double az = limitPositions[3 * a + 2];
+    double dx = limitPositions[3 * b] - ax;
+    double dy = limitPositions[3 * b + 1] - ay;
+    double dz = limitPositions[3 * b + 2] - az;
+    double px = points[i] - ax;
+    double py = points[i + 1] - ay;
+    double pz = points[i + 2] - az;
+    double lengthSquared = dx * dx + dy * dy + dz * dz;
+    double t = (lengthSquared == 0) ? 0
+        : Math.max(0, Math.min(1, (px * dx + py * dy + pz * dz) / lengthSquared));
+    px -= t * dx;
+    py -= t * dy;
+    pz -= t * dz;
+    return Math.sqrt(px * px + py * py + pz * pz);
+  }
+
+  /**
+   * Evaluates the patch of a half-edge's face at parameter t along the half-edge.
+   */
+  private void evaluateSide(int h, double t, double[] out, int i) {
+    int f = mesh.getFace(h);
+    double[] uv = getSideParameters(h - mesh.getFaceHalfEdge(f), t);
+    evaluate(patches, 3 * patchSize * f, uv[0], uv[1], out, i);
+  }
+
+  private double[] getSideParameters(int side, double t) {
+    if (numSides == 4) {
+      switch (side) {
+      case 0: return new double[] { t, 0 };
+      case 1: return new double[] { 1, t };
+      case 2: return new double[] { 1 - t, 1 };
+      default: return new double[] { 0, 1 - t };
+      }
+    } else {
+      switch (side) {
+      case 0: return new double[] { t, 0 };
+      case 1: return new double[] { 1 - t, t };
+      default: return new double[] { 0, 1 - t };
+      }
+    }
+  }
+
+  private int getNumInteriorPoints(int m) {
+    return (numSides == 4) ? (m - 1) * (m - 1) : Math.max(0, (m - 1) * (m - 2) / 2);
+  }
+
+  /**
+   * Returns the side a grid point (a, b) lies on, or -1 for interior points.
+   */
+  private int getSide(int a, int b, int m) {
+    if (b == 0) {
+      return 0;
+    } else if (numSides == 4) {
+      return (a == m) ? 1 : (b == m) ? 2 : (a == 0) ? 3 : -1;
+    } else {
+      return (a + b == m) ? 1 : (a == 0) ? 2 : -1;
+    }
+  }
+
+  /**
+   * Returns how many grid steps a point on a side is from the side's first corner.
+   */
+  private int getSideIndex(int side, int a, int b, int m) {
+    switch (side) {
+    case 0: return a;
+    case 1: return b;
+    case 2: return (numSides == 4) ? m - a : m - b;
+    default: return m - b;
+    }
+  }
+
+  /**
+   * Snaps the i'th of m grid steps along a side to the nearest of the side's edge samples,
+   * which are shared with the patch across the edge.
+   */
+  private int getSideVertex(int f, int side, int i, int m, int[] edgeSegments, int[] edgeStart) {
+    int h = mesh.getFaceHalfEdge(f) + side;
+    int e = mesh.getEdge(h);
+    int n = edgeSegments[e];
+    int k = (2 * i * n + m) / (2 * m);
+    if (k == 0) {
+      return mesh.getOrigin(h);
+    } else if (k == n) {
+      return mesh.getTarget(h);
+    } else {
+      return edgeStart[e] + (mesh.isEdgeRepresentative(h) ? k : n - k) - 1;
+    }
+  }
+
+  private static void addTriangle(Mesh mesh, MeshVertex[] vertices, int a, int b, int c) {
+    if (a != b && b != c && c != a) {
+      mesh.add(new MeshFace(vertices[a], vertices[b], vertices[c]));
+    }
+  }
+}
@@ -1,9 +1,14 @@
 package com.bentonian.framework.mesh.subdivision;
 
+import static com.bentonian.framework.mesh.subdivision.IndexedSubdivision.add;
+import static com.bentonian.framework.mesh.subdivision.IndexedSubdivision.addAverageExcluding;
+
 import java.util.Map;
 import java.util.Set;
 
 import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+import com.bentonian.framework.mesh.IndexedMesh;
 import com.bentonian.framework.mesh.MeshEdge;
 import com.bentonian.framework.mesh.MeshFace;
 import com.bentonian.framework.mesh.Mesh;
@@ -65,6 +70,90 @@ public class Loop implements SubdivisionFunction {
     return newMesh;
   }
 
+  /**
+   * Subdivides directly on the mesh's arrays, without building a MeshVertex or MeshFace.
+   * New vertices are numbered vertex points first, then edge points; each rule runs in
+   * parallel, and each old face of n sides becomes n corner triangles and an inner n-gon.
+   */
+  @Override
+  public HalfEdgeMesh apply(HalfEdgeMesh mesh) {
+    int numHalfEdges = mesh.getNumHalfEdges();
+    int edgeBase = mesh.getNumVertices();
+    double[] positions = new double[3 * (edgeBase + mesh.getNumEdges())];
+    int[] faceStarts = new int[numHalfEdges + mesh.getNumFaces() + 1];
+    int[] faceIndices = new int[4 * numHalfEdges];
+
+    IndexedSubdivision.forEach(edgeBase, v -> {
+      int start = mesh.getVertexHalfEdge(v);
+      if (start == -1) {
+        add(positions, v, mesh, v, 1);
+      } else if (mesh.isBoundaryVertex(v)) {
+        IndexedSubdivision.boundaryVertexRule(positions, v, mesh, v);
+      } else {
+        int k = mesh.getValence(v);
+        double beta = 3.0 / ((k < 4) ? 16.0 : (8 * k));
+        int h = start;
+        add(positions, v, mesh, v, 1 - k * beta);
+        do {
+          add(positions, v, mesh, mesh.getTarget(h), beta);
+          h = mesh.getNextAroundVertex(h);
+        } while (h != start && h != -1);
+      }
+    });
+
+    IndexedSubdivision.forEach(numHalfEdges, h -> {
+      if (mesh.isEdgeRepresentative(h)) {
+        int e = edgeBase + mesh.getEdge(h);
+        if (mesh.isBoundaryEdge(h)) {
+          add(positions, e, mesh, mesh.getOrigin(h), 0.5);
+          add(positions, e, mesh, mesh.getTarget(h), 0.5);
+        } else {
+          add(positions, e, mesh, mesh.getOrigin(h), 3.0 / 8.0);
+          add(positions, e, mesh, mesh.getTarget(h), 3.0 / 8.0);
+          addAverageExcluding(positions, e, mesh, h, 1.0 / 8.0);
+          addAverageExcluding(positions, e, mesh, mesh.getTwin(h), 1.0 / 8.0);
+        }
+      }
+    });
+
+    IndexedSubdivision.forEach(mesh.getNumFaces(), f -> {
+      int start = mesh.getFaceHalfEdge(f);
+      int n = mesh.getFaceSize(f);
+      int newFace = start + f;
+      int i = 4 * start;
+      for (int h = start; h < start + n; h++) {
+        faceStarts[newFace++] = i;
+        faceIndices[i++] = edgeBase + mesh.getEdge(mesh.getPrev(h));
+        faceIndices[i++] = mesh.getOrigin(h);
+        faceIndices[i++] = edgeBase + mesh.getEdge(h);
+      }
+      faceStarts[newFace] = i;
+      for (int h = start; h < start + n; h++) {
+        faceIndices[i++] = edgeBase + mesh.getEdge(h);
+      }
+    });
+    faceStarts[faceStarts.length - 1] = faceIndices.length;
+
+    return new HalfEdgeMesh(new IndexedMesh(positions, faceStarts, faceIndices));
+  }
+
+  @Override
+  public boolean hasLimitSurface() {
+    return true;
+  }
+
+  /**
+   * Returns the limit surface as PN triangles through the exact limit positions and normals
+   * of the vertices.  Faces other than triangles are first split into fans.
+   */
+  @Override
+  public LimitSurface getLimitSurface(HalfEdgeMesh mesh) {
+    if (mesh.getNumHalfEdges() != 3 * mesh.getNumFaces()) {
+      mesh = new HalfEdgeMesh(mesh.toIndexedMesh().triangulated());
+    }
+    return new LoopLimitSurface(mesh);
+  }
+
   protected MeshVertex vertexRule(MeshVertex v) {
     MeshEdge[] boundary = v.checkForBoundary();
 
@@ -72,17 +161,16 @@ public class Loop implements SubdivisionFunction {
       Set<MeshVertex> oneRing = v.getOneRing();
       int k = oneRing.size();
       double beta = 3.0 / ((k < 4) ? 16.0 : (8 * k));
-      Vec3 pt = new Vec3(v.times(1 - k * beta));
+      Vec3 pt = v.times(1 - k * beta);
 
       for (MeshVertex neighbor : oneRing) {
-        pt = pt.plus(neighbor.times(beta));
+        pt.addScaled(neighbor, beta);
       }
       return new MeshVertex(pt);
     } else {
-      return new MeshVertex(
-          v.times(0.75)
-          .plus(boundary[0].getOtherVertex(v).times(0.125))
-          .plus(boundary[1].getOtherVertex(v).times(0.125)));
+      return new MeshVertex(v.times(0.75)
+          .addScaled(boundary[0].getOtherVertex(v), 0.125)
+          .addScaled(boundary[1].getOtherVertex(v), 0.125));
     }
   }
 
@@ -92,10 +180,10 @@ public class Loop implements SubdivisionFunction {
 
     if (omega != null) {
       return new MeshVertex(e.getA().times(3)
-          .plus(e.getB().times(3))
-          .plus(alpha.getAverageVerticesExcluding(e.getA(), e.getB()))
-          .plus(omega.getAverageVerticesExcluding(e.getA(), e.getB()))
-          .times(1.0 / 8.0));
+          .addScaled(e.getB(), 3)
+          .add(alpha.getAverageVerticesExcluding(e.getA(), e.getB()))
+          .add(omega.getAverageVerticesExcluding(e.getA(), e.getB()))
+          .scale(1.0 / 8.0));
     } else {
       return new MeshVertex(e.getMidpoint());
     }
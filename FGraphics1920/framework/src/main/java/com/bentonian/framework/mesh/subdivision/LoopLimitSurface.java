@@ -0,0 +1,145 @@
+package com.bentonian.framework.mesh.subdivision;
+
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+
+/**
+ * Loop limit surface over a triangle mesh, as cubic PN triangles: every corner sits at its
+ * vertex's exact limit position with its exact limit normal, and each edge curve bends to
+ * meet the normals at its two ends, so patches sharing an edge share its curve.  Loop's own
+ * patches are quartic box splines; the PN triangles match them at the vertices and stay
+ * close in between.
+ */
+class LoopLimitSurface extends LimitSurface {
+
+  // Patch index of the control point next to each corner along the face's next and previous
+  // sides
+  private static final int[] NEXT_SIDE = { 3, 5, 7 };
+  private static final int[] PREV_SIDE = { 8, 4, 6 };
+
+  LoopLimitSurface(HalfEdgeMesh mesh) {
+    super(mesh, 3, 10);
+  }
+
+  /**
+   * Interior vertices of valence n go to (1 - n c) v + c sum(p), with c = 1 / (n + 3 / 8b)
+   * for Loop's weight b, with the normal from the limit tangents; boundary vertices follow
+   * the cubic B-spline of the boundary.
+   */
+  @Override
+  protected void computeLimit(int vertex, double[] positions, double[] normals) {
+    int i = 3 * vertex;
+    int start = mesh.getVertexHalfEdge(vertex);
+
+    if (mesh.isBoundaryVertex(vertex)) {
+      int h = start;
+      int around;
+      while ((around = mesh.getNextAroundVertex(h)) != -1) {
+        h = around;
+      }
+      addPoint(positions, i, vertex, 4.0 / 6.0);
+      addPoint(positions, i, mesh.getTarget(start), 1.0 / 6.0);
+      addPoint(positions, i, mesh.getOrigin(mesh.getPrev(h)), 1.0 / 6.0);
+      getFanNormal(vertex, normals, i);
+    } else {
+      int n = mesh.getValence(vertex);
+      double beta = 3.0 / ((n < 4) ? 16.0 : (8 * n));
+      double chi = 1 / (n + 3 / (8 * beta));
+      double[] t1 = new double[3];
+      double[] t2 = new double[3];
+      int h = start;
+
+      addPoint(positions, i, vertex, 1 - n * chi);
+      for (int j = 0; j < n && h != -1; j++) {
+        int neighbor = mesh.getTarget(h);
+        addPoint(positions, i, neighbor, chi);
+        addPoint(t1, 0, neighbor, Math.cos(2 * Math.PI * j / n));
+        addPoint(t2, 0, neighbor, Math.sin(2 * Math.PI * j / n));
+        h = mesh.getNextAroundVertex(h);
+      }
+      normals[i] = t1[1] * t2[2] - t1[2] * t2[1];
+      normals[i + 1] = t1[2] * t2[0] - t1[0] * t2[2];
+      normals[i + 2] = t1[0] * t2[1] - t1[1] * t2[0];
+    }
+  }
+
+  /**
+   * Lays out the corners b300, b030, b003, then the edge points b210, b120, b021, b012, b102,
+   * b201 and the center b111.
+   */
+  @Override
+  protected void buildPatch(int face, double[] out, int offset) {
+    int h = mesh.getFaceHalfEdge(face);
+    int[] corners = { mesh.getOrigin(h), mesh.getTarget(h), mesh.getOrigin(mesh.getPrev(h)) };
+
+    for (int c = 0; c < 3; c++) {
+      getLimitPosition(corners[c], out, offset + 3 * c);
+      getEdgePoint(corners[c], corners[(c + 1) % 3], out, offset + 3 * NEXT_SIDE[c]);
+      getEdgePoint(corners[c], corners[(c + 2) % 3], out, offset + 3 * PREV_SIDE[c]);
+    }
+    for (int axis = 0; axis < 3; axis++) {
+      double e = 0;
+      for (int k = 3; k < 9; k++) {
+        e += out[offset + 3 * k + axis] / 6;
+      }
+      double v = (out[offset + axis] + out[offset + 3 + axis] + out[offset + 6 + axis]) / 3;
+      out[offset + 27 + axis] = e + (e - v) / 2;
+    }
+  }
+
+  @Override
+  protected void evaluate(double[] patch, int offset, double u, double v, double[] out, int i) {
+    double w = 1 - u - v;
+    double[] weights = {
+        w * w * w, u * u * u, v * v * v,
+        3 * w * w * u, 3 * w * u * u, 3 * u * u * v, 3 * u * v * v, 3 * w * v * v, 3 * w * w * v,
+        6 * w * u * v };
+    double[] uWeights = {
+        -3 * w * w, 3 * u * u, 0,
+        3 * (w * w - 2 * w * u), 3 * (2 * w * u - u * u), 6 * u * v, 3 * v * v, -3 * v * v,
+        -6 * w * v,
+        6 * (w * v - u * v) };
+    double[] vWeights = {
+        -3 * w * w, 0, 3 * v * v,
+        -6 * w * u, -3 * u * u, 3 * u * u, 6 * u * v, 3 * (2 * w * v - v * v),
+        3 * (w * w - 2 * w * v),
+        6 * (w * u - u * v) };
+    double[] p = new double[3];
+    double[] pu = new double[3];
+    double[] pv = new double[3];
+
+    for (int k = 0; k < 10; k++) {
+      for (int axis = 0; axis < 3; axis++) {
+        double b = patch[offset + 3 * k + axis];
+        p[axis] += weights[k] * b;
+        pu[axis] += uWeights[k] * b;
+        pv[axis] += vWeights[k] * b;
+      }
+    }
+    writePositionAndNormal(p, pu, pv, out, i);
+  }
+
+  ////////////////////////////////////////
+
+  private void addPoint(double[] out, int i, int vertex, double w) {
+    out[i] += w * mesh.getX(vertex);
+    out[i + 1] += w * mesh.getY(vertex);
+    out[i + 2] += w * mesh.getZ(vertex);
+  }
+
+  /**
+   * Writes the control point a third of the way from a to b, projected into the tangent
+   * plane at a.
+   */
+  private void getEdgePoint(int a, int b, double[] out, int i) {
+    double[] pa = new double[3];
+    double[] pb = new double[3];
+    double[] na = new double[3];
+    getLimitPosition(a, pa, 0);
+    getLimitPosition(b, pb, 0);
+    getLimitNormal(a, na, 0);
+    double w = (pb[0] - pa[0]) * na[0] + (pb[1] - pa[1]) * na[1] + (pb[2] - pa[2]) * na[2];
+    for (int axis = 0; axis < 3; axis++) {
+      out[i + axis] = (2 * pa[axis] + pb[axis] - w * na[axis]) / 3;
+    }
+  }
+}
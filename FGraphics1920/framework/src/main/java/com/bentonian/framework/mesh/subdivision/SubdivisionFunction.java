@@ -1,8 +1,43 @@
 package com.bentonian.framework.mesh.subdivision;
 
+import com.bentonian.framework.mesh.HalfEdgeMesh;
 import com.bentonian.framework.mesh.Mesh;
 
 public interface SubdivisionFunction {
 
   public abstract Mesh apply(Mesh mesh);
+
+  /**
+   * Subdivides a compact mesh.  By default this round-trips through the linked Mesh.
+   */
+  public default HalfEdgeMesh apply(HalfEdgeMesh mesh) {
+    return HalfEdgeMesh.fromMesh(apply(mesh.toMesh()));
+  }
+
+  /**
+   * Applies the function repeatedly, returning the mesh after the given number of levels.
+   */
+  public default HalfEdgeMesh apply(HalfEdgeMesh mesh, int levels) {
+    for (int i = 0; i < levels; i++) {
+      mesh = apply(mesh);
+    }
+    return mesh;
+  }
+
+  /**
+   * Returns true if {@link #getLimitSurface(HalfEdgeMesh)} can evaluate this scheme's limit
+   * surface.
+   */
+  public default boolean hasLimitSurface() {
+    return false;
+  }
+
+  /**
+   * Returns the limit surface of the scheme over a control mesh, for schemes which can
+   * evaluate it directly; see {@link #hasLimitSurface()}.
+   */
+  public default LimitSurface getLimitSurface(HalfEdgeMesh mesh) {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " can't evaluate its limit surface");
+  }
 }
@@ -0,0 +1,149 @@
+package com.bentonian.framework.raytrace.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.bentonian.framework.raytrace.engine.RayTracerEngine;
+import com.bentonian.framework.ui.BufferedImageRGBCanvas;
+import com.google.common.collect.Lists;
+
+/**
+ * Headless render queue: renders frames of scene descriptions to PNG files with no OpenGL
+ * context.  Whole frames are the unit of work, so a batch of frames keeps every worker busy
+ * with no per-tile coordination; frames from one description share its scene's bounding
+ * volume hierarchy, which is built once.
+ *
+ * Frames can additionally be split into tiles across a shared pool, which helps when there
+ * are fewer frames in flight than cores.
+ *
+ * <pre>
+ *   java -Djava.awt.headless=true com.bentonian.framework.raytrace.batch.BatchRenderer \
+ *       scene.txt out/frame%04d.png [workers [threadsPerFrame]]
+ * </pre>
+ */
+public class BatchRenderer {
+
+  private final ExecutorService workers;
+  private final ForkJoinPool tilePool;
+  private final AtomicInteger framesRendered;
+  private final long startTime;
+
+  /**
+   * Creates a queue which renders numWorkers frames at a time, each split across
+   * threadsPerFrame threads.
+   */
+  public BatchRenderer(int numWorkers, int threadsPerFrame) {
+    if (numWorkers < 1 || threadsPerFrame < 1) {
+      throw new IllegalArgumentException(
+          "Need at least one worker and one thread per frame: " + numWorkers + ", " + threadsPerFrame);
+    }
+    this.workers = Executors.newFixedThreadPool(numWorkers);
+    this.tilePool = (threadsPerFrame > 1) ? new ForkJoinPool(numWorkers * threadsPerFrame) : null;
+    this.framesRendered = new AtomicInteger();
+    this.startTime = System.currentTimeMillis();
+  }
+
+  /**
+   * Queues one frame of the description to be rendered and written as a PNG.
+   */
+  public Future<File> submit(SceneDescription description, int frame, File output) {
+    return workers.submit(() -> render(description, frame, output));
+  }
+
+  /**
+   * Queues every frame of the description.  The output pattern is formatted with the frame
+   * number, as in "frame%04d.png".
+   */
+  public List<Future<File>> submitAll(SceneDescription description, String outputPattern) {
+    List<Future<File>> frames = Lists.newArrayList();
+    for (int i = 0; i < description.getNumFrames(); i++) {
+      frames.add(submit(description, i, new File(String.format(outputPattern, i))));
+    }
+    return frames;
+  }
+
+  public int getFramesRendered() {
+    return framesRendered.get();
+  }
+
+  public double getFramesPerHour() {
+    long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+    return framesRendered.get() * 3600000.0 / elapsed;
+  }
+
+  /**
+   * Finishes any queued frames, then releases the worker threads.
+   */
+  public void shutdown() throws InterruptedException {
+    workers.shutdown();
+    workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    if (tilePool != null) {
+      tilePool.shutdown();
+    }
+  }
+
+  ////////////////////////////////////////
+
+  private File render(SceneDescription description, int frame, File output) throws IOException {
+    BufferedImageRGBCanvas canvas =
+        new BufferedImageRGBCanvas(description.getWidth(), description.getHeight());
+    RayTracerEngine engine =
+        new RayTracerEngine(description.getScene(), canvas, description.getCamera(frame));
+
+    description.configure(engine);
+    engine.setAccelerationStructure(description.getAccelerationStructure());
+    if (tilePool != null) {
+      engine.setPool(tilePool);
+    }
+    engine.renderToCanvas();
+
+    File dir = output.getAbsoluteFile().getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Can't create " + dir);
+    }
+    if (!ImageIO.write(canvas, "png", output)) {
+      throw new IOException("No PNG writer available for " + output);
+    }
+    framesRendered.incrementAndGet();
+    return output;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    if (args.length < 2) {
+      System.err.println(
+          "Usage: BatchRenderer <scene file> <output pattern> [workers [threadsPerFrame]]");
+      System.exit(-1);
+    }
+    int numWorkers = (args.length > 2)
+        ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+    int threadsPerFrame = (args.length > 3) ? Integer.parseInt(args[3]) : 1;
+
+    SceneDescription description = SceneDescription.parseFile(args[0]);
+    BatchRenderer renderer = new BatchRenderer(numWorkers, threadsPerFrame);
+    List<Future<File>> frames = renderer.submitAll(description, args[1]);
+    boolean failed = false;
+
+    for (Future<File> frame : frames) {
+      try {
+        frame.get();
+      } catch (ExecutionException e) {
+        e.getCause().printStackTrace();
+        failed = true;
+      }
+    }
+    renderer.shutdown();
+    System.out.println(String.format("Rendered %d of %d frames, %.1f frames/hour",
+        renderer.getFramesRendered(), frames.size(), renderer.getFramesPerHour()));
+    System.exit(failed ? -1 : 0);
+  }
+}
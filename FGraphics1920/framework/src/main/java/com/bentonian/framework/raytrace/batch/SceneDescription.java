@@ -0,0 +1,289 @@
+package com.bentonian.framework.raytrace.batch;
+
+import java.io.File;
+import java.util.List;
+
+import com.bentonian.framework.io.FileUtil;
+import com.bentonian.framework.io.OFFUtil;
+import com.bentonian.framework.material.MaterialPrimitive;
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.primitive.Cube;
+import com.bentonian.framework.mesh.primitive.Cylinder;
+import com.bentonian.framework.mesh.primitive.MeshPrimitive;
+import com.bentonian.framework.mesh.primitive.Plane;
+import com.bentonian.framework.mesh.primitive.Sphere;
+import com.bentonian.framework.mesh.primitive.Torus;
+import com.bentonian.framework.raytrace.engine.BoundingVolumeHierarchy;
+import com.bentonian.framework.raytrace.engine.RayTracerEngine;
+import com.bentonian.framework.raytrace.engine.Scene;
+import com.bentonian.framework.scene.Camera;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+
+/**
+ * A scene, render settings and camera path read from a plain text scene file, one statement
+ * per line.  Blank lines and anything after a '#' are ignored.
+ *
+ * <pre>
+ *   size 640 480                   # output image size
+ *   supersample 2                  # supersampling multiple
+ *   adaptive 0.01                  # adaptive supersampling threshold
+ *   shadows 4 0.2                  # shadow rays per light, light radius
+ *   background 1 1 1
+ *   light 5 5 5
+ *   sphere color 1 0 0 reflectivity 0.5 translate 0 0 -3
+ *   mesh bunny.off scale 2 rotate 0 1 0 30
+ *   camera 0 1 5  0 0 0            # keyframe: position, then point looked at
+ *   camera 5 1 0  0 0 0
+ *   frames 120                     # frames interpolated along the camera keyframes
+ * </pre>
+ *
+ * Primitives are sphere, cube, cylinder, plane, torus or mesh (an OFF file, relative to the
+ * scene file), each followed by any number of color, reflectivity, transparency, refraction,
+ * scale, rotate and translate modifiers, applied in order.
+ */
+public class SceneDescription {
+
+  private static final Vec3 UP = new Vec3(0, 1, 0);
+
+  private final Scene scene = new Scene();
+  private final List<Vec3> cameraPositions = Lists.newArrayList();
+  private final List<Vec3> cameraTargets = Lists.newArrayList();
+
+  private int width = 640;
+  private int height = 480;
+  private int supersamplingMultiple = 1;
+  private double adaptiveThreshold = 0;
+  private int numShadowRays = 1;
+  private double lightRadius = 0;
+  private Vec3 background = new Vec3(1, 1, 1);
+  private int numFrames = 0;
+  private BoundingVolumeHierarchy bvh;
+
+  public static SceneDescription parseFile(String filename) {
+    List<String> lines = FileUtil.readFile(filename);
+    if (lines == null) {
+      throw new IllegalArgumentException("Can't read scene file " + filename);
+    }
+    return parse(Joiner.on("").join(lines), new File(filename).getAbsoluteFile().getParentFile());
+  }
+
+  /**
+   * Parses a scene description; mesh files are looked up relative to baseDir.
+   */
+  public static SceneDescription parse(String data, File baseDir) {
+    SceneDescription description = new SceneDescription();
+    String[] lines = data.split("\n");
+
+    for (int i = 0; i < lines.length; i++) {
+      String line = lines[i].replaceAll("#.*", "").trim();
+      if (!line.isEmpty()) {
+        try {
+          description.parseLine(line.split("\\s+"), baseDir);
+        } catch (RuntimeException e) {
+          throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage(), e);
+        }
+      }
+    }
+    if (description.cameraPositions.isEmpty()) {
+      description.cameraPositions.add(new Vec3(0, 0, 1));
+      description.cameraTargets.add(new Vec3(0, 0, 0));
+    }
+    return description;
+  }
+
+  public Scene getScene() {
+    return scene;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Number of frames to render: the frame count if one was given, otherwise one frame per
+   * camera keyframe.
+   */
+  public int getNumFrames() {
+    return (numFrames > 0) ? numFrames : cameraPositions.size();
+  }
+
+  /**
+   * Returns the camera for the given frame, interpolated linearly between keyframes spaced
+   * evenly along the animation.
+   */
+  public Camera getCamera(int frame) {
+    int numFrames = getNumFrames();
+    double u = (numFrames > 1 && cameraPositions.size() > 1)
+        ? frame * (cameraPositions.size() - 1) / (double) (numFrames - 1)
+        : Math.min(frame, cameraPositions.size() - 1);
+    int k = Math.min((int) u, cameraPositions.size() - 1);
+    int next = Math.min(k + 1, cameraPositions.size() - 1);
+    double t = u - k;
+
+    Vec3 from = cameraPositions.get(k).times(1 - t).plus(cameraPositions.get(next).times(t));
+    Vec3 to = cameraTargets.get(k).times(1 - t).plus(cameraTargets.get(next).times(t));
+    Camera camera = new Camera();
+    camera.lookAt(from, to.minus(from), UP);
+    return camera;
+  }
+
+  /**
+   * Returns a bounding volume hierarchy over the scene, built on first use and shared by
+   * every frame rendered from this description.
+   */
+  public synchronized BoundingVolumeHierarchy getAccelerationStructure() {
+    if (bvh == null) {
+      bvh = new BoundingVolumeHierarchy(scene);
+    }
+    return bvh;
+  }
+
+  /**
+   * Applies this description's render settings to an engine.
+   */
+  public void configure(RayTracerEngine engine) {
+    engine.setSupersamplingMultiple(supersamplingMultiple);
+    engine.setAdaptiveThreshold(adaptiveThreshold);
+    engine.setNumShadowRays(numShadowRays);
+    engine.setLightRadius(lightRadius);
+    engine.setBackground(background);
+  }
+
+  ////////////////////////////////////////
+
+  private void parseLine(String[] tokens, File baseDir) {
+    Cursor cursor = new Cursor(tokens);
+    String keyword = cursor.next();
+
+    switch (keyword) {
+    case "size":
+      width = cursor.nextInt();
+      height = cursor.nextInt();
+      break;
+    case "supersample":
+      supersamplingMultiple = cursor.nextInt();
+      break;
+    case "adaptive":
+      adaptiveThreshold = cursor.nextDouble();
+      break;
+    case "shadows":
+      numShadowRays = cursor.nextInt();
+      lightRadius = cursor.nextDouble();
+      break;
+    case "background":
+      background = cursor.nextVec3();
+      break;
+    case "light":
+      scene.addLight(cursor.nextVec3());
+      break;
+    case "camera":
+      cameraPositions.add(cursor.nextVec3());
+      cameraTargets.add(cursor.nextVec3());
+      break;
+    case "frames":
+      numFrames = cursor.nextInt();
+      break;
+    case "sphere":
+      parsePrimitive(new Sphere(), cursor);
+      break;
+    case "cube":
+      parsePrimitive(new Cube(), cursor);
+      break;
+    case "cylinder":
+      parsePrimitive(new Cylinder(), cursor);
+      break;
+    case "plane":
+      parsePrimitive(new Plane(), cursor);
+      break;
+    case "torus":
+      parsePrimitive(new Torus(), cursor);
+      break;
+    case "mesh":
+      File file = new File(cursor.next());
+      String path = (file.isAbsolute() ? file : new File(baseDir, file.getPath())).getPath();
+      if (!new File(path).exists()) {
+        throw new IllegalArgumentException("Can't find mesh " + path);
+      }
+      MeshPrimitive mesh = new MeshPrimitive(OFFUtil.parseFile(path));
+      mesh.enableRayTracingAccelerator();
+      parsePrimitive(mesh, cursor);
+      break;
+    default:
+      throw new IllegalArgumentException("Unrecognized statement '" + keyword + "'");
+    }
+    if (cursor.hasNext()) {
+      throw new IllegalArgumentException("Unexpected '" + cursor.next() + "'");
+    }
+  }
+
+  private void parsePrimitive(MaterialPrimitive primitive, Cursor cursor) {
+    while (cursor.hasNext()) {
+      String modifier = cursor.next();
+      switch (modifier) {
+      case "color":
+        primitive.setColor(cursor.nextVec3());
+        break;
+      case "reflectivity":
+        primitive.setReflectivity(cursor.nextDouble());
+        break;
+      case "transparency":
+        primitive.setTransparency(cursor.nextDouble());
+        break;
+      case "refraction":
+        primitive.setRefractiveIndex(cursor.nextDouble());
+        break;
+      case "scale":
+        primitive.scale(cursor.nextDouble());
+        break;
+      case "rotate":
+        primitive.rotate(cursor.nextVec3(), cursor.nextDouble() * Math.PI / 180.0);
+        break;
+      case "translate":
+        primitive.translate(cursor.nextVec3());
+        break;
+      default:
+        throw new IllegalArgumentException("Unrecognized modifier '" + modifier + "'");
+      }
+    }
+    scene.add(primitive);
+  }
+
+  private static class Cursor {
+
+    private final String[] tokens;
+    private int i;
+
+    Cursor(String[] tokens) {
+      this.tokens = tokens;
+      this.i = 0;
+    }
+
+    boolean hasNext() {
+      return i < tokens.length;
+    }
+
+    String next() {
+      if (!hasNext()) {
+        throw new IllegalArgumentException("Unexpected end of line");
+      }
+      return tokens[i++];
+    }
+
+    int nextInt() {
+      return Integer.parseInt(next());
+    }
+
+    double nextDouble() {
+      return Double.parseDouble(next());
+    }
+
+    Vec3 nextVec3() {
+      return new Vec3(nextDouble(), nextDouble(), nextDouble());
+    }
+  }
+}
@@ -2,10 +2,12 @@ package com.bentonian.framework.raytrace.csg;
 
 import java.util.Set;
 
+import com.bentonian.framework.math.BoundingBox;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersection;
 import com.bentonian.framework.math.RayIntersectionList;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.raytrace.engine.BoundingVolumeHierarchy;
 import com.bentonian.framework.raytrace.engine.RayTracerEngine;
 import com.bentonian.framework.scene.IsRayTraceable;
 import com.bentonian.framework.scene.Primitive;
@@ -21,6 +23,16 @@ public abstract class CsgBoolean extends Primitive implements IsRayTraceable {
     this.B = B;
   }
 
+  /**
+   * Conservatively bounds every CSG operation by the union of its operands.
+   */
+  @Override
+  public BoundingBox getLocalBounds() {
+    BoundingBox boundsA = BoundingVolumeHierarchy.getBounds(A);
+    BoundingBox boundsB = BoundingVolumeHierarchy.getBounds(B);
+    return (boundsA == null || boundsB == null) ? null : boundsA.union(boundsB);
+  }
+
   @Override
   public RayIntersections traceLocal(Ray ray) {
     RayIntersectionList hitsA = RayTracerEngine.traceScene(A, ray).sorted();
@@ -0,0 +1,518 @@
+package com.bentonian.framework.raytrace.engine;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
+import com.bentonian.framework.math.M4x4;
+import com.bentonian.framework.math.MathConstants;
+import com.bentonian.framework.math.Ray;
+import com.bentonian.framework.math.RayIntersection;
+import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.scene.IsRayTraceable;
+import com.bentonian.framework.scene.Primitive;
+import com.bentonian.framework.scene.PrimitiveCollection;
+import com.google.common.collect.Lists;
+
+/**
+ * A bounding volume hierarchy over every ray-traceable object in a scene graph, stored
+ * as flat arrays in depth-first order.  Objects which report no bounds (such as infinite
+ * planes) are kept out of the tree and tested against every ray.
+ *
+ * Once built, the hierarchy can be refit to the scene's current transforms without
+ * rebuilding, so long as no primitives have been added or removed.
+ */
+public class BoundingVolumeHierarchy {
+
+  private static final int MAX_LEAF_SIZE = 4;
+
+  private final Primitive root;
+  private final Item[] items;
+  private final Item[] unbounded;
+  private final ThreadLocal<PacketScratch> packetScratch;
+
+  // Per-node data.  Interior nodes have count == 0, their left child immediately after
+  // them and their right child at firstOrRight; leaves hold items [firstOrRight, +count).
+  private double[] bounds;
+  private int[] firstOrRight;
+  private int[] count;
+  private int numNodes;
+
+  public BoundingVolumeHierarchy(Primitive root) {
+    List<Item> bounded = Lists.newArrayList();
+    List<Item> infinite = Lists.newArrayList();
+
+    this.root = root;
+    collect(root, new Primitive[0], M4x4.identity(), bounded, infinite);
+    this.items = bounded.toArray(new Item[bounded.size()]);
+    this.unbounded = infinite.toArray(new Item[infinite.size()]);
+    this.bounds = new double[Math.max(1, 2 * items.length) * 6];
+    this.firstOrRight = new int[Math.max(1, 2 * items.length)];
+    this.count = new int[Math.max(1, 2 * items.length)];
+    this.numNodes = 0;
+    this.packetScratch = ThreadLocal.withInitial(PacketScratch::new);
+    if (items.length > 0) {
+      build(0, items.length);
+    }
+  }
+
+  /**
+   * Returns the nearest intersection of the ray with the scene, or null if it hits nothing.
+   */
+  public RayIntersection traceNearest(Ray ray) {
+    HitRecord record = new HitRecord();
+    return traceNearest(ray, record) ? record.toRayIntersection() : null;
+  }
+
+  /**
+   * Offers the scene's hits to the record, skipping any subtree whose box the ray enters
+   * beyond the record's current cutoff and stopping early once an any-hit query is done.
+   * Returns true if the record was updated.
+   */
+  public boolean traceNearest(Ray ray, HitRecord record) {
+    double dirLength = ray.direction.length();
+    boolean updated = false;
+
+    for (Item item : unbounded) {
+      updated |= RayTracerEngine.traceLocalToWorld(item.target, item.variations, ray, record);
+      if (record.isDone()) {
+        return true;
+      }
+    }
+    if (numNodes > 0) {
+      double[] origin = { ray.origin.getX(), ray.origin.getY(), ray.origin.getZ() };
+      double[] invDir = {
+          1.0 / ray.direction.getX(), 1.0 / ray.direction.getY(), 1.0 / ray.direction.getZ() };
+      int[] stack = new int[64];
+      int top = 0;
+
+      stack[top++] = 0;
+      while (top > 0) {
+        int node = stack[--top];
+        double tNear = intersectNode(node, origin, invDir);
+        if (tNear == Double.POSITIVE_INFINITY || tNear * dirLength > record.t) {
+          continue;
+        }
+        if (count[node] > 0) {
+          for (int i = firstOrRight[node]; i < firstOrRight[node] + count[node]; i++) {
+            updated |= RayTracerEngine.traceLocalToWorld(
+                items[i].target, items[i].variations, ray, record);
+            if (record.isDone()) {
+              return true;
+            }
+          }
+        } else {
+          int left = node + 1;
+          int right = firstOrRight[node];
+          double tLeft = intersectNode(left, origin, invDir);
+          double tRight = intersectNode(right, origin, invDir);
+          if (top + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+          }
+          // Push the farther child first so the nearer one is visited first
+          if (tLeft <= tRight) {
+            stack[top++] = right;
+            stack[top++] = left;
+          } else {
+            stack[top++] = left;
+            stack[top++] = right;
+          }
+        }
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Finds the nearest object along every ray in the packet, leaving each ray's distance in
+   * packet.t and an id for the object it hit (or -1) in packet.hitId.  Subtrees are skipped
+   * when no ray in the packet enters them before its current nearest hit.
+   */
+  public void traceNearest(RayPacket packet) {
+    PacketScratch scratch = packetScratch.get();
+    scratch.ensureCapacity(packet.size);
+
+    for (int i = 0; i < unbounded.length; i++) {
+      tracePacketItem(unbounded[i], items.length + i, packet, scratch);
+    }
+    if (numNodes > 0 && packet.size > 0) {
+      for (int i = 0; i < packet.size; i++) {
+        scratch.invDx[i] = 1.0 / packet.dx[i];
+        scratch.invDy[i] = 1.0 / packet.dy[i];
+        scratch.invDz[i] = 1.0 / packet.dz[i];
+        scratch.dirLength[i] = Math.sqrt(packet.dx[i] * packet.dx[i]
+            + packet.dy[i] * packet.dy[i] + packet.dz[i] * packet.dz[i]);
+      }
+      double[] origin = { packet.ox[0], packet.oy[0], packet.oz[0] };
+      double[] invDir = { scratch.invDx[0], scratch.invDy[0], scratch.invDz[0] };
+      int[] stack = scratch.stack;
+      int top = 0;
+
+      stack[top++] = 0;
+      while (top > 0) {
+        int node = stack[--top];
+        if (!packetEntersNode(node, packet, scratch)) {
+          continue;
+        }
+        if (count[node] > 0) {
+          for (int i = firstOrRight[node]; i < firstOrRight[node] + count[node]; i++) {
+            tracePacketItem(items[i], i, packet, scratch);
+          }
+        } else {
+          if (top + 2 > stack.length) {
+            stack = scratch.stack = Arrays.copyOf(stack, stack.length * 2);
+          }
+          // Visit first the child which the packet's first ray reaches first
+          if (intersectNode(node + 1, origin, invDir) <= intersectNode(firstOrRight[node], origin, invDir)) {
+            stack[top++] = firstOrRight[node];
+            stack[top++] = node + 1;
+          } else {
+            stack[top++] = node + 1;
+            stack[top++] = firstOrRight[node];
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Recovers the full hit (point, normal, material) once packet tracing has found that the
+   * object with the given packet hit id is nearest along the ray, at world-space t.
+   */
+  public boolean traceNearestAt(int hitId, Ray ray, double t, HitRecord record) {
+    Item item = (hitId < items.length) ? items[hitId] : unbounded[hitId - items.length];
+    return RayTracerEngine.traceLocalToWorldAt(item.target, item.variations, ray, t, record);
+  }
+
+  /**
+   * Returns true if the ray hits anything closer than tMax, stopping at the first hit found.
+   */
+  public boolean isOccluded(Ray ray, double tMax) {
+    double dirLength = ray.direction.length();
+
+    for (Item item : unbounded) {
+      if (RayTracerEngine.isOccludedLocalToWorld(item.target, item.variations, ray, tMax)) {
+        return true;
+      }
+    }
+    if (numNodes > 0) {
+      double[] origin = { ray.origin.getX(), ray.origin.getY(), ray.origin.getZ() };
+      double[] invDir = {
+          1.0 / ray.direction.getX(), 1.0 / ray.direction.getY(), 1.0 / ray.direction.getZ() };
+      int[] stack = new int[64];
+      int top = 0;
+
+      stack[top++] = 0;
+      while (top > 0) {
+        int node = stack[--top];
+        double tNear = intersectNode(node, origin, invDir);
+        if (tNear == Double.POSITIVE_INFINITY || tNear * dirLength >= tMax) {
+          continue;
+        }
+        if (count[node] > 0) {
+          for (int i = firstOrRight[node]; i < firstOrRight[node] + count[node]; i++) {
+            if (RayTracerEngine.isOccludedLocalToWorld(
+                items[i].target, items[i].variations, ray, tMax)) {
+              return true;
+            }
+          }
+        } else {
+          if (top + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+          }
+          stack[top++] = firstOrRight[node];
+          stack[top++] = node + 1;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns every intersection of the ray with the scene, in no particular order.
+   */
+  public RayIntersections traceAll(Ray ray) {
+    RayIntersections hits = new RayIntersections();
+
+    for (Item item : unbounded) {
+      RayTracerEngine.traceLocalToWorld(item.target, item.variations, hits, ray);
+    }
+    if (numNodes > 0) {
+      double[] origin = { ray.origin.getX(), ray.origin.getY(), ray.origin.getZ() };
+      double[] invDir = {
+          1.0 / ray.direction.getX(), 1.0 / ray.direction.getY(), 1.0 / ray.direction.getZ() };
+      int[] stack = new int[64];
+      int top = 0;
+
+      stack[top++] = 0;
+      while (top > 0) {
+        int node = stack[--top];
+        if (intersectNode(node, origin, invDir) == Double.POSITIVE_INFINITY) {
+          continue;
+        }
+        if (count[node] > 0) {
+          for (int i = firstOrRight[node]; i < firstOrRight[node] + count[node]; i++) {
+            RayTracerEngine.traceLocalToWorld(items[i].target, items[i].variations, hits, ray);
+          }
+        } else {
+          if (top + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+          }
+          stack[top++] = firstOrRight[node];
+          stack[top++] = node + 1;
+        }
+      }
+    }
+    return hits;
+  }
+
+  /**
+   * Recomputes every object's transform and bounds from the scene graph and tightens the
+   * tree's boxes to match, keeping its structure.  Much cheaper than a rebuild for animated
+   * scenes, though the tree degrades if objects move far from where they started.
+   */
+  public void refit() {
+    for (Item item : unbounded) {
+      item.update();
+    }
+    for (Item item : items) {
+      item.update();
+      if (item.worldBounds == null) {
+        throw new IllegalStateException("Primitive became unbounded after build: " + item.target);
+      }
+    }
+    for (int node = numNodes - 1; node >= 0; node--) {
+      if (count[node] > 0) {
+        BoundingBox box = items[firstOrRight[node]].worldBounds;
+        for (int i = firstOrRight[node] + 1; i < firstOrRight[node] + count[node]; i++) {
+          box = box.union(items[i].worldBounds);
+        }
+        setNodeBounds(node, box);
+      } else {
+        int left = 6 * (node + 1);
+        int right = 6 * firstOrRight[node];
+        for (int axis = 0; axis < 3; axis++) {
+          bounds[6 * node + axis] = Math.min(bounds[left + axis], bounds[right + axis]);
+          bounds[6 * node + 3 + axis] = Math.max(bounds[left + 3 + axis], bounds[right + 3 + axis]);
+        }
+      }
+    }
+  }
+
+  public Primitive getRoot() {
+    return root;
+  }
+
+  public int getNumNodes() {
+    return numNodes;
+  }
+
+  /**
+   * Returns a box in the primitive's parent coordinates enclosing everything ray-traceable
+   * in the subtree rooted at the primitive, or null if any part of it is unbounded.
+   */
+  public static BoundingBox getBounds(Primitive primitive) {
+    M4x4 localToParent = primitive.getLocalToParent();
+    BoundingBox box = null;
+
+    if (primitive instanceof IsRayTraceable) {
+      BoundingBox local = ((IsRayTraceable) primitive).getLocalBounds();
+      if (local == null) {
+        return null;
+      }
+      box = local.transformedBy(localToParent);
+    }
+    if (primitive instanceof PrimitiveCollection) {
+      for (Primitive child : ((PrimitiveCollection) primitive).getPrimitives()) {
+        BoundingBox childBox = getBounds(child);
+        if (childBox == null) {
+          return null;
+        }
+        childBox = childBox.transformedBy(localToParent);
+        box = (box == null) ? childBox : box.union(childBox);
+      }
+    }
+    return box;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  private static void collect(Primitive primitive, Primitive[] ancestors, M4x4 parentToWorld,
+      List<Item> bounded, List<Item> infinite) {
+    Primitive[] path = Arrays.copyOf(ancestors, ancestors.length + 1);
+    M4x4 localToWorld = parentToWorld.times(primitive.getLocalToParent());
+
+    path[ancestors.length] = primitive;
+    if (primitive instanceof IsRayTraceable) {
+      Item item = new Item((IsRayTraceable) primitive, path);
+      item.update(localToWorld);
+      if (item.worldBounds == null) {
+        infinite.add(item);
+      } else {
+        bounded.add(item);
+      }
+    }
+    if (primitive instanceof PrimitiveCollection) {
+      for (Primitive child : ((PrimitiveCollection) primitive).getPrimitives()) {
+        collect(child, path, localToWorld, bounded, infinite);
+      }
+    }
+  }
+
+  private int build(int first, int n) {
+    int node = numNodes++;
+    BoundingBox box = items[first].worldBounds;
+    BoundingBox centroids = new BoundingBox(items[first].centroid, items[first].centroid);
+
+    for (int i = first + 1; i < first + n; i++) {
+      box = box.union(items[i].worldBounds);
+      centroids = centroids.union(new BoundingBox(items[i].centroid, items[i].centroid));
+    }
+    setNodeBounds(node, box);
+
+    Vec3 extent = centroids.getMax().minus(centroids.getMin());
+    int axis = (extent.getX() >= extent.getY() && extent.getX() >= extent.getZ()) ? 0
+        : (extent.getY() >= extent.getZ()) ? 1 : 2;
+    if (n <= MAX_LEAF_SIZE || extent.get(axis) <= 0) {
+      firstOrRight[node] = first;
+      count[node] = n;
+    } else {
+      Arrays.sort(items, first, first + n, Comparator.comparingDouble(item -> item.centroid.get(axis)));
+      build(first, n / 2);
+      firstOrRight[node] = build(first + n / 2, n - n / 2);
+      count[node] = 0;
+    }
+    return node;
+  }
+
+  private void setNodeBounds(int node, BoundingBox box) {
+    for (int axis = 0; axis < 3; axis++) {
+      bounds[6 * node + axis] = box.getMin().get(axis);
+      bounds[6 * node + 3 + axis] = box.getMax().get(axis);
+    }
+  }
+
+  private boolean packetEntersNode(int node, RayPacket packet, PacketScratch scratch) {
+    double minX = bounds[6 * node], minY = bounds[6 * node + 1], minZ = bounds[6 * node + 2];
+    double maxX = bounds[6 * node + 3], maxY = bounds[6 * node + 4], maxZ = bounds[6 * node + 5];
+
+    for (int i = 0; i < packet.size; i++) {
+      double tx1 = (minX - packet.ox[i]) * scratch.invDx[i];
+      double tx2 = (maxX - packet.ox[i]) * scratch.invDx[i];
+      double ty1 = (minY - packet.oy[i]) * scratch.invDy[i];
+      double ty2 = (maxY - packet.oy[i]) * scratch.invDy[i];
+      double tz1 = (minZ - packet.oz[i]) * scratch.invDz[i];
+      double tz2 = (maxZ - packet.oz[i]) * scratch.invDz[i];
+      double tNear = Math.max(0, Math.max(Math.max(Math.min(tx1, tx2), Math.min(ty1, ty2)),
+          Math.min(tz1, tz2)));
+      double tFar = Math.min(Math.min(Math.max(tx1, tx2), Math.max(ty1, ty2)), Math.max(tz1, tz2));
+      // NaNs (axis-parallel rays on a slab boundary) fail both comparisons, so count as entering
+      if (!(tNear > tFar) && !(tNear * scratch.dirLength[i] > packet.t[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void tracePacketItem(Item item, int id, RayPacket packet, PacketScratch scratch) {
+    RayPacket local = scratch.local;
+    LocalToWorldVariations variations = item.variations;
+
+    packet.transformInto(variations.getWorldToLocal(), variations.getWorldToLocal3x3(),
+        local, scratch.distanceScale);
+    item.target.traceLocal(local);
+    for (int i = 0; i < packet.size; i++) {
+      if (local.hit[i]) {
+        packet.t[i] = local.t[i] / scratch.distanceScale[i];
+        packet.hitId[i] = id;
+      }
+    }
+  }
+
+  /**
+   * Slab test.  Returns the ray parameter at which the ray enters the node's box (zero if it
+   * starts inside), or positive infinity on a miss.  NaNs from axis-parallel rays whose
+   * origin lies on a slab are ignored by the ordered comparisons.
+   */
+  private double intersectNode(int node, double[] origin, double[] invDir) {
+    double tNear = 0;
+    double tFar = Double.POSITIVE_INFINITY;
+
+    for (int axis = 0; axis < 3; axis++) {
+      double t1 = (bounds[6 * node + axis] - origin[axis]) * invDir[axis];
+      double t2 = (bounds[6 * node + 3 + axis] - origin[axis]) * invDir[axis];
+      if (t1 > t2) {
+        double swap = t1;
+        t1 = t2;
+        t2 = swap;
+      }
+      if (t1 > tNear) {
+        tNear = t1;
+      }
+      if (t2 < tFar) {
+        tFar = t2;
+      }
+      if (tNear > tFar) {
+        return Double.POSITIVE_INFINITY;
+      }
+    }
+    return tNear;
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Per-thread working storage for packet traversal.
+   */
+  private static class PacketScratch {
+    RayPacket local = new RayPacket(0);
+    double[] distanceScale, invDx, invDy, invDz, dirLength;
+    int[] stack = new int[64];
+
+    void ensureCapacity(int capacity) {
+      if (local.capacity() < capacity) {
+        local = new RayPacket(capacity);
+        distanceScale = new double[capacity];
+        invDx = new double[capacity];
+        invDy = new double[capacity];
+        invDz = new double[capacity];
+        dirLength = new double[capacity];
+      }
+    }
+  }
+
+  private static class Item {
+    final IsRayTraceable target;
+    final Primitive[] path;
+    LocalToWorldVariations variations;
+    BoundingBox worldBounds;
+    Vec3 centroid;
+
+    Item(IsRayTraceable target, Primitive[] path) {
+      this.target = target;
+      this.path = path;
+    }
+
+    void update() {
+      M4x4 localToWorld = M4x4.identity();
+      for (Primitive primitive : path) {
+        localToWorld = localToWorld.times(primitive.getLocalToParent());
+      }
+      update(localToWorld);
+    }
+
+    void update(M4x4 localToWorld) {
+      BoundingBox localBounds = target.getLocalBounds();
+      if ((variations == null) || !variations.getLocalToWorld().equals(localToWorld)) {
+        variations = new LocalToWorldVariations(localToWorld);
+      }
+      worldBounds = (localBounds == null) ? null
+          : localBounds.transformedBy(localToWorld).grow(MathConstants.EPSILON);
+      centroid = (worldBounds == null) ? null : worldBounds.getCenter();
+    }
+  }
+}
@@ -0,0 +1,76 @@
+package com.bentonian.framework.raytrace.engine;
+
+import com.bentonian.framework.math.Affine;
+import com.bentonian.framework.math.M4x4;
+import com.bentonian.framework.math.Vec3;
+
+/**
+ * The inverse and normal-transform matrices derived from a local-to-world transform, each
+ * computed the first time it's asked for, so building one costs no more than copying the
+ * transform.  Safe to share between render threads.  Per-ray transforms go through an
+ * {@link Affine} when the transform is affine, as every transform built by a scene graph is.
+ */
+class LocalToWorldVariations {
+  private final M4x4 localToWorld;
+  private final Affine affine;  // null if localToWorld isn't affine
+
+  // Benign races: every thread computes the same matrices
+  private volatile M4x4 worldToLocal;
+  private volatile M4x4 worldToLocal3x3;
+  private volatile M4x4 localNormalToWorldNormal;
+
+  LocalToWorldVariations(M4x4 localToWorld) {
+    this.localToWorld = localToWorld;
+    this.affine = localToWorld.isAffine() ? new Affine(localToWorld) : null;
+  }
+  public M4x4 getLocalToWorld() {
+    return localToWorld;
+  }
+  public M4x4 getWorldToLocal() {
+    M4x4 result = worldToLocal;
+    if (result == null) {
+      result = worldToLocal = localToWorld.inverted();
+    }
+    return result;
+  }
+  public M4x4 getWorldToLocal3x3() {
+    M4x4 result = worldToLocal3x3;
+    if (result == null) {
+      result = worldToLocal3x3 = getWorldToLocal().extract3x3();
+    }
+    return result;
+  }
+  public M4x4 getLocalNormalToWorldNormal() {
+    M4x4 result = localNormalToWorldNormal;
+    if (result == null) {
+      result = localNormalToWorldNormal = localToWorld.normalMatrix();
+    }
+    return result;
+  }
+
+  public Vec3 worldPointToLocal(Vec3 p) {
+    return (affine != null) ? affine.getInverse().transformPoint(p) : getWorldToLocal().times(p);
+  }
+
+  /**
+   * Returns the direction in local space, unnormalized.
+   */
+  public Vec3 worldDirectionToLocal(Vec3 d) {
+    return (affine != null)
+        ? affine.getInverse().transformDirection(d)
+        : getWorldToLocal().transformDirection(d);
+  }
+
+  public Vec3 localPointToWorld(Vec3 p) {
+    return (affine != null) ? affine.transformPoint(p) : localToWorld.times(p);
+  }
+
+  /**
+   * Returns the normal in world space, unnormalized.
+   */
+  public Vec3 localNormalToWorld(Vec3 n) {
+    return (affine != null)
+        ? affine.transformNormal(n)
+        : getLocalNormalToWorldNormal().transformDirection(n);
+  }
+}
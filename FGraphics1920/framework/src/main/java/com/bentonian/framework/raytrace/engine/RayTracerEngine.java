@@ -6,29 +6,34 @@ import static java.lang.Math.max;
 import static java.lang.Math.pow;
 import static java.lang.Math.sin;
 
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.bentonian.framework.material.Material;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.math.M4x4;
+import com.bentonian.framework.math.HitRecord;
+import com.bentonian.framework.math.MathConstants;
 import com.bentonian.framework.math.MatrixStack;
 import com.bentonian.framework.math.Ray;
 import com.bentonian.framework.math.RayIntersection;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
 import com.bentonian.framework.scene.Camera;
 import com.bentonian.framework.scene.IsRayTraceable;
 import com.bentonian.framework.scene.Primitive;
 import com.bentonian.framework.scene.PrimitiveCollection;
 import com.bentonian.framework.ui.RGBCanvas;
-import com.google.common.collect.Maps;
 
 public class RayTracerEngine {
 
   public static final double MIN_TRAVEL = 0.001;
   private static final int NUM_LEVELS = 3;
-
-  private static final Map<M4x4, LocalToWorldVariations> LOCAL_TO_WORLD_VARIATIONS =
-      Maps.newHashMap();
+  private static final int TILE_SIZE = 32;
+  private static final int PROGRESSIVE_BLOCK_SIZE = 16;
+  private static final int PACKET_SIZE = 8;
 
   private final Scene scene;
   private final Camera camera;
@@ -39,17 +44,32 @@ public class RayTracerEngine {
   private Vec3 background = new Vec3(1, 1, 1);
   private int numShadowRays;
   private double lightRadius;
+  private double adaptiveThreshold;
+  private boolean progressive;
+  private boolean packetTracing;
 
   private RGBCanvas canvas;
+  private BoundingVolumeHierarchy bvh;
+  private boolean reuseAccelerationStructure;
+  private boolean sharedAccelerationStructure;
+  private ForkJoinPool pool;
+  private boolean sharedPool;
+  private int parallelism;
   int supersamplingMultiple;
-  int renderProgress;
+  final AtomicInteger pixelsRendered;
+  private volatile long pixelsToRender;  // Read by getRenderProgress() on other threads
+  private final ThreadLocal<HitRecord> hitRecords;
+  private final ThreadLocal<RayPacket> rayPackets;
 
   public RayTracerEngine(Scene scene, RGBCanvas canvas, Camera camera) {
     this.scene = scene;
     this.canvas = canvas;
     this.camera = camera;
     this.supersamplingMultiple = 1;
-    this.renderProgress = 0;
+    this.parallelism = 1;
+    this.pixelsRendered = new AtomicInteger();
+    this.hitRecords = ThreadLocal.withInitial(HitRecord::new);
+    this.rayPackets = ThreadLocal.withInitial(() -> new RayPacket(PACKET_SIZE * PACKET_SIZE));
     this.numShadowRays = 1;
     this.lightRadius = 0;
   }
@@ -66,22 +86,103 @@ public class RayTracerEngine {
     width = camera.getViewWidth();
     height = camera.getViewHeight();
     distToPlane = camera.getDistanceToViewingPlane();
+    if (sharedAccelerationStructure) {
+      // Owned by the caller, who refits it when nothing is rendering
+    } else if (bvh == null || bvh.getRoot() != scene || !reuseAccelerationStructure) {
+      bvh = new BoundingVolumeHierarchy(scene);
+    } else {
+      bvh.refit();
+    }
 
     System.out.println("Rendering (" + canvasWidth + " x " + canvasHeight + ", "
-        + supersamplingMultiple + "x supersample)...");
-    int max = ((canvasWidth - 1) * (canvasHeight - 1));
-    for (int x = 0; x < canvasWidth; x++) {
-      for (int y = 0; y < canvasHeight; y++) {
-        renderProgress = ((x * (canvasHeight - 1)) + y) * 100 / max;
-        fireRay(x, y);
-      }
+        + supersamplingMultiple + "x supersample"
+        + ((adaptiveThreshold > 0) ? " (adaptive)" : "")
+        + (progressive ? ", progressive" : "")
+        + ", " + parallelism + " threads)...");
+    pixelsRendered.set(0);
+    if (progressive || adaptiveThreshold > 0) {
+      renderInPasses();
+    } else {
+      pixelsToRender = (long) canvasWidth * canvasHeight;
+      renderPass(packetTracing ? new PacketPrimaryRays() : this::fireRay);
     }
     long now = System.currentTimeMillis();
     System.out.println("...render complete (" + ((now - then) / 1000) + "s)");
   }
 
+  /**
+   * Percentage of the current (or most recent) render which has been written to the canvas.
+   * Safe to call from any thread while a render is in progress.
+   */
   public int getRenderProgress() {
-    return renderProgress;
+    return (pixelsToRender == 0) ? 0 : (int) (pixelsRendered.get() * 100L / pixelsToRender);
+  }
+
+  /**
+   * Sets the number of worker threads used by {@link #renderToCanvas()}.  With a parallelism
+   * of 1 (the default) the canvas is rendered on the calling thread; above that, it's split
+   * into tiles which are traced on a ForkJoinPool.  Scenes rendered in parallel must be safe
+   * to trace from several threads at once.
+   */
+  public void setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    if (this.parallelism != parallelism || sharedPool) {
+      this.parallelism = parallelism;
+      if (pool != null && !sharedPool) {
+        pool.shutdown();
+      }
+      pool = null;
+      sharedPool = false;
+    }
+  }
+
+  /**
+   * Renders tiles on the given pool, which may be shared by several engines, instead of on
+   * one owned by this engine.  The parallelism becomes the pool's.
+   */
+  public void setPool(ForkJoinPool pool) {
+    if (this.pool != null && !sharedPool) {
+      this.pool.shutdown();
+    }
+    this.pool = pool;
+    this.parallelism = pool.getParallelism();
+    this.sharedPool = true;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * If true, the bounding volume hierarchy built for one frame is refit to the scene's
+   * current transforms at the start of the next, instead of being rebuilt from scratch.
+   * Only safe while no primitives are added to or removed from the scene between frames.
+   */
+  public void setReuseAccelerationStructure(boolean reuseAccelerationStructure) {
+    this.reuseAccelerationStructure = reuseAccelerationStructure;
+  }
+
+  public boolean getReuseAccelerationStructure() {
+    return reuseAccelerationStructure;
+  }
+
+  /**
+   * Renders with the given bounding volume hierarchy, as-is, instead of building or refitting
+   * one per frame.  Several engines can share one hierarchy over the same scene and render
+   * concurrently, so long as nothing in the scene moves while they do.
+   */
+  public void setAccelerationStructure(BoundingVolumeHierarchy bvh) {
+    if (bvh.getRoot() != scene) {
+      throw new IllegalArgumentException("Acceleration structure was built for a different scene");
+    }
+    this.bvh = bvh;
+    this.sharedAccelerationStructure = true;
+  }
+
+  public BoundingVolumeHierarchy getAccelerationStructure() {
+    return bvh;
   }
 
   public void setCanvas(RGBCanvas canvas) {
@@ -104,6 +205,45 @@ public class RayTracerEngine {
     this.lightRadius = lightRadius;
   }
 
+  /**
+   * Enables adaptive supersampling: each pixel is first traced with a single ray, and only
+   * pixels whose 3x3 neighbourhood has a luminance variance above the threshold are then
+   * re-traced with the full supersampling grid.  Zero (the default) supersamples every pixel.
+   */
+  public void setAdaptiveThreshold(double adaptiveThreshold) {
+    this.adaptiveThreshold = adaptiveThreshold;
+  }
+
+  public double getAdaptiveThreshold() {
+    return adaptiveThreshold;
+  }
+
+  /**
+   * Enables progressive rendering: the canvas is filled first with coarse blocks from a
+   * sparse set of rays, then with successively finer ones, and finally supersampled, so
+   * that a rough preview of the whole image appears almost immediately.
+   */
+  public void setProgressive(boolean progressive) {
+    this.progressive = progressive;
+  }
+
+  public boolean isProgressive() {
+    return progressive;
+  }
+
+  /**
+   * If true, primary rays in uniformly supersampled renders are traced in packets of
+   * neighbouring pixels, which share bounding volume tests and run through tight per-object
+   * loops over arrays.  Secondary and shadow rays are still traced one at a time.
+   */
+  public void setPacketTracing(boolean packetTracing) {
+    this.packetTracing = packetTracing;
+  }
+
+  public boolean isPacketTracing() {
+    return packetTracing;
+  }
+
   public void setBackground(Vec3 background) {
     this.background = background;
   }
@@ -125,8 +265,20 @@ public class RayTracerEngine {
     return hits;
   }
 
+  /**
+   * Returns true if the ray hits anything in the primitive's subtree closer than tMax,
+   * stopping at the first such hit rather than gathering them all.
+   */
+  public static boolean isOccluded(Primitive primitive, Ray ray, double tMax) {
+    return isOccluded(primitive, new MatrixStack(), ray, tMax);
+  }
+
   /////////////////////////////////////////////////////////////////////////////
 
+  /**
+   * Returns the ray through the center of a cell of the viewing plane, spreading to cover the
+   * cell's width by the time it reaches the plane.
+   */
   private static Ray computeRay(Vec3 pos, Vec3 dir, Vec3 right, Vec3 up,
       double distToPlane, double cellLeft, double cellRight, double cellTop, double cellBottom) {
     double cellX = (cellLeft + cellRight) / 2;
@@ -137,10 +289,145 @@ public class RayTracerEngine {
         .plus(dir.times(distToPlane))
         .plus(interceptUp)
         .plus(interceptRight);
-    return new Ray(pos, intercept.minus(pos).normalized());
+    return new Ray(pos, intercept.minus(pos).normalized(), (cellRight - cellLeft) / distToPlane);
+  }
+
+  /**
+   * Runs the task over every pixel of the canvas, writing non-null results to the canvas.
+   */
+  private void renderPass(PixelTask task) {
+    if (parallelism > 1) {
+      getPool().invoke(new TileRenderer(0, 0, canvasWidth, canvasHeight, task));
+    } else {
+      for (int x0 = 0; x0 < canvasWidth; x0 += TILE_SIZE) {
+        for (int y0 = 0; y0 < canvasHeight; y0 += TILE_SIZE) {
+          renderTile(x0, y0,
+              Math.min(TILE_SIZE, canvasWidth - x0), Math.min(TILE_SIZE, canvasHeight - y0), task);
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs the task over one tile into a private buffer, then copies it to the canvas in one
+   * locked batch.
+   */
+  private void renderTile(int x0, int y0, int dx, int dy, PixelTask task) {
+    Vec3[][] tile = new Vec3[dx][dy];
+    task.renderTile(x0, y0, tile);
+    synchronized (canvas) {
+      for (int x = 0; x < dx; x++) {
+        for (int y = 0; y < dy; y++) {
+          if (tile[x][y] != null) {
+            canvas.putPixel(x0 + x, (canvasHeight-1) - (y0 + y), tile[x][y]);
+          }
+        }
+      }
+    }
+    pixelsRendered.addAndGet(dx * dy);
+  }
+
+  /**
+   * Progressive and/or adaptive rendering.  One ray per pixel is traced into an image buffer
+   * (in coarse-to-fine passes, if progressive, painting the canvas after each) and then the
+   * pixels which need it are supersampled straight to the canvas.
+   */
+  private void renderInPasses() {
+    Vec3[][] image = new Vec3[canvasWidth][canvasHeight];
+    int numPasses = 0;
+
+    if (progressive) {
+      for (int block = PROGRESSIVE_BLOCK_SIZE; block >= 1; block /= 2) {
+        numPasses++;
+      }
+    } else {
+      numPasses++;
+    }
+    if (supersamplingMultiple > 1) {
+      numPasses++;
+    }
+    pixelsToRender = (long) canvasWidth * canvasHeight * numPasses;
+
+    if (progressive) {
+      for (int block = PROGRESSIVE_BLOCK_SIZE; block >= 1; block /= 2) {
+        final int b = block;
+        renderPass((x, y) -> {
+          if ((x % b == 0) && (y % b == 0) && (image[x][y] == null)) {
+            image[x][y] = fireRay(x, y, canvasWidth, canvasHeight);
+          }
+          return null;
+        });
+        paint(image, b);
+      }
+    } else {
+      renderPass((x, y) -> {
+        image[x][y] = fireRay(x, y, canvasWidth, canvasHeight);
+        return null;
+      });
+      if (supersamplingMultiple == 1) {
+        paint(image, 1);
+      }
+    }
+
+    if (supersamplingMultiple > 1) {
+      boolean[][] refine = findPixelsToRefine(image);
+      renderPass((x, y) -> refine[x][y] ? fireRay(x, y) : image[x][y]);
+    }
+  }
+
+  /**
+   * Paints every pixel with the color traced at the top-left corner of its block.
+   */
+  private void paint(Vec3[][] image, int block) {
+    synchronized (canvas) {
+      for (int x = 0; x < canvasWidth; x++) {
+        for (int y = 0; y < canvasHeight; y++) {
+          canvas.putPixel(x, (canvasHeight-1) - y, image[x - (x % block)][y - (y % block)]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Flags pixels whose 3x3 neighbourhood's luminance variance exceeds adaptiveThreshold.
+   * With no threshold set, every pixel is flagged.
+   */
+  private boolean[][] findPixelsToRefine(Vec3[][] image) {
+    boolean[][] refine = new boolean[canvasWidth][canvasHeight];
+    int numRefined = 0;
+
+    for (int x = 0; x < canvasWidth; x++) {
+      for (int y = 0; y < canvasHeight; y++) {
+        double sum = 0;
+        double sumSquares = 0;
+        int n = 0;
+        for (int i = Math.max(0, x - 1); i <= Math.min(canvasWidth - 1, x + 1); i++) {
+          for (int j = Math.max(0, y - 1); j <= Math.min(canvasHeight - 1, y + 1); j++) {
+            Vec3 c = image[i][j];
+            double luminance = 0.299 * c.getX() + 0.587 * c.getY() + 0.114 * c.getZ();
+            sum += luminance;
+            sumSquares += luminance * luminance;
+            n++;
+          }
+        }
+        double mean = sum / n;
+        refine[x][y] = (adaptiveThreshold <= 0) || (sumSquares / n - mean * mean) > adaptiveThreshold;
+        numRefined += refine[x][y] ? 1 : 0;
+      }
+    }
+    System.out.println("..." + numRefined + " of " + (canvasWidth * canvasHeight)
+        + " pixels need supersampling");
+    return refine;
+  }
+
+  private ForkJoinPool getPool() {
+    if (pool == null) {
+      pool = new ForkJoinPool(parallelism);
+    }
+    return pool;
   }
 
-  private void fireRay(int x, int y) {
+  private Vec3 fireRay(int x, int y) {
     Vec3 color = null;
 
     for (int i = 0; i < supersamplingMultiple; i++) {
@@ -153,14 +440,18 @@ public class RayTracerEngine {
         color = (color == null) ? C : color.plus(C);
       }
     }
-    color = color.times(1.0 / (supersamplingMultiple * supersamplingMultiple));
-    canvas.putPixel(x, (canvasHeight-1) - y, color);
+    return color.times(1.0 / (supersamplingMultiple * supersamplingMultiple));
   }
 
   private Vec3 fireRay(int x, int y, double w, double h) {
     Ray ray = getCameraRay(x, y, w, h);
-    RayIntersections hits = traceScene(scene, ray);
-    return hits.isEmpty() ? background : illuminate(scene, ray, hits.getNearest(), 0);
+    RayIntersection hit = traceNearest(ray);
+    return (hit == null) ? background : illuminate(scene, ray, hit, 0);
+  }
+
+  private RayIntersection traceNearest(Ray ray) {
+    HitRecord record = hitRecords.get().reset(Double.POSITIVE_INFINITY, false);
+    return bvh.traceNearest(ray, record) ? record.toRayIntersection() : null;
   }
 
   private Ray getCameraRay(int x, int y, double w, double h) {
@@ -178,36 +469,36 @@ public class RayTracerEngine {
     double specularSum = 0;
     Vec3 N = hit.normal;
     Vec3 E = eyeRay.direction.times(-1);
-    Vec3 nVDotN = N.times(N.dot(eyeRay.direction));
-    Vec3 reflectedColor = new Vec3(0,0,0);
-    Vec3 transparencyColor = new Vec3(0,0,0);
+    Vec3 L = new Vec3();
+    Vec3 totalColor = new Vec3();
     Vec3 baseColor = hitMaterial.getColor();
 
     for (Vec3 light : scene.getLights()) {
-      Vec3 L = light.minus(hit.point).normalized();
+      light.subtractInto(hit.point, L).normalizeInto(L);
+      double nDotL = N.dot(L);
 
-      if (N.dot(L) > 0) {
+      if (nDotL > 0) {
         // Shadow test
         double shaded = (numShadowRays != 0) ? getShadow(scene, hit.point, light) : 1;
   
         if (shaded > 0) {
           // Diffuse
-          diffuseSum += shaded * N.dot(L);
+          diffuseSum += shaded * nDotL;
   
-          // Specular
-          Vec3 R = N.times(2*(L.dot(N))).minus(L);
-          specularSum += shaded * pow(max(R.dot(E), 0), hitMaterial.getSpecularShininess());
+          // Specular, with R = 2 (L . N) N - L
+          double rDotE = 2 * nDotL * N.dot(E) - L.dot(E);
+          specularSum += shaded * pow(max(rDotE, 0), hitMaterial.getSpecularShininess());
         }
       }
     }
 
     // Reflection
     if ((numLevels < NUM_LEVELS) && (hitMaterial.getReflectivity() > 0)) {
-      Vec3 reflection = eyeRay.direction.minus(nVDotN.times(2)).normalized();
-      Ray eyeRayReflected = new Ray(hit.point, reflection);
+      Vec3 reflection = new Vec3(eyeRay.direction).addScaled(N, -2 * N.dot(eyeRay.direction));
+      Ray eyeRayReflected = new Ray(hit.point, reflection.normalizeInto(reflection));
 
-      reflectedColor = secondaryRay(scene, eyeRayReflected, numLevels);
-      reflectedColor = reflectedColor.times(hitMaterial.getReflectivity());
+      totalColor.addScaled(
+          secondaryRay(scene, eyeRayReflected, numLevels), hitMaterial.getReflectivity());
     }
 
     // Transparency and refraction
@@ -229,41 +520,41 @@ public class RayTracerEngine {
 
         eyeRayPassedThrough = new Ray(hit.point, bend.times(nTwo).normalized());
       }
-      transparencyColor = secondaryRay(scene, eyeRayPassedThrough, numLevels);
-      transparencyColor = transparencyColor.times(hitMaterial.getTransparency());
+      totalColor.addScaled(
+          secondaryRay(scene, eyeRayPassedThrough, numLevels), hitMaterial.getTransparency());
     }
 
     double localLighting =
         hitMaterial.getKa() +
         diffuseSum * hitMaterial.getKd() +
         specularSum * hitMaterial.getKs();
-    Vec3 localColor = baseColor.times(localLighting).times(
-        1 - Math.max(hitMaterial.getReflectivity(), hitMaterial.getTransparency()));
-    Vec3 totalColor = localColor.plus(reflectedColor).plus(transparencyColor);
-    return totalColor;
+    return totalColor.addScaled(baseColor, localLighting
+        * (1 - Math.max(hitMaterial.getReflectivity(), hitMaterial.getTransparency())));
   }
   
   private double getShadow(Scene scene, Vec3 P, Vec3 L) {
     Vec3 dir = L.normalized();
+    Ray shadowRay = new Ray(P, dir);
     int numRaysThatReachedTheLight = 0;
     double maxT = L.minus(P).length();
     
     for (int i = 0; i < numShadowRays; i++) {
-      RayIntersections hits = traceScene(scene, new Ray(P, dir));
-      if (hits.isEmpty() || hits.getNearest().t > maxT) {
+      if (!bvh.isOccluded(shadowRay, maxT)) {
         numRaysThatReachedTheLight++;
       }
-      dir = L.plus(new Vec3(
-          1 - 2 * Math.random(), 
-          1 - 2 * Math.random(), 
-          1 - 2 * Math.random()).times(lightRadius)).normalized();
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      dir.set(
+          L.getX() + (1 - 2 * random.nextDouble()) * lightRadius,
+          L.getY() + (1 - 2 * random.nextDouble()) * lightRadius,
+          L.getZ() + (1 - 2 * random.nextDouble()) * lightRadius);
+      dir.normalizeInto(dir);
     }
     return ((double) numRaysThatReachedTheLight) / ((double) numShadowRays);
   }
 
   private Vec3 secondaryRay(Scene scene, Ray ray, int numLevels) {
-    RayIntersections hits = traceScene(scene, ray);
-    return hits.isEmpty() ? background : illuminate(scene, ray, hits.getNearest(), numLevels+1);
+    RayIntersection hit = traceNearest(ray);
+    return (hit == null) ? background : illuminate(scene, ray, hit, numLevels+1);
   }
 
   private static void tracePrimitive(Primitive primitive, MatrixStack localToWorldStack,
@@ -271,23 +562,8 @@ public class RayTracerEngine {
     localToWorldStack.push(primitive.getLocalToParent());
 
     if (primitive instanceof IsRayTraceable) {
-      M4x4 localToWorld = localToWorldStack.peek();
-      LocalToWorldVariations variationsOnATheme = getVariations(localToWorld);
-      RayIntersections traced = ((IsRayTraceable) primitive).traceLocal(ray.transformedBy(
-          variationsOnATheme.getWorldToLocal(), variationsOnATheme.getWorldToLocal3x3()));
-
-      if ((traced != null) && !traced.isEmpty()) {
-        for (RayIntersection collision : traced) {
-          Vec3 normal = variationsOnATheme
-              .getLocalNormalToWorldNormal()
-              .times(collision.normal)
-              .normalized();
-          Vec3 point = localToWorld
-              .times(collision.point);
-          double t = point.minus(ray.origin).length();
-          hits.add(collision.primitive, t, point, normal, collision.material);
-        }
-      }
+      traceLocalToWorld((IsRayTraceable) primitive,
+          new LocalToWorldVariations(localToWorldStack.peek()), hits, ray);
     }
 
     if (primitive instanceof PrimitiveCollection) {
@@ -299,43 +575,236 @@ public class RayTracerEngine {
     localToWorldStack.pop();
   }
 
-  private static LocalToWorldVariations getVariations(M4x4 localToWorld) {
-    LocalToWorldVariations variations = LOCAL_TO_WORLD_VARIATIONS.get(localToWorld);
-    if (variations == null) {
-      variations = new LocalToWorldVariations(localToWorld);
-      LOCAL_TO_WORLD_VARIATIONS.put(localToWorld, variations);
+  private static boolean isOccluded(Primitive primitive, MatrixStack localToWorldStack,
+      Ray ray, double tMax) {
+    boolean occluded = false;
+    localToWorldStack.push(primitive.getLocalToParent());
+
+    if (primitive instanceof IsRayTraceable) {
+      occluded = isOccludedLocalToWorld((IsRayTraceable) primitive,
+          new LocalToWorldVariations(localToWorldStack.peek()), ray, tMax);
+    }
+
+    if (!occluded && (primitive instanceof PrimitiveCollection)) {
+      for (Primitive child : ((PrimitiveCollection) primitive).getPrimitives()) {
+        if (isOccluded(child, localToWorldStack, ray, tMax)) {
+          occluded = true;
+          break;
+        }
+      }
     }
-    return variations;
+
+    localToWorldStack.pop();
+    return occluded;
   }
 
-  /////////////////////////////////////////////////////////////////////////////
+  /**
+   * Traces a world-space ray against a single object and adds its hits, in world space, to hits.
+   */
+  static void traceLocalToWorld(IsRayTraceable target, LocalToWorldVariations variations,
+      RayIntersections hits, Ray ray) {
+    Vec3 localDirection = variations.worldDirectionToLocal(ray.direction);
+    RayIntersections traced = target.traceLocal(new Ray(
+        variations.worldPointToLocal(ray.origin), normalizeInPlace(localDirection), ray.spread));
+
+    if ((traced != null) && !traced.isEmpty()) {
+      for (RayIntersection collision : traced) {
+        RayIntersection hit = localToWorld(collision, variations, ray);
+        hits.add(hit.primitive, hit.t, hit.point, hit.normal, hit.material);
+      }
+    }
+  }
 
-  private static class LocalToWorldVariations {
-    private final M4x4 localToWorld;
-    private M4x4 worldToLocal;
-    private M4x4 worldToLocal3x3;
-    private M4x4 localNormalToWorldNormal;
+  /**
+   * Offers a single object's hits on a world-space ray to a hit record kept in world space.
+   * The record's cutoff is scaled into the object's local space for the duration of the
+   * call, so the object can reject distant hits without mapping them back out first.
+   */
+  static boolean traceLocalToWorld(IsRayTraceable target, LocalToWorldVariations variations,
+      Ray ray, HitRecord record) {
+    return traceLocalToWorld(target, variations, ray, Double.NaN, record);
+  }
+
+  /**
+   * As {@link #traceLocalToWorld(IsRayTraceable, LocalToWorldVariations, Ray, HitRecord)},
+   * for a ray already known to hit the object first at world-space t.
+   */
+  static boolean traceLocalToWorldAt(IsRayTraceable target, LocalToWorldVariations variations,
+      Ray ray, double t, HitRecord record) {
+    return traceLocalToWorld(target, variations, ray, t, record);
+  }
 
-    LocalToWorldVariations(M4x4 localToWorld) {
-      this.localToWorld = localToWorld;
+  // Searches for the hit if knownT is NaN, else has the object fill it in at knownT
+  private static boolean traceLocalToWorld(IsRayTraceable target,
+      LocalToWorldVariations variations, Ray ray, double knownT, HitRecord record) {
+    Vec3 localDirection = variations.worldDirectionToLocal(ray.direction);
+    double localLength = localDirection.length();
+    double worldToLocalDistance = localLength / ray.direction.length();
+    Ray localRay = new Ray(
+        variations.worldPointToLocal(ray.origin),
+        scaleInPlace(localDirection, 1 / localLength),
+        ray.spread);
+    double worldT = record.t;
+
+    record.t = worldT * worldToLocalDistance;
+    if (Double.isNaN(knownT)
+        ? target.traceLocal(localRay, record)
+        : target.traceLocalAt(localRay, knownT * worldToLocalDistance, record)) {
+      record.setHit(record.t / worldToLocalDistance,
+          variations.localPointToWorld(record.getPoint()),
+          normalizeInPlace(variations.localNormalToWorld(record.getNormal())));
+      return true;
+    } else {
+      record.t = worldT;
+      return false;
     }
-    public M4x4 getWorldToLocal() {
-      if (worldToLocal == null) {
-        worldToLocal = localToWorld.inverted();
+  }
+
+  /**
+   * Occlusion test of a world-space ray against a single object, with tMax in world units.
+   */
+  static boolean isOccludedLocalToWorld(IsRayTraceable target, LocalToWorldVariations variations,
+      Ray ray, double tMax) {
+    Vec3 localDirection = variations.worldDirectionToLocal(ray.direction);
+    double localLength = localDirection.length();
+    Ray localRay = new Ray(
+        variations.worldPointToLocal(ray.origin),
+        scaleInPlace(localDirection, 1 / localLength));
+    return target.isOccludedLocal(localRay, tMax * localLength / ray.direction.length());
+  }
+
+  private static RayIntersection localToWorld(RayIntersection collision,
+      LocalToWorldVariations variations, Ray ray) {
+    Vec3 normal = normalizeInPlace(variations.localNormalToWorld(collision.normal));
+    Vec3 point = variations.localPointToWorld(collision.point);
+    double t = point.minus(ray.origin).length();
+    return new RayIntersection(collision.primitive, t, point, normal, collision.material);
+  }
+
+  private static Vec3 scaleInPlace(Vec3 v, double k) {
+    v.set(v.getX() * k, v.getY() * k, v.getZ() * k);
+    return v;
+  }
+
+  /**
+   * As Vec3.normalized(), but rescales v itself, which must be a fresh temporary.
+   */
+  private static Vec3 normalizeInPlace(Vec3 v) {
+    double length = v.length();
+    return (length > MathConstants.EPSILON) ? scaleInPlace(v, 1 / length) : scaleInPlace(v, 0);
+  }
+
+  /////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Work done for one pixel in a render pass; returns the color to write, or null for none.
+   */
+  private interface PixelTask {
+    Vec3 render(int x, int y);
+
+    default void renderTile(int x0, int y0, Vec3[][] tile) {
+      for (int x = 0; x < tile.length; x++) {
+        for (int y = 0; y < tile[x].length; y++) {
+          tile[x][y] = render(x0 + x, y0 + y);
+        }
       }
-      return worldToLocal;
     }
-    public M4x4 getWorldToLocal3x3() {
-      if (worldToLocal3x3 == null) {
-        worldToLocal3x3 = getWorldToLocal().extract3x3();
+  }
+
+  /**
+   * Traces primary rays for a tile in square packets of neighbouring pixels (one packet per
+   * supersample offset), then shades each pixel with single rays.
+   */
+  private class PacketPrimaryRays implements PixelTask {
+
+    @Override
+    public Vec3 render(int x, int y) {
+      return fireRay(x, y);
+    }
+
+    @Override
+    public void renderTile(int x0, int y0, Vec3[][] tile) {
+      int m = supersamplingMultiple;
+      RayPacket packet = rayPackets.get();
+      HitRecord record = hitRecords.get();
+
+      for (int bx = 0; bx < tile.length; bx += PACKET_SIZE) {
+        for (int by = 0; by < tile[0].length; by += PACKET_SIZE) {
+          int ex = Math.min(tile.length, bx + PACKET_SIZE);
+          int ey = Math.min(tile[0].length, by + PACKET_SIZE);
+          for (int i = 0; i < m; i++) {
+            for (int j = 0; j < m; j++) {
+              double spread = 0;
+              packet.clear();
+              for (int x = bx; x < ex; x++) {
+                for (int y = by; y < ey; y++) {
+                  Ray ray = getCameraRay((x0 + x) * m + i, (y0 + y) * m + j,
+                      canvasWidth * m, canvasHeight * m);
+                  packet.add(ray.origin.getX(), ray.origin.getY(), ray.origin.getZ(),
+                      ray.direction.getX(), ray.direction.getY(), ray.direction.getZ());
+                  // Every cell is the same width, so every ray spreads alike
+                  spread = ray.spread;
+                }
+              }
+              bvh.traceNearest(packet);
+              int k = 0;
+              for (int x = bx; x < ex; x++) {
+                for (int y = by; y < ey; y++, k++) {
+                  Ray ray = packet.getRay(k);
+                  ray.spread = spread;
+                  Vec3 C = background;
+                  if (packet.hitId[k] >= 0 && bvh.traceNearestAt(packet.hitId[k], ray,
+                      packet.t[k], record.reset(Double.POSITIVE_INFINITY, false))) {
+                    C = illuminate(scene, ray, record.toRayIntersection(), 0);
+                  }
+                  tile[x][y] = (tile[x][y] == null) ? C : tile[x][y].plus(C);
+                }
+              }
+            }
+          }
+        }
       }
-      return worldToLocal3x3;
+      for (int x = 0; x < tile.length; x++) {
+        for (int y = 0; y < tile[x].length; y++) {
+          tile[x][y] = tile[x][y].times(1.0 / (m * m));
+        }
+      }
+    }
+  }
+
+  /**
+   * Recursively splits a region of the canvas until it's no larger than a tile, then
+   * renders the tile.
+   */
+  private class TileRenderer extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int x0, y0, dx, dy;
+    private final PixelTask task;
+
+    TileRenderer(int x0, int y0, int dx, int dy, PixelTask task) {
+      this.x0 = x0;
+      this.y0 = y0;
+      this.dx = dx;
+      this.dy = dy;
+      this.task = task;
     }
-    public M4x4 getLocalNormalToWorldNormal() {
-      if (localNormalToWorldNormal == null) {
-        localNormalToWorldNormal = localToWorld.extract3x3().inverted().transposed();
+
+    @Override
+    protected void compute() {
+      if (dx > TILE_SIZE || dy > TILE_SIZE) {
+        if (dx >= dy) {
+          int half = dx / 2;
+          invokeAll(new TileRenderer(x0, y0, half, dy, task),
+              new TileRenderer(x0 + half, y0, dx - half, dy, task));
+        } else {
+          int half = dy / 2;
+          invokeAll(new TileRenderer(x0, y0, dx, half, task),
+              new TileRenderer(x0, y0 + half, dx, dy - half, task));
+        }
+      } else {
+        renderTile(x0, y0, dx, dy, task);
       }
-      return localNormalToWorldNormal;
     }
   }
 }
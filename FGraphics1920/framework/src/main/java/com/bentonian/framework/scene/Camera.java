@@ -95,15 +95,15 @@ public class Camera {
   }
 
   public Vec3 getDirection() {
-    return getLocalToParent().extract3x3().times(new Vec3(0, 0, -1)).normalized();
+    return getLocalToParent().transformDirection(new Vec3(0, 0, -1)).normalized();
   }
 
   public Vec3 getUp() {
-    return getLocalToParent().extract3x3().times(new Vec3(0, 1, 0)).normalized();
+    return getLocalToParent().transformDirection(new Vec3(0, 1, 0)).normalized();
   }
 
   public Vec3 getRight() {
-    return getLocalToParent().extract3x3().times(new Vec3(1, 0, 0)).normalized();
+    return getLocalToParent().transformDirection(new Vec3(1, 0, 0)).normalized();
   }
 
   public double getDistanceToViewingPlane() {
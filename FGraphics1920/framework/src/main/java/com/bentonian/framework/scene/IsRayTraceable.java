@@ -1,9 +1,79 @@
 package com.bentonian.framework.scene;
 
+import com.bentonian.framework.math.BoundingBox;
+import com.bentonian.framework.math.HitRecord;
 import com.bentonian.framework.math.Ray;
+import com.bentonian.framework.math.RayIntersection;
 import com.bentonian.framework.math.RayIntersections;
+import com.bentonian.framework.math.RayPacket;
 
 public interface IsRayTraceable {
 
   public RayIntersections traceLocal(Ray ray);
+
+  /**
+   * Offers this object's hits to the record, which keeps only the nearest (or, in any-hit
+   * mode, the first) within its current cutoff.  Returns true if the record was updated.
+   * The default traces every hit with traceLocal(); implementations which can skip work on
+   * hits beyond record.t, or stop once record.isDone(), should override this.
+   */
+  public default boolean traceLocal(Ray ray, HitRecord record) {
+    return offerAll(traceLocal(ray), record);
+  }
+
+  /**
+   * Offers the hit at t to the record, where t is already known to be this object's nearest
+   * hit along the ray, such as from packet tracing.  The default traces the ray again;
+   * objects which can work out the point, normal and material from t alone should override
+   * this rather than solve for t twice.
+   */
+  public default boolean traceLocalAt(Ray ray, double t, HitRecord record) {
+    return traceLocal(ray, record);
+  }
+
+  /**
+   * Packet form of {@link #traceLocal(Ray, HitRecord)}: lowers packet.t[i] and sets
+   * packet.hit[i] for every ray which hits this object nearer than its current t.  The
+   * default traces the rays one at a time.
+   */
+  public default void traceLocal(RayPacket packet) {
+    traceEach(this, packet);
+  }
+
+  /**
+   * Returns true if the ray hits this object at any t with EPSILON <= t < tMax.  Used for
+   * shadow rays, where the first occluder found settles the question.
+   */
+  public default boolean isOccludedLocal(Ray ray, double tMax) {
+    return traceLocal(ray, new HitRecord().reset(tMax, true));
+  }
+
+  public static void traceEach(IsRayTraceable target, RayPacket packet) {
+    HitRecord record = new HitRecord();
+    for (int i = 0; i < packet.size; i++) {
+      record.reset(packet.t[i], false);
+      if (target.traceLocal(packet.getRay(i), record)) {
+        packet.t[i] = record.t;
+        packet.hit[i] = true;
+      }
+    }
+  }
+
+  public static boolean offerAll(RayIntersections hits, HitRecord record) {
+    boolean updated = false;
+    if (hits != null) {
+      for (RayIntersection hit : hits) {
+        updated |= record.offer(hit);
+      }
+    }
+    return updated;
+  }
+
+  /**
+   * Returns a box in local coordinates which encloses every hit traceLocal() can return,
+   * or null if the object is unbounded.
+   */
+  public default BoundingBox getLocalBounds() {
+    return null;
+  }
 }
@@ -52,7 +52,9 @@ public class Transformable {
   }
 
   public Transformable apply(M4x4 T) {
-    return setLocalToParent(T.times(localToParent));
+    localToParent.preMultiply(T);
+    forget();
+    return this;
   }
 
   public Transformable translate(Vec3 v) {
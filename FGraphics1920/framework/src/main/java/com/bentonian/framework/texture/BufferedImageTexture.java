@@ -1,14 +1,23 @@
 package com.bentonian.framework.texture;
 
 import static com.bentonian.framework.io.FileUtil.loadImageResource;
+import static java.lang.Math.abs;
+import static java.lang.Math.floor;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
 
 import java.awt.image.BufferedImage;
 
+import com.bentonian.framework.material.Material;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.ui.GLCanvas;
 
+/**
+ * A texture read from an image.  For ray tracing, the image is decoded once into a pyramid of
+ * packed ARGB mipmaps, each half the size of the last, and sampled bilinearly; hits which
+ * know their ray's footprint blend the two levels nearest its size.  Call dispose() after
+ * drawing into the image, to have it decoded afresh.
+ */
 public class BufferedImageTexture extends Texture {
 
   public static final BufferedImageTexture AXES = new BufferedImageTexture("axes_3x3.png");
@@ -16,8 +25,14 @@ public class BufferedImageTexture extends Texture {
   public static final BufferedImageTexture STEEL = new BufferedImageTexture("steel.jpg");
   public static final BufferedImageTexture CHECKERBOARD = new BufferedImageTexture("circle-checkerboard.png");
 
+  // Short enough that a step across a texture never wraps round it
+  private static final double DERIVATIVE_STEP = 1.0e-3;
+
   protected BufferedImage bufferedImage;
 
+  // Benign race: every thread decodes the same pyramid
+  private volatile MipMaps mipMaps;
+
   public BufferedImageTexture() {
     this.bufferedImage = null;
   }
@@ -54,23 +69,173 @@ public class BufferedImageTexture extends Texture {
     }
     super.bind();
   }
-  
+
+  @Override
+  public void dispose() {
+    mipMaps = null;
+    super.dispose();
+  }
+
+  /**
+   * Looks up the texture coordinate once and samples color and alpha together, from the
+   * mipmaps which best match the footprint.
+   */
+  @Override
+  public Material getMaterial(IsTextured target, Vec3 pt, Material source, double footprint) {
+    TexCoord tc = target.getTextureCoord(pt);
+    MipMaps mips = getMipMaps();
+    Vec3 color = new Vec3();
+    double alpha = mips.sample(tc.u, tc.v, getLevelOfDetail(mips, target, pt, tc, footprint),
+        color);
+    Material material = new Material(source);
+    material.setColor(color);
+    material.setTransparency(1 - alpha);
+    return material;
+  }
+
   @Override
   public Vec3 getColor(IsTextured target, Vec3 pt) {
     TexCoord tc = target.getTextureCoord(pt);
-    return Vec3.fromRGBA(sample(tc.u, tc.v));
+    Vec3 color = new Vec3();
+    getMipMaps().sample(tc.u, tc.v, 0, color);
+    return color;
   }
 
   @Override
   public double getTransparency(IsTextured target, Vec3 pt) {
     TexCoord tc = target.getTextureCoord(pt);
-    int rgba = sample(tc.u, tc.v);
-    return 1 - (((rgba >> 24) & 0xFF) / 255.0);
+    return 1 - getMipMaps().sample(tc.u, tc.v, 0, null);
+  }
+
+  ////////////////////////////////////////
+
+  private MipMaps getMipMaps() {
+    MipMaps result = mipMaps;
+    if (result == null) {
+      result = mipMaps = new MipMaps(bufferedImage);
+    }
+    return result;
   }
 
-  private int sample(double u, double v) {
-    int x = min(bufferedImage.getWidth() - 1, max(0, (int) (bufferedImage.getWidth() * u)));
-    int y = min(bufferedImage.getHeight() - 1, max(0, (int) (bufferedImage.getHeight() * v)));
-    return bufferedImage.getRGB(x, y);
+  /**
+   * Estimates how many texels of the full-size image the footprint spans, by taking a short
+   * step along the target's u basis and scaling up, and returns the base two log of that
+   * count.  Texture coordinates which wrap around a seam are measured the short way round.
+   */
+  private static double getLevelOfDetail(
+      MipMaps mips, IsTextured target, Vec3 pt, TexCoord tc, double footprint) {
+    if (footprint <= 0) {
+      return 0;
+    }
+    double h = min(footprint, DERIVATIVE_STEP);
+    TexCoord step = target.getTextureCoord(pt.plus(target.getUBasis(pt).times(h)));
+    double du = mips.widths[0] * wrappedDistance(step.u, tc.u);
+    double dv = mips.heights[0] * wrappedDistance(step.v, tc.v);
+    double texels = Math.sqrt(du * du + dv * dv) * footprint / h;
+    return (texels > 1) ? Math.log(texels) / Math.log(2) : 0;
+  }
+
+  private static double wrappedDistance(double a, double b) {
+    double d = abs(a - b) % 1;
+    return min(d, 1 - d);
+  }
+
+  /**
+   * An image's mipmaps as packed ARGB texels, row by row.  Each level is a 2x2 box filter of
+   * the level before; odd rows and columns repeat at the far edge.
+   */
+  private static class MipMaps {
+
+    final int[][] levels;
+    final int[] widths, heights;
+
+    MipMaps(BufferedImage image) {
+      int count = 1;
+      for (int size = max(image.getWidth(), image.getHeight()); size > 1; size /= 2) {
+        count++;
+      }
+      levels = new int[count][];
+      widths = new int[count];
+      heights = new int[count];
+
+      widths[0] = image.getWidth();
+      heights[0] = image.getHeight();
+      levels[0] = image.getRGB(0, 0, widths[0], heights[0], null, 0, widths[0]);
+      for (int i = 1; i < count; i++) {
+        widths[i] = max(1, widths[i - 1] / 2);
+        heights[i] = max(1, heights[i - 1] / 2);
+        levels[i] = downsample(levels[i - 1], widths[i - 1], heights[i - 1], widths[i], heights[i]);
+      }
+    }
+
+    /**
+     * Writes the color at (u, v) into color, unless it's null, and returns the alpha, both
+     * from zero to one.  Blends bilinear samples of the two levels either side of lod,
+     * clamped to the levels there are.
+     */
+    double sample(double u, double v, double lod, Vec3 color) {
+      lod = min(max(lod, 0), levels.length - 1);
+      int level = (int) lod;
+      double blend = lod - level;
+      double a = 0, r = 0, g = 0, b = 0;
+
+      for (int l = level; l <= level + 1 && l < levels.length; l++) {
+        double weight = (l == level) ? 1 - blend : blend;
+        if (weight <= 0) {
+          continue;
+        }
+        int[] texels = levels[l];
+        int w = widths[l];
+        int h = heights[l];
+        double fx = u * w - 0.5;
+        double fy = v * h - 0.5;
+        int x0 = (int) floor(fx);
+        int y0 = (int) floor(fy);
+        double tx = fx - x0;
+        double ty = fy - y0;
+        for (int corner = 0; corner < 4; corner++) {
+          int dx = corner & 1;
+          int dy = corner >> 1;
+          double k = weight * ((dx == 0) ? 1 - tx : tx) * ((dy == 0) ? 1 - ty : ty);
+          int argb = texels[clamp(y0 + dy, h) * w + clamp(x0 + dx, w)];
+          a += k * (argb >>> 24);
+          r += k * ((argb >> 16) & 0xFF);
+          g += k * ((argb >> 8) & 0xFF);
+          b += k * (argb & 0xFF);
+        }
+      }
+      if (color != null) {
+        color.set(r / 255.0, g / 255.0, b / 255.0);
+      }
+      return min(a / 255.0, 1);
+    }
+
+    private static int[] downsample(int[] src, int sw, int sh, int dw, int dh) {
+      int[] dest = new int[dw * dh];
+      for (int y = 0; y < dh; y++) {
+        int y0 = min(2 * y, sh - 1) * sw;
+        int y1 = min(2 * y + 1, sh - 1) * sw;
+        for (int x = 0; x < dw; x++) {
+          int x0 = min(2 * x, sw - 1);
+          int x1 = min(2 * x + 1, sw - 1);
+          dest[y * dw + x] = average(src[y0 + x0], src[y0 + x1], src[y1 + x0], src[y1 + x1]);
+        }
+      }
+      return dest;
+    }
+
+    private static int average(int p, int q, int r, int s) {
+      int argb = 0;
+      for (int shift = 0; shift < 32; shift += 8) {
+        int sum = ((p >>> shift) & 0xFF) + ((q >>> shift) & 0xFF)
+            + ((r >>> shift) & 0xFF) + ((s >>> shift) & 0xFF);
+        argb |= ((sum + 2) / 4) << shift;
+      }
+      return argb;
+    }
+
+    private static int clamp(int i, int size) {
+      return min(size - 1, max(0, i));
+    }
   }
 }
@@ -1,17 +1,89 @@
 package com.bentonian.framework.texture;
 
-import com.bentonian.framework.ui.BufferedImageRGBCanvas;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
 
+import com.bentonian.framework.material.Material;
+import com.bentonian.framework.math.Vec3;
+
+/**
+ * A texture whose colors are computed, baked into an image for OpenGL when first bound.
+ * Bakes are memoized under {@link #getBakingKey()}.  After {@link #invalidate()}, the next
+ * bind starts a new bake in the background and the old image stays bound until it's done.
+ * After {@link #dispose()}, textures with a null key are baked afresh on the next bind, and
+ * the rest bind their image again.  The ray tracer samples the computed colors directly,
+ * never the baked image.
+ */
 public abstract class BufferedProceduralImageTexture extends BufferedImageTexture {
 
+  private CompletableFuture<BufferedImage> baking;
+  private boolean stale;
+
   @Override
   public void bind() {
-    if (textureId == 0) {
-      setBufferedImage(BufferedImageRGBCanvas.copyTextureToImage(
-          this, getBufferedImageWidth(), getBufferedImageHeight()));
+    if (bufferedImage == null) {
+      setBufferedImage(bake());
+    } else if ((baking != null) && baking.isDone()) {
+      setBufferedImage(baking.join());
+      baking = null;
+    } else if (stale && (baking == null)) {
+      stale = false;
+      Object key = getBakingKey();
+      TextureBaker.invalidate(key, getBufferedImageWidth(), getBufferedImageHeight());
+      baking = TextureBaker.bakeAsync(
+          key, this, getBufferedImageWidth(), getBufferedImageHeight());
     }
     super.bind();
   }
+
+  @Override
+  public Material getMaterial(IsTextured target, Vec3 pt, Material source, double footprint) {
+    Material material = new Material(source);
+    material.setColor(getColor(target, pt));
+    material.setTransparency(getTransparency(target, pt));
+    return material;
+  }
+
+  @Override
+  public double getTransparency(IsTextured target, Vec3 pt) {
+    return 0.0;
+  }
+
+  /**
+   * Releases the OpenGL texture.  Textures with a null baking key also drop their image and
+   * any bake in progress, since their colors may have changed, and bake again when next bound.
+   */
+  @Override
+  public void dispose() {
+    super.dispose();
+    if (getBakingKey() == null) {
+      bufferedImage = null;
+      baking = null;
+      stale = false;
+    }
+  }
+
+  /**
+   * Marks the baked image out of date, to be baked again when next bound.  The image cached
+   * under the texture's key is dropped when the new bake starts.
+   */
+  public void invalidate() {
+    stale = true;
+  }
+
+  protected BufferedImage bake() {
+    return TextureBaker.bake(
+        getBakingKey(), this, getBufferedImageWidth(), getBufferedImageHeight());
+  }
+
+  /**
+   * Returns the key under which baked images are memoized: an object equal to the key of any
+   * texture which would bake the same image.  By default, the texture itself, for textures
+   * whose parameters never change; null if every bake must be computed afresh.
+   */
+  protected Object getBakingKey() {
+    return this;
+  }
   
   protected int getBufferedImageWidth() {
     return 256;
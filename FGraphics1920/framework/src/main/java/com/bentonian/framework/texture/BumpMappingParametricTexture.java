@@ -72,10 +72,10 @@ public class BumpMappingParametricTexture extends ParametricTexture {
     
     private Vec3 noisyNormal(TexCoord tc) {
       final double NOISE_SCALE = 50;
-      double L = declamp(NOISE.get(new Vec3(tc.u - 0.001, 0, tc.v).times(NOISE_SCALE)));
-      double R = declamp(NOISE.get(new Vec3(tc.u + 0.001, 0, tc.v).times(NOISE_SCALE)));
-      double B = declamp(NOISE.get(new Vec3(tc.u, 0, tc.v - 0.001).times(NOISE_SCALE)));
-      double T = declamp(NOISE.get(new Vec3(tc.u, 0, tc.v + 0.001).times(NOISE_SCALE)));
+      double L = declamp(NOISE.get((tc.u - 0.001) * NOISE_SCALE, 0, tc.v * NOISE_SCALE));
+      double R = declamp(NOISE.get((tc.u + 0.001) * NOISE_SCALE, 0, tc.v * NOISE_SCALE));
+      double B = declamp(NOISE.get(tc.u * NOISE_SCALE, 0, (tc.v - 0.001) * NOISE_SCALE));
+      double T = declamp(NOISE.get(tc.u * NOISE_SCALE, 0, (tc.v + 0.001) * NOISE_SCALE));
       return new Vec3(0, T-B, 1).cross(new Vec3(1, R-L, 0)).normalized();
     }
     
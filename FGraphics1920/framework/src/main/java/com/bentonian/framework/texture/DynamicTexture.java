@@ -8,8 +8,10 @@ import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
 
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+
 import com.bentonian.framework.math.Vec3;
-import com.bentonian.framework.ui.BufferedImageRGBCanvas;
 import com.bentonian.framework.ui.GLCanvas;
 
 public abstract class DynamicTexture extends Texture {
@@ -17,17 +19,29 @@ public abstract class DynamicTexture extends Texture {
   public static final Texture SPIRAL = new DynamicTexture() {
 
     private long tick = 0;
-    private double t = 0;
+    private double t = 0;  // only advanced while no bake is running
+    private CompletableFuture<BufferedImage> baking;
 
+    /**
+     * Bakes the first frame in place, then each later frame in the background, showing the
+     * last frame baked until the next is ready.
+     */
     @Override
     public void bind() {
       super.bind();
+      if (baking == null) {
+        GLCanvas.updateTexture(textureId, TextureBaker.bake(this, 256, 256));
+      } else if (baking.isDone()) {
+        GLCanvas.updateTexture(textureId, baking.join());
+      } else {
+        return;
+      }
       long tock = System.currentTimeMillis();
       if (tick > 0) {
         t += (tock - tick) / 1000.0;
       }
       tick = tock;
-      GLCanvas.updateTexture(textureId, BufferedImageRGBCanvas.copyTextureToImage(this, 256, 256));
+      baking = TextureBaker.bakeAsync(null, this, 256, 256);
     }
 
     @Override
@@ -13,12 +13,11 @@ import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
 
 import com.bentonian.framework.math.Vec3;
-import com.bentonian.framework.ui.BufferedImageRGBCanvas;
 
 public class ParametricTexture extends BufferedProceduralImageTexture {
   
   public ParametricTexture() {
-    setBufferedImage(BufferedImageRGBCanvas.copyTextureToImage(this, 256, 256));
+    setBufferedImage(bake());
   }
 
   public static final Texture CHECKERBOARD = new ParametricTexture() {
@@ -1,46 +1,165 @@
 package com.bentonian.framework.texture;
 
+import static java.lang.Math.abs;
 import static java.lang.Math.floor;
-import static java.lang.Math.random;
 
-import java.util.Map;
+import java.util.Random;
 
 import com.bentonian.framework.math.Vec3;
-import com.google.common.collect.Maps;
 
+/**
+ * Perlin gradient noise.  Each grid point's gradient is one of 256 random unit vectors,
+ * chosen by hashing the point's coordinates through a shuffled permutation table.  Both
+ * tables are filled from the seed when the noise is built and never change afterwards, so
+ * the noise is the same on every run and may be read from any number of threads at once.
+ */
 public class PerlinNoise {
-  
-  private final Map<Vec3 /* grid point */, Vec3 /* direction */> cache = Maps.newHashMap();
-  
+
+  private static final int SIZE = 256;
+  private static final int MASK = SIZE - 1;
+  private static final long DEFAULT_SEED = 0;
+
+  // The permutation written out twice, so hashes of hashes need no wrapping
+  private final int[] permutation = new int[2 * SIZE];
+  private final double[] gradients = new double[3 * SIZE];
+
+  public PerlinNoise() {
+    this(DEFAULT_SEED);
+  }
+
+  public PerlinNoise(long seed) {
+    Random random = new Random(seed);
+
+    for (int i = 0; i < SIZE; i++) {
+      permutation[i] = i;
+    }
+    for (int i = SIZE - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      int swap = permutation[i];
+      permutation[i] = permutation[j];
+      permutation[j] = swap;
+    }
+    System.arraycopy(permutation, 0, permutation, SIZE, SIZE);
+
+    for (int i = 0; i < SIZE; i++) {
+      double x, y, z, lengthSquared;
+      do {
+        x = random.nextDouble() * 2 - 1;
+        y = random.nextDouble() * 2 - 1;
+        z = random.nextDouble() * 2 - 1;
+        lengthSquared = x * x + y * y + z * z;
+      } while (lengthSquared > 1 || lengthSquared < 1e-6);
+      double k = 1 / Math.sqrt(lengthSquared);
+      gradients[3 * i] = x * k;
+      gradients[3 * i + 1] = y * k;
+      gradients[3 * i + 2] = z * k;
+    }
+  }
+
   public double get(Vec3 pt /* point in space */) {
-    Vec3 base = new Vec3(floor(pt.getX()), floor(pt.getY()), floor(pt.getZ()));
-    double[][][] noise = new double[2][2][2];
-    double[][] interpolantEdge = new double[2][2];
-    double[] interpolantFace = new double[2];
-    for (int x = 0; x <= 1; x++) {
-      for (int y = 0; y <= 1; y++) {
-        for (int z = 0; z <= 1; z++) {
-          Vec3 gridPt = base.plus(new Vec3(x, y, z));
-          Vec3 direction = lookup(gridPt);
-          noise[x][y][z] = direction.dot(pt.minus(gridPt));
-        }
-        interpolantEdge[x][y] = easeInterpolate(noise[x][y][0], noise[x][y][1], pt.getZ() - base.getZ());
-      }
-      interpolantFace[x] = easeInterpolate(interpolantEdge[x][0], interpolantEdge[x][1], pt.getY() - base.getY());
+    return get(pt.getX(), pt.getY(), pt.getZ());
+  }
+
+  public double get(double x, double y, double z) {
+    double fx = floor(x);
+    double fy = floor(y);
+    double fz = floor(z);
+    int i = ((int) (long) fx) & MASK;
+    int j = ((int) (long) fy) & MASK;
+    int k = ((int) (long) fz) & MASK;
+    double dx = x - fx;
+    double dy = y - fy;
+    double dz = z - fz;
+
+    int a = permutation[i] + j;
+    int b = permutation[i + 1] + j;
+    int aa = permutation[a] + k;
+    int ab = permutation[a + 1] + k;
+    int ba = permutation[b] + k;
+    int bb = permutation[b + 1] + k;
+
+    double tx = ease(dx);
+    double ty = ease(dy);
+    double tz = ease(dz);
+    return lerp(
+        lerp(
+            lerp(corner(aa, dx, dy, dz), corner(aa + 1, dx, dy, dz - 1), tz),
+            lerp(corner(ab, dx, dy - 1, dz), corner(ab + 1, dx, dy - 1, dz - 1), tz),
+            ty),
+        lerp(
+            lerp(corner(ba, dx - 1, dy, dz), corner(ba + 1, dx - 1, dy, dz - 1), tz),
+            lerp(corner(bb, dx - 1, dy - 1, dz), corner(bb + 1, dx - 1, dy - 1, dz - 1), tz),
+            ty),
+        tx);
+  }
+
+  /**
+   * Fractional Brownian motion: the sum of octaves of noise, each at twice the frequency and
+   * half the amplitude of the last, starting from get(x, y, z).
+   */
+  public double fbm(double x, double y, double z, int octaves) {
+    double sum = 0;
+    double amplitude = 1;
+    for (int octave = 0; octave < octaves; octave++) {
+      sum += amplitude * get(x, y, z);
+      x *= 2;
+      y *= 2;
+      z *= 2;
+      amplitude *= 0.5;
     }
-    return easeInterpolate(interpolantFace[0], interpolantFace[1], pt.getX() - base.getX());
+    return sum;
   }
 
-  private double easeInterpolate(double r0, double r1, double t) {
-    return r0 + (3 * t * t - 2 * t * t * t) * (r1 - r0);
+  /**
+   * As {@link #fbm}, but summing the absolute value of each octave.
+   */
+  public double turbulence(double x, double y, double z, int octaves) {
+    double sum = 0;
+    double amplitude = 1;
+    for (int octave = 0; octave < octaves; octave++) {
+      sum += amplitude * abs(get(x, y, z));
+      x *= 2;
+      y *= 2;
+      z *= 2;
+      amplitude *= 0.5;
+    }
+    return sum;
   }
 
-  private Vec3 lookup(Vec3 gridPt) {
-    Vec3 direction = cache.get(gridPt);
-    if (direction == null) {
-      direction = new Vec3(random() * 2 - 1, random() * 2 - 1, random() * 2 - 1).normalized();
-      cache.put(gridPt, direction);
+  /**
+   * Fills out[v * width + u] with fbm() of the given octaves, one octave being plain noise,
+   * at origin + u * uStep + v * vStep, for each u in [0, width) and v in [0, height).
+   */
+  public void fill(double[] out, int width, int height, Vec3 origin, Vec3 uStep, Vec3 vStep,
+      int octaves) {
+    if (out.length < width * height) {
+      throw new IllegalArgumentException(
+          "Grid of " + width + "x" + height + " doesn't fit in " + out.length + " values");
+    }
+    for (int v = 0; v < height; v++) {
+      double x = origin.getX() + v * vStep.getX();
+      double y = origin.getY() + v * vStep.getY();
+      double z = origin.getZ() + v * vStep.getZ();
+      for (int u = 0; u < width; u++) {
+        out[v * width + u] = fbm(
+            x + u * uStep.getX(), y + u * uStep.getY(), z + u * uStep.getZ(), octaves);
+      }
     }
-    return direction;
   }
-}
\ No newline at end of file
+
+  ////////////////////////////////////////
+
+  // The dot product of a corner's gradient with the offset from that corner to the point
+  private double corner(int hash, double dx, double dy, double dz) {
+    int g = 3 * permutation[hash];
+    return gradients[g] * dx + gradients[g + 1] * dy + gradients[g + 2] * dz;
+  }
+
+  private static double ease(double t) {
+    return 3 * t * t - 2 * t * t * t;
+  }
+
+  private static double lerp(double r0, double r1, double t) {
+    return r0 + t * (r1 - r0);
+  }
+}
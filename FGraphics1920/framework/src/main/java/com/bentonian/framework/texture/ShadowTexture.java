@@ -3,7 +3,6 @@ package com.bentonian.framework.texture;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.math.MathConstants;
 import com.bentonian.framework.math.Ray;
-import com.bentonian.framework.math.RayIntersections;
 import com.bentonian.framework.raytrace.engine.RayTracerEngine;
 import com.bentonian.framework.scene.Primitive;
 
@@ -78,14 +77,23 @@ public class ShadowTexture extends BufferedProceduralImageTexture {
 
   boolean isShadowed(Vec3 ptInWorldCoords) {
     Ray ray = new Ray(ptInWorldCoords, shadowDirectionWorldCoords);
-    RayIntersections hits = RayTracerEngine.traceScene(shadowSource, ray);
-    return !hits.isEmpty();
+    return RayTracerEngine.isOccluded(shadowSource, ray, Double.POSITIVE_INFINITY);
   }
   
   Vec3 getInWorldCoords(Vec3 pt) {
     return shadowTarget.getLocalToParent().times(pt);
   }
 
+  /**
+   * Shadows depend on where the scene's objects are, so every bake is computed afresh.  After
+   * moving them, call {@link #dispose()} to re-bake on the next bind, or {@link #invalidate()}
+   * to re-bake in the background while the old shadows stay bound.
+   */
+  @Override
+  protected Object getBakingKey() {
+    return null;
+  }
+
   @Override
   protected int getBufferedImageWidth() {
     return (baseTexture instanceof BufferedImageTexture)
@@ -16,6 +16,14 @@ public class Texture {
   }
 
   public Material getMaterial(IsTextured target, Vec3 pt, Material source) {
+    return getMaterial(target, pt, source, 0);
+  }
+
+  /**
+   * As {@link #getMaterial(IsTextured, Vec3, Material)}, for a ray whose cross-section at pt
+   * is footprint units across, so textures may filter over the area the ray covers.
+   */
+  public Material getMaterial(IsTextured target, Vec3 pt, Material source, double footprint) {
     Material material = new Material(source);
     material.setColor(getColor(target, pt));
     material.setTransparency(getTransparency(target, pt));
@@ -0,0 +1,148 @@
+package com.bentonian.framework.texture;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.primitive.Square;
+import com.bentonian.framework.ui.BufferedImageRGBCanvas;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Bakes textures into images by sampling their colors across a unit Square, one block of
+ * rows per task on the common ForkJoinPool.  Each pixel writes only its own element of the
+ * raster, so textures need only be safe to read from several threads at once.
+ *
+ * Bakes may be memoized under a key which stands for everything the texture's colors depend
+ * on, such as the texture itself when its parameters never change; images are held softly,
+ * so the cache gives way under memory pressure.
+ */
+public final class TextureBaker {
+
+  private static final int ROWS_PER_TASK = 8;
+
+  private static final Cache<BakeKey, BufferedImage> BAKED =
+      CacheBuilder.newBuilder().softValues().build();
+
+  private TextureBaker() {
+  }
+
+  /**
+   * Bakes the texture at the given resolution, or returns the image already baked for the
+   * same key and resolution.  A null key bakes afresh every time.
+   */
+  public static BufferedImage bake(Object key, Texture texture, int width, int height) {
+    if (key == null) {
+      return bake(texture, width, height);
+    }
+    try {
+      return BAKED.get(new BakeKey(key, width, height), () -> bake(texture, width, height));
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to bake texture", e.getCause());
+    }
+  }
+
+  /**
+   * Forgets the image baked for the key at the given resolution, so that the next bake
+   * computes it afresh.  Does nothing for a null key.
+   */
+  public static void invalidate(Object key, int width, int height) {
+    if (key != null) {
+      BAKED.invalidate(new BakeKey(key, width, height));
+    }
+  }
+
+  /**
+   * As {@link #bake(Object, Texture, int, int)}, on the common ForkJoinPool.  The texture
+   * mustn't change until the future completes.
+   */
+  public static CompletableFuture<BufferedImage> bakeAsync(
+      Object key, Texture texture, int width, int height) {
+    return CompletableFuture.supplyAsync(
+        () -> bake(key, texture, width, height), ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Bakes the texture into a new image, without consulting the cache.
+   */
+  public static BufferedImageRGBCanvas bake(Texture texture, int width, int height) {
+    BufferedImageRGBCanvas image = new BufferedImageRGBCanvas(width, height);
+    int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Square canvas = new Square();
+    canvas.setTexture(texture);
+    ForkJoinPool.commonPool().invoke(new Rows(texture, canvas, raster, width, height, 0, height));
+    return image;
+  }
+
+  ////////////////////////////////////////
+
+  private static class Rows extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Texture texture;
+    private final Square canvas;
+    private final int[] raster;
+    private final int width, height;
+    private final int from, to;
+
+    Rows(Texture texture, Square canvas, int[] raster, int width, int height, int from, int to) {
+      this.texture = texture;
+      this.canvas = canvas;
+      this.raster = raster;
+      this.width = width;
+      this.height = height;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > ROWS_PER_TASK) {
+        int mid = (from + to) / 2;
+        invokeAll(new Rows(texture, canvas, raster, width, height, from, mid),
+            new Rows(texture, canvas, raster, width, height, mid, to));
+      } else {
+        for (int y = from; y < to; y++) {
+          int row = (height - 1 - y) * width;
+          for (int x = 0; x < width; x++) {
+            Vec3 coord = new Vec3(2.0 * x / width - 1, 2.0 * y / height - 1, 0);
+            raster[row + x] = texture.getColor(canvas, coord).asRGBA();
+          }
+        }
+      }
+    }
+  }
+
+  private static class BakeKey {
+
+    private final Object key;
+    private final int width, height;
+
+    BakeKey(Object key, int width, int height) {
+      this.key = key;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof BakeKey)) {
+        return false;
+      }
+      BakeKey other = (BakeKey) obj;
+      return key.equals(other.key) && width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(key, width, height);
+    }
+  }
+}
@@ -8,6 +8,8 @@ import com.bentonian.framework.math.Vec3;
 
 public class VolumetricTexture extends BufferedProceduralImageTexture {
 
+  private static final int OCTAVES = 5;
+
   public static final Texture WOOD = new VolumetricTexture() {
     private final Vec3 OLD_WOOD = new Vec3(72, 38, 11).times(1.0 / 255.0);
     private final Vec3 NEW_WOOD = new Vec3(175, 88, 45).times(1.0 / 255.0);
@@ -19,7 +21,8 @@ public class VolumetricTexture extends BufferedProceduralImageTexture {
     @Override
     public Vec3 getColor(IsTextured target, Vec3 pt) {
       double f = TEXTURE_FREQUENCY * (pt.getX() * pt.getX() + pt.getZ() * pt.getZ() - abs(pt.getY() + 5) / 5);
-      double n = NOISE_AMPLITUDE * NOISE.get(pt.times(NOISE_FREQUENCY));
+      double n = NOISE_AMPLITUDE * NOISE.get(
+          pt.getX() * NOISE_FREQUENCY, pt.getY() * NOISE_FREQUENCY, pt.getZ() * NOISE_FREQUENCY);
       f = f + n;
       f = f - Math.floor(f);
       f = Math.pow(f, 0.5);
@@ -36,12 +39,9 @@ public class VolumetricTexture extends BufferedProceduralImageTexture {
 
     @Override
     public Vec3 getColor(IsTextured target, Vec3 pt) {
-      double n = NOISE_AMPLITUDE * (
-          NOISE.get(pt.times(NOISE_FREQUENCY))
-          + 0.5 * NOISE.get(pt.times(NOISE_FREQUENCY).times(2))
-          + 0.25 * NOISE.get(pt.times(NOISE_FREQUENCY).times(4))
-          + 0.125 * NOISE.get(pt.times(NOISE_FREQUENCY).times(8))
-          + 0.0625 * NOISE.get(pt.times(NOISE_FREQUENCY).times(16)));
+      double n = NOISE_AMPLITUDE * NOISE.fbm(
+          pt.getX() * NOISE_FREQUENCY, pt.getY() * NOISE_FREQUENCY, pt.getZ() * NOISE_FREQUENCY,
+          OCTAVES);
       n = min(max(n, 0), 1);
       return DARK.plus(LIGHT.minus(DARK).times(n));
     }
@@ -56,12 +56,8 @@ public class VolumetricTexture extends BufferedProceduralImageTexture {
 
     @Override
     public Vec3 getColor(IsTextured target, Vec3 pt) {
-      double n = NOISE_AMPLITUDE * (
-          NOISE.get(pt.times(NOISE_FREQUENCY))
-          + 0.5 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(2)))
-          + 0.25 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(4)))
-          + 0.125 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(8)))
-          + 0.0625 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(16))));
+      double n = NOISE_AMPLITUDE * turbulentNoise(NOISE,
+          pt.getX() * NOISE_FREQUENCY, pt.getY() * NOISE_FREQUENCY, pt.getZ() * NOISE_FREQUENCY);
       n = min(max(n, 0), 1);
       return DARK.plus(LIGHT.minus(DARK).times(n));
     }
@@ -78,14 +74,20 @@ public class VolumetricTexture extends BufferedProceduralImageTexture {
     @Override
     public Vec3 getColor(IsTextured target, Vec3 pt) {
       double f = Math.atan2(pt.getX(), pt.getZ()) * TEXTURE_FREQUENCY;
-      double n = NOISE_AMPLITUDE * (
-          NOISE.get(pt.times(NOISE_FREQUENCY))
-          + 0.5 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(2)))
-          + 0.25 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(4)))
-          + 0.125 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(8)))
-          + 0.0625 * abs(NOISE.get(pt.times(NOISE_FREQUENCY).times(16))));
+      double n = NOISE_AMPLITUDE * turbulentNoise(NOISE,
+          pt.getX() * NOISE_FREQUENCY, pt.getY() * NOISE_FREQUENCY, pt.getZ() * NOISE_FREQUENCY);
       f = Math.sin(f + n);
       return DARK.plus(LIGHT.minus(DARK).times(f));
     }
   };
+
+  ////////////////////////////////////////
+
+  /**
+   * Noise whose first octave keeps its sign while the finer octaves are folded, as
+   * turbulence, so the large-scale pattern still varies smoothly.
+   */
+  private static double turbulentNoise(PerlinNoise noise, double x, double y, double z) {
+    return noise.get(x, y, z) + 0.5 * noise.turbulence(2 * x, 2 * y, 2 * z, OCTAVES - 1);
+  }
 }
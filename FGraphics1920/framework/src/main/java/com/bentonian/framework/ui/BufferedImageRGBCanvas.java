@@ -6,7 +6,6 @@ import static java.lang.Math.min;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -16,9 +15,14 @@ import javax.imageio.ImageIO;
 import org.lwjgl.opengl.GL11;
 
 import com.bentonian.framework.math.Vec3;
-import com.bentonian.framework.mesh.primitive.Square;
 import com.bentonian.framework.texture.Texture;
+import com.bentonian.framework.texture.TextureBaker;
 
+/**
+ * RGBCanvas over an ARGB BufferedImage.  Single-pixel writes touch only their own element of
+ * the backing raster, so concurrent {@link #putPixel} calls on distinct pixels are safe;
+ * operations which go through the shared Graphics2D are serialized.
+ */
 public class BufferedImageRGBCanvas extends BufferedImage implements RGBCanvas {
 
   Graphics2D imageAccessor;
@@ -84,20 +88,7 @@ public class BufferedImageRGBCanvas extends BufferedImage implements RGBCanvas {
    * Sample the pixels of the given Texture into a BufferedImage.
    */
   public static BufferedImageRGBCanvas copyTextureToImage(Texture texture, int width, int height) {
-    Vec3 LL = new Vec3(-1, -1, 0);
-    Square canvas = new Square();
-    canvas.setTexture(texture);
-    BufferedImageRGBCanvas image = new BufferedImageRGBCanvas(width, height);
-    int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < width; y++) {
-        Vec3 coord = LL.plus(new Vec3(2.0 * x / width, 2.0 * y / height, 0));
-        Vec3 color = texture.getColor(canvas, coord);
-        raster[x + (height - 1 - y) * width] = color.asRGBA();
-      }
-    }
-    return image;
+    return TextureBaker.bake(texture, width, height);
   }
 
   @Override
@@ -106,12 +97,12 @@ public class BufferedImageRGBCanvas extends BufferedImage implements RGBCanvas {
   }
 
   @Override
-  public void fill(double x, double y, double dx, double dy, Vec3 color) {
+  public synchronized void fill(double x, double y, double dx, double dy, Vec3 color) {
     imageAccessor.setColor(rgb2Color(color));
     imageAccessor.fillRect((int) x, (int) y, (int) dx, (int) dy);
   }
 
-  public void clear() {
+  public synchronized void clear() {
     imageAccessor.setColor(new Color(1, 1, 1));
     imageAccessor.fillRect(0, 0, getWidth(), getHeight());
   }
@@ -72,16 +72,16 @@ public class DemoApp extends GLFWCanvas {
           setCameraDistance(getCameraDistance() - 8 * step);
           break;
         case GLFW.GLFW_KEY_LEFT:
-          getCamera().rotate(getCamera().getLocalToParent().extract3x3().times(Y_AXIS), -step);
+          getCamera().rotate(getCamera().getLocalToParent().transformDirection(Y_AXIS), -step);
           break;
         case GLFW.GLFW_KEY_RIGHT:
-          getCamera().rotate(getCamera().getLocalToParent().extract3x3().times(Y_AXIS), step);
+          getCamera().rotate(getCamera().getLocalToParent().transformDirection(Y_AXIS), step);
           break;
         case GLFW.GLFW_KEY_UP:
-          getCamera().rotate(getCamera().getLocalToParent().extract3x3().times(X_AXIS), -step);
+          getCamera().rotate(getCamera().getLocalToParent().transformDirection(X_AXIS), -step);
           break;
         case GLFW.GLFW_KEY_DOWN:
-          getCamera().rotate(getCamera().getLocalToParent().extract3x3().times(X_AXIS), step);
+          getCamera().rotate(getCamera().getLocalToParent().transformDirection(X_AXIS), step);
           break;
         }
       }
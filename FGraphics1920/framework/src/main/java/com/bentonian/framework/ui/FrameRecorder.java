@@ -0,0 +1,78 @@
+package com.bentonian.framework.ui;
+
+import java.io.IOException;
+
+import com.bentonian.framework.io.FileUtil;
+import com.bentonian.framework.io.FrameSink;
+
+/**
+ * Records the OpenGL window to an animated GIF, one frame per call to
+ * {@link #captureFrame(int, int)}, for demos which start and stop recording on a key press.
+ * Recording stops by itself after a fixed number of frames, or if a frame can't be written.
+ */
+public class FrameRecorder {
+
+  private final int maxFrames;
+
+  private FrameSink sink;
+  private int numFramesRecorded;
+
+  public FrameRecorder(int maxFrames) {
+    this.maxFrames = maxFrames;
+  }
+
+  public boolean isRecording() {
+    return sink != null;
+  }
+
+  public int getNumFramesRecorded() {
+    return numFramesRecorded;
+  }
+
+  /**
+   * Starts recording to filename, to which ".gif" is appended.
+   */
+  public void start(String filename) {
+    if (isRecording()) {
+      stop();
+    }
+    try {
+      sink = FileUtil.openGif(filename);
+      numFramesRecorded = 0;
+      System.out.println("Recording started");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  public void stop() {
+    if (isRecording()) {
+      try {
+        sink.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      sink = null;
+      System.out.println("Recording stopped");
+    }
+  }
+
+  /**
+   * Appends the current contents of the OpenGL window to the recording, if there is one.
+   */
+  public void captureFrame(int width, int height) {
+    if (isRecording()) {
+      try {
+        sink.addFrame(
+            BufferedImageRGBCanvas.copyOpenGlContextToImage(width, height, width, height));
+        numFramesRecorded++;
+      } catch (IOException e) {
+        e.printStackTrace();
+        stop();
+      }
+      if (numFramesRecorded >= maxFrames) {
+        stop();
+      }
+    }
+  }
+}
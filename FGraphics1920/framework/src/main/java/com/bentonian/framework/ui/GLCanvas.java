@@ -86,6 +86,24 @@ public class GLCanvas {
     return projection.peek();
   }
 
+  /**
+   * Returns the height on screen, as a fraction of the viewport's height, of a sphere with the
+   * given center and radius in the current model coordinates, or infinity if the sphere
+   * reaches the camera.
+   */
+  public double getProjectedSize(Vec3 center, double radius) {
+    M4x4 modelToWorld = peek();
+    Camera cameraForModelView = getCameraForModelview();
+    double scale = Math.max(modelToWorld.getCol(0).length(),
+        Math.max(modelToWorld.getCol(1).length(), modelToWorld.getCol(2).length()));
+    double depth = modelToWorld.times(center).minus(cameraForModelView.getPosition())
+        .dot(cameraForModelView.getDirection());
+    if (depth <= radius * scale) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return radius * scale * projection.peek().getData()[1][1] / depth;
+  }
+
   public void pushLineOffset() {
     projection.pushReversed(M4x4.translationMatrix(new Vec3(0, 0, -0.00001)));
     updateProjectionMatrix();
@@ -196,9 +214,8 @@ public class GLCanvas {
 
     updateUniformM4x4("modelToWorld", modelToWorld);
     updateUniformM4x4("modelToCamera", modelToCamera);
-    updateUniformM3x3("normalToWorld", modelToWorld.extract3x3().inverted().transposed());
-    updateUniformM3x3("normalToCamera", modelToCamera.times(modelToWorld).extract3x3().inverted()
-        .transposed());
+    updateUniformM3x3("normalToWorld", modelToWorld.normalMatrix());
+    updateUniformM3x3("normalToCamera", modelToCamera.times(modelToWorld).normalMatrix());
     updateUniformM4x4("modelToScreen", projection.peek().times(modelToCamera));
     updateUniformVec3("eyePosition", cameraForModelView.getPosition());
     updateUniformVec3("lightPosition", getLightPosition());
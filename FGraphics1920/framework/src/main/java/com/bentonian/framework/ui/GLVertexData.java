@@ -1,11 +1,8 @@
 package com.bentonian.framework.ui;
 
-import static com.bentonian.framework.ui.VertexReader.COLOR_READER;
-import static com.bentonian.framework.ui.VertexReader.NORMAL_READER;
-import static com.bentonian.framework.ui.VertexReader.POSITION_READER;
-import static com.bentonian.framework.ui.VertexReader.TEXTURE_COORDS_READER;
-
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 import java.util.List;
 
 import org.lwjgl.BufferUtils;
@@ -18,13 +15,22 @@ import com.bentonian.framework.math.MathConstants;
 import com.bentonian.framework.math.Vec3;
 import com.bentonian.framework.texture.TexCoord;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 /**
  * This class emulates the original OpenGL 1.1-style immediate mode graphics,
  * simplifying cache management and texture attachment to 'compile' instances of
  * geometry into vertex array objects.
+ *
+ * Vertices are kept in a table and primitives are lists of indices into it, compiled to one
+ * interleaved vertex buffer and an element buffer.  {@link #vertex(Vec3)} adds a vertex and
+ * uses it at once; {@link #addVertex(Vec3)} and {@link #element(int)} let primitives share
+ * vertices, so a closed mesh uploads each vertex once.  Quads and the outlines of triangles
+ * and quads repeat indices, not vertices.
+ *
+ * {@link #dispose()} frees the GL buffers.  Geometry which changes every frame should call
+ * {@link #invalidate()} instead, which keeps them; the next compile orphans and refills them
+ * as streaming buffers rather than allocating new ones.
  */
 public class GLVertexData {
 
@@ -32,15 +38,23 @@ public class GLVertexData {
     NONE, POINTS, TRIANGLES, QUADS, LINE_SEGMENTS, LINE_TRIANGLES, LINE_QUADS,
   }
 
+  // Position, normal and color, then texture coordinates if there are any
+  private static final int FLOATS_PER_VERTEX = 9;
+  private static final int FLOATS_PER_TEXTURE_COORD = 2;
+
   private final Mode glMode;
 
   private int vPosition, vNormal, vColor, vTexCoord, enableTexturing, texture;
   private int vertexArrayId;
-  private int positionVertexBufferId, normalVertexBufferId, colorVertexBufferId,
-      texCoordsVertexBufferId;
+  private int vertexBufferId, elementBufferId;
   private boolean isCompiled;
+  private boolean isStreaming;
+  private FloatBuffer vertexData;
+  private IntBuffer elementData;
 
   private List<Vertex> vertices;
+  private int[] elements;
+  private int numElements;
   private Vec3 normal;
   private Vec3 color;
   private boolean hasTexture;
@@ -51,6 +65,8 @@ public class GLVertexData {
   public GLVertexData(Mode glMode) {
     this.glMode = glMode;
     this.vertices = Lists.newArrayList();
+    this.elements = new int[64];
+    this.numElements = 0;
     this.normal = MathConstants.ORIGIN;
     this.color = new Vec3(1, 1, 1);
     this.hasTexture = false;
@@ -91,48 +107,73 @@ public class GLVertexData {
     return hasTexture;
   }
   
+  /**
+   * Returns the vertex table; each vertex appears once however many primitives use it.
+   */
   public List<Vertex> getVertices() {
     return vertices;
   }
 
   /**
-   * This implementation is NOT OPTIMAL: quads are converted into pairs of
-   * triangles instead of triangle strips, and triangle and line strips are
-   * unsupported.
+   * Adds a vertex with the current normal, color and texture coordinates, and uses it as the
+   * next corner of the current primitive.  The returned vertex may be changed until the data
+   * is next compiled.  Triangle and line strips are unsupported.
    */
   public Vertex vertex(Vec3 point) {
+    int index = addVertex(point);
+    element(index);
+    return vertices.get(index);
+  }
+
+  /**
+   * Adds a vertex with the current normal, color and texture coordinates to the table,
+   * without using it, and returns its index for {@link #element(int)}.
+   */
+  public int addVertex(Vec3 point) {
     Preconditions.checkState(!isCompiled);
     Vertex v = new Vertex(point);
     v.setNormal(normal);
     v.setColor(color);
     v.setTextureCoords(textureCoordinates);
     vertices.add(v);
+    return vertices.size() - 1;
+  }
+
+  /**
+   * Uses the vertex at the given index in the table as the next corner of the current
+   * primitive.
+   */
+  public GLVertexData element(int index) {
+    Preconditions.checkState(!isCompiled);
+    Preconditions.checkElementIndex(index, vertices.size());
+    addElement(index);
     switch (glMode) {
     case QUADS:
-      if (vertices.size() % 6 == 4) {
-        vertices.add(new Vertex(vertices.get(vertices.size() - 4)));
-        vertices.add(new Vertex(vertices.get(vertices.size() - 3)));
+      if (numElements % 6 == 4) {
+        addElement(elements[numElements - 4]);
+        addElement(elements[numElements - 3]);
       }
       break;
     case LINE_TRIANGLES:
-      if (vertices.size() % 6 == 2) {
-        vertices.add(new Vertex(vertices.get(vertices.size() - 1)));
-      } else if (vertices.size() % 6 == 4) {
-        vertices.add(new Vertex(vertices.get(vertices.size() - 1)));
-        vertices.add(new Vertex(vertices.get(vertices.size() - 5)));
+      if (numElements % 6 == 2) {
+        addElement(elements[numElements - 1]);
+      } else if (numElements % 6 == 4) {
+        addElement(elements[numElements - 1]);
+        addElement(elements[numElements - 5]);
       }
       break;
     case LINE_QUADS:
-      if ((vertices.size() % 8 == 2) || (vertices.size() % 8 == 4)) {
-        vertices.add(new Vertex(vertices.get(vertices.size() - 1)));
-      } else if (vertices.size() % 8 == 6) {
-        vertices.add(new Vertex(vertices.get(vertices.size() - 1)));
-        vertices.add(new Vertex(vertices.get(vertices.size() - 7)));
+      if ((numElements % 8 == 2) || (numElements % 8 == 4)) {
+        addElement(elements[numElements - 1]);
+      } else if (numElements % 8 == 6) {
+        addElement(elements[numElements - 1]);
+        addElement(elements[numElements - 7]);
       }
+      break;
     default:
       break;
     }
-    return v;
+    return this;
   }
 
   public GLVertexData normal(Vec3 normal) {
@@ -175,7 +216,7 @@ public class GLVertexData {
     }
 
     GL30.glBindVertexArray(vertexArrayId);
-    GL11.glDrawArrays(getGlMode(), 0, vertices.size());
+    GL11.glDrawElements(getGlMode(), numElements, GL11.GL_UNSIGNED_INT, 0);
     GL30.glBindVertexArray(0);
 
     if (needLineOffset()) {
@@ -188,13 +229,29 @@ public class GLVertexData {
     return this;
   }
 
-  public void dispose() {
+  /**
+   * Discards the geometry so it can be specified again, keeping the GL buffers to be refilled
+   * when it's next compiled.
+   */
+  public void invalidate() {
     if (isCompiled()) {
-      GL15.glDeleteBuffers(positionVertexBufferId);
-      GL15.glDeleteBuffers(normalVertexBufferId);
-      GL15.glDeleteBuffers(colorVertexBufferId);
-      GL15.glDeleteBuffers(texCoordsVertexBufferId);
+      onDispose();
+      isCompiled = false;
+      isStreaming = true;
+    }
+  }
+
+  public void dispose() {
+    if (vertexArrayId != 0) {
+      GL15.glDeleteBuffers(vertexBufferId);
+      GL15.glDeleteBuffers(elementBufferId);
       GL30.glDeleteVertexArrays(vertexArrayId);
+      vertexArrayId = 0;
+      vertexData = null;
+      elementData = null;
+      isStreaming = false;
+    }
+    if (isCompiled()) {
       onDispose();
       isCompiled = false;
     }
@@ -204,6 +261,14 @@ public class GLVertexData {
 
   protected void onDispose() {
     vertices.clear();
+    numElements = 0;
+  }
+
+  private void addElement(int index) {
+    if (numElements == elements.length) {
+      elements = Arrays.copyOf(elements, 2 * elements.length);
+    }
+    elements[numElements++] = index;
   }
   
   private void compile(GLCanvas glCanvas) {
@@ -217,47 +282,94 @@ public class GLVertexData {
     enableTexturing = GL20.glGetUniformLocation(program, "enableTexturing");
     texture = GL20.glGetUniformLocation(program, "texture");
 
-    // Create and bind a Vertex Array Object
-    vertexArrayId = GL30.glGenVertexArrays();
+    // Create a Vertex Array Object and its buffers, unless invalidate() kept them
+    if (vertexArrayId == 0) {
+      vertexArrayId = GL30.glGenVertexArrays();
+      vertexBufferId = GL15.glGenBuffers();
+      elementBufferId = GL15.glGenBuffers();
+    }
     GL30.glBindVertexArray(vertexArrayId);
 
-    // Add vertex buffer objects to the VAO
-    positionVertexBufferId = GL15.glGenBuffers();
-    normalVertexBufferId = GL15.glGenBuffers();
-    colorVertexBufferId = GL15.glGenBuffers();
-    texCoordsVertexBufferId = GL15.glGenBuffers();
-    copyDataToAttribute(vertices, vPosition, positionVertexBufferId, POSITION_READER);
-    copyDataToAttribute(vertices, vNormal, normalVertexBufferId, NORMAL_READER);
-    copyDataToAttribute(vertices, vColor, colorVertexBufferId, COLOR_READER);
-    if (hasTexture) {
-      copyDataToAttribute(vertices, vTexCoord, texCoordsVertexBufferId, TEXTURE_COORDS_READER);
-    }
+    int stride = FLOATS_PER_VERTEX + (hasTexture ? FLOATS_PER_TEXTURE_COORD : 0);
+    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, vertexBufferId);
+    upload(GL15.GL_ARRAY_BUFFER, packVertices(stride));
+    setAttribute(vPosition, 3, stride, 0);
+    setAttribute(vNormal, 3, stride, 3);
+    setAttribute(vColor, 3, stride, 6);
+    setAttribute(vTexCoord, hasTexture ? FLOATS_PER_TEXTURE_COORD : 0, stride, 9);
+    GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+
+    // The element buffer binding is part of the VAO's state, so stays bound
+    GL15.glBindBuffer(GL15.GL_ELEMENT_ARRAY_BUFFER, elementBufferId);
+    upload(GL15.GL_ELEMENT_ARRAY_BUFFER, packElements());
 
     GL30.glBindVertexArray(0);
-    for (int attribId : new int[] { vPosition, vNormal, vColor, vTexCoord }) {
-      if (attribId != -1) {
-        GL20.glDisableVertexAttribArray(attribId);
+    isCompiled = true;
+  }
+
+  private FloatBuffer packVertices(int stride) {
+    int size = Math.max(1, vertices.size() * stride);
+    if (vertexData == null || vertexData.capacity() < size) {
+      vertexData = BufferUtils.createFloatBuffer(size);
+    }
+    vertexData.clear();
+    for (Vertex v : vertices) {
+      Vec3 n = v.getNormal();
+      Vec3 c = v.getColor();
+      vertexData
+          .put((float) v.getX()).put((float) v.getY()).put((float) v.getZ())
+          .put((float) n.getX()).put((float) n.getY()).put((float) n.getZ())
+          .put((float) c.getX()).put((float) c.getY()).put((float) c.getZ());
+      if (hasTexture) {
+        TexCoord tc = v.getTexCoords();
+        vertexData.put((tc == null) ? 0 : (float) tc.u).put((tc == null) ? 0 : (float) tc.v);
       }
     }
-    isCompiled = true;
+    vertexData.flip();
+    return vertexData;
   }
 
-  private void copyDataToAttribute(List<Vertex> vertices, int attributeId, int bufferId,
-      VertexReader reader) {
-    if (attributeId != -1 && !vertices.isEmpty()) {
-      int numFloats = reader.asFloats(Iterables.getLast(vertices)).length;
-      FloatBuffer data = BufferUtils.createFloatBuffer(vertices.size() * numFloats);
+  private IntBuffer packElements() {
+    int size = Math.max(1, numElements);
+    if (elementData == null || elementData.capacity() < size) {
+      elementData = BufferUtils.createIntBuffer(size);
+    }
+    elementData.clear();
+    elementData.put(elements, 0, numElements).flip();
+    return elementData;
+  }
 
-      for (Vertex v : vertices) {
-        data.put(reader.asFloats(v));
-      }
-      data.flip();
+  /**
+   * Fills the buffer bound to target.  Once streaming, the old contents are orphaned first,
+   * so the driver can hand back fresh storage instead of waiting for draws still using them.
+   */
+  private void upload(int target, FloatBuffer data) {
+    if (isStreaming) {
+      GL15.glBufferData(target, 4L * data.remaining(), GL15.GL_STREAM_DRAW);
+      GL15.glBufferSubData(target, 0, data);
+    } else {
+      GL15.glBufferData(target, data, GL15.GL_STATIC_DRAW);
+    }
+  }
+
+  private void upload(int target, IntBuffer data) {
+    if (isStreaming) {
+      GL15.glBufferData(target, 4L * data.remaining(), GL15.GL_STREAM_DRAW);
+      GL15.glBufferSubData(target, 0, data);
+    } else {
+      GL15.glBufferData(target, data, GL15.GL_STATIC_DRAW);
+    }
+  }
 
-      GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, bufferId);
-      GL15.glBufferData(GL15.GL_ARRAY_BUFFER, data, GL15.GL_STATIC_DRAW);
-      GL20.glEnableVertexAttribArray(attributeId);
-      GL20.glVertexAttribPointer(attributeId, numFloats, GL11.GL_FLOAT, false, 0, 0);
-      GL15.glBindBuffer(GL15.GL_ARRAY_BUFFER, 0);
+  private static void setAttribute(int attributeId, int size, int stride, int offset) {
+    if (attributeId != -1) {
+      if (size > 0) {
+        GL20.glEnableVertexAttribArray(attributeId);
+        GL20.glVertexAttribPointer(attributeId, size, GL11.GL_FLOAT, false, 4 * stride,
+            4L * offset);
+      } else {
+        GL20.glDisableVertexAttribArray(attributeId);
+      }
     }
   }
 
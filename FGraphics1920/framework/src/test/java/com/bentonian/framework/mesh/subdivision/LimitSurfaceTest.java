@@ -0,0 +1,208 @@
+package com.bentonian.framework.mesh.subdivision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.bentonian.framework.math.Vec3;
+import com.bentonian.framework.mesh.HalfEdgeMesh;
+import com.bentonian.framework.mesh.IndexedMesh;
+
+/**
+ * Checks the limit surface evaluators against repeated subdivision, on bumpy tori whose
+ * control meshes are regular grids: every vertex has valence 4 in the quad grid and valence 6
+ * in the triangle grid.  Subdivision keeps a control vertex's index, so the vertex can be
+ * followed down the levels towards its limit point.  Also checks that tessellations have no
+ * cracks, on open meshes and on vertices where two fans of faces meet.
+ */
+public class LimitSurfaceTest {
+
+  private static final int LEVELS = 5;
+  private static final double TOLERANCE = 0.01;
+
+  @Test
+  public void catmullClarkLimitPointsMatchRepeatedSubdivision() {
+    checkLimitPoints(new CatmullClark(), torus(8, 6, false));
+  }
+
+  @Test
+  public void loopLimitPointsMatchRepeatedSubdivision() {
+    checkLimitPoints(new Loop(), torus(8, 6, true));
+  }
+
+  @Test
+  public void onlyLoopAndCatmullClarkHaveLimitSurfaces() {
+    assertTrue(new Loop().hasLimitSurface());
+    assertTrue(new CatmullClark().hasLimitSurface());
+    assertFalse(new DooSabin().hasLimitSurface());
+  }
+
+  /**
+   * Two cubes touching at a corner, whose corners at the origin are separate vertices until
+   * HalfEdgeMesh.fromMesh() merges them by position, as happens to a vertex of cow.off.  Each
+   * cube must get a corner of its own, with the limit point of a cube on its own.
+   */
+  @Test
+  public void cubesMeetingAtACornerEachKeepTheirOwnCorner() {
+    IndexedMesh cubes = new IndexedMesh();
+    addCube(cubes, 0);
+    addCube(cubes, -1);
+    assertEquals(15, IndexedMesh.fromMesh(cubes.toMesh()).getNumVertices());
+    HalfEdgeMesh mesh = HalfEdgeMesh.fromMesh(cubes.toMesh());
+    assertEquals(16, mesh.getNumVertices());
+    for (int v = 0; v < mesh.getNumVertices(); v++) {
+      assertEquals(3, mesh.getValence(v));
+    }
+
+    IndexedMesh cube = new IndexedMesh();
+    addCube(cube, 0);
+    for (SubdivisionFunction fn : new SubdivisionFunction[] { new Loop(), new CatmullClark() }) {
+      LimitSurface single = fn.getLimitSurface(new HalfEdgeMesh(cube));
+      Vec3 nearCorner = single.getLimitPosition(0);
+      Vec3 farCorner = single.getLimitPosition(7).minus(new Vec3(1, 1, 1));
+      LimitSurface pair = fn.getLimitSurface(mesh);
+      int found = 0;
+      for (int v = 0; v < mesh.getNumVertices(); v++) {
+        if (mesh.getPosition(v).length() == 0) {
+          Vec3 limit = pair.getLimitPosition(v);
+          assertEquals(0, Math.min(limit.minus(nearCorner).length(),
+              limit.minus(farCorner).length()), 1e-9);
+          found++;
+        }
+      }
+      assertEquals(2, found);
+      assertEquals(0, countOpenHalfEdges(HalfEdgeMesh.fromMesh(pair.tessellate(TOLERANCE))));
+    }
+  }
+
+  /**
+   * An open tube's limit surface may only be open along the limits of its two end rings.
+   */
+  @Test
+  public void openMeshesAreOpenOnlyAlongTheirBoundaries() {
+    for (boolean triangles : new boolean[] { false, true }) {
+      SubdivisionFunction fn = triangles ? new Loop() : new CatmullClark();
+      HalfEdgeMesh surface =
+          HalfEdgeMesh.fromMesh(fn.getLimitSurface(tube(8, 6, triangles)).tessellate(TOLERANCE));
+      int open = 0;
+      for (int h = 0; h < surface.getNumHalfEdges(); h++) {
+        if (surface.isBoundaryEdge(h)) {
+          double z = surface.getZ(surface.getOrigin(h));
+          assertTrue(z < 0.25 || z > 4.75);
+          open++;
+        }
+      }
+      assertTrue(open > 0);
+    }
+  }
+
+  ////////////////////////////////////////
+
+  /**
+   * Subdividing doesn't change the limit surface, so every level must evaluate to the same
+   * limit points, and the control vertices must close in on them; on a regular grid the
+   * distance falls by a factor of four per level.
+   */
+  private static void checkLimitPoints(SubdivisionFunction fn, HalfEdgeMesh mesh) {
+    LimitSurface limit = fn.getLimitSurface(mesh);
+    assertEquals(0, countOpenHalfEdges(HalfEdgeMesh.fromMesh(limit.tessellate(TOLERANCE))));
+    HalfEdgeMesh level = mesh;
+    for (int i = 1; i <= LEVELS; i++) {
+      level = fn.apply(level);
+      LimitSurface levelLimit = fn.getLimitSurface(level);
+      for (int v = 0; v < mesh.getNumVertices(); v++) {
+        assertEquals(0,
+            levelLimit.getLimitPosition(v).minus(limit.getLimitPosition(v)).length(), 1e-9);
+      }
+    }
+    for (int v = 0; v < mesh.getNumVertices(); v++) {
+      assertEquals(0, level.getPosition(v).minus(limit.getLimitPosition(v)).length(), 1e-3);
+    }
+  }
+
+  private static int countOpenHalfEdges(HalfEdgeMesh mesh) {
+    int count = 0;
+    for (int h = 0; h < mesh.getNumHalfEdges(); h++) {
+      if (mesh.isBoundaryEdge(h)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns an n by m grid wrapped round a torus whose tube radius ripples, so that the limit
+   * points aren't all at the same distance from the control points.  Triangle grids split
+   * every quad along the same diagonal.
+   */
+  private static HalfEdgeMesh torus(int n, int m, boolean triangles) {
+    IndexedMesh mesh = new IndexedMesh();
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < m; j++) {
+        double theta = 2 * Math.PI * i / n;
+        double phi = 2 * Math.PI * j / m;
+        double r = 1 + 0.1 * Math.sin(3 * theta + 2 * phi);
+        double d = 3 + r * Math.cos(phi);
+        mesh.addVertex(d * Math.cos(theta), d * Math.sin(theta), r * Math.sin(phi));
+      }
+    }
+    addGridFaces(mesh, n, m, true, triangles);
+    return new HalfEdgeMesh(mesh);
+  }
+
+  /**
+   * Returns an open tube of n by m vertices, running from z = 0 to z = m - 1.
+   */
+  private static HalfEdgeMesh tube(int n, int m, boolean triangles) {
+    IndexedMesh mesh = new IndexedMesh();
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < m; j++) {
+        double theta = 2 * Math.PI * i / n;
+        double r = 1 + 0.1 * Math.sin(3 * theta + j);
+        mesh.addVertex(r * Math.cos(theta), r * Math.sin(theta), j);
+      }
+    }
+    addGridFaces(mesh, n, m, false, triangles);
+    return new HalfEdgeMesh(mesh);
+  }
+
+  /**
+   * Adds the faces of an n by m grid of vertices numbered i * m + j, wrapping round in i and,
+   * if wrapJ, in j.
+   */
+  private static void addGridFaces(IndexedMesh mesh, int n, int m, boolean wrapJ,
+      boolean triangles) {
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < (wrapJ ? m : m - 1); j++) {
+        int a = i * m + j;
+        int b = ((i + 1) % n) * m + j;
+        int c = ((i + 1) % n) * m + (j + 1) % m;
+        int d = i * m + (j + 1) % m;
+        if (triangles) {
+          mesh.addFace(a, b, c);
+          mesh.addFace(a, c, d);
+        } else {
+          mesh.addFace(a, b, c, d);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the unit cube with its lowest corner at (min, min, min), faces outward.
+   */
+  private static void addCube(IndexedMesh mesh, double min) {
+    int base = mesh.getNumVertices();
+    for (int v = 0; v < 8; v++) {
+      mesh.addVertex(min + (v & 1), min + ((v >> 1) & 1), min + ((v >> 2) & 1));
+    }
+    int[][] faces = {
+        { 0, 2, 3, 1 }, { 4, 5, 7, 6 }, { 0, 1, 5, 4 },
+        { 2, 6, 7, 3 }, { 0, 4, 6, 2 }, { 1, 3, 7, 5 } };
+    for (int[] face : faces) {
+      mesh.addFace(base + face[0], base + face[1], base + face[2], base + face[3]);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.bentonian.framework.texture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+import com.bentonian.framework.math.Vec3;
+
+/**
+ * Checks that bakes are memoized under their key until the key is invalidated.
+ */
+public class TextureBakerTest {
+
+  @Test
+  public void invalidateForcesFreshBake() {
+    SolidTexture texture = new SolidTexture(new Vec3(1, 0, 0));
+    BufferedImage red = TextureBaker.bake(texture, texture, 4, 4);
+    assertSame(red, TextureBaker.bake(texture, texture, 4, 4));
+
+    texture.color = new Vec3(0, 0, 1);
+    assertSame(red, TextureBaker.bake(texture, texture, 4, 4));
+
+    TextureBaker.invalidate(texture, 4, 4);
+    BufferedImage blue = TextureBaker.bake(texture, texture, 4, 4);
+    assertNotSame(red, blue);
+    assertEquals(0xFF0000, red.getRGB(1, 1) & 0xFFFFFF);
+    assertEquals(0x0000FF, blue.getRGB(1, 1) & 0xFFFFFF);
+  }
+
+  ////////////////////////////////////////
+
+  private static class SolidTexture extends Texture {
+
+    Vec3 color;
+
+    SolidTexture(Vec3 color) {
+      this.color = color;
+    }
+
+    @Override
+    public Vec3 getColor(IsTextured target, Vec3 pt) {
+      return color;
+    }
+  }
+}